@@ -0,0 +1,80 @@
+package com.pelaghisoftware.benchmarks;
+
+import akka.http.javadsl.model.HttpHeader;
+import akka.http.javadsl.model.headers.RawHeader;
+import com.pelaghisoftware.server.auth.JWTObject;
+import com.pelaghisoftware.server.auth.operations.AuthOperations;
+import io.jsonwebtoken.Claims;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the JWT work done on every authenticated request
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class AuthBenchmark
+{
+    private String jwt;
+    private HttpHeader authorizationHeader;
+    private HttpHeader otherHeader;
+
+    /**
+     * Creates the JWT and headers the benchmarks read
+     */
+    @Setup
+    public void setup()
+    {
+        jwt = AuthOperations.createJWT(UUID.randomUUID().toString(), "PelaghiSoftware", "benchmark", 600000);
+        authorizationHeader = RawHeader.create("Authorization", "Bearer " + jwt);
+        otherHeader = RawHeader.create("Accept", "application/json");
+    }
+
+    /**
+     * Signs a new JWT, as done on every login
+     * @return String. The JWT
+     */
+    @Benchmark
+    public String createJWT()
+    {
+        return AuthOperations.createJWT("id", "PelaghiSoftware", "benchmark", 600000);
+    }
+
+    /**
+     * Verifies and parses a JWT, as done on every authenticated request
+     * @return Claims from the JWT
+     */
+    @Benchmark
+    public Claims decodeJWT()
+    {
+        return AuthOperations.decodeJWT(jwt);
+    }
+
+    /**
+     * Extracts the JWT from an Authorization header
+     * @return Optional with the JWT
+     */
+    @Benchmark
+    public Optional<JWTObject> parseAuthorizationHeader()
+    {
+        return AuthOperations.getAuthorizationHeader.apply(authorizationHeader);
+    }
+
+    /**
+     * Runs the Authorization header parser on another header, which is
+     * what happens for most headers of a request
+     * @return Optional. Always empty
+     */
+    @Benchmark
+    public Optional<JWTObject> parseOtherHeader()
+    {
+        return AuthOperations.getAuthorizationHeader.apply(otherHeader);
+    }
+}
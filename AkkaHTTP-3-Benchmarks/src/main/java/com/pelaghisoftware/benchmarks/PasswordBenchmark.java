@@ -0,0 +1,56 @@
+package com.pelaghisoftware.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks BCrypt at different costs. Logins and new users pay this
+ * once each, so the cost decides how many logins a core can handle.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PasswordBenchmark
+{
+    //BCrypt log rounds. The server uses the default of 10.
+    @Param({"4", "8", "10", "12"})
+    public int cost;
+
+    private BCryptPasswordEncoder encoder;
+    private String hash;
+
+    /**
+     * Creates the encoder and a hash to check against
+     */
+    @Setup
+    public void setup()
+    {
+        encoder = new BCryptPasswordEncoder(cost);
+        hash = encoder.encode("password");
+    }
+
+    /**
+     * Hashes a password, as done when adding or updating a user
+     * @return String. The hash
+     */
+    @Benchmark
+    public String encode()
+    {
+        return encoder.encode("password");
+    }
+
+    /**
+     * Checks a password against a hash, as done on every login
+     * @return boolean. True if the password matches
+     */
+    @Benchmark
+    public boolean matches()
+    {
+        return encoder.matches("password", hash);
+    }
+}
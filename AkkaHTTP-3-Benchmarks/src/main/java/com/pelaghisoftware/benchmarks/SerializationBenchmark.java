@@ -0,0 +1,110 @@
+package com.pelaghisoftware.benchmarks;
+
+import akka.http.javadsl.model.ContentTypes;
+import akka.http.javadsl.model.HttpResponse;
+import akka.http.javadsl.model.StatusCodes;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pelaghisoftware.data.entity.User;
+import com.pelaghisoftware.server.actors.ResponseResolver;
+import com.pelaghisoftware.server.response.messages.UsersMessage;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks turning users into responses and back
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class SerializationBenchmark
+{
+    //Number of users in the list responses, e.g. GET /user?names=...
+    @Param({"1", "100"})
+    public int users;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private User user;
+    private byte[] userJson;
+    private List<User> userList;
+    private UsersMessage usersMessage;
+
+    /**
+     * Creates the users the benchmarks serialize
+     * @throws IOException If the user can't be serialized
+     */
+    @Setup
+    public void setup() throws IOException
+    {
+        user = new User("benchmark", "password");
+        userJson = mapper.writeValueAsBytes(user);
+
+        userList = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        for(int i = 0; i < users; i++)
+        {
+            userList.add(new User("user" + i, "password"));
+            names.add("user" + i);
+        }
+        usersMessage = new UsersMessage(names, userList);
+    }
+
+    /**
+     * Creates the response for GET /user/{name}
+     * @return HttpResponse. The response
+     */
+    @Benchmark
+    public HttpResponse singleUserResponse()
+    {
+        return ResponseResolver.createResponse(StatusCodes.OK, ContentTypes.APPLICATION_JSON, user);
+    }
+
+    /**
+     * Creates the response for GET /user
+     * @return HttpResponse. The response
+     */
+    @Benchmark
+    public HttpResponse allUsersResponse()
+    {
+        return ResponseResolver.createResponse(StatusCodes.OK, ContentTypes.APPLICATION_JSON, userList);
+    }
+
+    /**
+     * Creates the response for GET /user?names=...
+     * @return HttpResponse. The response
+     */
+    @Benchmark
+    public HttpResponse multipleUsersResponse()
+    {
+        return ResponseResolver.createResponse(StatusCodes.OK, ContentTypes.APPLICATION_JSON, usersMessage);
+    }
+
+    /**
+     * Serializes a user and reads it back, as a request body would be
+     * @return User. The deserialized user
+     * @throws IOException If the user can't be serialized
+     */
+    @Benchmark
+    public User userRoundTrip() throws IOException
+    {
+        return mapper.readValue(mapper.writeValueAsBytes(user), User.class);
+    }
+
+    /**
+     * Reads a user from JSON, as done for POST /user/add
+     * @return User. The deserialized user
+     * @throws IOException If the JSON can't be read
+     */
+    @Benchmark
+    public User readUser() throws IOException
+    {
+        return mapper.readValue(userJson, User.class);
+    }
+}
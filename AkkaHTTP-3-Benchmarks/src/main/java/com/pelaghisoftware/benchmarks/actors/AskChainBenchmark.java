@@ -0,0 +1,189 @@
+package com.pelaghisoftware.benchmarks.actors;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.http.javadsl.model.HttpResponse;
+import com.pelaghisoftware.data.actors.SiteUserAccessor;
+import com.pelaghisoftware.data.actors.operations.DBOperations;
+import com.pelaghisoftware.data.breaker.DatabaseBreaker;
+import com.pelaghisoftware.data.coalescing.UserLookups;
+import com.pelaghisoftware.data.deadline.DiscardedWork;
+import com.pelaghisoftware.data.entity.User;
+import com.pelaghisoftware.data.feed.ChangeFeed;
+import com.pelaghisoftware.data.limit.AdaptiveLimiter;
+import com.pelaghisoftware.server.actors.AuthResolver;
+import com.pelaghisoftware.server.actors.ResponseResolver;
+import com.pelaghisoftware.server.auth.JWTObject;
+import com.pelaghisoftware.server.auth.operations.AuthOperations;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import io.jsonwebtoken.JwtException;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static akka.pattern.Patterns.ask;
+
+/**
+ * Measures what the actor messaging of GET /user/{name} costs. The DAO
+ * is a stub, so every variant does the same work (check the JWT, look up
+ * the user, serialize the response) and only differs in how the steps
+ * are put together:
+ *
+ * askChain is what UserRoutes does: an ask to the AuthResolver, a lookup
+ * through UserLookups and the DatabaseBreaker to the SiteUserAccessor,
+ * then an ask to the ResponseResolver.
+ * singleHop does it all in one ask to one actor.
+ * futures chains the steps as CompletableFutures on the same dispatcher.
+ * inline does it all on the calling thread, the floor for the others.
+ *
+ * Run with -prof gc for the bytes allocated per request. The profiler
+ * counts every thread, so the dispatcher's allocations are included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class AskChainBenchmark
+{
+    private static final String USER_NAME = "benchmark";
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    private ActorSystem system;
+    private Executor dispatcher;
+    private StubUserDao userDao;
+
+    private ActorRef authResolver;
+    private ActorRef responseResolver;
+    private ActorRef singleHopActor;
+    private UserLookups userLookups;
+
+    private String jwt;
+    private Optional<JWTObject> jwtObject;
+
+    /**
+     * Starts the actors the way Server does, with the stub DAO behind the
+     * SiteUserAccessor
+     */
+    @Setup
+    public void setup()
+    {
+        Config config = ConfigFactory.load();
+
+        system = ActorSystem.create("ask-chain");
+        dispatcher = system.dispatcher();
+
+        userDao = new StubUserDao();
+        userDao.insert(new User(USER_NAME, "not-a-real-hash"));
+
+        DiscardedWork discardedWork = new DiscardedWork();
+        Config changeFeedConfig = config.getConfig("change-feed");
+        ChangeFeed changeFeed = new ChangeFeed(changeFeedConfig.getInt("history-size"));
+
+        ActorRef userAccessor = system.actorOf(SiteUserAccessor.props(userDao, changeFeed, discardedWork), "UserAccessor");
+
+        DatabaseBreaker databaseBreaker = new DatabaseBreaker(system,
+                                                              config.getConfig("database-breaker"),
+                                                              new AdaptiveLimiter(config.getConfig("database-limiter")));
+        userLookups = new UserLookups(userAccessor, databaseBreaker);
+
+        authResolver = system.actorOf(AuthResolver.props(userLookups, TIMEOUT, discardedWork), "AuthAccessor");
+        responseResolver = system.actorOf(ResponseResolver.props(), "ResponseResolver");
+        singleHopActor = system.actorOf(SingleHopUserActor.props(userDao), "SingleHop");
+
+        jwt = AuthOperations.createJWT(UUID.randomUUID().toString(), "PelaghiSoftware", USER_NAME, 600000);
+        jwtObject = Optional.of(new JWTObject(jwt));
+    }
+
+    /**
+     * Shuts down the actor system
+     * @throws Exception If the system doesn't stop in time
+     */
+    @TearDown
+    public void teardown() throws Exception
+    {
+        system.terminate();
+        system.getWhenTerminated().toCompletableFuture().get(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * GET /user/{name} as UserRoutes does it: three asks
+     * @return HttpResponse. The response
+     */
+    @Benchmark
+    public HttpResponse askChain()
+    {
+        return AuthOperations.authCheck(authResolver,
+                                        responseResolver,
+                                        jwtObject,
+                                        TIMEOUT,
+                                        () -> userLookups.lookup(USER_NAME, TIMEOUT)
+                                            .thenCompose(entity -> ask(responseResolver, new DBOperations.GetEntity(entity), TIMEOUT))
+                                            .thenApply(HttpResponse.class::cast))
+            .toCompletableFuture()
+            .join();
+    }
+
+    /**
+     * GET /user/{name} as one ask to one actor
+     * @return HttpResponse. The response
+     */
+    @Benchmark
+    public HttpResponse singleHop()
+    {
+        return ask(singleHopActor, new SingleHopUserActor.GetUser(jwt, USER_NAME), TIMEOUT)
+            .thenApply(HttpResponse.class::cast)
+            .toCompletableFuture()
+            .join();
+    }
+
+    /**
+     * GET /user/{name} as futures on the actor system's dispatcher, one
+     * task per step
+     * @return HttpResponse. The response
+     */
+    @Benchmark
+    public HttpResponse futures()
+    {
+        return CompletableFuture.supplyAsync(() -> isValid(jwt), dispatcher)
+            .thenApplyAsync(valid -> valid ? userDao.get(USER_NAME) : Optional.<User>empty(), dispatcher)
+            .thenApplyAsync(SingleHopUserActor::toResponse, dispatcher)
+            .join();
+    }
+
+    /**
+     * GET /user/{name} on the calling thread
+     * @return HttpResponse. The response
+     */
+    @Benchmark
+    public HttpResponse inline()
+    {
+        return SingleHopUserActor.respond(userDao, jwt, USER_NAME);
+    }
+
+    /**
+     * Checks a JWT the way the AuthResolver does
+     * @param jwt The JWT
+     * @return boolean. True if the JWT is valid
+     */
+    public static boolean isValid(String jwt)
+    {
+        try
+        {
+            AuthOperations.decodeJWT(jwt);
+            return true;
+        }
+        catch (JwtException | IllegalArgumentException e)
+        {
+            return false;
+        }
+    }
+}
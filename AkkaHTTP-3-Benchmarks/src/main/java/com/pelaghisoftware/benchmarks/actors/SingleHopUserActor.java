@@ -0,0 +1,105 @@
+package com.pelaghisoftware.benchmarks.actors;
+
+import akka.actor.AbstractActor;
+import akka.actor.Props;
+import akka.http.javadsl.model.ContentTypes;
+import akka.http.javadsl.model.HttpResponse;
+import akka.http.javadsl.model.StatusCodes;
+import com.pelaghisoftware.data.dao.Dao;
+import com.pelaghisoftware.data.entity.User;
+import com.pelaghisoftware.server.actors.ResponseResolver;
+import com.pelaghisoftware.server.response.messages.ErrorMessage;
+
+import java.util.Optional;
+
+/**
+ * Actor that does the whole of GET /user/{name} in one message: checks
+ * the JWT, looks up the user and creates the HttpResponse. Used to
+ * compare a single ask against the three the server makes.
+ */
+public class SingleHopUserActor extends AbstractActor
+{
+    private final Dao<User> userDao;
+
+    /**
+     * Creates props for a SingleHopUserActor
+     * @param userDao DAO to look users up with
+     * @return Props. The props to initialize the actor in the actor system.
+     */
+    public static Props props(Dao<User> userDao)
+    {
+        return Props.create(SingleHopUserActor.class, () -> new SingleHopUserActor(userDao));
+    }
+
+    /**
+     * Constructor
+     * @param userDao DAO to look users up with
+     */
+    public SingleHopUserActor(Dao<User> userDao)
+    {
+        this.userDao = userDao;
+    }
+
+    /**
+     * Runs when receiving a message
+     * @return
+     */
+    @Override
+    public Receive createReceive()
+    {
+        return receiveBuilder()
+                .match(GetUser.class, value ->
+                    sender().tell(respond(userDao, value.jwt, value.userName), self())
+                )
+                .build();
+    }
+
+    /**
+     * Does the work of GET /user/{name} without any messaging. Shared by
+     * every variant in AskChainBenchmark so they only differ in how the
+     * steps are put together.
+     * @param userDao DAO to look users up with
+     * @param jwt JWT of the request
+     * @param userName User to look up
+     * @return HttpResponse. The user, 404 or 401
+     */
+    public static HttpResponse respond(Dao<User> userDao, String jwt, String userName)
+    {
+        if(!AskChainBenchmark.isValid(jwt))
+        {
+            return ResponseResolver.createResponse(StatusCodes.UNAUTHORIZED, ContentTypes.APPLICATION_JSON, ErrorMessage.unauthorized());
+        }
+
+        return toResponse(userDao.get(userName));
+    }
+
+    /**
+     * Creates the response for a looked up user, as the ResponseResolver does
+     * @param user The user, or empty if not found
+     * @return HttpResponse. The user or 404
+     */
+    public static HttpResponse toResponse(Optional<User> user)
+    {
+        if(user.isPresent())
+        {
+            return ResponseResolver.createResponse(StatusCodes.OK, ContentTypes.APPLICATION_JSON, user.get());
+        }
+
+        return ResponseResolver.createResponse(StatusCodes.NOT_FOUND, ContentTypes.APPLICATION_JSON, ErrorMessage.resourceNotFoundMessage());
+    }
+
+    /**
+     * Message asking for a user with the JWT of the request
+     */
+    public static class GetUser
+    {
+        public final String jwt;
+        public final String userName;
+
+        public GetUser(String jwt, String userName)
+        {
+            this.jwt = jwt;
+            this.userName = userName;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.pelaghisoftware.benchmarks.actors;
+
+import com.pelaghisoftware.data.dao.Dao;
+import com.pelaghisoftware.data.entity.User;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory DAO so the actors can be benchmarked without a database.
+ * Every call returns straight away, so timeouts are never used.
+ */
+public class StubUserDao implements Dao<User>
+{
+    private final Map<String, User> users = new ConcurrentHashMap<>();
+
+    /**
+     * Gets a user
+     * @param id The userName
+     * @param timeout Not used
+     * @return Optional. Empty if there is no such user
+     */
+    @Override
+    public Optional<User> get(String id, Duration timeout)
+    {
+        return Optional.ofNullable(users.get(id));
+    }
+
+    /**
+     * Gets every user
+     * @param timeout Not used
+     * @return List of all users
+     */
+    @Override
+    public List<User> getAll(Duration timeout)
+    {
+        return new ArrayList<>(users.values());
+    }
+
+    /**
+     * Gets several users
+     * @param ids The userNames
+     * @param timeout Not used
+     * @return List of the users found
+     */
+    @Override
+    public List<User> getMultiple(Collection<String> ids, Duration timeout)
+    {
+        List<User> found = new ArrayList<>();
+        for(String id : ids)
+        {
+            Optional.ofNullable(users.get(id)).ifPresent(found::add);
+        }
+
+        return found;
+    }
+
+    /**
+     * Adds a user
+     * @param user The user
+     * @param timeout Not used
+     * @return boolean. False if the user already exists
+     */
+    @Override
+    public boolean insert(User user, Duration timeout)
+    {
+        return users.putIfAbsent(user.getUserName(), user) == null;
+    }
+
+    /**
+     * Replaces a user
+     * @param user The user
+     * @param timeout Not used
+     * @return boolean. False if the user doesn't exist
+     */
+    @Override
+    public boolean update(User user, Duration timeout)
+    {
+        return users.replace(user.getUserName(), user) != null;
+    }
+
+    /**
+     * Removes a user
+     * @param user The user
+     * @param timeout Not used
+     * @return boolean. False if the user doesn't exist
+     */
+    @Override
+    public boolean delete(User user, Duration timeout)
+    {
+        return users.remove(user.getUserName()) != null;
+    }
+
+    /**
+     * Gets the timeout ceiling. Only passed back to the methods above,
+     * which don't use it.
+     * @return Duration. The default database.query-timeout-ceiling
+     */
+    @Override
+    public Duration timeoutCeiling()
+    {
+        return Duration.ofSeconds(5);
+    }
+}
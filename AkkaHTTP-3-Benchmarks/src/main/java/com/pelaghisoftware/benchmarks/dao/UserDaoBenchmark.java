@@ -0,0 +1,166 @@
+package com.pelaghisoftware.benchmarks.dao;
+
+import com.pelaghisoftware.data.DatabaseCommonOps;
+import com.pelaghisoftware.data.dao.impl.UserDao;
+import com.pelaghisoftware.data.entity.User;
+import org.hibernate.SessionFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Benchmarks UserDao against the in-memory H2 database used by
+ * UserDaoTest, with the c3p0 pool set to poolSize connections. Run it
+ * with different thread counts to see how it scales, e.g. through
+ * UserDaoSweep.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserDaoBenchmark
+{
+    //c3p0 min_size and max_size
+    @Param({"1", "2", "4", "8", "16", "32"})
+    public int poolSize;
+
+    //Users in the table, which decides the cost of getAll
+    @Param({"1000"})
+    public int users;
+
+    private SessionFactory sessionFactory;
+    private UserDao userDao;
+
+    //Names for inserted users, unique across threads
+    private final AtomicLong inserted = new AtomicLong();
+
+    /**
+     * Creates the pool and fills the table
+     */
+    @Setup
+    public void setup()
+    {
+        Map<String, Object> overrides = new HashMap<>();
+        overrides.put("hibernate.c3p0.min_size", Integer.toString(poolSize));
+        overrides.put("hibernate.c3p0.max_size", Integer.toString(poolSize));
+
+        sessionFactory = DatabaseCommonOps.createSessionFactory("load-hibernate.cfg.xml", overrides).get();
+        userDao = new UserDao(sessionFactory);
+
+        for(int i = 0; i < users; i++)
+        {
+            userDao.insert(new User(userName(i), "password"));
+        }
+    }
+
+    /**
+     * Closes the pool. The table is created again by the next setup.
+     */
+    @TearDown
+    public void teardown()
+    {
+        sessionFactory.close();
+    }
+
+    /**
+     * Gets a random user
+     * @return Optional with the user
+     */
+    @Benchmark
+    public Optional<User> get()
+    {
+        return userDao.get(randomUserName());
+    }
+
+    /**
+     * Gets every user
+     * @return List of all users
+     */
+    @Benchmark
+    public List<User> getAll()
+    {
+        return userDao.getAll();
+    }
+
+    /**
+     * Inserts a new user
+     * @return boolean. True if it was inserted
+     */
+    @Benchmark
+    public boolean insert()
+    {
+        return userDao.insert(new User("insert" + inserted.incrementAndGet(), "password"));
+    }
+
+    /**
+     * Updates a random user
+     * @return boolean. True if it was updated
+     */
+    @Benchmark
+    public boolean update()
+    {
+        return userDao.update(new User(randomUserName(), "password"));
+    }
+
+    /**
+     * Deletes a user added just before the call, outside the measured time
+     * @param toDelete Holds the user to delete
+     * @return boolean. True if it was deleted
+     */
+    @Benchmark
+    public boolean delete(DeleteTarget toDelete)
+    {
+        return userDao.delete(toDelete.user);
+    }
+
+    /**
+     * A user inserted before each call to delete. Setup per invocation
+     * adds some timing noise, but a database delete is slow enough for it
+     * not to matter.
+     */
+    @State(Scope.Thread)
+    public static class DeleteTarget
+    {
+        private static final AtomicLong created = new AtomicLong();
+
+        User user;
+
+        /**
+         * Inserts the user the next delete removes
+         * @param benchmark The benchmark state with the DAO
+         */
+        @Setup(Level.Invocation)
+        public void insertUser(UserDaoBenchmark benchmark)
+        {
+            user = new User("delete" + created.incrementAndGet(), "password");
+            benchmark.userDao.insert(user);
+        }
+    }
+
+    /**
+     * Gets the name of a random seeded user
+     * @return String. The username
+     */
+    private String randomUserName()
+    {
+        return userName(ThreadLocalRandom.current().nextInt(users));
+    }
+
+    /**
+     * Gets the name of a seeded user
+     * @param index Index of the user
+     * @return String. The username
+     */
+    private static String userName(int index)
+    {
+        return "user" + index;
+    }
+}
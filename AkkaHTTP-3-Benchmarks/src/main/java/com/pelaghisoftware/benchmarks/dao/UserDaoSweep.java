@@ -0,0 +1,243 @@
+package com.pelaghisoftware.benchmarks.dao;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Runs UserDaoBenchmark for every combination of operation, thread count
+ * and pool size, then prints a throughput and latency matrix and the
+ * smallest pool size that gets close to the best throughput for each
+ * thread count.
+ *
+ * Settings are read from system properties:
+ * dao.threads (default 1, 2, 4, ... up to twice the core count),
+ * dao.pools (default 1,2,4,8,16,32),
+ * dao.operations (default get,getAll,insert,update,delete) and
+ * dao.report (default target/dao-sweep.json).
+ */
+public class UserDaoSweep
+{
+    //A pool within this fraction of the best throughput is good enough
+    private static final double GOOD_ENOUGH = 0.95;
+
+    /**
+     * Main Method
+     * @param args Not used
+     * @throws Exception If a benchmark fails or the report can't be written
+     */
+    public static void main(String[] args) throws Exception
+    {
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        List<Integer> threads = intList(System.getProperty("dao.threads", defaultThreads(cores)));
+        List<Integer> pools = intList(System.getProperty("dao.pools", "1,2,4,8,16,32"));
+        List<String> operations = Arrays.asList(System.getProperty("dao.operations", "get,getAll,insert,update,delete").split(","));
+
+        SweepReport report = new SweepReport();
+        report.availableProcessors = cores;
+
+        for(int threadCount : threads)
+        {
+            OptionsBuilder options = new OptionsBuilder();
+            options.include(UserDaoBenchmark.class.getName() + "\\.(" + String.join("|", operations) + ")$")
+                .threads(threadCount)
+                .param("poolSize", pools.stream().map(String::valueOf).toArray(String[]::new));
+
+            for(RunResult result : new Runner(options.build()).run())
+            {
+                Cell cell = new Cell();
+                cell.operation = operationName(result.getParams().getBenchmark());
+                cell.poolSize = Integer.parseInt(result.getParams().getParam("poolSize"));
+                cell.threads = threadCount;
+                cell.opsPerSecond = result.getPrimaryResult().getScore();
+                //Every thread always has one operation in progress, so by Little's law
+                cell.meanLatencyMillis = threadCount / cell.opsPerSecond * 1000;
+
+                report.results.add(cell);
+            }
+        }
+
+        report.recommendations = recommend(report.results);
+
+        printMatrix(report, operations, threads, pools);
+
+        File reportFile = new File(System.getProperty("dao.report", "target/dao-sweep.json"));
+        if(reportFile.getParentFile() != null)
+        {
+            reportFile.getParentFile().mkdirs();
+        }
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(reportFile, report);
+        System.out.println("Report written to " + reportFile.getAbsolutePath());
+    }
+
+    /**
+     * Finds the smallest pool within GOOD_ENOUGH of the best throughput for
+     * each operation and thread count
+     * @param results Every benchmark result
+     * @return List of recommendations
+     */
+    private static List<Recommendation> recommend(List<Cell> results)
+    {
+        Map<String, List<Cell>> byRun = results.stream()
+            .collect(Collectors.groupingBy(cell -> cell.operation + "/" + cell.threads, TreeMap::new, Collectors.toList()));
+
+        List<Recommendation> recommendations = new ArrayList<>();
+        byRun.values().forEach(cells ->
+        {
+            double best = cells.stream().mapToDouble(cell -> cell.opsPerSecond).max().orElse(0);
+
+            cells.stream()
+                .filter(cell -> cell.opsPerSecond >= best * GOOD_ENOUGH)
+                .min(Comparator.comparingInt(cell -> cell.poolSize))
+                .ifPresent(cell ->
+                {
+                    Recommendation recommendation = new Recommendation();
+                    recommendation.operation = cell.operation;
+                    recommendation.threads = cell.threads;
+                    recommendation.poolSize = cell.poolSize;
+                    recommendation.opsPerSecond = cell.opsPerSecond;
+                    recommendations.add(recommendation);
+                });
+        });
+
+        return recommendations;
+    }
+
+    /**
+     * Prints a table per operation with a row per pool size and a column
+     * per thread count, then the recommended pool size
+     * @param report The results
+     * @param operations Operations that were run
+     * @param threads Thread counts that were run
+     * @param pools Pool sizes that were run
+     */
+    private static void printMatrix(SweepReport report, List<String> operations, List<Integer> threads, List<Integer> pools)
+    {
+        StringBuilder text = new StringBuilder();
+
+        for(String operation : operations)
+        {
+            text.append('\n').append(operation).append(" - ops/s (mean latency ms)\n");
+            text.append(String.format("%6s", "pool"));
+            threads.forEach(threadCount -> text.append(String.format("%22s", threadCount + " threads")));
+            text.append('\n');
+
+            for(int pool : pools)
+            {
+                text.append(String.format("%6d", pool));
+                for(int threadCount : threads)
+                {
+                    Optional<Cell> cell = report.results.stream()
+                        .filter(value -> value.operation.equals(operation) && value.poolSize == pool && value.threads == threadCount)
+                        .findFirst();
+
+                    text.append(cell.map(value -> String.format("%22s", String.format("%.0f (%.3f)", value.opsPerSecond, value.meanLatencyMillis)))
+                        .orElse(String.format("%22s", "-")));
+                }
+                text.append('\n');
+            }
+
+            text.append(String.format("%6s", "best"));
+            for(int threadCount : threads)
+            {
+                String pool = report.recommendations.stream()
+                    .filter(value -> value.operation.equals(operation) && value.threads == threadCount)
+                    .map(value -> "pool " + value.poolSize)
+                    .findFirst()
+                    .orElse("-");
+                text.append(String.format("%22s", pool));
+            }
+            text.append('\n');
+        }
+
+        //The server runs at most about one database operation per core at a time
+        int cores = report.availableProcessors;
+        report.recommendations.stream()
+            .filter(value -> value.threads <= cores)
+            .mapToInt(value -> value.poolSize)
+            .max()
+            .ifPresent(pool -> text.append(String.format("%nWith %d cores set hibernate.c3p0.max_size to at least %d.%n", cores, pool)));
+
+        System.out.println(text);
+    }
+
+    /**
+     * Gets the default thread counts: powers of two up to twice the core count
+     * @param cores Number of cores
+     * @return String. Comma separated thread counts
+     */
+    private static String defaultThreads(int cores)
+    {
+        List<String> threads = new ArrayList<>();
+        for(int count = 1; count <= cores * 2; count *= 2)
+        {
+            threads.add(String.valueOf(count));
+        }
+
+        return String.join(",", threads);
+    }
+
+    /**
+     * Parses a comma separated list of ints
+     * @param value e.g. "1,2,4"
+     * @return List of the ints
+     */
+    private static List<Integer> intList(String value)
+    {
+        return Arrays.stream(value.split(","))
+            .map(String::trim)
+            .map(Integer::parseInt)
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Gets the operation from a benchmark name
+     * @param benchmark e.g. "com.pelaghisoftware.benchmarks.dao.UserDaoBenchmark.get"
+     * @return String. e.g. "get"
+     */
+    private static String operationName(String benchmark)
+    {
+        return benchmark.substring(benchmark.lastIndexOf('.') + 1);
+    }
+
+    /**
+     * Report of a sweep. Set up to use Jackson to marshall data to JSON.
+     */
+    public static class SweepReport
+    {
+        public int availableProcessors;
+        public List<Cell> results = new ArrayList<>();
+        public List<Recommendation> recommendations = new ArrayList<>();
+    }
+
+    /**
+     * Result for one operation, pool size and thread count
+     */
+    public static class Cell
+    {
+        public String operation;
+        public int poolSize;
+        public int threads;
+        public double opsPerSecond;
+        public double meanLatencyMillis;
+    }
+
+    /**
+     * Smallest pool size close to the best throughput for an operation
+     * and thread count
+     */
+    public static class Recommendation
+    {
+        public String operation;
+        public int threads;
+        public int poolSize;
+        public double opsPerSecond;
+    }
+}
@@ -0,0 +1,59 @@
+package com.pelaghisoftware.benchmarks.load;
+
+import akka.actor.ActorSystem;
+import com.pelaghisoftware.data.DatabaseCommonOps;
+import com.pelaghisoftware.server.Server;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.hibernate.SessionFactory;
+
+import java.util.Collections;
+
+/**
+ * Runs one node of a cluster of servers on the loopback interface. Each
+ * node runs in its own JVM, started by ClusterScaleHarness, and they all
+ * share the database the harness serves over TCP.
+ */
+public class ClusterNode
+{
+    /**
+     * Main Method
+     * @param args The HTTP port, the cluster port, the cluster port of the
+     *             seed node and the JDBC URL of the shared database
+     * @throws Exception If the server can't be started
+     */
+    public static void main(String[] args) throws Exception
+    {
+        if(args.length != 4)
+        {
+            System.err.println("Usage: ClusterNode <http-port> <cluster-port> <seed-port> <database-url>");
+            System.exit(1);
+        }
+
+        int httpPort = Integer.parseInt(args[0]);
+        int clusterPort = Integer.parseInt(args[1]);
+        int seedPort = Integer.parseInt(args[2]);
+        String databaseUrl = args[3];
+
+        //Plain HTTP/1.1, and every request comes from one subject, so the per subject rate limit is turned off
+        Config config = ConfigFactory.parseString(
+                "server.host = \"127.0.0.1\"\n" +
+                "server.port = " + httpPort + "\n" +
+                "server.tls.enabled = off\n" +
+                "server.http2.enabled = off\n" +
+                "user-rate-limit.enabled = off\n" +
+                "cluster.enabled = on\n" +
+                "akka.actor.provider = cluster\n" +
+                "akka.remote.netty.tcp.hostname = \"127.0.0.1\"\n" +
+                "akka.remote.netty.tcp.port = " + clusterPort + "\n" +
+                "akka.cluster.seed-nodes = [\"akka.tcp://routes@127.0.0.1:" + seedPort + "\"]")
+            .withFallback(ConfigFactory.load());
+
+        SessionFactory sessionFactory = DatabaseCommonOps.createSessionFactory(
+                config.getString("cluster-test.hibernate-config"),
+                Collections.singletonMap("hibernate.connection.url", databaseUrl)).get();
+
+        ActorSystem system = ActorSystem.create("routes", config);
+        Server.start(system, sessionFactory);
+    }
+}
@@ -0,0 +1,331 @@
+package com.pelaghisoftware.benchmarks.load;
+
+import akka.actor.ActorSystem;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.pelaghisoftware.data.DatabaseCommonOps;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.hibernate.SessionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Drives a cluster of 1, 2, 4, ... nodes with the LoadHarness scenarios
+ * and reports how throughput and latency change with the node count. Each
+ * node is a ClusterNode in its own JVM on the loopback interface, and the
+ * nodes share an in-memory H2 database this process serves over TCP.
+ *
+ * The target rates are multiplied by the number of nodes, so a cluster
+ * that scales perfectly reaches them all with the same latency.
+ */
+public class ClusterScaleHarness
+{
+    private final static Logger logger =
+            LoggerFactory.getLogger(ClusterScaleHarness.class);
+
+    /**
+     * Main Method
+     * @param args Not used. Settings are read from the "cluster-test" config.
+     * @throws Exception If a cluster can't be started or the report written
+     */
+    public static void main(String[] args) throws Exception
+    {
+        Config clusterConfig = ConfigFactory.load().getConfig("cluster-test");
+        int users = clusterConfig.getInt("users");
+        String password = clusterConfig.getString("password");
+        Duration warmup = clusterConfig.getDuration("warmup");
+        Duration duration = clusterConfig.getDuration("duration");
+        Duration requestTimeout = clusterConfig.getDuration("request-timeout");
+
+        //The database every node of every cluster uses, each cluster its own
+        int databasePort = LoadHarness.freePort();
+        org.h2.tools.Server database = org.h2.tools.Server
+            .createTcpServer("-tcpPort", Integer.toString(databasePort), "-ifNotExists")
+            .start();
+
+        ActorSystem clientSystem = ActorSystem.create("load-client");
+
+        ClusterScaleReport report = new ClusterScaleReport();
+        report.startedAt = Instant.now().toString();
+        report.users = users;
+        report.warmupSeconds = warmup.getSeconds();
+        report.durationSeconds = duration.getSeconds();
+
+        try
+        {
+            for(int nodes : clusterConfig.getIntList("nodes"))
+            {
+                String databaseUrl = "jdbc:h2:tcp://127.0.0.1:" + databasePort + "/mem:cluster-" + nodes + ";DB_CLOSE_DELAY=-1";
+
+                //Creates the table and keeps the database open while the cluster runs
+                Map<String, Object> overrides = new HashMap<>();
+                overrides.put("hibernate.connection.url", databaseUrl);
+                overrides.put("hibernate.hbm2ddl.auto", "create");
+                SessionFactory sessionFactory = DatabaseCommonOps
+                    .createSessionFactory(clusterConfig.getString("hibernate-config"), overrides).get();
+                LoadHarness.seedUsers(sessionFactory, users, password);
+
+                List<Process> processes = new ArrayList<>();
+                try
+                {
+                    List<String> baseUris = startCluster(clusterConfig, nodes, databaseUrl, processes);
+
+                    report.runs.add(run(clientSystem, clusterConfig, baseUris, users, password, requestTimeout, warmup, duration));
+                }
+                finally
+                {
+                    stopCluster(processes);
+                    sessionFactory.close();
+                }
+            }
+        }
+        finally
+        {
+            clientSystem.terminate();
+            database.stop();
+        }
+
+        printTable(report);
+
+        File reportFile = new File(clusterConfig.getString("report-file"));
+        if(reportFile.getParentFile() != null)
+        {
+            reportFile.getParentFile().mkdirs();
+        }
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(reportFile, report);
+        logger.info("Report written to {}", reportFile.getAbsolutePath());
+    }
+
+    /**
+     * Starts the nodes of a cluster, each in its own JVM, and waits for
+     * them to join and take logins
+     * @param clusterConfig The "cluster-test" config
+     * @param nodes Number of nodes
+     * @param databaseUrl JDBC URL of the database the nodes share
+     * @param processes Where the started JVMs are added, so they can be
+     *                  stopped even if starting fails
+     * @return List of the nodes' HTTP URIs
+     * @throws Exception If a node doesn't become ready in time
+     */
+    private static List<String> startCluster(Config clusterConfig,
+                                             int nodes,
+                                             String databaseUrl,
+                                             List<Process> processes) throws Exception
+    {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        File logDirectory = new File(clusterConfig.getString("log-directory"));
+        logDirectory.mkdirs();
+
+        //The first node is the seed the others join
+        int seedPort = LoadHarness.freePort();
+
+        List<String> baseUris = new ArrayList<>();
+        for(int node = 0; node < nodes; node++)
+        {
+            int httpPort = LoadHarness.freePort();
+            int clusterPort = node == 0 ? seedPort : LoadHarness.freePort();
+
+            List<String> command = new ArrayList<>();
+            command.add(java);
+            command.addAll(clusterConfig.getStringList("jvm-options"));
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(ClusterNode.class.getName());
+            command.add(Integer.toString(httpPort));
+            command.add(Integer.toString(clusterPort));
+            command.add(Integer.toString(seedPort));
+            command.add(databaseUrl);
+
+            File log = new File(logDirectory, "cluster-" + nodes + "-node-" + node + ".log");
+            processes.add(new ProcessBuilder(command)
+                              .redirectErrorStream(true)
+                              .redirectOutput(log)
+                              .start());
+
+            baseUris.add("http://127.0.0.1:" + httpPort);
+        }
+        logger.info("Started {} nodes, waiting for them to join", nodes);
+
+        long readyBy = System.nanoTime() + clusterConfig.getDuration("startup-timeout").toNanos();
+        for(String baseUri : baseUris)
+        {
+            waitUntilReady(baseUri, clusterConfig, readyBy);
+        }
+
+        return baseUris;
+    }
+
+    /**
+     * Waits until a node answers a login. A login looks the user up
+     * through the cluster, so it only works once the node has joined.
+     * @param baseUri URI of the node
+     * @param clusterConfig The "cluster-test" config
+     * @param readyBy System.nanoTime by which the node must be ready
+     * @throws Exception If the node isn't ready in time
+     */
+    private static void waitUntilReady(String baseUri, Config clusterConfig, long readyBy) throws Exception
+    {
+        ActorSystem probeSystem = ActorSystem.create("cluster-probe");
+        LoadHarness probe = new LoadHarness(probeSystem, baseUri, Duration.ofSeconds(5));
+
+        try
+        {
+            while(true)
+            {
+                try
+                {
+                    probe.login(LoadHarness.userName(0), clusterConfig.getString("password"));
+                    return;
+                }
+                catch (Exception e)
+                {
+                    if(System.nanoTime() > readyBy)
+                    {
+                        throw new IllegalStateException(baseUri + " didn't start in time. See the node logs.", e);
+                    }
+                    Thread.sleep(500);
+                }
+            }
+        }
+        finally
+        {
+            probeSystem.terminate();
+        }
+    }
+
+    /**
+     * Drives each scenario against the whole cluster
+     * @param clientSystem Actor system the HTTP client runs in
+     * @param clusterConfig The "cluster-test" config
+     * @param baseUris HTTP URIs of the nodes
+     * @param users Number of seeded users
+     * @param password Password of every seeded user
+     * @param requestTimeout Requests that take longer count as failed
+     * @param warmup How long each scenario is driven before it is measured
+     * @param duration How long each scenario is measured
+     * @return NodeCountResult. The results
+     * @throws Exception If the login fails
+     */
+    private static NodeCountResult run(ActorSystem clientSystem,
+                                       Config clusterConfig,
+                                       List<String> baseUris,
+                                       int users,
+                                       String password,
+                                       Duration requestTimeout,
+                                       Duration warmup,
+                                       Duration duration) throws Exception
+    {
+        int nodes = baseUris.size();
+        LoadHarness harness = new LoadHarness(clientSystem, baseUris, requestTimeout);
+        String jwt = harness.login(LoadHarness.userName(0), password);
+
+        //Each node gets the configured rates
+        Config rates = clusterConfig.getConfig("rates");
+        Map<String, Object> scaled = new HashMap<>();
+        rates.entrySet().forEach(rate -> scaled.put(rate.getKey(), rates.getDouble(rate.getKey()) * nodes));
+
+        NodeCountResult result = new NodeCountResult();
+        result.nodes = nodes;
+
+        for(Scenario scenario : harness.scenarios(ConfigFactory.parseMap(scaled), users, password, jwt))
+        {
+            //A rate of 0 leaves the scenario out
+            if(scenario.rate <= 0)
+            {
+                continue;
+            }
+
+            logger.info("Driving {} on {} nodes at {} requests per second", scenario.name, nodes, scenario.rate);
+
+            //Sequence numbers carry on after the warmup so added users stay unique
+            long warmupRequests = LoadHarness.requestCount(scenario, warmup);
+            harness.drive(scenario, warmup, 0);
+            result.scenarios.add(harness.drive(scenario, duration, warmupRequests));
+        }
+
+        return result;
+    }
+
+    /**
+     * Stops the nodes of a cluster
+     * @param processes JVMs of the nodes
+     * @throws InterruptedException If interrupted while waiting for them to exit
+     */
+    private static void stopCluster(List<Process> processes) throws InterruptedException
+    {
+        processes.forEach(Process::destroy);
+
+        for(Process process : processes)
+        {
+            if(!process.waitFor(30, TimeUnit.SECONDS))
+            {
+                process.destroyForcibly();
+            }
+        }
+    }
+
+    /**
+     * Prints a table per scenario with a row per node count
+     * @param report The results
+     */
+    private static void printTable(ClusterScaleReport report)
+    {
+        StringBuilder text = new StringBuilder();
+
+        Map<String, List<String>> rows = new LinkedHashMap<>();
+        for(NodeCountResult run : report.runs)
+        {
+            for(ScenarioResult scenario : run.scenarios)
+            {
+                rows.computeIfAbsent(scenario.name, name -> new ArrayList<>())
+                    .add(String.format("%6d%14.0f%14.0f%12.1f%10.2f%%",
+                                       run.nodes, scenario.targetRate, scenario.throughput, scenario.p99Millis, scenario.errorRate * 100));
+            }
+        }
+
+        rows.forEach((name, lines) ->
+        {
+            text.append('\n').append(name).append('\n');
+            text.append(String.format("%6s%14s%14s%12s%11s%n", "nodes", "target/s", "throughput/s", "p99 ms", "errors"));
+            text.append(lines.stream().collect(Collectors.joining("\n"))).append('\n');
+        });
+
+        System.out.println(text);
+    }
+
+    /**
+     * Report of a cluster scaling run. Set up to use Jackson to marshall
+     * data to JSON.
+     */
+    public static class ClusterScaleReport
+    {
+        public String startedAt;
+        public int availableProcessors = Runtime.getRuntime().availableProcessors();
+        public String javaVersion = System.getProperty("java.version");
+        public int users;
+        public long warmupSeconds;
+        public long durationSeconds;
+        public List<NodeCountResult> runs = new ArrayList<>();
+    }
+
+    /**
+     * Results of driving a cluster of one size
+     */
+    public static class NodeCountResult
+    {
+        public int nodes;
+        public List<ScenarioResult> scenarios = new ArrayList<>();
+    }
+}
@@ -0,0 +1,106 @@
+package com.pelaghisoftware.benchmarks.load;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records the latency and outcome of every request of a scenario. Every
+ * latency is kept, so percentiles are exact.
+ */
+public class LatencyRecorder
+{
+    private final long[] latencies;
+    private final AtomicInteger recorded = new AtomicInteger();
+
+    private final Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+    private final LongAdder errors = new LongAdder();
+
+    /**
+     * Constructor
+     * @param requests Number of requests that will be recorded
+     */
+    public LatencyRecorder(int requests)
+    {
+        this.latencies = new long[requests];
+    }
+
+    /**
+     * Records a finished request
+     * @param latencyNanos Time from when the request was due to be sent
+     *                     until its response was read
+     * @param outcome Status code of the response, or "failed"
+     * @param error True if the request failed or got a non 2xx status
+     */
+    public void record(long latencyNanos, String outcome, boolean error)
+    {
+        latencies[recorded.getAndIncrement()] = latencyNanos;
+        outcomes.computeIfAbsent(outcome, key -> new LongAdder()).increment();
+
+        if(error)
+        {
+            errors.increment();
+        }
+    }
+
+    /**
+     * Gets the number of finished requests
+     * @return int. Recorded requests
+     */
+    public int recorded()
+    {
+        return recorded.get();
+    }
+
+    /**
+     * Summarizes the recorded requests
+     * @param name Name of the scenario
+     * @param targetRate Requests per second the scenario was driven at
+     * @param elapsedNanos Time from the first request being due to the last response
+     * @return ScenarioResult. Throughput, latency percentiles and errors
+     */
+    public ScenarioResult summarize(String name, double targetRate, long elapsedNanos)
+    {
+        int count = recorded.get();
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+
+        ScenarioResult result = new ScenarioResult();
+        result.name = name;
+        result.targetRate = targetRate;
+        result.requests = count;
+        result.throughput = count / (elapsedNanos / 1e9);
+        result.errors = errors.sum();
+        result.errorRate = count == 0 ? 0 : (double) result.errors / count;
+        result.p50Millis = percentile(sorted, 0.5);
+        result.p99Millis = percentile(sorted, 0.99);
+        result.p999Millis = percentile(sorted, 0.999);
+        result.maxMillis = count == 0 ? 0 : sorted[count - 1] / 1e6;
+
+        result.outcomes = new TreeMap<>();
+        outcomes.forEach((outcome, adder) -> result.outcomes.put(outcome, adder.sum()));
+
+        return result;
+    }
+
+    /**
+     * Gets a percentile of sorted latencies
+     * @param sorted Latencies in nanoseconds, sorted
+     * @param quantile The percentile, between 0 and 1
+     * @return double. The latency in milliseconds
+     */
+    private static double percentile(long[] sorted, double quantile)
+    {
+        if(sorted.length == 0)
+        {
+            return 0;
+        }
+
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+}
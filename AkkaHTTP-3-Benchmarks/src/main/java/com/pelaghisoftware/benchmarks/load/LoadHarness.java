@@ -0,0 +1,361 @@
+package com.pelaghisoftware.benchmarks.load;
+
+import akka.actor.ActorSystem;
+import akka.http.javadsl.Http;
+import akka.http.javadsl.model.*;
+import akka.http.javadsl.model.headers.Authorization;
+import akka.stream.ActorMaterializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.pelaghisoftware.data.DatabaseCommonOps;
+import com.pelaghisoftware.data.dao.impl.UserDao;
+import com.pelaghisoftware.data.entity.User;
+import com.pelaghisoftware.server.Server;
+import com.pelaghisoftware.server.auth.JWTObject;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.hibernate.SessionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs the server in process against an in-memory database and drives
+ * each endpoint at a fixed arrival rate, then reports throughput, latency
+ * percentiles and errors as JSON.
+ *
+ * The load is an open model: requests are sent on a fixed schedule no
+ * matter how many are still waiting for a response, and latency is
+ * measured from when a request was due rather than when it was sent. A
+ * slow server therefore shows up as high latency instead of as fewer
+ * requests (coordinated omission).
+ *
+ * Given several servers, e.g. the nodes of a cluster, the requests are
+ * spread over them in turn.
+ */
+public class LoadHarness
+{
+    private final static Logger logger =
+            LoggerFactory.getLogger(LoadHarness.class);
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final Http http;
+    private final ActorMaterializer materializer;
+    private final List<String> baseUris;
+    private final Duration requestTimeout;
+
+    /**
+     * Constructor
+     * @param client Actor system the HTTP client runs in
+     * @param baseUri URI of the server, e.g. http://127.0.0.1:8099
+     * @param requestTimeout Requests that take longer count as failed
+     */
+    public LoadHarness(ActorSystem client, String baseUri, Duration requestTimeout)
+    {
+        this(client, Collections.singletonList(baseUri), requestTimeout);
+    }
+
+    /**
+     * Constructor
+     * @param client Actor system the HTTP client runs in
+     * @param baseUris URIs of the servers, e.g. http://127.0.0.1:8099. Each
+     *                 request goes to the next one in turn.
+     * @param requestTimeout Requests that take longer count as failed
+     */
+    public LoadHarness(ActorSystem client, List<String> baseUris, Duration requestTimeout)
+    {
+        this.http = Http.get(client);
+        this.materializer = ActorMaterializer.create(client);
+        this.baseUris = baseUris;
+        this.requestTimeout = requestTimeout;
+    }
+
+    /**
+     * Main Method
+     * @param args Not used. Settings are read from the "load-test" config.
+     * @throws Exception If the server can't be started or the report written
+     */
+    public static void main(String[] args) throws Exception
+    {
+        Config loadConfig = ConfigFactory.load().getConfig("load-test");
+        int users = loadConfig.getInt("users");
+        String password = loadConfig.getString("password");
+        Duration warmup = loadConfig.getDuration("warmup");
+        Duration duration = loadConfig.getDuration("duration");
+
+        //Plain HTTP/1.1 on a free local port. Every request comes from one
+        //subject, so the per subject rate limit is turned off.
+        int port = freePort();
+        Config serverConfig = ConfigFactory.parseString(
+                "server.host = \"127.0.0.1\"\n" +
+                "server.port = " + port + "\n" +
+                "server.tls.enabled = off\n" +
+                "server.http2.enabled = off\n" +
+                "user-rate-limit.enabled = off")
+            .withFallback(ConfigFactory.load());
+
+        SessionFactory sessionFactory =
+                DatabaseCommonOps.createSessionFactory(loadConfig.getString("hibernate-config")).get();
+        seedUsers(sessionFactory, users, password);
+
+        ActorSystem serverSystem = ActorSystem.create("routes", serverConfig);
+        Server.start(serverSystem, sessionFactory).toCompletableFuture().get(30, TimeUnit.SECONDS);
+
+        ActorSystem clientSystem = ActorSystem.create("load-client");
+        LoadHarness harness = new LoadHarness(clientSystem,
+                                              "http://127.0.0.1:" + port,
+                                              loadConfig.getDuration("request-timeout"));
+
+        LoadReport report = new LoadReport();
+        report.startedAt = Instant.now().toString();
+        report.users = users;
+        report.warmupSeconds = warmup.getSeconds();
+        report.durationSeconds = duration.getSeconds();
+
+        try
+        {
+            String jwt = harness.login(userName(0), password);
+
+            for(Scenario scenario : harness.scenarios(loadConfig.getConfig("rates"), users, password, jwt))
+            {
+                logger.info("Driving {} at {} requests per second", scenario.name, scenario.rate);
+
+                //Sequence numbers carry on after the warmup so added users stay unique
+                long warmupRequests = requestCount(scenario, warmup);
+                harness.drive(scenario, warmup, 0);
+                report.scenarios.add(harness.drive(scenario, duration, warmupRequests));
+            }
+        }
+        finally
+        {
+            clientSystem.terminate();
+            serverSystem.terminate();
+        }
+
+        String json = harness.mapper.enable(SerializationFeature.INDENT_OUTPUT).writeValueAsString(report);
+        System.out.println(json);
+
+        File reportFile = new File(loadConfig.getString("report-file"));
+        if(reportFile.getParentFile() != null)
+        {
+            reportFile.getParentFile().mkdirs();
+        }
+        harness.mapper.writeValue(reportFile, report);
+        logger.info("Report written to {}", reportFile.getAbsolutePath());
+    }
+
+    /**
+     * Creates a scenario for each endpoint
+     * @param rates Requests per second for each endpoint
+     * @param users Number of seeded users
+     * @param password Password of every seeded user
+     * @param jwt JWT to authenticate requests with
+     * @return List of scenarios in the order they are run
+     */
+    List<Scenario> scenarios(Config rates, int users, String password, String jwt)
+    {
+        HttpHeader authorization = Authorization.oauth2(jwt);
+
+        return Arrays.asList(
+            new Scenario("auth", rates.getDouble("auth"), i ->
+                HttpRequest.POST(uri(i) + "/auth")
+                    .withEntity(ContentTypes.APPLICATION_JSON, userJson(userName(i % users), password))),
+            new Scenario("get-user", rates.getDouble("get-user"), i ->
+                HttpRequest.GET(uri(i) + "/user/" + userName(i % users))
+                    .addHeader(authorization)),
+            new Scenario("get-all", rates.getDouble("get-all"), i ->
+                HttpRequest.GET(uri(i) + "/user")
+                    .addHeader(authorization)),
+            new Scenario("add", rates.getDouble("add"), i ->
+                HttpRequest.POST(uri(i) + "/user/add")
+                    .addHeader(authorization)
+                    .withEntity(ContentTypes.APPLICATION_JSON, userJson("load-add-" + i, password))),
+            //Keeps the password the same so later logins still work
+            new Scenario("update", rates.getDouble("update"), i ->
+                HttpRequest.PUT(uri(i) + "/user/update")
+                    .addHeader(authorization)
+                    .withEntity(ContentTypes.APPLICATION_JSON, userJson(userName(i % users), password))),
+            //Deletes the users the add scenario created, in the same order
+            new Scenario("delete", rates.getDouble("delete"), i ->
+                HttpRequest.DELETE(uri(i) + "/user/delete")
+                    .addHeader(authorization)
+                    .withEntity(ContentTypes.APPLICATION_JSON, userJson("load-add-" + i, password)))
+        );
+    }
+
+    /**
+     * Sends a scenario's requests on a fixed schedule and waits for them
+     * to finish
+     * @param scenario The endpoint to drive
+     * @param duration How long to send requests for
+     * @param firstSequence Sequence number of the first request
+     * @return ScenarioResult. Throughput, latency percentiles and errors
+     * @throws InterruptedException If interrupted while waiting for responses
+     */
+    ScenarioResult drive(Scenario scenario, Duration duration, long firstSequence) throws InterruptedException
+    {
+        int requests = (int) requestCount(scenario, duration);
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / scenario.rate);
+
+        LatencyRecorder recorder = new LatencyRecorder(requests);
+        CountDownLatch finished = new CountDownLatch(requests);
+
+        long start = System.nanoTime();
+        for(int i = 0; i < requests; i++)
+        {
+            //Wait for the request's slot. Never wait for earlier responses.
+            long due = start + i * intervalNanos;
+            long wait = due - System.nanoTime();
+            if(wait > 0)
+            {
+                LockSupport.parkNanos(wait);
+            }
+
+            http.singleRequest(scenario.request.apply(firstSequence + i))
+                .thenCompose(response -> response.discardEntityBytes(materializer)
+                    .completionStage()
+                    .thenApply(done -> response.status()))
+                .toCompletableFuture()
+                .orTimeout(requestTimeout.toMillis(), TimeUnit.MILLISECONDS)
+                .whenComplete((status, error) ->
+                {
+                    long latency = System.nanoTime() - due;
+                    if(error != null)
+                    {
+                        recorder.record(latency, "failed", true);
+                    }
+                    else
+                    {
+                        recorder.record(latency, Integer.toString(status.intValue()), !status.isSuccess());
+                    }
+                    finished.countDown();
+                });
+        }
+
+        //Every request either completes or times out by now
+        finished.await(requestTimeout.toMillis() + 1000, TimeUnit.MILLISECONDS);
+
+        return recorder.summarize(scenario.name, scenario.rate, System.nanoTime() - start);
+    }
+
+    /**
+     * Logs in and gets a JWT
+     * @param userName Username to log in with
+     * @param password Password to log in with
+     * @return String. The JWT
+     * @throws Exception If the login fails
+     */
+    String login(String userName, String password) throws Exception
+    {
+        HttpRequest request = HttpRequest.POST(baseUris.get(0) + "/auth")
+            .withEntity(ContentTypes.APPLICATION_JSON, userJson(userName, password));
+
+        String body = http.singleRequest(request)
+            .thenCompose(response -> response.entity().toStrict(requestTimeout.toMillis(), materializer))
+            .thenApply(strict -> strict.getData().utf8String())
+            .toCompletableFuture()
+            .get(requestTimeout.toMillis(), TimeUnit.MILLISECONDS);
+
+        return mapper.readValue(body, JWTObject.class).jwt;
+    }
+
+    /**
+     * Adds users straight to the database. They all share one password
+     * hash so seeding doesn't take a BCrypt hash per user.
+     * @param sessionFactory Session Factory of the in-memory database
+     * @param users Number of users to add
+     * @param password Password of every user
+     */
+    static void seedUsers(SessionFactory sessionFactory, int users, String password)
+    {
+        UserDao userDao = new UserDao(sessionFactory);
+        String hash = new BCryptPasswordEncoder().encode(password);
+
+        for(int i = 0; i < users; i++)
+        {
+            userDao.insert(new User(userName(i), hash));
+        }
+        logger.info("Seeded {} users", users);
+    }
+
+    /**
+     * Gets the number of requests a scenario sends in a duration
+     * @param scenario The scenario
+     * @param duration How long requests are sent for
+     * @return long. Number of requests
+     */
+    static long requestCount(Scenario scenario, Duration duration)
+    {
+        return (long) (scenario.rate * duration.toMillis() / 1000);
+    }
+
+    /**
+     * Gets the username of a seeded user
+     * @param index Index of the user
+     * @return String. The username
+     */
+    static String userName(long index)
+    {
+        return "load-user-" + index;
+    }
+
+    /**
+     * Gets the server a request goes to
+     * @param sequence Sequence number of the request
+     * @return String. URI of the server
+     */
+    private String uri(long sequence)
+    {
+        return baseUris.get((int) (sequence % baseUris.size()));
+    }
+
+    /**
+     * Creates the JSON body the user endpoints and /auth expect
+     * @param userName The username
+     * @param password The password
+     * @return String. JSON with the username and password
+     */
+    private String userJson(String userName, String password)
+    {
+        Map<String, String> user = new HashMap<>();
+        user.put("userName", userName);
+        user.put("password", password);
+
+        try
+        {
+            return mapper.writeValueAsString(user);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Finds a local port nothing is listening on
+     * @return int. A free port
+     * @throws IOException If no port could be opened
+     */
+    static int freePort() throws IOException
+    {
+        try(ServerSocket socket = new ServerSocket(0))
+        {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.pelaghisoftware.benchmarks.load;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Report of a load test run. Set up to use Jackson to marshall data to
+ * JSON, so runs can be compared.
+ */
+public class LoadReport
+{
+    public String startedAt;
+    public int availableProcessors = Runtime.getRuntime().availableProcessors();
+    public String javaVersion = System.getProperty("java.version");
+    public int users;
+    public long warmupSeconds;
+    public long durationSeconds;
+    public List<ScenarioResult> scenarios = new ArrayList<>();
+}
@@ -0,0 +1,30 @@
+package com.pelaghisoftware.benchmarks.load;
+
+import akka.http.javadsl.model.HttpRequest;
+
+import java.util.function.LongFunction;
+
+/**
+ * An endpoint to drive and how to build each request to it
+ */
+public class Scenario
+{
+    public final String name;
+    public final double rate;
+
+    //Builds the request with the given sequence number
+    public final LongFunction<HttpRequest> request;
+
+    /**
+     * Constructor
+     * @param name Name of the scenario, used in the report
+     * @param rate Requests per second to send
+     * @param request Builds the request with the given sequence number
+     */
+    public Scenario(String name, double rate, LongFunction<HttpRequest> request)
+    {
+        this.name = name;
+        this.rate = rate;
+        this.request = request;
+    }
+}
@@ -0,0 +1,27 @@
+package com.pelaghisoftware.benchmarks.load;
+
+import java.util.Map;
+
+/**
+ * Result of driving one endpoint. Set up to use Jackson to marshall
+ * data to JSON.
+ */
+public class ScenarioResult
+{
+    public String name;
+    //Requests per second the endpoint was driven at
+    public double targetRate;
+    public long requests;
+    //Responses per second actually received
+    public double throughput;
+    //Requests that failed or got a non 2xx status
+    public long errors;
+    public double errorRate;
+    //Latencies measured from when each request was due to be sent
+    public double p50Millis;
+    public double p99Millis;
+    public double p999Millis;
+    public double maxMillis;
+    //Number of requests per status code, or "failed"
+    public Map<String, Long> outcomes;
+}
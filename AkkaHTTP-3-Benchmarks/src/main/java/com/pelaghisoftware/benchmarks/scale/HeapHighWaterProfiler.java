@@ -0,0 +1,97 @@
+package com.pelaghisoftware.benchmarks.scale;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.ScalarResult;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * JMH profiler that reports the most heap used during each iteration,
+ * per heap pool and in total. The total adds up each pool's peak, which
+ * may have happened at different times, so it is an upper bound. Use it
+ * with -prof com.pelaghisoftware.benchmarks.scale.HeapHighWaterProfiler
+ */
+public class HeapHighWaterProfiler implements InternalProfiler
+{
+    private static final double MB = 1024 * 1024;
+
+    /**
+     * Gets the description shown by -lprof
+     * @return String. The description
+     */
+    @Override
+    public String getDescription()
+    {
+        return "Heap high-water marks per iteration";
+    }
+
+    /**
+     * Resets the peaks so each iteration is measured on its own
+     * @param benchmarkParams Parameters of the benchmark
+     * @param iterationParams Parameters of the iteration
+     */
+    @Override
+    public void beforeIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams)
+    {
+        for(MemoryPoolMXBean pool : heapPools())
+        {
+            pool.resetPeakUsage();
+        }
+    }
+
+    /**
+     * Reads the peaks of the iteration
+     * @param benchmarkParams Parameters of the benchmark
+     * @param iterationParams Parameters of the iteration
+     * @param result Result of the iteration
+     * @return Collection of the peaks in MB. Runs keep the highest.
+     */
+    @Override
+    public Collection<? extends Result> afterIteration(BenchmarkParams benchmarkParams,
+                                                      IterationParams iterationParams,
+                                                      IterationResult result)
+    {
+        List<Result> results = new ArrayList<>();
+        long total = 0;
+
+        for(MemoryPoolMXBean pool : heapPools())
+        {
+            long peak = pool.getPeakUsage().getUsed();
+            total += peak;
+
+            String name = pool.getName().toLowerCase().replace(' ', '-');
+            results.add(new ScalarResult("heap.peak." + name, peak / MB, "MB", AggregationPolicy.MAX));
+        }
+        results.add(new ScalarResult("heap.peak", total / MB, "MB", AggregationPolicy.MAX));
+
+        return results;
+    }
+
+    /**
+     * Gets the heap memory pools, e.g. eden, survivor and old gen
+     * @return List of heap pools
+     */
+    private static List<MemoryPoolMXBean> heapPools()
+    {
+        List<MemoryPoolMXBean> pools = new ArrayList<>();
+        for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if(pool.getType() == MemoryType.HEAP)
+            {
+                pools.add(pool);
+            }
+        }
+
+        return pools;
+    }
+}
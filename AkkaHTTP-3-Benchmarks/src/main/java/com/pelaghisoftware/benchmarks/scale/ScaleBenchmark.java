@@ -0,0 +1,146 @@
+package com.pelaghisoftware.benchmarks.scale;
+
+import akka.http.javadsl.model.ContentTypes;
+import akka.http.javadsl.model.HttpResponse;
+import akka.http.javadsl.model.StatusCodes;
+import com.pelaghisoftware.data.DatabaseCommonOps;
+import com.pelaghisoftware.data.dao.impl.UserDao;
+import com.pelaghisoftware.data.entity.User;
+import com.pelaghisoftware.server.actors.ResponseResolver;
+import com.pelaghisoftware.server.auth.operations.AuthOperations;
+import org.hibernate.SessionFactory;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the list, lookup and auth paths against a table of many
+ * users loaded by UserFixture. Run with HeapHighWaterProfiler to see how
+ * much heap each path needs as the table grows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScaleBenchmark
+{
+    //Users in the table. Add 10000000 with -p users=...
+    @Param({"100000", "1000000"})
+    public long users;
+
+    //Users fetched by one multiple user lookup, e.g. GET /user?names=...
+    private static final int NAMES_PER_LOOKUP = 100;
+
+    //Listing every user takes far longer than the server's usual query timeout
+    private static final Duration QUERY_TIMEOUT = Duration.ofMinutes(10);
+
+    private final BCryptPasswordEncoder encoder = new BCryptPasswordEncoder();
+
+    private SessionFactory sessionFactory;
+    private UserDao userDao;
+
+    /**
+     * Loads the fixture if needed
+     */
+    @Setup
+    public void setup()
+    {
+        sessionFactory = DatabaseCommonOps.createSessionFactory("scale-hibernate.cfg.xml").get();
+        UserFixture.load(sessionFactory, users);
+
+        userDao = new UserDao(sessionFactory, QUERY_TIMEOUT);
+    }
+
+    /**
+     * Closes the pool. The fixture stays for the next run.
+     */
+    @TearDown
+    public void teardown()
+    {
+        sessionFactory.close();
+    }
+
+    /**
+     * Loads every user, as GET /user does before serializing
+     * @return List of all users
+     */
+    @Benchmark
+    public List<User> listQuery()
+    {
+        return userDao.getAll(QUERY_TIMEOUT);
+    }
+
+    /**
+     * Loads and serializes every user, the whole of GET /user after auth
+     * @return HttpResponse. The response
+     */
+    @Benchmark
+    public HttpResponse listResponse()
+    {
+        return ResponseResolver.createResponse(StatusCodes.OK, ContentTypes.APPLICATION_JSON, userDao.getAll(QUERY_TIMEOUT));
+    }
+
+    /**
+     * Looks up a random user, as GET /user/{name} does
+     * @return HttpResponse. The response
+     */
+    @Benchmark
+    public HttpResponse lookup()
+    {
+        Optional<User> user = userDao.get(randomUserName());
+
+        return ResponseResolver.createResponse(StatusCodes.OK, ContentTypes.APPLICATION_JSON, user.get());
+    }
+
+    /**
+     * Looks up random users in one query, as GET /user?names=... does
+     * @return List of the users found
+     */
+    @Benchmark
+    public List<User> lookupMultiple()
+    {
+        List<String> names = new ArrayList<>(NAMES_PER_LOOKUP);
+        for(int i = 0; i < NAMES_PER_LOOKUP; i++)
+        {
+            names.add(randomUserName());
+        }
+
+        return userDao.getMultiple(names);
+    }
+
+    /**
+     * Logs in a random user: looks them up, checks the password and
+     * creates a JWT, as POST /auth does
+     * @return String. The JWT
+     */
+    @Benchmark
+    public String auth()
+    {
+        String userName = randomUserName();
+        User user = userDao.get(userName).get();
+
+        if(!encoder.matches(UserFixture.PASSWORD, user.getEncryptedPassword()))
+        {
+            throw new IllegalStateException("Fixture password doesn't match");
+        }
+
+        return AuthOperations.createJWT("scale", "PelaghiSoftware", userName, 600000);
+    }
+
+    /**
+     * Gets the name of a random user in the fixture
+     * @return String. The username
+     */
+    private String randomUserName()
+    {
+        return UserFixture.userName(ThreadLocalRandom.current().nextLong(users));
+    }
+}
@@ -0,0 +1,143 @@
+package com.pelaghisoftware.benchmarks.scale;
+
+import com.pelaghisoftware.data.DatabaseCommonOps;
+import com.pelaghisoftware.data.constants.TableInitConstants;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Bulk loads synthetic users into H2. Rows are generated inside the
+ * database with SYSTEM_RANGE, so millions of users load in seconds
+ * instead of going through Hibernate one at a time. Every user shares
+ * one BCrypt hash of PASSWORD, so logins work without hashing per row.
+ */
+public class UserFixture
+{
+    private final static Logger logger =
+            LoggerFactory.getLogger(UserFixture.class);
+
+    public static final String PASSWORD = "ScalePassword1";
+
+    //Rows inserted per transaction
+    private static final long CHUNK = 1_000_000;
+
+    /**
+     * Main Method. Loads the fixture ahead of time so benchmarks don't
+     * have to.
+     * @param args Number of users, e.g. 10000000. Defaults to 1000000.
+     */
+    public static void main(String[] args)
+    {
+        long users = args.length > 0 ? Long.parseLong(args[0]) : 1_000_000;
+
+        SessionFactory sessionFactory = DatabaseCommonOps.createSessionFactory("scale-hibernate.cfg.xml").get();
+        try
+        {
+            load(sessionFactory, users);
+        }
+        finally
+        {
+            sessionFactory.close();
+        }
+    }
+
+    /**
+     * Makes sure the table holds exactly the given number of users. A
+     * table that already has that many is left alone, anything else is
+     * emptied and loaded again.
+     * @param sessionFactory Session Factory of an H2 database
+     * @param users Number of users
+     */
+    public static void load(SessionFactory sessionFactory, long users)
+    {
+        try(Session session = sessionFactory.openSession())
+        {
+            session.doWork(connection -> load(connection, users));
+        }
+    }
+
+    /**
+     * Gets the username of a generated user
+     * @param index Index of the user, from 0
+     * @return String. The username
+     */
+    public static String userName(long index)
+    {
+        return "scale-user-" + index;
+    }
+
+    /**
+     * Loads the users over a JDBC connection
+     * @param connection Connection to the database
+     * @param users Number of users
+     * @throws SQLException If a statement fails
+     */
+    private static void load(Connection connection, long users) throws SQLException
+    {
+        if(count(connection) == users)
+        {
+            logger.info("Fixture already has {} users", users);
+            return;
+        }
+
+        long start = System.nanoTime();
+        String hash = new BCryptPasswordEncoder().encode(PASSWORD);
+
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try
+        {
+            try(Statement truncate = connection.createStatement())
+            {
+                truncate.execute("TRUNCATE TABLE " + TableInitConstants.SITE_USERS);
+            }
+
+            try(PreparedStatement insert = connection.prepareStatement(
+                    "INSERT INTO " + TableInitConstants.SITE_USERS + " (userName, encryptedPassword) " +
+                    "SELECT 'scale-user-' || X, ? FROM SYSTEM_RANGE(?, ?)"))
+            {
+                for(long from = 0; from < users; from += CHUNK)
+                {
+                    insert.setString(1, hash);
+                    insert.setLong(2, from);
+                    insert.setLong(3, Math.min(from + CHUNK, users) - 1);
+                    insert.executeUpdate();
+                    connection.commit();
+
+                    logger.info("Loaded {} of {} users", Math.min(from + CHUNK, users), users);
+                }
+            }
+        }
+        finally
+        {
+            connection.setAutoCommit(autoCommit);
+        }
+
+        logger.info("Loaded {} users in {} ms", users, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Counts the users in the table
+     * @param connection Connection to the database
+     * @return long. Number of users
+     * @throws SQLException If the query fails
+     */
+    private static long count(Connection connection) throws SQLException
+    {
+        try(Statement statement = connection.createStatement();
+            ResultSet result = statement.executeQuery("SELECT COUNT(*) FROM " + TableInitConstants.SITE_USERS))
+        {
+            result.next();
+            return result.getLong(1);
+        }
+    }
+}
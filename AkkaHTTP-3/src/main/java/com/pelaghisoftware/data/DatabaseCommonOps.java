@@ -10,7 +10,11 @@ import org.slf4j.LoggerFactory;
 
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Root;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 /**
@@ -29,12 +33,39 @@ public class DatabaseCommonOps
      * @return Optional of Session Factory
      */
     public static Optional<SessionFactory> createSessionFactory()
+    {
+        return createSessionFactory("hibernate.cfg.xml");
+    }
+
+    /**
+     * Creates a Session Factory for the database from a specific
+     * Hibernate configuration file, e.g. one for an in-memory database.
+     * @param configResource Classpath resource with the Hibernate configuration
+     * @return Optional of Session Factory
+     */
+    public static Optional<SessionFactory> createSessionFactory(String configResource)
+    {
+        return createSessionFactory(configResource, Collections.emptyMap());
+    }
+
+    /**
+     * Creates a Session Factory for the database from a specific
+     * Hibernate configuration file with some of its settings replaced,
+     * e.g. to try different connection pool sizes.
+     * @param configResource Classpath resource with the Hibernate configuration
+     * @param overrides Settings that replace the ones in the file, e.g.
+     *                  "hibernate.c3p0.max_size"
+     * @return Optional of Session Factory
+     */
+    public static Optional<SessionFactory> createSessionFactory(String configResource,
+                                                                Map<String, Object> overrides)
     {
         SessionFactory sessionFactory;
 
         final StandardServiceRegistry registry =
             new StandardServiceRegistryBuilder()
-            .configure()
+            .configure(configResource)
+            .applySettings(overrides)
             .build();
         try
         {
@@ -72,4 +103,31 @@ public class DatabaseCommonOps
             .getResultList();
         return data;
     }
+
+    /**
+     * Returns a list of the specified entities whose id is one of
+     * the given ids. Runs as a single IN query.
+     * @param type Entity Class to search the db for.
+     * @param idAttribute Name of the entity's id attribute
+     * @param ids Ids of the entities to load
+     * @param session A current session
+     * @param <T> The type of Entity
+     * @return List of the entities that were found. Ids that were not
+     *         found are left out.
+     */
+    public static <T> List<T> loadDataByIds(Class<T> type,
+                                            String idAttribute,
+                                            Collection<?> ids,
+                                            Session session)
+    {
+        CriteriaBuilder builder = session.getCriteriaBuilder();
+        CriteriaQuery<T> criteria = builder.createQuery(type);
+        Root<T> root = criteria.from(type);
+        criteria.where(root.get(idAttribute).in(ids));
+
+        List<T> data = session
+            .createQuery(criteria)
+            .getResultList();
+        return data;
+    }
 }
@@ -0,0 +1,59 @@
+package com.pelaghisoftware.data.actors;
+
+import akka.actor.AbstractActor;
+import akka.actor.Props;
+import com.pelaghisoftware.data.limit.MailboxOverflow;
+import com.pelaghisoftware.jfr.TimedMailbox;
+
+/**
+ * Actor that counts the messages bounded mailboxes dropped. A full
+ * TimedMailbox publishes a Dropped event for each message it can't take.
+ * Other dead letters, e.g. replies to asks that already timed out, are
+ * not counted.
+ */
+public class MailboxOverflowListener extends AbstractActor
+{
+    private final MailboxOverflow mailboxOverflow;
+
+    /**
+     * Creates props for a new MailboxOverflowListener
+     * @param mailboxOverflow Counts the dropped messages
+     * @return Props. The props to initialize the actor in the actor system.
+     */
+    public static Props props(MailboxOverflow mailboxOverflow)
+    {
+        return Props.create(MailboxOverflowListener.class, () -> new MailboxOverflowListener(mailboxOverflow));
+    }
+
+    /**
+     * Constructor
+     * @param mailboxOverflow Counts the dropped messages
+     */
+    public MailboxOverflowListener(MailboxOverflow mailboxOverflow)
+    {
+        this.mailboxOverflow = mailboxOverflow;
+    }
+
+    /**
+     * Subscribes to dropped messages when the actor starts
+     */
+    @Override
+    public void preStart()
+    {
+        getContext().getSystem().getEventStream().subscribe(self(), TimedMailbox.Dropped.class);
+    }
+
+    /**
+     * Runs when receiving a message
+     * @return
+     */
+    @Override
+    public Receive createReceive()
+    {
+        return receiveBuilder()
+                .match(TimedMailbox.Dropped.class, dropped ->
+                    mailboxOverflow.record(dropped.recipient.path().name())
+                )
+                .build();
+    }
+}
@@ -1,18 +1,27 @@
 package com.pelaghisoftware.data.actors;
 
+import akka.Done;
 import akka.actor.AbstractActor;
 import akka.actor.Props;
 import com.pelaghisoftware.data.actors.operations.DBOperations;
 import com.pelaghisoftware.data.dao.Dao;
 import com.pelaghisoftware.data.dao.impl.UserDao;
+import com.pelaghisoftware.data.deadline.DeadlineMessage;
+import com.pelaghisoftware.data.deadline.DiscardedWork;
 import com.pelaghisoftware.data.entity.User;
+import com.pelaghisoftware.data.feed.ChangeEvent;
+import com.pelaghisoftware.data.feed.ChangeFeed;
+import com.pelaghisoftware.jfr.TimedPasswordEncoder;
 import org.hibernate.SessionFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 
 import java.util.Optional;
+import scala.PartialFunction;
+import scala.runtime.BoxedUnit;
 
 /**
  * Actor to access the database information for a user entity
@@ -22,27 +31,98 @@ public class SiteUserAccessor extends AbstractActor
     private final Logger logger = LoggerFactory.getLogger(SiteUserAccessor.class);
 
     //Used to encrypt passwords and validate passwords
-    private final PasswordEncoder encoder = new BCryptPasswordEncoder();
+    private final PasswordEncoder encoder = new TimedPasswordEncoder(new BCryptPasswordEncoder());
 
     private final Dao<User> userDao;
 
+    //Receives every successful insert, update and delete
+    private final ChangeFeed changeFeed;
+
+    //Counts messages dropped because their deadline passed
+    private final DiscardedWork discardedWork;
+
     /**
      * Creates props for a new SiteUserAccessor
      * @param sessionFactory Session Factory to create new sessions with the database
+     * @param changeFeed Feed to publish user changes to
+     * @param discardedWork Counts messages dropped because their deadline passed
      * @return
      */
-    public static Props props(SessionFactory sessionFactory)
+    public static Props props(SessionFactory sessionFactory,
+                              ChangeFeed changeFeed,
+                              DiscardedWork discardedWork)
     {
-        return Props.create(SiteUserAccessor.class, () -> new SiteUserAccessor(sessionFactory));
+        return Props.create(SiteUserAccessor.class, () -> new SiteUserAccessor(sessionFactory, changeFeed, discardedWork));
+    }
+
+    /**
+     * Creates props for a new SiteUserAccessor that uses the given DAO,
+     * e.g. a stub when benchmarking the actors without a database
+     * @param userDao DAO to access User entities with
+     * @param changeFeed Feed to publish user changes to
+     * @param discardedWork Counts messages dropped because their deadline passed
+     * @return Props. The props to initialize the actor in the actor system.
+     */
+    public static Props props(Dao<User> userDao,
+                              ChangeFeed changeFeed,
+                              DiscardedWork discardedWork)
+    {
+        return Props.create(SiteUserAccessor.class, () -> new SiteUserAccessor(userDao, changeFeed, discardedWork));
     }
 
     /**
      * Constructor
      * @param sessionFactory Session Factory to create new sessions with the database
+     * @param changeFeed Feed to publish user changes to
+     * @param discardedWork Counts messages dropped because their deadline passed
      */
-    public SiteUserAccessor(SessionFactory sessionFactory)
+    public SiteUserAccessor(SessionFactory sessionFactory,
+                            ChangeFeed changeFeed,
+                            DiscardedWork discardedWork)
     {
-        userDao = new UserDao(sessionFactory);
+        this(new UserDao(sessionFactory), changeFeed, discardedWork);
+    }
+
+    /**
+     * Constructor
+     * @param userDao DAO to access User entities with
+     * @param changeFeed Feed to publish user changes to
+     * @param discardedWork Counts messages dropped because their deadline passed
+     */
+    public SiteUserAccessor(Dao<User> userDao,
+                            ChangeFeed changeFeed,
+                            DiscardedWork discardedWork)
+    {
+        this.userDao = userDao;
+        this.changeFeed = changeFeed;
+        this.discardedWork = discardedWork;
+    }
+
+    /**
+     * Puts the trace ID of the message in the logging MDC while it is
+     * handled, so log lines from the actor and the DAO carry it
+     * @param receive The behavior handling the message
+     * @param message The received message
+     */
+    @Override
+    public void aroundReceive(PartialFunction<Object, BoxedUnit> receive, Object message)
+    {
+        String traceId = message instanceof DeadlineMessage ? ((DeadlineMessage) message).traceId : null;
+        if(traceId == null)
+        {
+            super.aroundReceive(receive, message);
+            return;
+        }
+
+        MDC.put(DeadlineMessage.TRACE_ID_MDC_KEY, traceId);
+        try
+        {
+            super.aroundReceive(receive, message);
+        }
+        finally
+        {
+            MDC.remove(DeadlineMessage.TRACE_ID_MDC_KEY);
+        }
     }
 
     /**
@@ -53,115 +133,202 @@ public class SiteUserAccessor extends AbstractActor
     public Receive createReceive()
     {
         return receiveBuilder()
+                //Nobody is waiting for the reply to an expired message, so skip the work
+                .match(DeadlineMessage.class, DeadlineMessage::isExpired, this::discard)
                 .match(DBOperations.GetEntity.class, value ->
                     //Send the return message to the sender
-                    getSender().tell(userDao.get(value.id), self())
+                    getSender().tell(get(value), self())
+                )
+                .match(DBOperations.GetEntities.class, value ->
+                    //Send the return message to the sender
+                    getSender().tell(new DBOperations.GetEntities(value.batchId,
+                                                                  value.ids,
+                                                                  userDao.getMultiple(value.ids, value.remaining())), self())
                 )
                 .match(DBOperations.GetAllEntities.class, value ->
                     //Send the return message to the sender
-                    getSender().tell(userDao.getAll(), self())
+                    getSender().tell(userDao.getAll(value.remaining()), self())
                 )
                 .match(DBOperations.InsertEntity.class, value ->
-                {
-                    boolean completed = false;
-                    Optional<User> responseUser = Optional.empty();
-
-                    //Check to make sure value received isn't empty.
-                    if(value.entity.isPresent())
-                    {
-                        User user = (User)value.entity.get();
-
-                        Optional<User> userCheck = userDao.get(user.getUserName());
-
-                        //Check to see if user is in the database
-                        if(userCheck.isPresent())
-                        {
-                            responseUser = userCheck;
-                            completed = false;
-                        }
-                        //Check the incoming user to see if the password is null
-                        else if(user.getEncryptedPassword() == null)
-                        {
-                            completed = false;
-                        }
-                        //Incoming user is good to go. Insert the new user in the database.
-                        else
-                        {
-                            String encodedPassword = encoder.encode(user.getEncryptedPassword());
-                            user.setEncryptedPassword(encodedPassword);
-                            completed = userDao.insert(user);
-                        }
-                    }
-
                     //Send the return message to the sender
-                    getSender().tell(new DBOperations.InsertEntity(responseUser, completed), self());
-                })
+                    getSender().tell(insert(value), self())
+                )
                 .match(DBOperations.UpdateEntity.class, value ->
-                {
-                    boolean completed = false;
-                    boolean notFound = false;
-
-                    //Check to make sure value received isn't empty.
-                    if(value.entity.isPresent())
-                    {
-                        User user = (User)value.entity.get();
-
-                        Optional<User> userCheck = userDao.get(user.getUserName());
-
-                        //Check to make sure the user exists in the database
-                        if(userCheck.isPresent())
-                        {
-                            //If the incoming value does not have a password set the password to the old one
-                            if(user.getEncryptedPassword() == null)
-                            {
-                                user.setEncryptedPassword(userCheck.get().getEncryptedPassword());
-                            }
-                            else
-                            {
-                                String encodedPassword = encoder.encode(user.getEncryptedPassword());
-                                user.setEncryptedPassword(encodedPassword);
-                            }
-
-                            //Update the user in the database
-                            completed = userDao.update(user);
-                        }
-                        //If the incoming user is not found in the database
-                        else
-                        {
-                            notFound = true;
-                        }
-                    }
-
                     //Send the return message to the sender
-                    getSender().tell(new DBOperations.UpdateEntity(completed, notFound), self());
-                })
+                    getSender().tell(update(value), self())
+                )
                 .match(DBOperations.DeleteEntity.class, value ->
-                {
-                    boolean completed = false;
-                    boolean notFound = false;
-
-                    //Check to make sure value received isn't empty.
-                    if(value.entity.isPresent())
-                    {
-                        User user = (User)value.entity.get();
-
-                        Optional<User> userCheck = userDao.get(user.getUserName());
-
-                        //Check to make sure the incoming user exists in the database
-                        if(userCheck.isPresent())
-                        {
-                            completed = userDao.delete(user);
-                        }
-                        else
-                        {
-                            notFound = true;
-                        }
-                    }
-
                     //Send the return message to the sender
-                    getSender().tell(new DBOperations.DeleteEntity(completed, notFound), self());
-                })
+                    getSender().tell(delete(value), self())
+                )
+                //Everything queued before this message has been handled
+                .match(DBOperations.Flush.class, value ->
+                    getSender().tell(Done.getInstance(), self())
+                )
                 .build();
 
     }
+
+    /**
+     * Records and skips a message whose sender stopped waiting
+     * @param value The expired message
+     */
+    protected void discard(DeadlineMessage value)
+    {
+        discardedWork.record(value.getClass().getSimpleName());
+        logger.debug("Discarded expired {}", value.getClass().getSimpleName());
+    }
+
+    /**
+     * Gets a user
+     * @param value Message with the userName
+     * @return Optional. The user, or empty if there is none
+     */
+    protected Optional<User> get(DBOperations.GetEntity value)
+    {
+        return userDao.get(value.id, value.remaining());
+    }
+
+    /**
+     * Inserts a user with its password encoded, unless the user exists
+     * @param value Message with the user
+     * @return InsertEntity. The existing user if there was one, and
+     *         whether the insert completed
+     */
+    protected DBOperations.InsertEntity insert(DBOperations.InsertEntity value)
+    {
+        boolean completed = false;
+        Optional<User> responseUser = Optional.empty();
+
+        //Check to make sure value received isn't empty.
+        if(value.entity.isPresent())
+        {
+            User user = (User)value.entity.get();
+
+            Optional<User> userCheck = userDao.get(user.getUserName(), value.remaining());
+
+            //Check to see if user is in the database
+            if(userCheck.isPresent())
+            {
+                responseUser = userCheck;
+                completed = false;
+            }
+            //Check the incoming user to see if the password is null
+            else if(user.getEncryptedPassword() == null)
+            {
+                completed = false;
+            }
+            //Incoming user is good to go. Insert the new user in the database.
+            else
+            {
+                String encodedPassword = encodePassword(user.getEncryptedPassword());
+                user.setEncryptedPassword(encodedPassword);
+                completed = userDao.insert(user, value.remaining());
+
+                if(completed)
+                {
+                    changeFeed.publish(ChangeEvent.INSERT, user.getUserName());
+                }
+            }
+        }
+
+        return new DBOperations.InsertEntity(responseUser, completed);
+    }
+
+    /**
+     * Updates a user, encoding the new password or keeping the old one
+     * @param value Message with the user
+     * @return UpdateEntity. Whether the update completed or the user
+     *         wasn't found
+     */
+    protected DBOperations.UpdateEntity update(DBOperations.UpdateEntity value)
+    {
+        boolean completed = false;
+        boolean notFound = false;
+
+        //Check to make sure value received isn't empty.
+        if(value.entity.isPresent())
+        {
+            User user = (User)value.entity.get();
+
+            Optional<User> userCheck = userDao.get(user.getUserName(), value.remaining());
+
+            //Check to make sure the user exists in the database
+            if(userCheck.isPresent())
+            {
+                //If the incoming value does not have a password set the password to the old one
+                if(user.getEncryptedPassword() == null)
+                {
+                    user.setEncryptedPassword(userCheck.get().getEncryptedPassword());
+                }
+                else
+                {
+                    String encodedPassword = encodePassword(user.getEncryptedPassword());
+                    user.setEncryptedPassword(encodedPassword);
+                }
+
+                //Update the user in the database
+                completed = userDao.update(user, value.remaining());
+
+                if(completed)
+                {
+                    changeFeed.publish(ChangeEvent.UPDATE, user.getUserName());
+                }
+            }
+            //If the incoming user is not found in the database
+            else
+            {
+                notFound = true;
+            }
+        }
+
+        return new DBOperations.UpdateEntity(completed, notFound);
+    }
+
+    /**
+     * Encodes a new password before it is stored
+     * @param password The password as sent
+     * @return String. The encoded password
+     */
+    protected String encodePassword(String password)
+    {
+        return encoder.encode(password);
+    }
+
+    /**
+     * Deletes a user
+     * @param value Message with the user
+     * @return DeleteEntity. Whether the delete completed or the user
+     *         wasn't found
+     */
+    protected DBOperations.DeleteEntity delete(DBOperations.DeleteEntity value)
+    {
+        boolean completed = false;
+        boolean notFound = false;
+
+        //Check to make sure value received isn't empty.
+        if(value.entity.isPresent())
+        {
+            User user = (User)value.entity.get();
+
+            Optional<User> userCheck = userDao.get(user.getUserName(), value.remaining());
+
+            //Check to make sure the incoming user exists in the database
+            if(userCheck.isPresent())
+            {
+                completed = userDao.delete(user, value.remaining());
+
+                if(completed)
+                {
+                    changeFeed.publish(ChangeEvent.DELETE, user.getUserName());
+                }
+            }
+            else
+            {
+                notFound = true;
+            }
+        }
+
+        return new DBOperations.DeleteEntity(completed, notFound);
+    }
 }
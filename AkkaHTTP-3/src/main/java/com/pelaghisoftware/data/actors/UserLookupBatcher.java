@@ -0,0 +1,255 @@
+package com.pelaghisoftware.data.actors;
+
+import akka.actor.AbstractActorWithTimers;
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.actor.Status;
+import com.pelaghisoftware.data.actors.operations.DBOperations;
+import com.pelaghisoftware.data.deadline.DiscardedWork;
+import com.pelaghisoftware.data.entity.User;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletionStage;
+
+import static akka.pattern.Patterns.ask;
+import static akka.pattern.Patterns.pipe;
+
+/**
+ * Actor that batches GetEntity lookups in front of the SiteUserAccessor.
+ * Lookups that arrive within the batching window are sent as one
+ * GetEntities message, which the accessor resolves with a single IN query.
+ * When no batch is in flight a lookup is sent right away, so an idle
+ * system pays no extra latency.
+ *
+ * Replies to each GetEntity the same way the SiteUserAccessor does.
+ * Lookups whose callers have all stopped waiting are left out of the
+ * batch. If a batch fails, every caller waiting on it gets a
+ * Status.Failure so their asks fail right away.
+ */
+public class UserLookupBatcher extends AbstractActorWithTimers
+{
+    private static final Object FLUSH_TIMER = "flush";
+
+    private final ActorRef siteUserAccessor;
+    private final Duration window;
+    private final int maxBatchSize;
+    private final Duration timeout;
+    private final DiscardedWork discardedWork;
+
+    //Callers waiting for the next batch, by userName
+    private final Map<String, List<ActorRef>> pending = new LinkedHashMap<>();
+
+    //Latest deadline of the callers waiting for each pending userName
+    private final Map<String, Long> pendingDeadlines = new HashMap<>();
+
+    //Callers waiting for a batch that was sent, by batch id
+    private final Map<Long, Map<String, List<ActorRef>>> inFlight = new HashMap<>();
+
+    private long nextBatchId = 0;
+
+    /**
+     * Creates props for a new UserLookupBatcher
+     * @param siteUserAccessor ActorRef to the SiteUserAccessor Actor
+     * @param window How long to collect lookups once a batch is in flight
+     * @param maxBatchSize Most userNames sent in one batch
+     * @param timeout Time duration before a batch fails
+     * @param discardedWork Counts lookups dropped because their deadline passed
+     * @return Props. The props to initialize the actor in the actor system.
+     */
+    public static Props props(ActorRef siteUserAccessor,
+                              Duration window,
+                              int maxBatchSize,
+                              Duration timeout,
+                              DiscardedWork discardedWork)
+    {
+        return Props.create(UserLookupBatcher.class,
+                            () -> new UserLookupBatcher(siteUserAccessor, window, maxBatchSize, timeout, discardedWork));
+    }
+
+    /**
+     * Constructor
+     * @param siteUserAccessor ActorRef to the SiteUserAccessor Actor
+     * @param window How long to collect lookups once a batch is in flight
+     * @param maxBatchSize Most userNames sent in one batch
+     * @param timeout Time duration before a batch fails
+     * @param discardedWork Counts lookups dropped because their deadline passed
+     */
+    public UserLookupBatcher(ActorRef siteUserAccessor,
+                             Duration window,
+                             int maxBatchSize,
+                             Duration timeout,
+                             DiscardedWork discardedWork)
+    {
+        this.siteUserAccessor = siteUserAccessor;
+        this.window = window;
+        this.maxBatchSize = maxBatchSize;
+        this.timeout = timeout;
+        this.discardedWork = discardedWork;
+    }
+
+    /**
+     * Runs when receiving a message
+     * @return
+     */
+    @Override
+    public Receive createReceive()
+    {
+        return receiveBuilder()
+                .match(DBOperations.GetEntity.class, value ->
+                {
+                    //The caller already stopped waiting
+                    if(value.isExpired())
+                    {
+                        discardedWork.record("GetEntity");
+                        return;
+                    }
+
+                    pending.computeIfAbsent(value.id, id -> new ArrayList<>()).add(getSender());
+                    pendingDeadlines.merge(value.id, value.deadline, Math::max);
+
+                    //Nothing is waiting on the database so there is nothing to batch with
+                    if(inFlight.isEmpty() || pending.size() >= maxBatchSize)
+                    {
+                        flush();
+                    }
+                    else if(!getTimers().isTimerActive(FLUSH_TIMER))
+                    {
+                        getTimers().startSingleTimer(FLUSH_TIMER, FLUSH_TIMER, window);
+                    }
+                })
+                .matchEquals(FLUSH_TIMER, value -> flush())
+                .match(DBOperations.GetEntities.class, value ->
+                {
+                    Map<String, List<ActorRef>> waiting = inFlight.remove(value.batchId);
+
+                    Map<String, User> found = new HashMap<>();
+                    for(Object entity : value.entities)
+                    {
+                        User user = (User)entity;
+                        found.put(user.getUserName(), user);
+                    }
+
+                    //Answer every caller individually
+                    if(waiting != null)
+                    {
+                        waiting.forEach((userName, callers) ->
+                        {
+                            Optional<User> user = Optional.ofNullable(found.get(userName));
+                            callers.forEach(caller -> caller.tell(user, getSelf()));
+                        });
+                    }
+
+                    sendWaitingIfIdle();
+                })
+                .match(BatchFailed.class, value ->
+                {
+                    Map<String, List<ActorRef>> waiting = inFlight.remove(value.batchId);
+
+                    //Fail every caller's ask now rather than letting them all time out
+                    if(waiting != null)
+                    {
+                        Status.Failure failure = new Status.Failure(value.cause);
+                        waiting.values().forEach(callers -> callers.forEach(caller -> caller.tell(failure, getSelf())));
+                    }
+
+                    sendWaitingIfIdle();
+                })
+                .build();
+    }
+
+    /**
+     * Sends the pending lookups right away when no batch is in flight
+     */
+    private void sendWaitingIfIdle()
+    {
+        if(inFlight.isEmpty() && !pending.isEmpty())
+        {
+            flush();
+        }
+    }
+
+    /**
+     * Sends up to maxBatchSize pending lookups as one batch
+     */
+    private void flush()
+    {
+        getTimers().cancel(FLUSH_TIMER);
+
+        if(pending.isEmpty())
+        {
+            return;
+        }
+
+        long batchId = nextBatchId++;
+        long now = System.currentTimeMillis();
+        long batchDeadline = Long.MIN_VALUE;
+        Map<String, List<ActorRef>> batch = new LinkedHashMap<>();
+
+        for(String userName : new ArrayList<>(pending.keySet()))
+        {
+            if(batch.size() >= maxBatchSize)
+            {
+                break;
+            }
+
+            List<ActorRef> callers = pending.remove(userName);
+            long deadline = pendingDeadlines.remove(userName);
+
+            //Every caller waiting for this userName has given up
+            if(now > deadline)
+            {
+                callers.forEach(caller -> discardedWork.record("GetEntity"));
+                continue;
+            }
+
+            batch.put(userName, callers);
+            batchDeadline = Math.max(batchDeadline, deadline);
+        }
+
+        //Expired lookups are skipped, so an empty batch means nothing was left
+        if(batch.isEmpty())
+        {
+            return;
+        }
+
+        inFlight.put(batchId, batch);
+
+        //The batch is worth running as long as any of its callers is waiting
+        DBOperations.GetEntities getEntities = new DBOperations.GetEntities(batchId, new ArrayList<>(batch.keySet()));
+        getEntities.deadline = batchDeadline;
+        getEntities.expiresIn(timeout);
+
+        CompletionStage<Object> result =
+                ask(siteUserAccessor, getEntities, timeout)
+                .handle((response, error) -> error == null ? response : new BatchFailed(batchId, error));
+
+        pipe(result, getContext().dispatcher()).to(getSelf());
+
+        //Anything left over goes out in the next window
+        if(!pending.isEmpty())
+        {
+            getTimers().startSingleTimer(FLUSH_TIMER, FLUSH_TIMER, window);
+        }
+    }
+
+    /**
+     * Message sent to self when a batch could not be resolved
+     */
+    private static class BatchFailed
+    {
+        private final long batchId;
+        private final Throwable cause;
+
+        BatchFailed(long batchId, Throwable cause)
+        {
+            this.batchId = batchId;
+            this.cause = cause;
+        }
+    }
+}
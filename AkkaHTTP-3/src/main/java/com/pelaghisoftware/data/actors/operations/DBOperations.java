@@ -1,18 +1,21 @@
 package com.pelaghisoftware.data.actors.operations;
 
+import com.pelaghisoftware.data.deadline.DeadlineMessage;
+
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 
 /**
- * Messages for Database Operations
+ * Messages for Database Operations. Every message carries a deadline so
+ * the accessor can skip work nobody is waiting for anymore.
  */
 public class DBOperations
 {
     /**
      * Message to get a single entity
      */
-    public static class GetEntity
+    public static class GetEntity extends DeadlineMessage
     {
         public String id;
         public Optional<?> entity;
@@ -36,10 +39,41 @@ public class DBOperations
         }
     }
 
+    /**
+     * Message to get several entities in one query
+     */
+    public static class GetEntities extends DeadlineMessage
+    {
+        public long batchId;
+        public List<String> ids = new ArrayList<>();
+        public List<?> entities = new ArrayList<>();
+        public boolean tooMany;
+
+        public GetEntities(){}
+
+        public GetEntities(boolean tooMany)
+        {
+            this.tooMany = tooMany;
+        }
+
+        public GetEntities(long batchId, List<String> ids)
+        {
+            this.batchId = batchId;
+            this.ids = ids;
+        }
+
+        public GetEntities(long batchId, List<String> ids, List<?> entities)
+        {
+            this.batchId = batchId;
+            this.ids = ids;
+            this.entities = entities;
+        }
+    }
+
     /**
      * Message to get a list of all entities
      */
-    public static class GetAllEntities
+    public static class GetAllEntities extends DeadlineMessage
     {
         public List<?> entities = new ArrayList<>();
 
@@ -54,7 +88,7 @@ public class DBOperations
     /**
      * Message to insert and entity
      */
-    public static class InsertEntity
+    public static class InsertEntity extends DeadlineMessage
     {
         public String id;
         public Optional<?> entity;
@@ -87,7 +121,7 @@ public class DBOperations
     /**
      * Message to update an entity
      */
-    public static class UpdateEntity
+    public static class UpdateEntity extends DeadlineMessage
     {
         public String id;
         public Optional<?> entity;
@@ -121,7 +155,7 @@ public class DBOperations
     /**
      * Message to delete an entity
      */
-    public static class DeleteEntity
+    public static class DeleteEntity extends DeadlineMessage
     {
         public String id;
         public Optional<?> entity;
@@ -151,4 +185,13 @@ public class DBOperations
             this.notFound = notFound;
         }
     }
+
+    /**
+     * Message answered with Done once every message queued before it has
+     * been handled. Used to wait for pending writes before shutting down.
+     */
+    public static class Flush
+    {
+        public Flush(){}
+    }
 }
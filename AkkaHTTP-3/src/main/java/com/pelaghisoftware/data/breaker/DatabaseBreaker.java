@@ -0,0 +1,204 @@
+package com.pelaghisoftware.data.breaker;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.pattern.AskTimeoutException;
+import akka.pattern.CircuitBreaker;
+import akka.pattern.CircuitBreakerOpenException;
+import akka.pattern.Patterns;
+import com.pelaghisoftware.data.deadline.DeadlineMessage;
+import com.pelaghisoftware.data.limit.AdaptiveLimiter;
+import com.pelaghisoftware.data.limit.LimitExceededException;
+import com.typesafe.config.Config;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Circuit breaker around asks that end up at the database. Once too
+ * many asks in a row fail or take too long the breaker opens and asks
+ * fail right away with a CircuitBreakerOpenException instead of piling
+ * up behind a slow database. After the reset timeout one ask is let
+ * through to probe the database; it closes the breaker on success and
+ * opens it again on failure.
+ *
+ * The breaker never times asks out itself. Each ask fails at its own
+ * timeout, so every operation type keeps its own deadline. Replies
+ * slower than the slow call threshold still reach the caller but count
+ * as failures for the breaker.
+ *
+ * Asks also have to get past an AdaptiveLimiter, which rejects them
+ * with a LimitExceededException once too many are already waiting on
+ * the database.
+ */
+public class DatabaseBreaker
+{
+    //The breaker's own call timeout. Asks must time out before it so their
+    //own timeout decides when they fail. A zero call timeout would turn it
+    //off, but the breaker then ignores the slow call check.
+    static final Duration CALL_TIMEOUT_BACKSTOP = Duration.ofMinutes(5);
+
+    private final CircuitBreaker breaker;
+
+    //Replies slower than this count as failures for the breaker
+    private final long slowCallNanos;
+
+    //Limits how many asks wait on the database at once
+    private final AdaptiveLimiter limiter;
+
+    //Breaker state changes
+    private final LongAdder opened = new LongAdder();
+    private final LongAdder halfOpened = new LongAdder();
+    private final LongAdder closed = new LongAdder();
+
+    //Outcome of the calls made through the breaker
+    private final LongAdder succeeded = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder slow = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Constructor
+     * @param system Actor system whose scheduler drives the breaker
+     * @param config The "database-breaker" section of the configuration
+     * @param limiter Limits how many asks wait on the database at once
+     */
+    public DatabaseBreaker(ActorSystem system, Config config, AdaptiveLimiter limiter)
+    {
+        this.limiter = limiter;
+        this.slowCallNanos = config.getDuration("slow-call-threshold").toNanos();
+        this.breaker = new CircuitBreaker(system.dispatcher(),
+                                          system.scheduler(),
+                                          config.getInt("max-failures"),
+                                          CALL_TIMEOUT_BACKSTOP,
+                                          config.getDuration("reset-timeout"))
+            .withExponentialBackoff(config.getDuration("max-reset-timeout"))
+            .addOnOpenListener(opened::increment)
+            .addOnHalfOpenListener(halfOpened::increment)
+            .addOnCloseListener(closed::increment)
+            .addOnCallSuccessListener(elapsed -> succeeded.increment())
+            .addOnCallFailureListener(elapsed -> failed.increment())
+            .addOnCallBreakerOpenListener(rejected::increment);
+    }
+
+    /**
+     * Asks an actor through the breaker. Messages that carry a deadline
+     * expire when the ask times out, which is when the returned stage
+     * fails, so the receiver never starts work nobody is waiting for.
+     * @param target Actor to ask
+     * @param message Message to send
+     * @param timeout Time duration before the ask fails
+     * @return CompletionStage that resolves to the reply. Fails with a
+     *         CircuitBreakerOpenException while the breaker is open, or a
+     *         LimitExceededException when the limiter turns the ask away.
+     * @throws IllegalArgumentException If the timeout isn't shorter than the
+     *         breaker's own call timeout
+     */
+    public CompletionStage<Object> ask(ActorRef target, Object message, Duration timeout)
+    {
+        if(timeout.compareTo(CALL_TIMEOUT_BACKSTOP) >= 0)
+        {
+            throw new IllegalArgumentException("Database ask timeout " + timeout + " must be below " + CALL_TIMEOUT_BACKSTOP);
+        }
+
+        if(message instanceof DeadlineMessage)
+        {
+            ((DeadlineMessage) message).expiresIn(timeout);
+        }
+
+        if(!limiter.tryAcquire())
+        {
+            CompletableFuture<Object> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(new LimitExceededException(limiter.snapshot().limit));
+            return rejected;
+        }
+
+        long start = System.nanoTime();
+
+        return breaker.callWithCircuitBreakerCS(() -> Patterns.ask(target, message, timeout),
+                                                (reply, error) -> isFailure(error.isPresent(), System.nanoTime() - start))
+            .whenComplete((reply, error) ->
+            {
+                Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                if(cause instanceof AskTimeoutException)
+                {
+                    timedOut.increment();
+                }
+
+                //Asks the breaker turned away never reached the database
+                if(cause instanceof CircuitBreakerOpenException)
+                {
+                    limiter.releaseUnused();
+                }
+                else
+                {
+                    limiter.release(System.nanoTime() - start, cause == null);
+                }
+            });
+    }
+
+    /**
+     * Decides whether a call counts as a failure for the breaker
+     * @param error Whether the call failed
+     * @param elapsedNanos How long the call took
+     * @return boolean. True if the call failed or was slower than the slow
+     *         call threshold
+     */
+    private boolean isFailure(boolean error, long elapsedNanos)
+    {
+        if(error)
+        {
+            return true;
+        }
+        if(elapsedNanos > slowCallNanos)
+        {
+            slow.increment();
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Takes a point in time copy of the breaker state and counters
+     * @return Snapshot of the breaker
+     */
+    public Snapshot snapshot()
+    {
+        Snapshot snapshot = new Snapshot();
+        snapshot.state = breaker.isOpen() ? "open" : breaker.isHalfOpen() ? "half-open" : "closed";
+        snapshot.currentFailures = breaker.currentFailureCount();
+        snapshot.opened = opened.sum();
+        snapshot.halfOpened = halfOpened.sum();
+        snapshot.closed = closed.sum();
+        snapshot.succeeded = succeeded.sum();
+        snapshot.failed = failed.sum();
+        snapshot.timedOut = timedOut.sum();
+        snapshot.slow = slow.sum();
+        snapshot.rejected = rejected.sum();
+
+        return snapshot;
+    }
+
+    /**
+     * Point in time copy of the breaker. Set up to use Jackson to marshall
+     * data to JSON.
+     */
+    public static class Snapshot
+    {
+        public String state;
+        public int currentFailures;
+        public long opened;
+        public long halfOpened;
+        public long closed;
+        public long succeeded;
+        public long failed;
+        public long timedOut;
+        public long slow;
+        public long rejected;
+    }
+}
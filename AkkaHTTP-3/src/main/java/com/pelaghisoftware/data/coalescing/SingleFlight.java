@@ -0,0 +1,96 @@
+package com.pelaghisoftware.data.coalescing;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent calls for the same key. While a call for a key
+ * is in flight, every other call for that key attaches to the same
+ * future instead of running again. The entry is removed as soon as the
+ * call completes so later calls always see fresh data.
+ * @param <K> The type of key calls are coalesced on
+ * @param <V> The type of value the calls produce
+ */
+public class SingleFlight<K, V>
+{
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder deduplicated = new LongAdder();
+
+    /**
+     * Runs the call for the key, or attaches to the call already in
+     * flight for that key.
+     * @param key Key to coalesce on
+     * @param call Supplier that starts the call. Only used if no call
+     *             for the key is in flight.
+     * @return CompletionStage that completes with the result of the call
+     */
+    public CompletionStage<V> execute(K key, Supplier<CompletionStage<V>> call)
+    {
+        calls.increment();
+
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+
+        //Another caller already started the lookup
+        if(existing != null)
+        {
+            deduplicated.increment();
+            return existing.minimalCompletionStage();
+        }
+
+        try
+        {
+            call.get().whenComplete((value, error) ->
+            {
+                //Remove before completing so no caller attaches to a finished call
+                inFlight.remove(key, future);
+
+                if(error != null)
+                {
+                    future.completeExceptionally(error);
+                }
+                else
+                {
+                    future.complete(value);
+                }
+            });
+        }
+        catch (RuntimeException e)
+        {
+            inFlight.remove(key, future);
+            future.completeExceptionally(e);
+        }
+
+        return future.minimalCompletionStage();
+    }
+
+    /**
+     * Takes a point in time copy of the counters
+     * @return Snapshot of the coalescing counters
+     */
+    public Snapshot snapshot()
+    {
+        Snapshot snapshot = new Snapshot();
+
+        snapshot.calls = calls.sum();
+        snapshot.deduplicated = deduplicated.sum();
+        snapshot.inFlight = inFlight.size();
+
+        return snapshot;
+    }
+
+    /**
+     * Point in time copy of the coalescing counters
+     */
+    public static class Snapshot
+    {
+        public long calls;
+        public long deduplicated;
+        public long inFlight;
+    }
+}
@@ -0,0 +1,61 @@
+package com.pelaghisoftware.data.coalescing;
+
+import akka.actor.ActorRef;
+import com.pelaghisoftware.data.actors.operations.DBOperations;
+import com.pelaghisoftware.data.breaker.DatabaseBreaker;
+import com.pelaghisoftware.data.entity.User;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Looks up single users by name. Concurrent lookups of the same name
+ * share one GetEntity message.
+ */
+public class UserLookups
+{
+    private final SingleFlight<String, Optional<User>> inFlight = new SingleFlight<>();
+
+    //Actor that answers GetEntity messages
+    private final ActorRef lookupAccessor;
+
+    //Circuit breaker the lookups go through
+    private final DatabaseBreaker databaseBreaker;
+
+    /**
+     * Constructor
+     * @param lookupAccessor Actor that answers GetEntity messages. Either the
+     *                       SiteUserAccessor or a UserLookupBatcher in front of it.
+     * @param databaseBreaker Circuit breaker the lookups go through
+     */
+    public UserLookups(ActorRef lookupAccessor, DatabaseBreaker databaseBreaker)
+    {
+        this.lookupAccessor = lookupAccessor;
+        this.databaseBreaker = databaseBreaker;
+    }
+
+    /**
+     * Looks up a user by name
+     * @param userName The userName to look up
+     * @param duration Time duration before the lookup fails
+     * @return CompletionStage that resolves to the user, or empty if the
+     *         user does not exist
+     */
+    @SuppressWarnings("unchecked")
+    public CompletionStage<Optional<User>> lookup(String userName, Duration duration)
+    {
+        return inFlight.execute(userName, () ->
+            databaseBreaker.ask(lookupAccessor, new DBOperations.GetEntity(userName), duration)
+                .thenApply(entity -> (Optional<User>) entity));
+    }
+
+    /**
+     * Takes a point in time copy of the coalescing counters
+     * @return Snapshot of the coalescing counters
+     */
+    public SingleFlight.Snapshot snapshot()
+    {
+        return inFlight.snapshot();
+    }
+}
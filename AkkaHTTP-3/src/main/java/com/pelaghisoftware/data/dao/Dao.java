@@ -1,18 +1,59 @@
 package com.pelaghisoftware.data.dao;
 
+import java.time.Duration;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 /**
  * Interface for all DAO to implement. Creates a specified API for
- * data access
+ * data access. The overloads taking a Duration give the statements
+ * that much time before the database cancels them. The ones without
+ * give them the DAO's timeout ceiling.
  * @param <T> The type of Object to be used in the implementation
  */
 public interface Dao<T>
 {
-    Optional<T> get(String id);
-    List<T> getAll();
-    boolean insert(T t);
-    boolean update(T t);
-    boolean delete(T t);
+    Optional<T> get(String id, Duration timeout);
+    List<T> getAll(Duration timeout);
+    List<T> getMultiple(Collection<String> ids, Duration timeout);
+    boolean insert(T t, Duration timeout);
+    boolean update(T t, Duration timeout);
+    boolean delete(T t, Duration timeout);
+
+    /**
+     * Gets the longest any statement may run
+     * @return Duration. The timeout ceiling
+     */
+    Duration timeoutCeiling();
+
+    default Optional<T> get(String id)
+    {
+        return get(id, timeoutCeiling());
+    }
+
+    default List<T> getAll()
+    {
+        return getAll(timeoutCeiling());
+    }
+
+    default List<T> getMultiple(Collection<String> ids)
+    {
+        return getMultiple(ids, timeoutCeiling());
+    }
+
+    default boolean insert(T t)
+    {
+        return insert(t, timeoutCeiling());
+    }
+
+    default boolean update(T t)
+    {
+        return update(t, timeoutCeiling());
+    }
+
+    default boolean delete(T t)
+    {
+        return delete(t, timeoutCeiling());
+    }
 }
@@ -2,47 +2,86 @@ package com.pelaghisoftware.data.dao.impl;
 import com.pelaghisoftware.data.dao.Dao;
 import com.pelaghisoftware.data.DatabaseCommonOps;
 import com.pelaghisoftware.data.entity.User;
+import com.pelaghisoftware.jfr.DaoOperationEvent;
+import com.typesafe.config.ConfigFactory;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.Transaction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Duration;
 import java.util.*;
+import java.util.function.Function;
 
 /**
  * DAO to perform crud operations for Users.
+ *
+ * Every operation runs in a transaction with a timeout. Hibernate turns
+ * the time left in the transaction into a JDBC query timeout on each
+ * statement, so the driver cancels statements that run past it and the
+ * connection goes back to the pool. Sessions are closed, and failed
+ * transactions rolled back, however an operation ends.
  */
 public class UserDao implements Dao<User>
 {
     private final static Logger logger =
             LoggerFactory.getLogger(UserDao.class);
 
+    //Entity name in the JFR events
+    private static final String ENTITY = "User";
+
     protected SessionFactory sessionFactory;
 
+    //Longest any statement may run, whatever the caller asks for
+    protected final Duration timeoutCeiling;
+
     /**
      * Creates an UserDao object that will query the
-     * SITE_USERS table
+     * SITE_USERS table. The timeout ceiling is read from the config.
      */
     public UserDao(SessionFactory sessionFactory)
+    {
+        this(sessionFactory, ConfigFactory.load().getDuration("database.query-timeout-ceiling"));
+    }
+
+    /**
+     * Creates an UserDao object that will query the
+     * SITE_USERS table
+     * @param sessionFactory Session Factory to create new sessions with the database
+     * @param timeoutCeiling Longest any statement may run
+     */
+    public UserDao(SessionFactory sessionFactory, Duration timeoutCeiling)
     {
         this.sessionFactory = sessionFactory;
+        this.timeoutCeiling = timeoutCeiling;
     }
 
     /**
      * Gets the specified user from the Database
      * @param id The userName for the specified user
+     * @param timeout Time duration before the query is cancelled
      * @return Optional. Will return a blank User if no user was
      *         found.
      */
     @Override
-    public Optional<User> get(String id)
+    public Optional<User> get(String id, Duration timeout)
     {
-        Session session = sessionFactory.openSession();
+        DaoOperationEvent event = new DaoOperationEvent(ENTITY, "get");
+        event.begin();
 
-        User user = session.get(User.class, id);
+        User user;
+        try
+        {
+            user = inTransaction(timeout, session -> session.get(User.class, id));
+        }
+        catch (RuntimeException e)
+        {
+            event.finish(0, false);
+            throw e;
+        }
 
-        session.close();
+        event.finish(user == null ? 0 : 1, true);
 
         if(user == null)
         {
@@ -54,126 +93,239 @@ public class UserDao implements Dao<User>
 
     /**
      * Gets all users from the Database
+     * @param timeout Time duration before the query is cancelled
      * @return List with all Users in the Database
      */
     @Override
-    public List<User> getAll()
+    public List<User> getAll(Duration timeout)
     {
-        Session session = sessionFactory.openSession();
+        DaoOperationEvent event = new DaoOperationEvent(ENTITY, "getAll");
+        event.begin();
 
-        List<User> users =
-                DatabaseCommonOps.loadAllData(User.class, session);
+        try
+        {
+            List<User> users = inTransaction(timeout, session ->
+                    DatabaseCommonOps.loadAllData(User.class, session));
 
-        session.close();
+            event.finish(users.size(), true);
+            return users;
+        }
+        catch (RuntimeException e)
+        {
+            event.finish(0, false);
+            throw e;
+        }
+    }
 
-        return users;
+    /**
+     * Gets the specified users from the Database in one query
+     * @param ids The userNames of the users to get
+     * @param timeout Time duration before the query is cancelled
+     * @return List with the Users that were found. Users that
+     *         don't exist are left out.
+     */
+    @Override
+    public List<User> getMultiple(Collection<String> ids, Duration timeout)
+    {
+        if(ids.isEmpty())
+        {
+            return new ArrayList<>();
+        }
+
+        DaoOperationEvent event = new DaoOperationEvent(ENTITY, "getMultiple");
+        event.begin();
+
+        try
+        {
+            List<User> users = inTransaction(timeout, session ->
+                    DatabaseCommonOps.loadDataByIds(User.class, "userName", ids, session));
+
+            event.finish(users.size(), true);
+            return users;
+        }
+        catch (RuntimeException e)
+        {
+            event.finish(0, false);
+            throw e;
+        }
     }
 
     /**
      * Inserts a new user into the database
      * @param user The user to insert into the database.
+     * @param timeout Time duration before the statements are cancelled
      * @return True if the insertion was successful.
      *         False otherwise
      */
     @Override
-    public boolean insert(User user)
+    public boolean insert(User user, Duration timeout)
     {
-        Session session = sessionFactory.openSession();
+        DaoOperationEvent event = new DaoOperationEvent(ENTITY, "insert");
+        event.begin();
 
-        Transaction tx = null;
         try
         {
-            tx = session.beginTransaction();
-
-            session.save(user);
-
-            tx.commit();
-
-            session.close();
+            inTransaction(timeout, session ->
+            {
+                session.save(user);
+                return null;
+            });
         }
         catch (Exception e)
         {
-            if (tx != null)
-            {
-                tx.rollback();
-            }
-            session.close();
             logger.error(e.getMessage());
+            event.finish(0, false);
             return false;
         }
 
+        event.finish(1, true);
         return true;
     }
 
     /**
      * Updates the specified user's information.
      * @param user The user to update
+     * @param timeout Time duration before the statements are cancelled
      * @return True if the update was successful.
      *         False otherwise
      */
     @Override
-    public boolean update(User user)
+    public boolean update(User user, Duration timeout)
     {
-        Session session = sessionFactory.openSession();
+        DaoOperationEvent event = new DaoOperationEvent(ENTITY, "update");
+        event.begin();
 
-        Transaction tx = null;
         try
         {
-            tx = session.beginTransaction();
-
-            session.update(user);
-
-            tx.commit();
-
-            session.close();
+            inTransaction(timeout, session ->
+            {
+                session.update(user);
+                return null;
+            });
         }
         catch (Exception e)
         {
-            if (tx != null)
-            {
-                tx.rollback();
-            }
-            session.close();
             logger.error(e.getMessage());
+            event.finish(0, false);
             return false;
         }
 
+        event.finish(1, true);
         return true;
     }
 
     /**
      * Delete's the specified user's information
      * @param user The user to delete
+     * @param timeout Time duration before the statements are cancelled
      * @return True if the deletion was successful.
      *         False otherwise
      */
     @Override
-    public boolean delete(User user)
+    public boolean delete(User user, Duration timeout)
     {
-        Session session = sessionFactory.openSession();
+        DaoOperationEvent event = new DaoOperationEvent(ENTITY, "delete");
+        event.begin();
 
-        Transaction tx = null;
         try
         {
-            tx = session.beginTransaction();
-
-            session.delete(user);
-
-            tx.commit();
-
-            session.close();
+            inTransaction(timeout, session ->
+            {
+                session.delete(user);
+                return null;
+            });
         }
         catch (Exception e)
         {
-            if (tx != null)
-            {
-                tx.rollback();
-            }
-            session.close();
             logger.error(e.getMessage());
+            event.finish(0, false);
             return false;
         }
 
+        event.finish(1, true);
         return true;
     }
+
+    /**
+     * Gets the longest any statement may run
+     * @return Duration. The timeout ceiling
+     */
+    @Override
+    public Duration timeoutCeiling()
+    {
+        return timeoutCeiling;
+    }
+
+    /**
+     * Runs work in a transaction on a new session. The transaction is
+     * rolled back if the work or the commit fails, and the session, with
+     * its pooled connection, is closed on every path.
+     * @param timeout Time duration before the statements are cancelled
+     * @param work What to do with the session
+     * @param <T> What the work returns
+     * @return T. What the work returned
+     */
+    private <T> T inTransaction(Duration timeout, Function<Session, T> work)
+    {
+        try(Session session = sessionFactory.openSession())
+        {
+            Transaction tx = beginTransaction(session, timeout);
+            try
+            {
+                T result = work.apply(session);
+
+                tx.commit();
+
+                return result;
+            }
+            catch (RuntimeException e)
+            {
+                rollback(tx);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Rolls a transaction back if it can be. A failed rollback is logged
+     * rather than thrown so it doesn't hide why the work failed.
+     * @param tx The transaction
+     */
+    private void rollback(Transaction tx)
+    {
+        if(!tx.getStatus().canRollback())
+        {
+            return;
+        }
+
+        try
+        {
+            tx.rollback();
+        }
+        catch (RuntimeException e)
+        {
+            logger.warn("Rollback failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Begins a transaction whose statements are cancelled once the
+     * timeout, capped at the ceiling, runs out
+     * @param session A current session
+     * @param timeout Time duration before the statements are cancelled
+     * @return Transaction. The started transaction
+     */
+    private Transaction beginTransaction(Session session, Duration timeout)
+    {
+        Duration capped = timeout.compareTo(timeoutCeiling) < 0 ? timeout : timeoutCeiling;
+
+        //JDBC query timeouts are in whole seconds and 0 means no timeout
+        int seconds = (int) Math.max(1, (capped.toMillis() + 999) / 1000);
+
+        Transaction tx = session.getTransaction();
+        tx.setTimeout(seconds);
+        tx.begin();
+
+        return tx;
+    }
 }
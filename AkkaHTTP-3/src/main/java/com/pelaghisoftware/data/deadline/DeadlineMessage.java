@@ -0,0 +1,51 @@
+package com.pelaghisoftware.data.deadline;
+
+import java.time.Duration;
+
+/**
+ * Base class for messages whose sender stops waiting for a reply at
+ * some point. The deadline is absolute, so a message that sat in a
+ * mailbox past it can be thrown away without doing the work.
+ *
+ * Messages sent on behalf of a request also carry the request's trace
+ * ID, so the receiving actor can log under it.
+ */
+public abstract class DeadlineMessage
+{
+    //Key of the trace ID in the logging MDC
+    public static final String TRACE_ID_MDC_KEY = "traceId";
+
+    //Time in milliseconds since the epoch after which nobody waits for the reply
+    public long deadline = Long.MAX_VALUE;
+
+    //Trace ID of the request the message was sent for. Null if there is none.
+    public String traceId;
+
+    /**
+     * Sets the deadline relative to now. A deadline that is already
+     * sooner is kept.
+     * @param timeout Time duration the sender waits for a reply
+     */
+    public void expiresIn(Duration timeout)
+    {
+        deadline = Math.min(deadline, System.currentTimeMillis() + timeout.toMillis());
+    }
+
+    /**
+     * Gets the time left before the deadline
+     * @return Duration. Zero if the deadline has passed
+     */
+    public Duration remaining()
+    {
+        return Duration.ofMillis(Math.max(0, deadline - System.currentTimeMillis()));
+    }
+
+    /**
+     * Checks whether the sender stopped waiting for a reply
+     * @return boolean. True if the deadline has passed
+     */
+    public boolean isExpired()
+    {
+        return System.currentTimeMillis() > deadline;
+    }
+}
@@ -0,0 +1,36 @@
+package com.pelaghisoftware.data.deadline;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts messages that were thrown away because their deadline passed
+ * before an actor got to them.
+ */
+public class DiscardedWork
+{
+    private final Map<String, LongAdder> discarded = new ConcurrentHashMap<>();
+
+    /**
+     * Counts a discarded message
+     * @param operation Name of the operation that was skipped
+     */
+    public void record(String operation)
+    {
+        discarded.computeIfAbsent(operation, name -> new LongAdder()).increment();
+    }
+
+    /**
+     * Takes a point in time copy of the counters
+     * @return Map of operation name to the number of discarded messages
+     */
+    public Map<String, Long> snapshot()
+    {
+        Map<String, Long> snapshot = new TreeMap<>();
+        discarded.forEach((operation, count) -> snapshot.put(operation, count.sum()));
+
+        return snapshot;
+    }
+}
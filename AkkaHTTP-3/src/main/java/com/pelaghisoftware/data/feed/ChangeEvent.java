@@ -0,0 +1,77 @@
+package com.pelaghisoftware.data.feed;
+
+import com.fasterxml.jackson.annotation.JsonGetter;
+
+/**
+ * Class describing a single change to an entity. Set up to use
+ * Jackson to marshall data to JSON.
+ */
+public class ChangeEvent
+{
+    public final static String INSERT = "insert";
+    public final static String UPDATE = "update";
+    public final static String DELETE = "delete";
+
+    //Tells a subscriber it missed events that can no longer be replayed
+    public final static String RESET = "reset";
+
+    private final long sequence;
+    private final String type;
+    private final String id;
+    private final long timestamp;
+
+    /**
+     * Create a ChangeEvent
+     * @param sequence Position of the event in the feed
+     * @param type Type of change
+     * @param id Id of the changed entity
+     * @param timestamp Time of the change in milliseconds since the epoch
+     */
+    public ChangeEvent(long sequence, String type, String id, long timestamp)
+    {
+        this.sequence = sequence;
+        this.type = type;
+        this.id = id;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Gets the position of the event in the feed
+     * @return long. The sequence number
+     */
+    @JsonGetter("sequence")
+    public long getSequence()
+    {
+        return sequence;
+    }
+
+    /**
+     * Gets the type of change
+     * @return String. insert, update, delete or reset
+     */
+    @JsonGetter("type")
+    public String getType()
+    {
+        return type;
+    }
+
+    /**
+     * Gets the id of the changed entity
+     * @return String. The id
+     */
+    @JsonGetter("id")
+    public String getId()
+    {
+        return id;
+    }
+
+    /**
+     * Gets the time of the change
+     * @return long. Milliseconds since the epoch
+     */
+    @JsonGetter("timestamp")
+    public long getTimestamp()
+    {
+        return timestamp;
+    }
+}
@@ -0,0 +1,175 @@
+package com.pelaghisoftware.data.feed;
+
+import akka.NotUsed;
+import akka.actor.ActorRef;
+import akka.stream.OverflowStrategy;
+import akka.stream.javadsl.Keep;
+import akka.stream.javadsl.Source;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Broadcasts entity changes to any number of subscribers. Every event
+ * gets a sequence number, and the most recent events are kept so a
+ * subscriber that reconnects can resume where it left off.
+ *
+ * A subscriber that misses events, because it fell too far behind or
+ * its buffer overflowed, gets a reset event instead of a silent gap.
+ */
+public class ChangeFeed
+{
+    //Most recent events, oldest first
+    private final ArrayDeque<ChangeEvent> history = new ArrayDeque<>();
+    private final int historySize;
+
+    private long sequence = 0;
+
+    //Live subscribers, each the actor feeding its stream
+    private final Set<ActorRef> subscribers = new HashSet<>();
+
+    /**
+     * Constructor
+     * @param historySize How many events are kept for resuming subscribers
+     */
+    public ChangeFeed(int historySize)
+    {
+        this.historySize = historySize;
+    }
+
+    /**
+     * Publishes a change to every subscriber
+     * @param type Type of change
+     * @param id Id of the changed entity
+     */
+    public synchronized void publish(String type, String id)
+    {
+        ChangeEvent event = new ChangeEvent(++sequence, type, id, System.currentTimeMillis());
+
+        history.addLast(event);
+        if(history.size() > historySize)
+        {
+            history.removeFirst();
+        }
+
+        for(ActorRef subscriber : subscribers)
+        {
+            subscriber.tell(event, ActorRef.noSender());
+        }
+    }
+
+    /**
+     * Creates a stream of changes for one subscriber
+     * @param lastSeen Sequence number of the last event the subscriber saw.
+     *                 Events after it are replayed if they are still kept.
+     *                 Negative to only receive new events.
+     * @param bufferSize Events buffered for this subscriber
+     * @param disconnectSlow If true a subscriber that falls a full buffer
+     *                       behind is disconnected, otherwise its oldest
+     *                       buffered events are dropped and it gets a
+     *                       reset event
+     * @return Source of changes for the subscriber
+     */
+    public Source<ChangeEvent, NotUsed> subscribe(long lastSeen, int bufferSize, boolean disconnectSlow)
+    {
+        List<ChangeEvent> replay;
+        long replayedUpTo;
+
+        synchronized(this)
+        {
+            replayedUpTo = sequence;
+            replay = lastSeen >= 0 ? eventsAfter(lastSeen) : Collections.emptyList();
+        }
+
+        OverflowStrategy overflow = disconnectSlow ? OverflowStrategy.fail() : OverflowStrategy.dropHead();
+
+        //Live events are sent to the subscriber's actor from the moment the stream
+        //starts. Anything published between now and then is caught up from history.
+        Source<ChangeEvent, ActorRef> live = Source.<ChangeEvent>actorRef(bufferSize, overflow)
+            .mapMaterializedValue(subscriber -> attach(subscriber, replayedUpTo));
+
+        return Source.from(replay)
+            .concatMat(live, Keep.right())
+            .statefulMapConcat(() -> new SequenceGaps(lastSeen >= 0 ? lastSeen : replayedUpTo))
+            .watchTermination((subscriber, done) ->
+            {
+                done.whenComplete((result, error) -> detach(subscriber));
+                return NotUsed.getInstance();
+            });
+    }
+
+    /**
+     * Gets the number of connected subscribers
+     * @return long. Subscriber count
+     */
+    public synchronized long subscriberCount()
+    {
+        return subscribers.size();
+    }
+
+    /**
+     * Starts sending live events to a subscriber, after the ones
+     * published since its replay was taken
+     * @param subscriber Actor feeding the subscriber's stream
+     * @param after Sequence number of the last event already in its replay
+     * @return ActorRef. The subscriber
+     */
+    private synchronized ActorRef attach(ActorRef subscriber, long after)
+    {
+        for(ChangeEvent event : eventsAfter(after))
+        {
+            subscriber.tell(event, ActorRef.noSender());
+        }
+        subscribers.add(subscriber);
+
+        return subscriber;
+    }
+
+    /**
+     * Stops sending events to a subscriber whose stream ended
+     * @param subscriber Actor feeding the subscriber's stream
+     */
+    private synchronized void detach(ActorRef subscriber)
+    {
+        subscribers.remove(subscriber);
+    }
+
+    /**
+     * Gets the kept events after a sequence number, or a reset event if
+     * some of them are no longer kept. Call while holding the lock.
+     * @param lastSeen Sequence number of the last event seen
+     * @return List of events, empty if there are none
+     */
+    private List<ChangeEvent> eventsAfter(long lastSeen)
+    {
+        List<ChangeEvent> events = new ArrayList<>();
+        if(lastSeen == sequence)
+        {
+            return events;
+        }
+
+        //Events between lastSeen and the oldest kept event are gone, or the
+        //sequence started over since the subscriber last connected
+        if(lastSeen > sequence ||
+           history.isEmpty() ||
+           history.peekFirst().getSequence() > lastSeen + 1)
+        {
+            events.add(new ChangeEvent(sequence, ChangeEvent.RESET, null, System.currentTimeMillis()));
+            return events;
+        }
+
+        for(ChangeEvent event : history)
+        {
+            if(event.getSequence() > lastSeen)
+            {
+                events.add(event);
+            }
+        }
+
+        return events;
+    }
+}
@@ -0,0 +1,57 @@
+package com.pelaghisoftware.data.feed;
+
+import akka.japi.function.Function;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Checks the sequence numbers of one subscriber's events. Events it has
+ * already seen are skipped, and a reset event is put in front of any
+ * event that comes after a gap, e.g. when its buffer dropped events.
+ */
+class SequenceGaps implements Function<ChangeEvent, Iterable<ChangeEvent>>
+{
+    //Sequence number of the last event passed on
+    private long last;
+
+    /**
+     * Constructor
+     * @param last Sequence number of the last event the subscriber has seen
+     */
+    SequenceGaps(long last)
+    {
+        this.last = last;
+    }
+
+    /**
+     * Checks the next event
+     * @param event The event
+     * @return Iterable of the events to pass on
+     */
+    @Override
+    public Iterable<ChangeEvent> apply(ChangeEvent event)
+    {
+        if(ChangeEvent.RESET.equals(event.getType()))
+        {
+            last = event.getSequence();
+            return Collections.singletonList(event);
+        }
+
+        if(event.getSequence() <= last)
+        {
+            return Collections.emptyList();
+        }
+
+        long previous = last;
+        last = event.getSequence();
+
+        if(event.getSequence() > previous + 1)
+        {
+            ChangeEvent reset = new ChangeEvent(event.getSequence() - 1, ChangeEvent.RESET, null, event.getTimestamp());
+            return Arrays.asList(reset, event);
+        }
+
+        return Collections.singletonList(event);
+    }
+}
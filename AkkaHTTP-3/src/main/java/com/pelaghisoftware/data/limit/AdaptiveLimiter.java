@@ -0,0 +1,151 @@
+package com.pelaghisoftware.data.limit;
+
+import com.typesafe.config.Config;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits how many database bound operations may run at once. The limit
+ * adapts to the observed latency with additive increase, multiplicative
+ * decrease (AIMD): every operation that finishes under the latency
+ * threshold while the limit is being used raises the limit by one, and
+ * every operation that is slower or fails lowers it by the backoff ratio.
+ * Operations over the limit are rejected instead of queueing.
+ */
+public class AdaptiveLimiter
+{
+    private final int minLimit;
+    private final int maxLimit;
+    private final long latencyThresholdNanos;
+    private final double backoffRatio;
+
+    //Current limit. Only changed while holding the lock on this object.
+    private volatile double limit;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder backedOff = new LongAdder();
+
+    /**
+     * Constructor
+     * @param config The "database-limiter" section of the configuration
+     */
+    public AdaptiveLimiter(Config config)
+    {
+        this(config.getInt("initial-limit"),
+             config.getInt("min-limit"),
+             config.getInt("max-limit"),
+             config.getDuration("latency-threshold").toNanos(),
+             config.getDouble("backoff-ratio"));
+    }
+
+    /**
+     * Constructor
+     * @param initialLimit Limit to start with
+     * @param minLimit Lowest the limit may go
+     * @param maxLimit Highest the limit may go
+     * @param latencyThresholdNanos Operations slower than this lower the limit
+     * @param backoffRatio What the limit is multiplied by when it is lowered
+     */
+    public AdaptiveLimiter(int initialLimit,
+                           int minLimit,
+                           int maxLimit,
+                           long latencyThresholdNanos,
+                           double backoffRatio)
+    {
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencyThresholdNanos = latencyThresholdNanos;
+        this.backoffRatio = backoffRatio;
+    }
+
+    /**
+     * Tries to admit an operation. Every admitted operation has to be
+     * followed by a call to release.
+     * @return boolean. True if the operation may run
+     */
+    public boolean tryAcquire()
+    {
+        while(true)
+        {
+            int current = inFlight.get();
+            if(current >= (int) limit)
+            {
+                rejected.increment();
+                return false;
+            }
+
+            if(inFlight.compareAndSet(current, current + 1))
+            {
+                admitted.increment();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Releases an admitted operation and adjusts the limit
+     * @param latencyNanos How long the operation took
+     * @param succeeded False if the operation failed or timed out
+     */
+    public void release(long latencyNanos, boolean succeeded)
+    {
+        int current = inFlight.getAndDecrement();
+
+        synchronized(this)
+        {
+            if(!succeeded || latencyNanos > latencyThresholdNanos)
+            {
+                limit = Math.max(minLimit, limit * backoffRatio);
+                backedOff.increment();
+            }
+            //Only grow while the limit is actually being used
+            else if(current * 2 >= limit)
+            {
+                limit = Math.min(maxLimit, limit + 1);
+            }
+        }
+    }
+
+    /**
+     * Releases an admitted operation that never reached the database,
+     * without adjusting the limit
+     */
+    public void releaseUnused()
+    {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * Takes a point in time copy of the limiter
+     * @return Snapshot of the limiter
+     */
+    public Snapshot snapshot()
+    {
+        Snapshot snapshot = new Snapshot();
+        snapshot.limit = (int) limit;
+        snapshot.inFlight = inFlight.get();
+        snapshot.admitted = admitted.sum();
+        snapshot.rejected = rejected.sum();
+        snapshot.backedOff = backedOff.sum();
+
+        return snapshot;
+    }
+
+    /**
+     * Point in time copy of the limiter. Set up to use Jackson to marshall
+     * data to JSON.
+     */
+    public static class Snapshot
+    {
+        public int limit;
+        public int inFlight;
+        public long admitted;
+        public long rejected;
+        public long backedOff;
+    }
+}
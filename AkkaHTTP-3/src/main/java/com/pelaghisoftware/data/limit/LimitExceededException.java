@@ -0,0 +1,17 @@
+package com.pelaghisoftware.data.limit;
+
+/**
+ * Thrown when an operation is rejected because the concurrency limit
+ * has been reached
+ */
+public class LimitExceededException extends RuntimeException
+{
+    /**
+     * Constructor
+     * @param limit The limit that was reached
+     */
+    public LimitExceededException(int limit)
+    {
+        super("Concurrency limit of " + limit + " reached");
+    }
+}
@@ -0,0 +1,36 @@
+package com.pelaghisoftware.data.limit;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts messages that were dropped because an actor's bounded mailbox
+ * was full.
+ */
+public class MailboxOverflow
+{
+    private final Map<String, LongAdder> dropped = new ConcurrentHashMap<>();
+
+    /**
+     * Counts a dropped message
+     * @param actorName Name of the actor whose mailbox was full
+     */
+    public void record(String actorName)
+    {
+        dropped.computeIfAbsent(actorName, name -> new LongAdder()).increment();
+    }
+
+    /**
+     * Takes a point in time copy of the counters
+     * @return Map of actor name to the number of dropped messages
+     */
+    public Map<String, Long> snapshot()
+    {
+        Map<String, Long> snapshot = new TreeMap<>();
+        dropped.forEach((actorName, count) -> snapshot.put(actorName, count.sum()));
+
+        return snapshot;
+    }
+}
@@ -0,0 +1,176 @@
+package com.pelaghisoftware.data.pool;
+
+import com.mchange.v2.c3p0.PooledDataSource;
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.stat.Statistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.Optional;
+
+/**
+ * Reads Hibernate statistics and c3p0 pool gauges from a SessionFactory.
+ * Checkout wait times are only available when the SessionFactory uses
+ * InstrumentedConnectionProvider.
+ */
+public class DatabaseStats
+{
+    private final static Logger logger =
+            LoggerFactory.getLogger(DatabaseStats.class);
+
+    private final Statistics statistics;
+    private final Optional<PooledDataSource> pool;
+    private final Optional<InstrumentedConnectionProvider> instrumented;
+    private final int maxPoolSize;
+
+    /**
+     * Constructor
+     * @param sessionFactory Session Factory to read the stats of
+     */
+    public DatabaseStats(SessionFactory sessionFactory)
+    {
+        this.statistics = sessionFactory.getStatistics();
+
+        ConnectionProvider provider = sessionFactory.unwrap(SessionFactoryImplementor.class)
+            .getServiceRegistry()
+            .getService(ConnectionProvider.class);
+
+        this.instrumented = provider instanceof InstrumentedConnectionProvider
+            ? Optional.of((InstrumentedConnectionProvider) provider)
+            : Optional.empty();
+
+        DataSource dataSource = provider.isUnwrappableAs(DataSource.class) ? provider.unwrap(DataSource.class) : null;
+        this.pool = dataSource instanceof PooledDataSource
+            ? Optional.of((PooledDataSource) dataSource)
+            : Optional.empty();
+
+        Object maxSize = sessionFactory.getProperties().get("hibernate.c3p0.max_size");
+        this.maxPoolSize = maxSize == null ? 0 : Integer.parseInt(maxSize.toString());
+    }
+
+    /**
+     * Gets the instrumented connection provider, if the SessionFactory uses one
+     * @return Optional. The provider, or empty
+     */
+    public Optional<InstrumentedConnectionProvider> instrumentedProvider()
+    {
+        return instrumented;
+    }
+
+    /**
+     * Takes a point in time copy of the stats. Served at /admin/database.
+     * @return Snapshot of the stats
+     */
+    public Snapshot snapshot()
+    {
+        Snapshot snapshot = new Snapshot();
+
+        PoolSnapshot poolSnapshot = snapshot.pool;
+        poolSnapshot.maxSize = maxPoolSize;
+        pool.ifPresent(dataSource ->
+        {
+            try
+            {
+                poolSnapshot.connections = dataSource.getNumConnectionsDefaultUser();
+                poolSnapshot.busy = dataSource.getNumBusyConnectionsDefaultUser();
+                poolSnapshot.idle = dataSource.getNumIdleConnectionsDefaultUser();
+                poolSnapshot.awaitingCheckout = dataSource.getNumThreadsAwaitingCheckoutDefaultUser();
+            }
+            catch (SQLException e)
+            {
+                logger.debug("Couldn't read the pool gauges: {}", e.getMessage());
+            }
+        });
+        instrumented.ifPresent(provider ->
+        {
+            InstrumentedConnectionProvider.CheckoutSnapshot checkouts = provider.snapshot();
+            poolSnapshot.checkouts = checkouts.checkouts;
+            poolSnapshot.checkoutNanos = checkouts.checkoutNanos;
+            poolSnapshot.meanCheckoutMillis = checkouts.checkouts == 0 ? 0 : checkouts.checkoutNanos / 1e6 / checkouts.checkouts;
+            poolSnapshot.maxCheckoutMillis = checkouts.maxCheckoutNanos / 1e6;
+            poolSnapshot.slowCheckouts = checkouts.slowCheckouts;
+            poolSnapshot.failedCheckouts = checkouts.failedCheckouts;
+            poolSnapshot.heldConnections = checkouts.heldConnections;
+            poolSnapshot.leakedConnections = checkouts.leakedConnections;
+            poolSnapshot.forceClosedConnections = checkouts.forceClosedConnections;
+        });
+
+        HibernateSnapshot hibernate = snapshot.hibernate;
+        hibernate.statisticsEnabled = statistics.isStatisticsEnabled();
+        hibernate.sessionsOpened = statistics.getSessionOpenCount();
+        hibernate.sessionsClosed = statistics.getSessionCloseCount();
+        hibernate.transactions = statistics.getTransactionCount();
+        hibernate.successfulTransactions = statistics.getSuccessfulTransactionCount();
+        hibernate.connectionsObtained = statistics.getConnectCount();
+        hibernate.statementsPrepared = statistics.getPrepareStatementCount();
+        hibernate.queriesExecuted = statistics.getQueryExecutionCount();
+        hibernate.slowestQueryMillis = statistics.getQueryExecutionMaxTime();
+        hibernate.slowestQuery = statistics.getQueryExecutionMaxTimeQueryString();
+        hibernate.entitiesLoaded = statistics.getEntityLoadCount();
+        hibernate.entitiesFetched = statistics.getEntityFetchCount();
+        hibernate.entitiesInserted = statistics.getEntityInsertCount();
+        hibernate.entitiesUpdated = statistics.getEntityUpdateCount();
+        hibernate.entitiesDeleted = statistics.getEntityDeleteCount();
+        hibernate.flushes = statistics.getFlushCount();
+
+        return snapshot;
+    }
+
+    /**
+     * Database stats at a point in time. Set up to use Jackson to marshall
+     * data to JSON.
+     */
+    public static class Snapshot
+    {
+        public PoolSnapshot pool = new PoolSnapshot();
+        public HibernateSnapshot hibernate = new HibernateSnapshot();
+    }
+
+    /**
+     * c3p0 pool gauges and checkout times
+     */
+    public static class PoolSnapshot
+    {
+        public int maxSize;
+        public int connections;
+        public int busy;
+        public int idle;
+        public int awaitingCheckout;
+        public long checkouts;
+        public long checkoutNanos;
+        public double meanCheckoutMillis;
+        public double maxCheckoutMillis;
+        public long slowCheckouts;
+        public long failedCheckouts;
+        public long heldConnections;
+        public long leakedConnections;
+        public long forceClosedConnections;
+    }
+
+    /**
+     * Hibernate statistics. All zero unless statistics are enabled.
+     */
+    public static class HibernateSnapshot
+    {
+        public boolean statisticsEnabled;
+        public long sessionsOpened;
+        public long sessionsClosed;
+        public long transactions;
+        public long successfulTransactions;
+        public long connectionsObtained;
+        public long statementsPrepared;
+        public long queriesExecuted;
+        public long slowestQueryMillis;
+        public String slowestQuery;
+        public long entitiesLoaded;
+        public long entitiesFetched;
+        public long entitiesInserted;
+        public long entitiesUpdated;
+        public long entitiesDeleted;
+        public long flushes;
+    }
+}
@@ -0,0 +1,342 @@
+package com.pelaghisoftware.data.pool;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.hibernate.c3p0.internal.C3P0ConnectionProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+
+/**
+ * c3p0 connection provider that times how long each connection checkout
+ * waits for the pool. Checkouts slower than
+ * database-stats.checkout-warn-threshold are logged at WARN, at most once
+ * per database-stats.warn-interval so a saturated pool doesn't flood the
+ * log. Set hibernate.connection.provider_class to this class to use it.
+ *
+ * With database-stats.statement-timing on, connections are also wrapped
+ * so every JDBC statement is timed by StatementTiming.
+ *
+ * With database-stats.leak-detection on, every checkout remembers where
+ * it happened. A connection held past leak-detection.threshold, which for
+ * a Session means one that was never closed, is logged once with that
+ * stack trace and counted as leaked. One held past
+ * leak-detection.force-close-after is closed so the pool gets it back.
+ */
+public class InstrumentedConnectionProvider extends C3P0ConnectionProvider
+{
+    private final static Logger logger =
+            LoggerFactory.getLogger(InstrumentedConnectionProvider.class);
+
+    private final long warnThresholdNanos;
+    private final long warnIntervalNanos;
+
+    //Empty when database-stats.statement-timing is off
+    private final Optional<StatementTiming> statementTiming;
+
+    private final LongAdder checkouts = new LongAdder();
+    private final LongAdder checkoutNanos = new LongAdder();
+    private final LongAccumulator maxCheckoutNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder slowCheckouts = new LongAdder();
+    private final LongAdder failedCheckouts = new LongAdder();
+
+    //Slow checkouts since the last warning, and when that warning was logged
+    private final LongAdder unreportedSlowCheckouts = new LongAdder();
+    private final AtomicLong lastWarning = new AtomicLong(System.nanoTime());
+
+    //Connections checked out and not yet closed. Empty unless leak detection is on.
+    private final Map<Connection, Checkout> held = new ConcurrentHashMap<>();
+    private final LongAdder leakedConnections = new LongAdder();
+    private final LongAdder forceClosedConnections = new LongAdder();
+    private final boolean leakDetection;
+    private final long leakThresholdNanos;
+    private final long forceCloseNanos;
+    private final ScheduledExecutorService leakDetector;
+
+    //Receives the wait of every checkout, e.g. to feed a histogram
+    private volatile LongConsumer checkoutListener = nanos -> {};
+
+    /**
+     * Constructor. Called by Hibernate. The thresholds are read from the config.
+     */
+    public InstrumentedConnectionProvider()
+    {
+        Config config = ConfigFactory.load().getConfig("database-stats");
+        this.warnThresholdNanos = config.getDuration("checkout-warn-threshold").toNanos();
+        this.warnIntervalNanos = config.getDuration("warn-interval").toNanos();
+
+        if(config.getBoolean("statement-timing"))
+        {
+            this.statementTiming = Optional.of(new StatementTiming(config.getDuration("slow-statement-threshold").toNanos(),
+                                                                   config.getInt("max-tracked-statements"),
+                                                                   config.getInt("max-cached-sql")));
+        }
+        else
+        {
+            this.statementTiming = Optional.empty();
+        }
+
+        Config leaks = config.getConfig("leak-detection");
+        this.leakDetection = leaks.getBoolean("enabled");
+        this.leakThresholdNanos = leaks.getDuration("threshold").toNanos();
+        this.forceCloseNanos = leaks.getDuration("force-close-after").toNanos();
+        if(leakDetection)
+        {
+            this.leakDetector = Executors.newSingleThreadScheduledExecutor(task ->
+            {
+                Thread thread = new Thread(task, "connection-leak-detector");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long interval = leaks.getDuration("interval").toNanos();
+            leakDetector.scheduleWithFixedDelay(this::detectLeaks, interval, interval, TimeUnit.NANOSECONDS);
+        }
+        else
+        {
+            this.leakDetector = null;
+        }
+    }
+
+    /**
+     * Checks a connection out of the pool and records how long it took
+     * @return Connection. A pooled connection, wrapped if statements are timed
+     * @throws SQLException If no connection could be checked out
+     */
+    @Override
+    public Connection getConnection() throws SQLException
+    {
+        long start = System.nanoTime();
+
+        Connection connection;
+        try
+        {
+            connection = super.getConnection();
+        }
+        catch (SQLException e)
+        {
+            failedCheckouts.increment();
+            throw e;
+        }
+
+        long checkedOutAt = System.nanoTime();
+        record(checkedOutAt - start);
+
+        if(statementTiming.isPresent())
+        {
+            connection = TimedConnection.wrap(connection, statementTiming.get());
+        }
+
+        if(leakDetection)
+        {
+            held.put(connection, new Checkout(checkedOutAt));
+        }
+
+        return connection;
+    }
+
+    /**
+     * Returns a connection to the pool
+     * @param connection A connection from getConnection
+     * @throws SQLException If the connection couldn't be closed
+     */
+    @Override
+    public void closeConnection(Connection connection) throws SQLException
+    {
+        if(leakDetection)
+        {
+            held.remove(connection);
+        }
+
+        super.closeConnection(connection);
+    }
+
+    /**
+     * Stops the leak detector and closes the pool
+     */
+    @Override
+    public void stop()
+    {
+        if(leakDetector != null)
+        {
+            leakDetector.shutdownNow();
+        }
+
+        super.stop();
+    }
+
+    /**
+     * Sets what receives the wait of every checkout
+     * @param checkoutListener Receives the wait in nanoseconds
+     */
+    public void onCheckout(LongConsumer checkoutListener)
+    {
+        this.checkoutListener = checkoutListener;
+    }
+
+    /**
+     * Gets the statement timing, used to register a listener for every
+     * statement
+     * @return Optional. Empty if database-stats.statement-timing is off
+     */
+    public Optional<StatementTiming> statementTiming()
+    {
+        return statementTiming;
+    }
+
+    /**
+     * Takes a point in time copy of the checkout counters
+     * @return Snapshot of the checkouts
+     */
+    public CheckoutSnapshot snapshot()
+    {
+        CheckoutSnapshot snapshot = new CheckoutSnapshot();
+        snapshot.checkouts = checkouts.sum();
+        snapshot.checkoutNanos = checkoutNanos.sum();
+        snapshot.maxCheckoutNanos = maxCheckoutNanos.get();
+        snapshot.slowCheckouts = slowCheckouts.sum();
+        snapshot.failedCheckouts = failedCheckouts.sum();
+        snapshot.heldConnections = leakDetection ? held.size() : -1;
+        snapshot.leakedConnections = leakedConnections.sum();
+        snapshot.forceClosedConnections = forceClosedConnections.sum();
+        return snapshot;
+    }
+
+    /**
+     * Logs connections held past the leak threshold and closes those held
+     * past force-close-after. Runs every leak-detection.interval.
+     */
+    private void detectLeaks()
+    {
+        long now = System.nanoTime();
+
+        held.forEach((connection, checkout) ->
+        {
+            long heldNanos = now - checkout.checkedOutAt;
+
+            if(forceCloseNanos > 0 && heldNanos >= forceCloseNanos)
+            {
+                //Only if it wasn't closed meanwhile
+                if(held.remove(connection, checkout))
+                {
+                    forceClose(connection, checkout, heldNanos);
+                }
+            }
+            else if(heldNanos >= leakThresholdNanos && !checkout.reported)
+            {
+                checkout.reported = true;
+                leakedConnections.increment();
+                logger.warn("Connection held for {} ms, over the {} ms leak threshold. Checked out here:",
+                            heldNanos / 1_000_000,
+                            leakThresholdNanos / 1_000_000,
+                            checkout.site);
+            }
+        });
+    }
+
+    /**
+     * Closes a connection that has been held too long, returning it to
+     * the pool. Whoever holds it gets an error on their next use of it.
+     * @param connection The connection
+     * @param checkout Where it was checked out
+     * @param heldNanos How long it has been held
+     */
+    private void forceClose(Connection connection, Checkout checkout, long heldNanos)
+    {
+        if(!checkout.reported)
+        {
+            leakedConnections.increment();
+        }
+
+        logger.warn("Force closing connection held for {} ms. Checked out here:", heldNanos / 1_000_000, checkout.site);
+        try
+        {
+            super.closeConnection(connection);
+            forceClosedConnections.increment();
+        }
+        catch (SQLException | RuntimeException e)
+        {
+            logger.warn("Couldn't force close connection: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Records a checkout and warns if it was slow
+     * @param waitNanos How long the checkout waited
+     */
+    private void record(long waitNanos)
+    {
+        checkouts.increment();
+        checkoutNanos.add(waitNanos);
+        maxCheckoutNanos.accumulate(waitNanos);
+        checkoutListener.accept(waitNanos);
+
+        if(waitNanos < warnThresholdNanos)
+        {
+            return;
+        }
+
+        slowCheckouts.increment();
+        unreportedSlowCheckouts.increment();
+
+        //Only one thread logs per interval
+        long last = lastWarning.get();
+        long now = System.nanoTime();
+        if(now - last >= warnIntervalNanos && lastWarning.compareAndSet(last, now))
+        {
+            logger.warn("Connection checkout waited {} ms, over the {} ms threshold. {} slow checkouts since the last warning. The pool may be too small.",
+                        waitNanos / 1_000_000,
+                        warnThresholdNanos / 1_000_000,
+                        unreportedSlowCheckouts.sumThenReset());
+        }
+    }
+
+    /**
+     * Checkout counters at a point in time
+     */
+    public static class CheckoutSnapshot
+    {
+        public long checkouts;
+        public long checkoutNanos;
+        public long maxCheckoutNanos;
+        public long slowCheckouts;
+        public long failedCheckouts;
+        //Connections checked out now, or -1 if leak detection is off
+        public long heldConnections;
+        public long leakedConnections;
+        public long forceClosedConnections;
+    }
+
+    /**
+     * A connection checked out and not yet closed
+     */
+    private static class Checkout
+    {
+        private final long checkedOutAt;
+
+        //Stack trace of the checkout, logged if the connection leaks
+        private final Throwable site = new Throwable("Connection checkout");
+
+        private volatile boolean reported;
+
+        /**
+         * Constructor. Records the caller's stack trace.
+         * @param checkedOutAt When the connection was checked out, from System.nanoTime
+         */
+        Checkout(long checkedOutAt)
+        {
+            this.checkedOutAt = checkedOutAt;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.pelaghisoftware.data.pool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ObjLongConsumer;
+import java.util.regex.Pattern;
+
+/**
+ * Times JDBC statements by their normalized SQL. Literals are replaced
+ * with ? and lists of parameters are collapsed, so every run of a query
+ * lands under the same statement however many ids it was given.
+ * Statements slower than the threshold are logged at WARN with their
+ * bind parameter count and the application code that ran them.
+ *
+ * Recording takes no locks. At most maxStatements distinct normalized
+ * statements are tracked. The rest are recorded as OTHER so ad hoc SQL
+ * can't grow the metrics without bound. The normalized form of at most
+ * maxCachedSql raw SQL strings is cached; others are normalized on every
+ * run. Many raw strings can share one normalized statement, e.g. queries
+ * with their literals inlined, so the two are sized separately.
+ */
+public class StatementTiming
+{
+    private final static Logger logger =
+            LoggerFactory.getLogger(StatementTiming.class);
+
+    public static final String OTHER = "other";
+
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("\\b\\d+(?:\\.\\d+)?\\b");
+    private static final Pattern PARAMETER_LIST = Pattern.compile("\\?(?:\\s*,\\s*\\?)+");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    //Frames from these packages are skipped when looking for the caller
+    private static final String APPLICATION_PACKAGE = "com.pelaghisoftware.";
+    private static final String POOL_PACKAGE = StatementTiming.class.getPackage().getName() + ".";
+
+    private final long slowThresholdNanos;
+    private final int maxStatements;
+    private final int maxCachedSql;
+
+    //Normalized statements being timed, and how many. The count is
+    //reserved before adding so concurrent statements can't overfill it.
+    private final Set<String> tracked = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger trackedCount = new AtomicInteger();
+
+    //Raw SQL to the statement it is timed as, and how many are cached
+    private final Map<String, String> normalized = new ConcurrentHashMap<>();
+    private final AtomicInteger cachedCount = new AtomicInteger();
+
+    //Receives every statement's normalized SQL and time, e.g. to feed histograms
+    private volatile ObjLongConsumer<String> listener = (statement, nanos) -> {};
+
+    /**
+     * Constructor
+     * @param slowThresholdNanos Statements slower than this are logged
+     * @param maxStatements Most distinct normalized statements tracked
+     * @param maxCachedSql Most raw SQL strings whose normalized form is cached
+     */
+    public StatementTiming(long slowThresholdNanos, int maxStatements, int maxCachedSql)
+    {
+        this.slowThresholdNanos = slowThresholdNanos;
+        this.maxStatements = maxStatements;
+        this.maxCachedSql = maxCachedSql;
+    }
+
+    /**
+     * Sets what receives the time of every statement
+     * @param listener Receives the normalized SQL and the time in nanoseconds
+     */
+    public void onStatement(ObjLongConsumer<String> listener)
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * Records a finished statement
+     * @param sql SQL as given to the driver
+     * @param nanos How long it ran
+     * @param parameters Number of bind parameters set
+     */
+    public void record(String sql, long nanos, int parameters)
+    {
+        String statement = normalize(sql);
+        listener.accept(statement, nanos);
+
+        if(nanos >= slowThresholdNanos)
+        {
+            logger.warn("Slow statement took {} ms with {} bind parameters from {}: {}",
+                        nanos / 1_000_000,
+                        parameters,
+                        caller().orElse("unknown"),
+                        statement);
+        }
+    }
+
+    /**
+     * Gets the normalized form of a statement, or OTHER once
+     * maxStatements distinct normalized statements are tracked
+     * @param sql SQL as given to the driver
+     * @return String. The normalized SQL
+     */
+    public String normalize(String sql)
+    {
+        if(sql == null)
+        {
+            return OTHER;
+        }
+
+        String statement = normalized.get(sql);
+        if(statement != null)
+        {
+            return statement;
+        }
+
+        statement = track(normalizeSql(sql));
+
+        //A statement that became OTHER stays OTHER, as tracked statements are never dropped
+        if(reserve(cachedCount, maxCachedSql) && normalized.putIfAbsent(sql, statement) != null)
+        {
+            cachedCount.decrementAndGet();
+        }
+
+        return statement;
+    }
+
+    /**
+     * Starts tracking a normalized statement if there is room
+     * @param statement The normalized SQL
+     * @return String. The statement, or OTHER if it isn't tracked
+     */
+    private String track(String statement)
+    {
+        if(tracked.contains(statement))
+        {
+            return statement;
+        }
+
+        if(!reserve(trackedCount, maxStatements))
+        {
+            return OTHER;
+        }
+
+        //Another thread may have added the same statement since the check
+        if(!tracked.add(statement))
+        {
+            trackedCount.decrementAndGet();
+        }
+
+        return statement;
+    }
+
+    /**
+     * Takes one slot of a count if it is below a limit
+     * @param count The count
+     * @param limit Most slots
+     * @return boolean. True if a slot was taken
+     */
+    private static boolean reserve(AtomicInteger count, int limit)
+    {
+        while(true)
+        {
+            int current = count.get();
+            if(current >= limit)
+            {
+                return false;
+            }
+            if(count.compareAndSet(current, current + 1))
+            {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Replaces literals with ?, collapses parameter lists and whitespace
+     * @param sql SQL as given to the driver
+     * @return String. The normalized SQL
+     */
+    static String normalizeSql(String sql)
+    {
+        String statement = STRING_LITERAL.matcher(sql).replaceAll("?");
+        statement = NUMBER_LITERAL.matcher(statement).replaceAll("?");
+        statement = PARAMETER_LIST.matcher(statement).replaceAll("?, ...");
+        statement = WHITESPACE.matcher(statement).replaceAll(" ");
+
+        return statement.trim();
+    }
+
+    /**
+     * Finds the first application frame outside this package, e.g. the
+     * UserDao method that ran the statement. Only used for slow
+     * statements, as walking the stack isn't free.
+     * @return Optional. Class, method and line, or empty if there is no
+     *         application frame
+     */
+    private static Optional<String> caller()
+    {
+        return StackWalker.getInstance().walk(frames -> frames
+            .filter(frame -> frame.getClassName().startsWith(APPLICATION_PACKAGE))
+            .filter(frame -> !frame.getClassName().startsWith(POOL_PACKAGE))
+            .findFirst()
+            .map(frame -> frame.getClassName() + "." + frame.getMethodName() + ":" + frame.getLineNumber()));
+    }
+}
@@ -0,0 +1,94 @@
+package com.pelaghisoftware.data.pool;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+
+/**
+ * Wraps a pooled connection so every statement it creates is timed by
+ * StatementTiming. Everything else is passed straight to the connection.
+ */
+class TimedConnection implements InvocationHandler
+{
+    private final Connection connection;
+    private final StatementTiming timing;
+
+    //The proxy this handles, returned by the statements' getConnection
+    private Connection proxy;
+
+    /**
+     * Constructor
+     * @param connection The pooled connection
+     * @param timing Where statements are recorded
+     */
+    private TimedConnection(Connection connection, StatementTiming timing)
+    {
+        this.connection = connection;
+        this.timing = timing;
+    }
+
+    /**
+     * Wraps a connection
+     * @param connection The pooled connection
+     * @param timing Where statements are recorded
+     * @return Connection. The wrapped connection
+     */
+    static Connection wrap(Connection connection, StatementTiming timing)
+    {
+        TimedConnection handler = new TimedConnection(connection, timing);
+        handler.proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                                                           new Class<?>[]{Connection.class},
+                                                           handler);
+        return handler.proxy;
+    }
+
+    /**
+     * Calls the connection, wrapping any statement it returns
+     * @param proxy The wrapped connection
+     * @param method Method called
+     * @param args Arguments of the call
+     * @return Object. What the connection returned
+     * @throws Throwable What the connection threw
+     */
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+    {
+        //Compared by identity, as the connection would compare itself to the proxy
+        if(method.getName().equals("equals") && method.getParameterCount() == 1)
+        {
+            return proxy == args[0];
+        }
+        if(method.getName().equals("hashCode") && method.getParameterCount() == 0)
+        {
+            return System.identityHashCode(proxy);
+        }
+
+        Object result;
+        try
+        {
+            result = method.invoke(connection, args);
+        }
+        catch (InvocationTargetException e)
+        {
+            throw e.getCause();
+        }
+
+        Class<?> type = method.getReturnType();
+        if(type == PreparedStatement.class || type == CallableStatement.class)
+        {
+            //prepareStatement and prepareCall always take the SQL first
+            return TimedStatement.wrap((Statement) result, type, this.proxy, (String) args[0], timing);
+        }
+        if(type == Statement.class)
+        {
+            return TimedStatement.wrap((Statement) result, type, this.proxy, null, timing);
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,143 @@
+package com.pelaghisoftware.data.pool;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.Set;
+
+/**
+ * Wraps a statement so each execution is recorded with StatementTiming,
+ * along with the number of bind parameters that were set. A statement is
+ * only ever used by one thread at a time, so the parameter count needs no
+ * synchronization.
+ */
+class TimedStatement implements InvocationHandler
+{
+    private static final Set<String> EXECUTE_METHODS = Set.of(
+            "execute", "executeQuery", "executeUpdate", "executeLargeUpdate", "executeBatch", "executeLargeBatch");
+
+    private final Statement statement;
+    private final Connection connection;
+    private final StatementTiming timing;
+
+    //SQL of a prepared statement, or null for a plain Statement
+    private final String sql;
+
+    //Highest bind parameter index set since the last clearParameters
+    private int parameters;
+
+    /**
+     * Constructor
+     * @param statement The driver's statement
+     * @param connection The wrapped connection that created it
+     * @param sql SQL it was prepared with, or null
+     * @param timing Where executions are recorded
+     */
+    private TimedStatement(Statement statement, Connection connection, String sql, StatementTiming timing)
+    {
+        this.statement = statement;
+        this.connection = connection;
+        this.sql = sql;
+        this.timing = timing;
+    }
+
+    /**
+     * Wraps a statement
+     * @param statement The driver's statement
+     * @param type Statement, PreparedStatement or CallableStatement
+     * @param connection The wrapped connection that created it
+     * @param sql SQL it was prepared with, or null for a plain Statement
+     * @param timing Where executions are recorded
+     * @return Statement. The wrapped statement, of the given type
+     */
+    static Statement wrap(Statement statement, Class<?> type, Connection connection, String sql, StatementTiming timing)
+    {
+        return (Statement) Proxy.newProxyInstance(Statement.class.getClassLoader(),
+                                                  new Class<?>[]{type},
+                                                  new TimedStatement(statement, connection, sql, timing));
+    }
+
+    /**
+     * Calls the statement, timing executions and counting bind parameters
+     * @param proxy The wrapped statement
+     * @param method Method called
+     * @param args Arguments of the call
+     * @return Object. What the statement returned
+     * @throws Throwable What the statement threw
+     */
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+    {
+        String name = method.getName();
+
+        if(name.equals("getConnection"))
+        {
+            return connection;
+        }
+
+        if(!EXECUTE_METHODS.contains(name))
+        {
+            countParameters(method, args);
+            return call(method, args);
+        }
+
+        //A plain Statement is given its SQL when executed
+        String executed = sql != null ? sql : args != null && args.length > 0 ? (String) args[0] : null;
+
+        long start = System.nanoTime();
+        try
+        {
+            return call(method, args);
+        }
+        finally
+        {
+            timing.record(executed, System.nanoTime() - start, parameters);
+        }
+    }
+
+    /**
+     * Keeps track of the bind parameters set. Only the setters of
+     * PreparedStatement and CallableStatement bind parameters, not those
+     * of Statement such as setFetchSize.
+     * @param method Method called
+     * @param args Arguments of the call
+     */
+    private void countParameters(Method method, Object[] args)
+    {
+        if(method.getDeclaringClass() == Statement.class)
+        {
+            return;
+        }
+
+        if(method.getName().equals("clearParameters"))
+        {
+            parameters = 0;
+        }
+        else if(method.getName().startsWith("set") && args != null && args.length > 0 && args[0] instanceof Integer)
+        {
+            parameters = Math.max(parameters, (Integer) args[0]);
+        }
+    }
+
+    /**
+     * Calls the driver's statement
+     * @param method Method called
+     * @param args Arguments of the call
+     * @return Object. What the statement returned
+     * @throws Throwable What the statement threw
+     */
+    private Object call(Method method, Object[] args) throws Throwable
+    {
+        try
+        {
+            return method.invoke(statement, args);
+        }
+        catch (InvocationTargetException e)
+        {
+            throw e.getCause();
+        }
+    }
+}
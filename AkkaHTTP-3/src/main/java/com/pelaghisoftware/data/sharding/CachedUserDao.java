@@ -0,0 +1,134 @@
+package com.pelaghisoftware.data.sharding;
+
+import com.pelaghisoftware.data.dao.Dao;
+import com.pelaghisoftware.data.entity.User;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Dao for a UserEntity that keeps its one user in memory. The user is
+ * read from the database the first time and then kept up to date by the
+ * writes, which go through to the database. Only one entity owns a user
+ * in the whole cluster, so nothing else changes it behind the cache's
+ * back as long as every write goes through the cluster.
+ *
+ * Not thread safe. Only ever used by its entity actor.
+ */
+public class CachedUserDao implements Dao<User>
+{
+    private final Dao<User> userDao;
+
+    //The user, or empty if it doesn't exist. Null until read or after a failed write.
+    private Optional<User> user;
+
+    /**
+     * Constructor
+     * @param userDao DAO the reads and writes go through to
+     */
+    public CachedUserDao(Dao<User> userDao)
+    {
+        this.userDao = userDao;
+    }
+
+    /**
+     * Gets the user, from memory once it has been read
+     * @param id The userName
+     * @param timeout Time duration before the query is cancelled
+     * @return Optional. The user, or empty if there is none
+     */
+    @Override
+    public Optional<User> get(String id, Duration timeout)
+    {
+        if(user == null)
+        {
+            user = userDao.get(id, timeout);
+        }
+
+        return user;
+    }
+
+    /**
+     * Gets all users from the database. Not cached.
+     * @param timeout Time duration before the query is cancelled
+     * @return List with all Users in the Database
+     */
+    @Override
+    public List<User> getAll(Duration timeout)
+    {
+        return userDao.getAll(timeout);
+    }
+
+    /**
+     * Gets users from the database. Not cached.
+     * @param ids The userNames of the users to get
+     * @param timeout Time duration before the query is cancelled
+     * @return List with the Users that were found
+     */
+    @Override
+    public List<User> getMultiple(Collection<String> ids, Duration timeout)
+    {
+        return userDao.getMultiple(ids, timeout);
+    }
+
+    /**
+     * Inserts the user and keeps it
+     * @param user The user to insert
+     * @param timeout Time duration before the statements are cancelled
+     * @return True if the insertion was successful
+     */
+    @Override
+    public boolean insert(User user, Duration timeout)
+    {
+        return written(userDao.insert(user, timeout), Optional.of(user));
+    }
+
+    /**
+     * Updates the user and keeps the new one
+     * @param user The user to update
+     * @param timeout Time duration before the statements are cancelled
+     * @return True if the update was successful
+     */
+    @Override
+    public boolean update(User user, Duration timeout)
+    {
+        return written(userDao.update(user, timeout), Optional.of(user));
+    }
+
+    /**
+     * Deletes the user and remembers that there is none
+     * @param user The user to delete
+     * @param timeout Time duration before the statements are cancelled
+     * @return True if the deletion was successful
+     */
+    @Override
+    public boolean delete(User user, Duration timeout)
+    {
+        return written(userDao.delete(user, timeout), Optional.empty());
+    }
+
+    /**
+     * Gets the timeout ceiling of the DAO it goes through to
+     * @return Duration. The timeout ceiling
+     */
+    @Override
+    public Duration timeoutCeiling()
+    {
+        return userDao.timeoutCeiling();
+    }
+
+    /**
+     * Updates the cache after a write. After a failed write the database
+     * may or may not have changed, so the user is read again next time.
+     * @param completed Whether the write completed
+     * @param written The user as it is after the write
+     * @return boolean. completed
+     */
+    private boolean written(boolean completed, Optional<User> written)
+    {
+        user = completed ? written : null;
+        return completed;
+    }
+}
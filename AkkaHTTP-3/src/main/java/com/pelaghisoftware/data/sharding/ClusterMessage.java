@@ -0,0 +1,9 @@
+package com.pelaghisoftware.data.sharding;
+
+/**
+ * Marks messages sent between cluster nodes. They are serialized as JSON
+ * by JsonClusterSerializer, which reference.conf binds to this interface.
+ */
+public interface ClusterMessage
+{
+}
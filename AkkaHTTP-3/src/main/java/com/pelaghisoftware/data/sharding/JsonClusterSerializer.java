@@ -0,0 +1,102 @@
+package com.pelaghisoftware.data.sharding;
+
+import akka.serialization.SerializerWithStringManifest;
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.UncheckedIOException;
+
+/**
+ * Serializes ClusterMessages as JSON of their public fields, with the
+ * class name as the manifest. Getters are ignored so helpers such as
+ * DeadlineMessage.isExpired don't end up in the JSON.
+ */
+public class JsonClusterSerializer extends SerializerWithStringManifest
+{
+    //Unique among the serializers of the actor system. Akka keeps 0 to 40 for itself.
+    private static final int IDENTIFIER = 7401;
+
+    private final ObjectMapper mapper = new ObjectMapper()
+        .setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.NONE)
+        .setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.PUBLIC_ONLY)
+        .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    /**
+     * Gets the id Akka tells serializers apart by
+     * @return int. The identifier
+     */
+    @Override
+    public int identifier()
+    {
+        return IDENTIFIER;
+    }
+
+    /**
+     * Gets the manifest of a message
+     * @param message The message
+     * @return String. The name of its class
+     */
+    @Override
+    public String manifest(Object message)
+    {
+        return message.getClass().getName();
+    }
+
+    /**
+     * Serializes a message
+     * @param message The message
+     * @return byte[]. Its JSON
+     */
+    @Override
+    public byte[] toBinary(Object message)
+    {
+        try
+        {
+            return mapper.writeValueAsBytes(message);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Deserializes a message
+     * @param bytes Its JSON
+     * @param manifest The name of its class
+     * @return Object. The message
+     * @throws NotSerializableException If the class is unknown or not a ClusterMessage
+     */
+    @Override
+    public Object fromBinary(byte[] bytes, String manifest) throws NotSerializableException
+    {
+        Class<?> type;
+        try
+        {
+            type = Class.forName(manifest);
+        }
+        catch (ClassNotFoundException e)
+        {
+            throw new NotSerializableException("Unknown message " + manifest);
+        }
+
+        //Only ever create the messages this serializer is bound to
+        if(!ClusterMessage.class.isAssignableFrom(type))
+        {
+            throw new NotSerializableException(manifest + " is not a ClusterMessage");
+        }
+
+        try
+        {
+            return mapper.readValue(bytes, type);
+        }
+        catch (IOException e)
+        {
+            throw new NotSerializableException("Couldn't read " + manifest + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.pelaghisoftware.data.sharding;
+
+import akka.Done;
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import com.pelaghisoftware.data.actors.operations.DBOperations;
+import com.pelaghisoftware.data.deadline.DeadlineMessage;
+import com.pelaghisoftware.data.deadline.DiscardedWork;
+import com.pelaghisoftware.data.entity.User;
+import com.pelaghisoftware.data.sharding.operations.UserShardOperations;
+import com.pelaghisoftware.jfr.TimedPasswordEncoder;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+import static akka.pattern.Patterns.ask;
+import static akka.pattern.Patterns.pipe;
+
+/**
+ * Takes the place of the SiteUserAccessor when the server runs as a
+ * cluster. Answers the same DBOperations messages with the same replies,
+ * so the routes, the AuthResolver and the UserLookupBatcher don't know
+ * the difference, but sends the work for each user to its UserEntity
+ * through the shard region. The entity may be on this node or another.
+ *
+ * Listing every user isn't the work of any one entity, so GetAllEntities
+ * is answered by a SiteUserAccessor on this node.
+ *
+ * New passwords are encoded here, before the command leaves this node,
+ * so only their hashes are sent to other nodes.
+ */
+public class ShardedUserAccessor extends AbstractActor
+{
+    private final ActorRef region;
+    private final ActorRef localAccessor;
+    private final Duration timeout;
+    private final DiscardedWork discardedWork;
+
+    //Used to encrypt passwords before they are sent to their entity
+    private final PasswordEncoder encoder = new TimedPasswordEncoder(new BCryptPasswordEncoder());
+
+    //Commands that haven't been answered yet, waited for by Flush
+    private final Set<CompletableFuture<?>> pending = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Creates props for a new ShardedUserAccessor
+     * @param region ActorRef to the User shard region
+     * @param localAccessorProps Props of the SiteUserAccessor that lists every user
+     * @param timeout Longest time to wait for an entity, for messages without a deadline
+     * @param discardedWork Counts messages dropped because their deadline passed
+     * @return Props. The props to initialize the actor in the actor system.
+     */
+    public static Props props(ActorRef region,
+                              Props localAccessorProps,
+                              Duration timeout,
+                              DiscardedWork discardedWork)
+    {
+        return Props.create(ShardedUserAccessor.class,
+                            () -> new ShardedUserAccessor(region, localAccessorProps, timeout, discardedWork));
+    }
+
+    /**
+     * Constructor
+     * @param region ActorRef to the User shard region
+     * @param localAccessorProps Props of the SiteUserAccessor that lists every user
+     * @param timeout Longest time to wait for an entity, for messages without a deadline
+     * @param discardedWork Counts messages dropped because their deadline passed
+     */
+    public ShardedUserAccessor(ActorRef region,
+                               Props localAccessorProps,
+                               Duration timeout,
+                               DiscardedWork discardedWork)
+    {
+        this.region = region;
+        this.localAccessor = getContext().actorOf(localAccessorProps, "LocalUserAccessor");
+        this.timeout = timeout;
+        this.discardedWork = discardedWork;
+    }
+
+    /**
+     * Runs when receiving a message
+     * @return
+     */
+    @Override
+    public Receive createReceive()
+    {
+        return receiveBuilder()
+                //Nobody is waiting for the reply to an expired message, so skip the work
+                .match(DeadlineMessage.class, DeadlineMessage::isExpired, value ->
+                    discardedWork.record(value.getClass().getSimpleName())
+                )
+                .match(DBOperations.GetEntity.class, value ->
+                    reply(command(UserShardOperations.UserCommand.GET, value.id, null, value)
+                          .thenApply(UserShardOperations.UserReply::toUser))
+                )
+                .match(DBOperations.GetEntities.class, value ->
+                {
+                    //One lookup per user, each answered by its own entity
+                    List<CompletableFuture<Optional<User>>> lookups = new ArrayList<>();
+                    for(String id : value.ids)
+                    {
+                        lookups.add(command(UserShardOperations.UserCommand.GET, id, null, value)
+                                    .thenApply(UserShardOperations.UserReply::toUser)
+                                    .toCompletableFuture());
+                    }
+
+                    reply(CompletableFuture.allOf(lookups.toArray(new CompletableFuture[0])).thenApply(done ->
+                    {
+                        List<User> found = new ArrayList<>();
+                        lookups.forEach(lookup -> lookup.join().ifPresent(found::add));
+                        return new DBOperations.GetEntities(value.batchId, value.ids, found);
+                    }));
+                })
+                .match(DBOperations.GetAllEntities.class, value ->
+                    localAccessor.forward(value, getContext())
+                )
+                .match(DBOperations.InsertEntity.class, value ->
+                {
+                    if(!value.entity.isPresent())
+                    {
+                        getSender().tell(new DBOperations.InsertEntity(Optional.empty(), false), self());
+                        return;
+                    }
+
+                    User user = (User) value.entity.get();
+                    reply(write(UserShardOperations.UserCommand.INSERT, user, value)
+                          .thenApply(result -> new DBOperations.InsertEntity(result.toUser(), result.completed)));
+                })
+                .match(DBOperations.UpdateEntity.class, value ->
+                {
+                    if(!value.entity.isPresent())
+                    {
+                        getSender().tell(new DBOperations.UpdateEntity(false, false), self());
+                        return;
+                    }
+
+                    User user = (User) value.entity.get();
+                    reply(write(UserShardOperations.UserCommand.UPDATE, user, value)
+                          .thenApply(result -> new DBOperations.UpdateEntity(result.completed, result.notFound)));
+                })
+                .match(DBOperations.DeleteEntity.class, value ->
+                {
+                    if(!value.entity.isPresent())
+                    {
+                        getSender().tell(new DBOperations.DeleteEntity(false, false), self());
+                        return;
+                    }
+
+                    User user = (User) value.entity.get();
+                    reply(command(UserShardOperations.UserCommand.DELETE, user.getUserName(), null, value)
+                          .thenApply(result -> new DBOperations.DeleteEntity(result.completed, result.notFound)));
+                })
+                //Done once every command sent before this message has been answered
+                .match(DBOperations.Flush.class, value ->
+                {
+                    List<CompletableFuture<?>> waiting = new ArrayList<>(pending);
+                    waiting.add(ask(localAccessor, value, timeout).toCompletableFuture());
+
+                    reply(CompletableFuture.allOf(waiting.toArray(new CompletableFuture[0]))
+                          .handle((done, error) -> Done.getInstance()));
+                })
+                .build();
+    }
+
+    /**
+     * Sends an insert or update to the entity of a user, after encoding
+     * its new password. Encoding is slow on purpose, so it runs on this
+     * actor's dispatcher and other users' commands aren't held up.
+     * @param operation INSERT or UPDATE
+     * @param user The user with the password as sent, or a null password
+     *             to keep the old one
+     * @param request Message the command is sent for
+     * @return CompletionStage that resolves to the entity's reply
+     */
+    private CompletionStage<UserShardOperations.UserReply> write(String operation,
+                                                                 User user,
+                                                                 DeadlineMessage request)
+    {
+        String password = user.getEncryptedPassword();
+        if(password == null)
+        {
+            return command(operation, user.getUserName(), null, request);
+        }
+
+        Executor executor = getContext().dispatcher();
+        CompletableFuture<UserShardOperations.UserReply> answer =
+            CompletableFuture.supplyAsync(() -> encoder.encode(password), executor)
+                .thenCompose(passwordHash -> command(operation, user.getUserName(), passwordHash, request));
+
+        return track(answer);
+    }
+
+    /**
+     * Sends a command to the entity of a user
+     * @param operation GET, INSERT, UPDATE or DELETE
+     * @param userName The user
+     * @param passwordHash The encoded password, or null
+     * @param request Message the command is sent for
+     * @return CompletionStage that resolves to the entity's reply
+     */
+    private CompletionStage<UserShardOperations.UserReply> command(String operation,
+                                                                   String userName,
+                                                                   String passwordHash,
+                                                                   DeadlineMessage request)
+    {
+        //Messages sent without a deadline, e.g. inserting the admin at startup, still get an answer in time
+        Duration remaining = request.remaining().compareTo(timeout) < 0 ? request.remaining() : timeout;
+
+        CompletableFuture<UserShardOperations.UserReply> answer =
+            ask(region, new UserShardOperations.UserCommand(operation, userName, passwordHash, request), remaining)
+                .toCompletableFuture()
+                .thenApply(UserShardOperations.UserReply.class::cast);
+
+        return track(answer);
+    }
+
+    /**
+     * Keeps a command in pending until it is answered
+     * @param answer The command's answer
+     * @param <T> Type of the answer
+     * @return CompletableFuture. answer
+     */
+    private <T> CompletableFuture<T> track(CompletableFuture<T> answer)
+    {
+        pending.add(answer);
+        answer.whenComplete((result, error) -> pending.remove(answer));
+
+        return answer;
+    }
+
+    /**
+     * Sends the result to the sender once it is there. A failure is
+     * sent as akka.actor.Status.Failure, which fails the sender's ask.
+     * @param result The result
+     */
+    private void reply(CompletionStage<?> result)
+    {
+        pipe(result, getContext().dispatcher()).to(getSender(), self());
+    }
+}
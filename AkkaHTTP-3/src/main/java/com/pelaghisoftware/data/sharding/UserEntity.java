@@ -0,0 +1,140 @@
+package com.pelaghisoftware.data.sharding;
+
+import akka.actor.PoisonPill;
+import akka.actor.Props;
+import akka.actor.ReceiveTimeout;
+import akka.cluster.sharding.ShardRegion;
+import com.pelaghisoftware.data.actors.SiteUserAccessor;
+import com.pelaghisoftware.data.actors.operations.DBOperations;
+import com.pelaghisoftware.data.dao.Dao;
+import com.pelaghisoftware.data.deadline.DeadlineMessage;
+import com.pelaghisoftware.data.deadline.DiscardedWork;
+import com.pelaghisoftware.data.entity.User;
+import com.pelaghisoftware.data.feed.ChangeFeed;
+import com.pelaghisoftware.data.sharding.operations.UserShardOperations;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Sharded actor that owns a single user. Cluster Sharding keeps exactly
+ * one of these per userName across the cluster, so every read and write
+ * of a user goes through the same actor and its in-memory copy of the
+ * user stays correct. Passivates itself after being idle for a while.
+ *
+ * The work is the same as the SiteUserAccessor's, so it reuses it with
+ * a CachedUserDao in front of the database. Passwords arrive already
+ * encoded by the ShardedUserAccessor that sent the command.
+ */
+public class UserEntity extends SiteUserAccessor
+{
+    /**
+     * Creates props for a new UserEntity
+     * @param userDao DAO to access User entities with
+     * @param changeFeed Feed of this node to publish user changes to
+     * @param discardedWork Counts messages dropped because their deadline passed
+     * @param passivateAfter How long the entity stays in memory without messages
+     * @return Props. The props to initialize the actor in the actor system.
+     */
+    public static Props props(Dao<User> userDao,
+                              ChangeFeed changeFeed,
+                              DiscardedWork discardedWork,
+                              Duration passivateAfter)
+    {
+        return Props.create(UserEntity.class, () -> new UserEntity(userDao, changeFeed, discardedWork, passivateAfter));
+    }
+
+    /**
+     * Constructor
+     * @param userDao DAO to access User entities with
+     * @param changeFeed Feed of this node to publish user changes to
+     * @param discardedWork Counts messages dropped because their deadline passed
+     * @param passivateAfter How long the entity stays in memory without messages
+     */
+    public UserEntity(Dao<User> userDao,
+                      ChangeFeed changeFeed,
+                      DiscardedWork discardedWork,
+                      Duration passivateAfter)
+    {
+        super(new CachedUserDao(userDao), changeFeed, discardedWork);
+
+        getContext().setReceiveTimeout(passivateAfter);
+    }
+
+    /**
+     * Runs when receiving a message
+     * @return
+     */
+    @Override
+    public Receive createReceive()
+    {
+        return receiveBuilder()
+                //Nobody is waiting for the reply to an expired message, so skip the work
+                .match(DeadlineMessage.class, DeadlineMessage::isExpired, this::discard)
+                .match(UserShardOperations.UserCommand.class, value ->
+                    //Send the return message to the sender
+                    getSender().tell(handle(value), self())
+                )
+                //Idle, so let the shard stop the entity. Messages that arrive meanwhile are buffered by the shard.
+                .match(ReceiveTimeout.class, value ->
+                    getContext().getParent().tell(new ShardRegion.Passivate(PoisonPill.getInstance()), self())
+                )
+                .build();
+    }
+
+    /**
+     * Keeps the password as it is, since the ShardedUserAccessor encoded
+     * it before sending the command
+     * @param passwordHash The encoded password
+     * @return String. passwordHash
+     */
+    @Override
+    protected String encodePassword(String passwordHash)
+    {
+        return passwordHash;
+    }
+
+    /**
+     * Runs a command the way the SiteUserAccessor runs the matching
+     * DBOperations message
+     * @param command The command
+     * @return UserReply. The result
+     */
+    private UserShardOperations.UserReply handle(UserShardOperations.UserCommand command)
+    {
+        Optional<User> user = Optional.of(new User(command.userName, command.passwordHash));
+
+        switch(command.operation)
+        {
+            case UserShardOperations.UserCommand.GET:
+                return new UserShardOperations.UserReply(get(copyDeadline(new DBOperations.GetEntity(command.userName), command)),
+                                                         false,
+                                                         false);
+            case UserShardOperations.UserCommand.INSERT:
+                DBOperations.InsertEntity inserted = insert(copyDeadline(new DBOperations.InsertEntity(user), command));
+                return new UserShardOperations.UserReply(inserted.entity, inserted.completed, false);
+            case UserShardOperations.UserCommand.UPDATE:
+                DBOperations.UpdateEntity updated = update(copyDeadline(new DBOperations.UpdateEntity(user), command));
+                return new UserShardOperations.UserReply(Optional.empty(), updated.completed, updated.notFound);
+            case UserShardOperations.UserCommand.DELETE:
+                DBOperations.DeleteEntity deleted = delete(copyDeadline(new DBOperations.DeleteEntity(user), command));
+                return new UserShardOperations.UserReply(Optional.empty(), deleted.completed, deleted.notFound);
+            default:
+                throw new IllegalArgumentException("Unknown operation " + command.operation);
+        }
+    }
+
+    /**
+     * Gives a message the deadline and trace ID of the command it runs for
+     * @param message The message
+     * @param command The command
+     * @param <T> Type of the message
+     * @return T. The message
+     */
+    private static <T extends DeadlineMessage> T copyDeadline(T message, UserShardOperations.UserCommand command)
+    {
+        message.deadline = command.deadline;
+        message.traceId = command.traceId;
+        return message;
+    }
+}
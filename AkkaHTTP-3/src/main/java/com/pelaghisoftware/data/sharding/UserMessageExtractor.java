@@ -0,0 +1,37 @@
+package com.pelaghisoftware.data.sharding;
+
+import akka.cluster.sharding.ShardRegion;
+import com.pelaghisoftware.data.sharding.operations.UserShardOperations;
+
+/**
+ * Tells Cluster Sharding which UserEntity a message is for. Users are
+ * keyed by userName and spread over the shards by its hash code.
+ */
+public class UserMessageExtractor extends ShardRegion.HashCodeMessageExtractor
+{
+    /**
+     * Constructor
+     * @param maxShards Number of shards. Has to be the same on every node
+     *                  and must not change while the cluster runs.
+     */
+    public UserMessageExtractor(int maxShards)
+    {
+        super(maxShards);
+    }
+
+    /**
+     * Gets the entity a message is for
+     * @param message The message
+     * @return String. The userName, or null if the message isn't for a user
+     */
+    @Override
+    public String entityId(Object message)
+    {
+        if(message instanceof UserShardOperations.UserCommand)
+        {
+            return ((UserShardOperations.UserCommand) message).userName;
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,104 @@
+package com.pelaghisoftware.data.sharding.operations;
+
+import com.pelaghisoftware.data.deadline.DeadlineMessage;
+import com.pelaghisoftware.data.entity.User;
+import com.pelaghisoftware.data.sharding.ClusterMessage;
+
+import java.util.Optional;
+
+/**
+ * Messages between the ShardedUserAccessor on the node that took the
+ * request and the UserEntity that owns the user, which may be on another
+ * node. They only carry strings and flags, so they serialize to JSON
+ * without type information.
+ */
+public class UserShardOperations
+{
+    /**
+     * Message to get, insert, update or delete one user. Carries the
+     * deadline and trace ID of the request it was sent for.
+     */
+    public static class UserCommand extends DeadlineMessage implements ClusterMessage
+    {
+        public static final String GET = "get";
+        public static final String INSERT = "insert";
+        public static final String UPDATE = "update";
+        public static final String DELETE = "delete";
+
+        public String operation;
+        public String userName;
+        //The new password, already encoded by the node that took the request.
+        //Null for get, delete and updates that keep the old password.
+        public String passwordHash;
+
+        public UserCommand(){}
+
+        /**
+         * Constructor
+         * @param operation GET, INSERT, UPDATE or DELETE
+         * @param userName The user, which is also the entity id
+         * @param passwordHash The encoded password, or null
+         * @param request Message the command is sent for. Its deadline and
+         *                trace ID are copied.
+         */
+        public UserCommand(String operation, String userName, String passwordHash, DeadlineMessage request)
+        {
+            this.operation = operation;
+            this.userName = userName;
+            this.passwordHash = passwordHash;
+            this.deadline = request.deadline;
+            this.traceId = request.traceId;
+        }
+    }
+
+    /**
+     * Reply to a UserCommand
+     */
+    public static class UserReply implements ClusterMessage
+    {
+        //Whether the user exists. For insert, whether it already existed.
+        public boolean found;
+        public String userName;
+        public String encryptedPassword;
+        public boolean completed;
+        public boolean notFound;
+
+        public UserReply(){}
+
+        /**
+         * Constructor
+         * @param entity The user, if there is one
+         * @param completed Whether a write completed
+         * @param notFound Whether a write found no user to change
+         */
+        public UserReply(Optional<?> entity, boolean completed, boolean notFound)
+        {
+            if(entity.isPresent())
+            {
+                User user = (User) entity.get();
+                this.found = true;
+                this.userName = user.getUserName();
+                this.encryptedPassword = user.getEncryptedPassword();
+            }
+            this.completed = completed;
+            this.notFound = notFound;
+        }
+
+        /**
+         * Gets the user the reply carries
+         * @return Optional. The user, or empty if there is none
+         */
+        public Optional<User> toUser()
+        {
+            if(!found)
+            {
+                return Optional.empty();
+            }
+
+            User user = new User();
+            user.setUserName(userName);
+            user.setEncryptedPassword(encryptedPassword);
+            return Optional.of(user);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.pelaghisoftware.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for a DAO operation, from opening the session to closing it
+ */
+@Name("com.pelaghisoftware.DaoOperation")
+@Label("DAO Operation")
+@Category({"PelaghiSoftware", "Database"})
+@Description("A DAO call including its transaction")
+@StackTrace(false)
+public class DaoOperationEvent extends jdk.jfr.Event
+{
+    @Label("Entity")
+    public String entity;
+
+    @Label("Operation")
+    @Description("get, getAll, getMultiple, insert, update or delete")
+    public String operation;
+
+    @Label("Rows")
+    @Description("Rows read or written")
+    public int rows;
+
+    @Label("Succeeded")
+    public boolean succeeded;
+
+    /**
+     * Constructor. Call begin() before the operation and finish() after it.
+     * @param entity Name of the entity, e.g. User
+     * @param operation Name of the operation, e.g. get
+     */
+    public DaoOperationEvent(String entity, String operation)
+    {
+        this.entity = entity;
+        this.operation = operation;
+    }
+
+    /**
+     * Ends the event and commits it if it is being recorded
+     * @param rows Rows read or written
+     * @param succeeded Whether the operation succeeded
+     */
+    public void finish(int rows, boolean succeeded)
+    {
+        end();
+        if(shouldCommit())
+        {
+            this.rows = rows;
+            this.succeeded = succeeded;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.pelaghisoftware.jfr;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigException;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.io.UncheckedIOException;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+
+/**
+ * Starts and stops JDK Flight Recorder recordings for the admin
+ * endpoints. One recording runs at a time. Stopping it dumps it to a
+ * temporary file of its own on the dump executor, so writing a large
+ * recording never holds up the thread serving the request. Whoever gets
+ * a file deletes it once it has been sent.
+ */
+public class FlightRecordings
+{
+    private static final Logger logger =
+            LoggerFactory.getLogger(FlightRecordings.class);
+
+    private final Configuration settings;
+    private final Duration maxDuration;
+    private final long maxSize;
+
+    //Runs the blocking dumps
+    private final Executor dumpExecutor;
+
+    private Recording recording;
+
+    /**
+     * Constructor
+     * @param config The "flight-recorder" section of the configuration
+     * @param dumpExecutor Executor for blocking work that dumps recordings
+     */
+    public FlightRecordings(Config config, Executor dumpExecutor)
+    {
+        this.dumpExecutor = dumpExecutor;
+
+        String settingsName = config.getString("settings");
+        try
+        {
+            this.settings = Configuration.getConfiguration(settingsName);
+        }
+        catch (IOException | ParseException e)
+        {
+            throw new ConfigException.BadValue("flight-recorder.settings", "No JFR settings named " + settingsName, e);
+        }
+
+        this.maxDuration = config.getDuration("max-duration");
+        this.maxSize = config.getBytes("max-size");
+    }
+
+    /**
+     * Starts a recording
+     * @param duration How long to record before stopping by itself,
+     *                 capped at max-duration. Empty for max-duration.
+     * @return Optional. The status of the new recording, or empty if one
+     *         is already running
+     */
+    public synchronized Optional<Status> start(Optional<Duration> duration)
+    {
+        if(recording != null && recording.getState() == RecordingState.RUNNING)
+        {
+            return Optional.empty();
+        }
+        closeRecording();
+
+        Duration limit = duration.filter(value -> value.compareTo(maxDuration) < 0).orElse(maxDuration);
+
+        recording = new Recording(settings);
+        recording.setName("admin");
+        recording.setDuration(limit);
+        recording.setMaxSize(maxSize);
+        recording.setToDisk(true);
+        recording.start();
+
+        return Optional.of(status());
+    }
+
+    /**
+     * Stops the recording and writes it to a new file on the dump executor.
+     * A new recording may be started while the last one is still being
+     * written. The caller has to delete the file when done with it.
+     * @return CompletionStage that resolves to the file, or empty if
+     *         nothing was recorded. Fails with an UncheckedIOException if
+     *         the file can't be written.
+     */
+    public synchronized CompletionStage<Optional<Path>> stop()
+    {
+        if(recording == null)
+        {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+
+        Recording stopping = recording;
+        recording = null;
+
+        return CompletableFuture.supplyAsync(() -> Optional.of(dump(stopping)), dumpExecutor);
+    }
+
+    /**
+     * Gets the state of the current recording. Served at /admin/jfr.
+     * @return Status of the recording
+     */
+    public synchronized Status status()
+    {
+        Status status = new Status();
+        status.settings = settings.getName();
+        status.maxDurationSeconds = maxDuration.getSeconds();
+
+        if(recording != null)
+        {
+            status.state = recording.getState().name();
+            status.startTime = recording.getStartTime() == null ? null : recording.getStartTime().toString();
+            status.durationSeconds = recording.getDuration() == null ? 0 : recording.getDuration().getSeconds();
+            status.bytes = recording.getSize();
+        }
+        else
+        {
+            status.state = "NONE";
+        }
+
+        return status;
+    }
+
+    /**
+     * Deletes a file written by stop(). Failures are logged, not thrown,
+     * since the file has already served its purpose.
+     * @param file The file
+     */
+    public static void delete(Path file)
+    {
+        try
+        {
+            Files.deleteIfExists(file);
+        }
+        catch (IOException e)
+        {
+            logger.warn("Could not delete flight recording {}", file, e);
+        }
+    }
+
+    /**
+     * Stops a recording, writes it to a new temporary file and frees its
+     * resources
+     * @param stopping The recording
+     * @return Path. The file
+     */
+    private static Path dump(Recording stopping)
+    {
+        Path file = null;
+        boolean dumped = false;
+        try
+        {
+            //A recording that reached its duration has already stopped
+            if(stopping.getState() == RecordingState.RUNNING)
+            {
+                stopping.stop();
+            }
+
+            file = Files.createTempFile("recording-", ".jfr");
+            stopping.dump(file);
+            dumped = true;
+
+            return file;
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        finally
+        {
+            stopping.close();
+
+            //Don't leave a partly written file behind
+            if(!dumped && file != null)
+            {
+                delete(file);
+            }
+        }
+    }
+
+    /**
+     * Frees the current recording's resources
+     */
+    private void closeRecording()
+    {
+        if(recording != null)
+        {
+            recording.close();
+            recording = null;
+        }
+    }
+
+    /**
+     * State of the recording. Set up to use Jackson to marshall data to JSON.
+     */
+    public static class Status
+    {
+        public String state;
+        public String settings;
+        public String startTime;
+        public long durationSeconds;
+        public long maxDurationSeconds;
+        public long bytes;
+    }
+}
@@ -0,0 +1,21 @@
+package com.pelaghisoftware.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for verifying and parsing a JWT
+ */
+@Name("com.pelaghisoftware.JwtVerification")
+@Label("JWT Verification")
+@Category({"PelaghiSoftware", "Auth"})
+@Description("Verifying the signature of a JWT and parsing its claims")
+@StackTrace(false)
+public class JwtVerificationEvent extends jdk.jfr.Event
+{
+    @Label("Valid")
+    public boolean valid;
+}
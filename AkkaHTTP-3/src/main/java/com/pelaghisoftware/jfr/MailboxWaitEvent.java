@@ -0,0 +1,34 @@
+package com.pelaghisoftware.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event for a message taken out of an actor's mailbox. Emitted by
+ * TimedMailbox.
+ */
+@Name("com.pelaghisoftware.MailboxWait")
+@Label("Mailbox Wait")
+@Category({"PelaghiSoftware", "Actors"})
+@Description("Time a message spent in an actor's mailbox before the actor took it")
+@StackTrace(false)
+public class MailboxWaitEvent extends jdk.jfr.Event
+{
+    @Label("Actor")
+    public String actor;
+
+    @Label("Message Type")
+    public String messageType;
+
+    @Label("Wait")
+    @Timespan(Timespan.NANOSECONDS)
+    public long waitNanos;
+
+    @Label("Queued")
+    @Description("Messages left in the mailbox")
+    public int queued;
+}
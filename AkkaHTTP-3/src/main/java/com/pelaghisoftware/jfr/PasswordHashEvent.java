@@ -0,0 +1,26 @@
+package com.pelaghisoftware.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for hashing a password or checking one against a hash
+ */
+@Name("com.pelaghisoftware.PasswordHash")
+@Label("Password Hash")
+@Category({"PelaghiSoftware", "Auth"})
+@Description("BCrypt hashing of a new password or check of a login")
+@StackTrace(false)
+public class PasswordHashEvent extends jdk.jfr.Event
+{
+    @Label("Operation")
+    @Description("encode or matches")
+    public String operation;
+
+    @Label("Matched")
+    @Description("Whether the password matched. Always false for encode.")
+    public boolean matched;
+}
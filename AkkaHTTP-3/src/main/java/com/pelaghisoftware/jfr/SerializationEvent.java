@@ -0,0 +1,27 @@
+package com.pelaghisoftware.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for serializing a response body to JSON
+ */
+@Name("com.pelaghisoftware.Serialization")
+@Label("JSON Serialization")
+@Category({"PelaghiSoftware", "HTTP"})
+@Description("Serializing a response body with Jackson")
+@StackTrace(false)
+public class SerializationEvent extends jdk.jfr.Event
+{
+    @Label("Type")
+    @Description("Class of the serialized object")
+    public String type;
+
+    @Label("Size")
+    @DataAmount
+    public int bytes;
+}
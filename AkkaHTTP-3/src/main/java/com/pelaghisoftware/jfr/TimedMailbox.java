@@ -0,0 +1,260 @@
+package com.pelaghisoftware.jfr;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.DeadLetter;
+import akka.dispatch.Envelope;
+import akka.dispatch.MailboxType;
+import akka.dispatch.MessageQueue;
+import akka.event.EventStream;
+import com.typesafe.config.Config;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import scala.Option;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Mailbox that emits a MailboxWaitEvent with the time each message
+ * waited before its actor took it. With a mailbox-capacity above zero it
+ * drops messages that don't fit to dead letters, like
+ * akka.dispatch.NonBlockingBoundedMailbox, and publishes a Dropped event
+ * for each on the event stream. Otherwise it is unbounded.
+ *
+ * Messages are only timed while a flight recording is running, so the
+ * mailbox costs no more than a plain one the rest of the time.
+ */
+public class TimedMailbox implements MailboxType
+{
+    //Setting that turns MailboxWaitEvent off in a recording. Custom events are on unless a recording says otherwise.
+    private static final String EVENT_ENABLED = "com.pelaghisoftware.MailboxWait#enabled";
+
+    //Whether a running flight recording wants MailboxWaitEvents. Kept up to date by a recorder listener.
+    private static volatile boolean recording;
+
+    static
+    {
+        FlightRecorder.addListener(new FlightRecorderListener()
+        {
+            @Override
+            public void recorderInitialized(FlightRecorder recorder)
+            {
+                update(recorder);
+            }
+
+            @Override
+            public void recordingStateChanged(Recording changed)
+            {
+                update(FlightRecorder.getFlightRecorder());
+            }
+        });
+    }
+
+    private final int capacity;
+
+    /**
+     * Constructor. Called by Akka with the mailbox's config section.
+     * @param settings Settings of the actor system
+     * @param config Config of the mailbox
+     */
+    public TimedMailbox(ActorSystem.Settings settings, Config config)
+    {
+        this.capacity = config.hasPath("mailbox-capacity") ? config.getInt("mailbox-capacity") : 0;
+    }
+
+    /**
+     * Creates the queue for one actor
+     * @param owner The actor the mailbox belongs to
+     * @param system The actor system
+     * @return MessageQueue. The queue
+     */
+    @Override
+    public MessageQueue create(Option<ActorRef> owner, Option<ActorSystem> system)
+    {
+        String actor = owner.isDefined() ? owner.get().path().name() : "unknown";
+        ActorRef deadLetters = system.isDefined() ? system.get().deadLetters() : ActorRef.noSender();
+        EventStream eventStream = system.isDefined() ? system.get().getEventStream() : null;
+
+        return new TimedMessageQueue(actor, capacity, deadLetters, eventStream);
+    }
+
+    /**
+     * Checks whether any running flight recording has MailboxWaitEvent on
+     * @param recorder The flight recorder
+     */
+    private static void update(FlightRecorder recorder)
+    {
+        boolean running = false;
+        for(Recording current : recorder.getRecordings())
+        {
+            running |= current.getState() == RecordingState.RUNNING
+                       && !"false".equals(current.getSettings().get(EVENT_ENABLED));
+        }
+
+        recording = running;
+    }
+
+    /**
+     * Message queue that remembers when each message was enqueued while a
+     * flight recording is running
+     */
+    public static class TimedMessageQueue implements MessageQueue
+    {
+        //Holds Envelopes, or TimedEnvelopes for messages enqueued while recording
+        private final Queue<Object> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+
+        private final String actor;
+        private final int capacity;
+        private final ActorRef deadLetters;
+        private final EventStream eventStream;
+
+        /**
+         * Constructor
+         * @param actor Name of the owning actor, used in the events
+         * @param capacity Most messages held. 0 for no limit.
+         * @param deadLetters Where messages that don't fit are sent
+         * @param eventStream Where a Dropped event is published for each
+         *                    message that doesn't fit, or null for none
+         */
+        public TimedMessageQueue(String actor, int capacity, ActorRef deadLetters, EventStream eventStream)
+        {
+            this.actor = actor;
+            this.capacity = capacity;
+            this.deadLetters = deadLetters;
+            this.eventStream = eventStream;
+        }
+
+        /**
+         * Adds a message, or sends it to dead letters if the queue is full
+         * @param receiver The owning actor
+         * @param handle The message and its sender
+         */
+        @Override
+        public void enqueue(ActorRef receiver, Envelope handle)
+        {
+            //Reserve a slot first so concurrent senders can't overfill the queue
+            if(size.incrementAndGet() > capacity && capacity > 0)
+            {
+                size.decrementAndGet();
+                deadLetters.tell(new DeadLetter(handle.message(), handle.sender(), receiver), handle.sender());
+                if(eventStream != null)
+                {
+                    eventStream.publish(new Dropped(handle.message(), receiver));
+                }
+                return;
+            }
+
+            queue.add(recording ? new TimedEnvelope(handle, System.nanoTime()) : handle);
+        }
+
+        /**
+         * Takes the next message and records how long it waited
+         * @return Envelope. The message, or null if the queue is empty
+         */
+        @Override
+        public Envelope dequeue()
+        {
+            Object next = queue.poll();
+            if(next == null)
+            {
+                return null;
+            }
+            int queued = size.decrementAndGet();
+
+            if(!(next instanceof TimedEnvelope))
+            {
+                return (Envelope) next;
+            }
+            TimedEnvelope timed = (TimedEnvelope) next;
+
+            MailboxWaitEvent event = new MailboxWaitEvent();
+            if(event.isEnabled())
+            {
+                event.actor = actor;
+                event.messageType = timed.envelope.message().getClass().getSimpleName();
+                event.waitNanos = System.nanoTime() - timed.enqueuedNanos;
+                event.queued = queued;
+                event.commit();
+            }
+
+            return timed.envelope;
+        }
+
+        /**
+         * Gets the number of queued messages
+         * @return int. Number of messages
+         */
+        @Override
+        public int numberOfMessages()
+        {
+            return size.get();
+        }
+
+        /**
+         * Checks for queued messages
+         * @return boolean. True if there is at least one message
+         */
+        @Override
+        public boolean hasMessages()
+        {
+            return !queue.isEmpty();
+        }
+
+        /**
+         * Moves the messages left when the actor stops to dead letters
+         * @param owner The owning actor
+         * @param deadLetters Dead letters queue
+         */
+        @Override
+        public void cleanUp(ActorRef owner, MessageQueue deadLetters)
+        {
+            Object next;
+            while((next = queue.poll()) != null)
+            {
+                size.decrementAndGet();
+                deadLetters.enqueue(owner, next instanceof TimedEnvelope ? ((TimedEnvelope) next).envelope : (Envelope) next);
+            }
+        }
+    }
+
+    /**
+     * Published on the event stream for each message a full mailbox
+     * dropped, so drops can be told apart from other dead letters
+     */
+    public static class Dropped
+    {
+        public final Object message;
+        public final ActorRef recipient;
+
+        /**
+         * Constructor
+         * @param message The dropped message
+         * @param recipient The actor whose mailbox was full
+         */
+        public Dropped(Object message, ActorRef recipient)
+        {
+            this.message = message;
+            this.recipient = recipient;
+        }
+    }
+
+    /**
+     * A message with the time it was enqueued
+     */
+    private static class TimedEnvelope
+    {
+        private final Envelope envelope;
+        private final long enqueuedNanos;
+
+        private TimedEnvelope(Envelope envelope, long enqueuedNanos)
+        {
+            this.envelope = envelope;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.pelaghisoftware.jfr;
+
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+/**
+ * PasswordEncoder that emits a PasswordHashEvent for every encode and
+ * matches of the encoder it wraps
+ */
+public class TimedPasswordEncoder implements PasswordEncoder
+{
+    private final PasswordEncoder encoder;
+
+    /**
+     * Constructor
+     * @param encoder The encoder doing the work, e.g. BCryptPasswordEncoder
+     */
+    public TimedPasswordEncoder(PasswordEncoder encoder)
+    {
+        this.encoder = encoder;
+    }
+
+    /**
+     * Hashes a password
+     * @param rawPassword The password
+     * @return String. The hash
+     */
+    @Override
+    public String encode(CharSequence rawPassword)
+    {
+        PasswordHashEvent event = new PasswordHashEvent();
+        event.begin();
+
+        String hash = encoder.encode(rawPassword);
+
+        event.end();
+        if(event.shouldCommit())
+        {
+            event.operation = "encode";
+            event.commit();
+        }
+
+        return hash;
+    }
+
+    /**
+     * Checks a password against a hash
+     * @param rawPassword The password
+     * @param encodedPassword The hash
+     * @return boolean. True if the password matches
+     */
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword)
+    {
+        PasswordHashEvent event = new PasswordHashEvent();
+        event.begin();
+
+        boolean matched = encoder.matches(rawPassword, encodedPassword);
+
+        event.end();
+        if(event.shouldCommit())
+        {
+            event.operation = "matches";
+            event.matched = matched;
+            event.commit();
+        }
+
+        return matched;
+    }
+
+    /**
+     * Checks whether a hash should be encoded again
+     * @param encodedPassword The hash
+     * @return boolean. The wrapped encoder's answer
+     */
+    @Override
+    public boolean upgradeEncoding(String encodedPassword)
+    {
+        return encoder.upgradeEncoding(encodedPassword);
+    }
+}
@@ -1,28 +1,66 @@
 package com.pelaghisoftware.server;
 
+import akka.Done;
 import akka.NotUsed;
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
-import akka.http.javadsl.ConnectHttp;
+import akka.actor.CoordinatedShutdown;
 import akka.http.javadsl.Http;
 import akka.http.javadsl.ServerBinding;
 import akka.http.javadsl.marshallers.jackson.Jackson;
 import static akka.pattern.Patterns.ask;
 
 import akka.http.javadsl.model.*;
+import akka.http.javadsl.model.headers.RetryAfter;
 import akka.http.javadsl.server.AllDirectives;
+import akka.http.javadsl.server.ExceptionHandler;
 import akka.http.javadsl.server.Route;
+import akka.http.javadsl.settings.ServerSettings;
+import akka.pattern.CircuitBreakerOpenException;
+import akka.cluster.sharding.ClusterSharding;
+import akka.cluster.sharding.ClusterShardingSettings;
 import akka.stream.ActorMaterializer;
 import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import com.pelaghisoftware.data.actors.MailboxOverflowListener;
 import com.pelaghisoftware.data.actors.SiteUserAccessor;
 import com.pelaghisoftware.data.DatabaseCommonOps;
 import com.pelaghisoftware.data.actors.operations.DBOperations;
+import com.pelaghisoftware.data.actors.UserLookupBatcher;
+import com.pelaghisoftware.data.breaker.DatabaseBreaker;
+import com.pelaghisoftware.data.deadline.DiscardedWork;
+import com.pelaghisoftware.data.limit.AdaptiveLimiter;
+import com.pelaghisoftware.data.limit.LimitExceededException;
+import com.pelaghisoftware.data.limit.MailboxOverflow;
+import com.pelaghisoftware.data.pool.DatabaseStats;
+import com.pelaghisoftware.data.sharding.ShardedUserAccessor;
+import com.pelaghisoftware.data.sharding.UserEntity;
+import com.pelaghisoftware.data.sharding.UserMessageExtractor;
+import com.pelaghisoftware.data.coalescing.UserLookups;
+import com.pelaghisoftware.data.dao.impl.UserDao;
 import com.pelaghisoftware.data.entity.User;
+import com.pelaghisoftware.data.feed.ChangeFeed;
+import com.pelaghisoftware.jfr.FlightRecordings;
 
 import com.pelaghisoftware.server.actors.AuthResolver;
 import com.pelaghisoftware.server.actors.ResponseResolver;
 import com.pelaghisoftware.server.auth.operations.AuthOperations;
+import com.pelaghisoftware.server.config.BindingConfig;
+import com.pelaghisoftware.server.config.OperationTimeouts;
+import com.pelaghisoftware.server.dispatch.DispatcherStats;
+import com.pelaghisoftware.server.metrics.DatabaseMetrics;
+import com.pelaghisoftware.server.metrics.DispatcherMetrics;
+import com.pelaghisoftware.server.metrics.RouteMetrics;
+import com.pelaghisoftware.server.trace.RequestTracer;
+import com.pelaghisoftware.server.ratelimit.SubjectRateLimiter;
+import com.pelaghisoftware.server.response.messages.ErrorMessage;
+import com.pelaghisoftware.server.routes.AdminRoutes;
+import com.pelaghisoftware.server.routes.ChangeFeedRoutes;
+import com.pelaghisoftware.server.routes.MetricsRoutes;
 import com.pelaghisoftware.server.routes.UserRoutes;
+import com.pelaghisoftware.server.stats.ConnectionStats;
+import com.typesafe.config.Config;
 import com.typesafe.config.ConfigException;
 import com.typesafe.config.ConfigFactory;
 import org.hibernate.SessionFactory;
@@ -31,7 +69,9 @@ import org.slf4j.LoggerFactory;
 
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeoutException;
 
 import static akka.http.javadsl.server.PathMatchers.*;
 
@@ -42,7 +82,36 @@ public class Server extends AllDirectives
 
     final static Map<String, ActorRef> dataAccessors = new HashMap<>();
 
-    final static Duration duration = Duration.ofSeconds(1);
+    static OperationTimeouts timeouts;
+
+    static DatabaseBreaker databaseBreaker;
+
+    final static DiscardedWork discardedWork = new DiscardedWork();
+
+    final static MailboxOverflow mailboxOverflow = new MailboxOverflow();
+
+    final static RouteMetrics routeMetrics = new RouteMetrics();
+
+    final static DispatcherMetrics dispatcherMetrics = new DispatcherMetrics();
+
+    static RequestTracer requestTracer;
+
+    static AdaptiveLimiter databaseLimiter;
+
+    static Optional<SubjectRateLimiter> userRateLimiter = Optional.empty();
+
+    final static ConnectionStats connectionStats = new ConnectionStats();
+
+    static UserLookups userLookups;
+
+    static ChangeFeed userChanges;
+
+    static FlightRecordings flightRecordings;
+
+    static DatabaseStats databaseStats;
+
+    static DatabaseMetrics databaseMetrics;
+
 
     /**
      * Main Method
@@ -52,8 +121,50 @@ public class Server extends AllDirectives
      */
     public static void main(String[] args) throws Exception
     {
+        Config config = ConfigFactory.load();
+
+        //HTTP/2 support has to be switched on before the actor system starts
+        if(new BindingConfig(config.getConfig("server")).http2Enabled)
+        {
+            config = ConfigFactory
+                .parseString("akka.http.server.preview.enable-http2 = on")
+                .withFallback(config);
+        }
+
         //Create the parent actor system that will be used to process everything.
-        ActorSystem system = ActorSystem.create("routes");
+        ActorSystem system = ActorSystem.create("routes", config);
+
+        //Set up the database session factory
+        SessionFactory sessionFactory =
+                DatabaseCommonOps.createSessionFactory().get();
+
+        start(system, sessionFactory);
+    }
+
+    /**
+     * Creates the actors and routes and binds the server. Used by main and
+     * by anything that runs the server in process, e.g. a load test.
+     * @param system The actor system to run in. Its config is used for
+     *               every setting.
+     * @param sessionFactory Session Factory to create new sessions with the
+     *                       database. Closed when the actor system terminates.
+     * @return CompletionStage that resolves to the binding once the server
+     *         accepts connections
+     * @throws Exception If the TLS keystore can't be loaded
+     */
+    public static CompletionStage<ServerBinding> start(ActorSystem system, SessionFactory sessionFactory) throws Exception
+    {
+        Config config = system.settings().config();
+
+        //Settings for how the server is bound to the network
+        final BindingConfig bindingConfig =
+            new BindingConfig(config.getConfig("server"));
+
+        //How long each type of operation may take
+        timeouts = new OperationTimeouts(config.getConfig("timeouts"));
+
+        //Times the stages of each request and logs the slow ones
+        requestTracer = new RequestTracer(config.getConfig("tracing"));
 
         //Server instance
         final Http http = Http.get(system);
@@ -62,17 +173,78 @@ public class Server extends AllDirectives
         final ActorMaterializer materializer =
             ActorMaterializer.create(system);
 
-        //Set up the database session factory
-        SessionFactory sessionFactory =
-                DatabaseCommonOps.createSessionFactory().get();
-
         //Ensures that the session factory is closed when the system terminates
         system.registerOnTermination(sessionFactory::close);
 
+        //Hibernate statistics and pool gauges for /admin/database and /metrics
+        sessionFactory.getStatistics().setStatisticsEnabled(config.getBoolean("database-stats.hibernate-statistics"));
+        databaseStats = new DatabaseStats(sessionFactory);
+        databaseMetrics = new DatabaseMetrics(databaseStats);
+
+        //Fails database bound asks fast while the database is struggling
+        databaseLimiter = new AdaptiveLimiter(config.getConfig("database-limiter"));
+        databaseBreaker = new DatabaseBreaker(system, config.getConfig("database-breaker"), databaseLimiter);
+
+        //Rate limits the user routes per JWT subject unless turned off
+        Config rateLimit = config.getConfig("user-rate-limit");
+        if(rateLimit.getBoolean("enabled"))
+        {
+            userRateLimiter = Optional.of(new SubjectRateLimiter(rateLimit));
+        }
+
+        //Feed of changes to users, streamed to clients as server-sent events
+        Config changeFeed = config.getConfig("change-feed");
+        userChanges = new ChangeFeed(changeFeed.getInt("history-size"));
+
         //Create the necessary actors and place them in a map
-        dataAccessors.put("UserAccessor", system.actorOf(SiteUserAccessor.props(sessionFactory).withDispatcher("route-blocking-dispatcher"), "UserAccessor"));
-        dataAccessors.put("AuthAccessor", system.actorOf(AuthResolver.props(dataAccessors.get("UserAccessor")), "AuthAccessor"));
-        dataAccessors.put("ResponseResolver", system.actorOf(ResponseResolver.props(), "ResponseResolver"));
+        Config cluster = config.getConfig("cluster");
+        if(cluster.getBoolean("enabled"))
+        {
+            //Each user is owned by one entity somewhere in the cluster, which any node can reach through the region
+            ActorRef userRegion = ClusterSharding.get(system).start("User",
+                                                                   UserEntity.props(new UserDao(sessionFactory),
+                                                                                    userChanges,
+                                                                                    discardedWork,
+                                                                                    cluster.getDuration("passivate-after")).withDispatcher("route-blocking-dispatcher"),
+                                                                   ClusterShardingSettings.create(system),
+                                                                   new UserMessageExtractor(cluster.getInt("max-shards")));
+
+            dataAccessors.put("UserAccessor", system.actorOf(ShardedUserAccessor.props(userRegion,
+                                                                                       SiteUserAccessor.props(sessionFactory, userChanges, discardedWork).withDispatcher("route-blocking-dispatcher"),
+                                                                                       timeouts.write,
+                                                                                       discardedWork).withDispatcher("route-blocking-dispatcher").withMailbox("bounded-data-mailbox"), "UserAccessor"));
+        }
+        else
+        {
+            dataAccessors.put("UserAccessor", system.actorOf(SiteUserAccessor.props(sessionFactory, userChanges, discardedWork).withDispatcher("route-blocking-dispatcher").withMailbox("bounded-data-mailbox"), "UserAccessor"));
+        }
+
+        //Single user lookups are batched into IN queries unless batching is turned off
+        Config batching = config.getConfig("user-lookup-batching");
+        if(batching.getBoolean("enabled"))
+        {
+            dataAccessors.put("UserLookupAccessor", system.actorOf(UserLookupBatcher.props(dataAccessors.get("UserAccessor"),
+                                                                                           batching.getDuration("window"),
+                                                                                           batching.getInt("max-batch-size"),
+                                                                                           timeouts.read,
+                                                                                           discardedWork).withMailbox("timed-mailbox"), "UserLookupBatcher"));
+        }
+        else
+        {
+            dataAccessors.put("UserLookupAccessor", dataAccessors.get("UserAccessor"));
+        }
+        //Counts messages the data actors' bounded mailboxes had to drop
+        system.actorOf(MailboxOverflowListener.props(mailboxOverflow), "MailboxOverflowListener");
+
+        userLookups = new UserLookups(dataAccessors.get("UserLookupAccessor"), databaseBreaker);
+
+        //The timed mailbox records how long messages wait for these actors in flight recordings
+        dataAccessors.put("AuthAccessor", system.actorOf(AuthResolver.props(userLookups, timeouts.read, discardedWork).withMailbox("timed-mailbox"), "AuthAccessor"));
+        dataAccessors.put("ResponseResolver", system.actorOf(ResponseResolver.props().withMailbox("timed-mailbox"), "ResponseResolver"));
+
+        //Recordings started and stopped through /admin/jfr, dumped on the blocking dispatcher
+        flightRecordings = new FlightRecordings(config.getConfig("flight-recorder"),
+                                                system.dispatchers().lookup("route-blocking-dispatcher"));
 
         try
         {
@@ -100,21 +272,77 @@ public class Server extends AllDirectives
             .flow(system, materializer);
 
         //Binds the server to a port to start accepting requests
-        final CompletionStage<ServerBinding> binding =
-            http.bindAndHandle(routeFlow,
-                               ConnectHttp.toHost("localhost",
-                                             8099),
-                               materializer);
-
-        logger.info("Server online at http://localhost:8099/");
-        logger.info("Press Return to stop...");
-
-        System.in.read(); //let it run until user presses retur
-        binding
-            //trigger unbinding from the port
-            .thenCompose(ServerBinding::unbind)
-            // and shutdown when done
-            .thenAccept(unbound -> system.terminate());
+        final CompletionStage<ServerBinding> binding;
+        if(bindingConfig.http2Enabled)
+        {
+            //HTTP/2 is only served through the async handler API
+            binding = http.bindAndHandleAsync(request ->
+                                                  Source.single(request)
+                                                      .via(routeFlow)
+                                                      .runWith(Sink.head(), materializer),
+                                              bindingConfig.connectHttp(),
+                                              materializer);
+        }
+        else
+        {
+            //Connection limits, timeouts and parsing limits from akka.http.server
+            final ServerSettings serverSettings = ServerSettings.create(system);
+
+            //Handle each connection individually so connection level stats can be kept
+            binding = http.bind(bindingConfig.connectHttp(), serverSettings, materializer)
+                .mapAsyncUnordered(serverSettings.getMaxConnections(), connection ->
+                    connection.handleWith(connectionStats.instrument(routeFlow), materializer)
+                        .exceptionally(e ->
+                        {
+                            logger.debug("Connection from {} failed: {}", connection.remoteAddress(), e.getMessage());
+                            return Done.getInstance();
+                        }))
+                .to(Sink.ignore())
+                .run(materializer);
+        }
+
+        logger.info("Server online at {}://{}:{}/",
+                    bindingConfig.scheme(),
+                    bindingConfig.host,
+                    bindingConfig.port);
+
+        //Shuts the server down in order on SIGTERM or when the actor system terminates
+        addShutdownTasks(system, binding, config.getConfig("server.shutdown"));
+
+        return binding;
+    }
+
+    /**
+     * Registers the steps to shut the server down with CoordinatedShutdown.
+     * New connections are refused first, then in-flight requests get time
+     * to finish, then queued database work is flushed. The SessionFactory
+     * is closed once the actor system has terminated.
+     * @param system The actor system
+     * @param binding The server binding
+     * @param shutdownConfig The "server.shutdown" section of the configuration
+     */
+    private static void addShutdownTasks(ActorSystem system,
+                                         CompletionStage<ServerBinding> binding,
+                                         Config shutdownConfig)
+    {
+        CoordinatedShutdown shutdown = CoordinatedShutdown.get(system);
+        Duration drainTimeout = shutdownConfig.getDuration("drain-timeout");
+        Duration flushTimeout = shutdownConfig.getDuration("flush-timeout");
+
+        //Stop accepting new connections
+        shutdown.addTask(CoordinatedShutdown.PhaseServiceUnbind(), "http-unbind", () ->
+            binding.thenCompose(ServerBinding::unbind));
+
+        //Let in-flight requests finish. Requests that arrive on open connections
+        //in the meantime get 503, and connections still busy at the deadline are closed.
+        shutdown.addTask(CoordinatedShutdown.PhaseServiceRequestsDone(), "http-drain", () ->
+            binding.thenCompose(serverBinding -> serverBinding.terminate(drainTimeout))
+                .thenApply(terminated -> Done.getInstance()));
+
+        //Let database writes that are already queued finish before the SessionFactory closes
+        shutdown.addTask(CoordinatedShutdown.PhaseBeforeActorSystemTerminate(), "flush-user-accessor", () ->
+            ask(dataAccessors.get("UserAccessor"), new DBOperations.Flush(), flushTimeout)
+                .thenApply(flushed -> Done.getInstance()));
     }
 
     /**
@@ -129,11 +357,52 @@ public class Server extends AllDirectives
         ActorRef userAccessor = dataAccessors.get("UserAccessor");
 
         //Provider for routes related to user entities
-        UserRoutes userRoutes = new UserRoutes(authAccessor, userAccessor, responseResolver, duration);
+        UserRoutes userRoutes = new UserRoutes(authAccessor,
+                                               userAccessor,
+                                               responseResolver,
+                                               timeouts,
+                                               databaseBreaker,
+                                               userLookups,
+                                               ConfigFactory.load().getInt("user-multi-get.max-names"),
+                                               userRateLimiter,
+                                               routeMetrics,
+                                               requestTracer);
 
-        return concat(
+        //Provider for routes only the admin may use
+        AdminRoutes adminRoutes = new AdminRoutes(authAccessor, responseResolver, timeouts.internal, flightRecordings)
+            .addReport("jfr", flightRecordings::status)
+            .addReport("database", databaseStats::snapshot)
+            .addReport("statements", databaseMetrics::statementSnapshots)
+            .addReport("dispatchers", DispatcherStats::snapshot)
+            .addReport("connections", connectionStats::snapshot)
+            .addReport("lookups", userLookups::snapshot)
+            .addReport("breaker", databaseBreaker::snapshot)
+            .addReport("discarded", discardedWork::snapshot)
+            .addReport("limiter", databaseLimiter::snapshot)
+            .addReport("mailboxes", mailboxOverflow::snapshot)
+            .addReport("rate-limit", () -> userRateLimiter.map(SubjectRateLimiter::snapshot).orElse(null))
+            .addReport("changes", () -> Collections.singletonMap("subscribers", userChanges.subscriberCount()));
+
+        //Provider for the change feed routes. Each node of a cluster only sees its own entities' changes, so a cluster doesn't serve the feed.
+        Config changeFeed = ConfigFactory.load().getConfig("change-feed");
+        boolean clustered = ConfigFactory.load().getBoolean("cluster.enabled");
+        ChangeFeedRoutes changeFeedRoutes = new ChangeFeedRoutes(authAccessor,
+                                                                 responseResolver,
+                                                                 timeouts.internal,
+                                                                 clustered ? Optional.empty() : Optional.of(userChanges),
+                                                                 changeFeed.getInt("subscriber-buffer-size"),
+                                                                 changeFeed.getString("slow-subscriber").equals("disconnect"),
+                                                                 changeFeed.getDuration("heartbeat"));
+
+        return handleExceptions(failureHandler(), () -> concat(
             //Adds the user entity routes
             userRoutes.getUserRoutes(),
+            //Adds the admin routes
+            adminRoutes.getAdminRoutes(),
+            //Adds the change feed routes
+            changeFeedRoutes.getChangeFeedRoutes(),
+            //Adds the metrics endpoint
+            new MetricsRoutes(routeMetrics, databaseMetrics, dispatcherMetrics).getMetricsRoutes(),
             //Adds the route for authentication
             post(() ->
                 concat(
@@ -141,17 +410,83 @@ public class Server extends AllDirectives
                         entity(Jackson.unmarshaller(User.class),
                             user ->
                         {
-                            CompletionStage<HttpResponse> response =
-                                ask(authAccessor, user, duration)
+                            CompletionStage<HttpResponse> response = routeMetrics.route("auth").time(() ->
+                                ask(authAccessor, loginMessage(user), timeouts.login)
                                     .thenApply(AuthOperations.JwtMessage.class::cast)
-                                    .thenCompose(message -> ask(responseResolver, message, duration)
-                                        .thenApply(HttpResponse.class::cast));
+                                    .thenCompose(message -> ask(responseResolver, message, timeouts.internal)
+                                        .thenApply(HttpResponse.class::cast)));
 
                             return completeWithFuture(response);
                         })
                 )
             ))
 
-        );
+        ));
+    }
+
+    /**
+     * Creates the message to log a user in, expiring when the login times out
+     * @param user The user logging in
+     * @return AuthOperations.Login message for the AuthResolver
+     */
+    private static AuthOperations.Login loginMessage(User user)
+    {
+        AuthOperations.Login login = new AuthOperations.Login(user);
+        login.expiresIn(timeouts.login);
+
+        return login;
+    }
+
+    /**
+     * Turns failed operations into responses. Operations that timed out or
+     * were turned away by the database breaker or limiter get 503 Service
+     * Unavailable, with Retry-After when it is known when asks will be let
+     * through again.
+     * @return ExceptionHandler for all routes
+     */
+    private ExceptionHandler failureHandler()
+    {
+        return ExceptionHandler.newBuilder()
+            .matchAny(this::failureResponse)
+            .build();
+    }
+
+    /**
+     * Creates the response for a failed operation
+     * @param failure Why the operation failed
+     * @return Route. Completes the request with an error
+     */
+    private Route failureResponse(Throwable failure)
+    {
+        //Failures from chained CompletionStages arrive wrapped
+        Throwable cause = failure;
+        while(cause instanceof CompletionException && cause.getCause() != null)
+        {
+            cause = cause.getCause();
+        }
+
+        if(cause instanceof CircuitBreakerOpenException)
+        {
+            long remainingMillis = ((CircuitBreakerOpenException) cause).remainingDuration().toMillis();
+            long retryAfter = Math.max(1, (remainingMillis + 999) / 1000);
+
+            return respondWithHeader(RetryAfter.create(retryAfter), () ->
+                complete(StatusCodes.SERVICE_UNAVAILABLE, ErrorMessage.serviceUnavailableMessage(), Jackson.marshaller()));
+        }
+
+        //Turned away by the concurrency limiter, so it is fine to try again right away
+        if(cause instanceof LimitExceededException)
+        {
+            return respondWithHeader(RetryAfter.create(1L), () ->
+                complete(StatusCodes.SERVICE_UNAVAILABLE, ErrorMessage.serviceUnavailableMessage(), Jackson.marshaller()));
+        }
+
+        if(cause instanceof TimeoutException)
+        {
+            return complete(StatusCodes.SERVICE_UNAVAILABLE, ErrorMessage.serviceUnavailableMessage(), Jackson.marshaller());
+        }
+
+        logger.error("Request failed", cause);
+        return complete(StatusCodes.INTERNAL_SERVER_ERROR);
     }
 }
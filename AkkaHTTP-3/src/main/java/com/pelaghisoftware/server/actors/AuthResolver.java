@@ -1,53 +1,108 @@
 package com.pelaghisoftware.server.actors;
 
 import akka.actor.AbstractActor;
-import akka.actor.ActorRef;
 import akka.actor.Props;
-import static akka.pattern.Patterns.ask;
 import static akka.pattern.Patterns.pipe;
 
-import com.pelaghisoftware.data.actors.operations.DBOperations;
+import com.pelaghisoftware.data.coalescing.UserLookups;
+import com.pelaghisoftware.data.deadline.DeadlineMessage;
+import com.pelaghisoftware.data.deadline.DiscardedWork;
 import com.pelaghisoftware.data.entity.User;
+import com.pelaghisoftware.jfr.TimedPasswordEncoder;
 import com.pelaghisoftware.server.auth.JWTObject;
 import com.pelaghisoftware.server.auth.operations.AuthOperations;
+import com.typesafe.config.ConfigException;
+import com.typesafe.config.ConfigFactory;
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.ExpiredJwtException;
 import io.jsonwebtoken.MalformedJwtException;
 import io.jsonwebtoken.UnsupportedJwtException;
 import io.jsonwebtoken.security.SignatureException;
+import org.slf4j.MDC;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
+import scala.PartialFunction;
+import scala.runtime.BoxedUnit;
 
 import java.time.Duration;
 import java.util.NoSuchElementException;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Actor to determine authorization
  */
 public class AuthResolver extends AbstractActor
 {
-    private ActorRef siteUserAccessor;
+    //Looks up single users by name
+    private final UserLookups userLookups;
+
+    //Time duration before the user lookup for a login fails
+    private final Duration lookupTimeout;
+
+    //Counts messages dropped because their deadline passed
+    private final DiscardedWork discardedWork;
+
+    //Username allowed to use the admin endpoints
+    private final Optional<String> adminUserName = loadAdminUserName();
 
     /**
      * Create props for a AuthResolver
-     * @param siteUserAccessor ActorRef to the SiteUserAccessor Actor
+     * @param userLookups Looks up single users by name
+     * @param lookupTimeout Time duration before the user lookup for a login fails
+     * @param discardedWork Counts messages dropped because their deadline passed
      * @return Props. The props to initialize the actor in the actor system.
      */
-    public static Props props(ActorRef siteUserAccessor)
+    public static Props props(UserLookups userLookups,
+                              Duration lookupTimeout,
+                              DiscardedWork discardedWork)
     {
-        return Props.create(AuthResolver.class, () -> new AuthResolver(siteUserAccessor));
+        return Props.create(AuthResolver.class, () -> new AuthResolver(userLookups, lookupTimeout, discardedWork));
     }
 
     /**
      * Constructor
-     * @param siteUserAccessor ActorRef to the SiteUserAccessor Actor
+     * @param userLookups Looks up single users by name
+     * @param lookupTimeout Time duration before the user lookup for a login fails
+     * @param discardedWork Counts messages dropped because their deadline passed
+     */
+    public AuthResolver(UserLookups userLookups,
+                        Duration lookupTimeout,
+                        DiscardedWork discardedWork)
+    {
+        this.userLookups = userLookups;
+        this.lookupTimeout = lookupTimeout;
+        this.discardedWork = discardedWork;
+    }
+
+    /**
+     * Puts the trace ID of the message in the logging MDC while it is
+     * handled, so log lines from the checks carry it
+     * @param receive The behavior handling the message
+     * @param message The received message
      */
-    public AuthResolver(ActorRef siteUserAccessor)
+    @Override
+    public void aroundReceive(PartialFunction<Object, BoxedUnit> receive, Object message)
     {
-        this.siteUserAccessor = siteUserAccessor;
+        String traceId = message instanceof DeadlineMessage ? ((DeadlineMessage) message).traceId : null;
+        if(traceId == null)
+        {
+            super.aroundReceive(receive, message);
+            return;
+        }
+
+        MDC.put(DeadlineMessage.TRACE_ID_MDC_KEY, traceId);
+        try
+        {
+            super.aroundReceive(receive, message);
+        }
+        finally
+        {
+            MDC.remove(DeadlineMessage.TRACE_ID_MDC_KEY);
+        }
     }
 
     /**
@@ -58,15 +113,27 @@ public class AuthResolver extends AbstractActor
     public Receive createReceive()
     {
         return receiveBuilder()
+                //Nobody is waiting for the reply to an expired message, so skip the work
+                .match(DeadlineMessage.class, DeadlineMessage::isExpired, value ->
+                    discardedWork.record(value.getClass().getSimpleName())
+                )
                 //Check a login and return a JWT
-                .match(User.class, value ->
+                .match(AuthOperations.Login.class, login ->
                 {
+                   User value = login.user;
+
                    CompletableFuture<AuthOperations.JwtMessage> jwtMessage =
-                           ask(siteUserAccessor,
-                               new DBOperations.GetEntity(value.getUserName()),
-                               Duration.ofSeconds(1))
-                           .thenApply(Optional.class::cast)
-                           .thenApply(userOption -> checkPassword(value, userOption))
+                           userLookups.lookup(value.getUserName(), lookupTimeout)
+                           .thenApply(userOption ->
+                           {
+                               //Skip the password hash if the caller gave up during the lookup
+                               if(login.isExpired())
+                               {
+                                   discardedWork.record("Login");
+                                   throw new CompletionException(new TimeoutException("Login deadline passed"));
+                               }
+                               return checkPassword(value, userOption);
+                           })
                            .thenApply(Boolean.class::cast)
                            .thenApply(loginValid -> createJWT(loginValid, value.getUserName()))
                            .thenApply(AuthOperations.JwtMessage.class::cast)
@@ -74,14 +141,39 @@ public class AuthResolver extends AbstractActor
 
                     pipe(jwtMessage, context().dispatcher()).to(sender());
                 })
-                //Check a JWT and send whether it is valid back to the sender.
-                .match(Optional.class, jwt ->
+                //Check a JWT and send whether it is valid, with its subject, back to the sender.
+                .match(AuthOperations.TokenCheck.class, value ->
                 {
-                    Boolean isValid = true;
+                    AuthOperations.CheckResult result;
                     try
                     {
-                        JWTObject toCheck = (JWTObject)jwt.get();
+                        JWTObject toCheck = value.jwt.get();
                         Claims claims = AuthOperations.decodeJWT(toCheck.jwt);
+                        result = new AuthOperations.CheckResult(true, Optional.ofNullable(claims.getSubject()));
+                    }
+                    catch (UnsupportedJwtException |
+                           MalformedJwtException |
+                           SignatureException |
+                           ExpiredJwtException |
+                           IllegalArgumentException |
+                           NoSuchElementException e)
+                    {
+                        result = new AuthOperations.CheckResult(false, Optional.empty());
+                    }
+
+                    sender().tell(result, self());
+                })
+                //Check a JWT belongs to the admin user and send whether it is valid back to the sender.
+                .match(AuthOperations.AdminCheck.class, value ->
+                {
+                    Boolean isValid = false;
+                    Optional<String> subject = Optional.empty();
+                    try
+                    {
+                        Claims claims = AuthOperations.decodeJWT(value.jwt.get().jwt);
+                        subject = Optional.ofNullable(claims.getSubject());
+                        isValid = adminUserName.isPresent() &&
+                                  adminUserName.equals(subject);
                     }
                     catch (UnsupportedJwtException |
                            MalformedJwtException |
@@ -93,11 +185,27 @@ public class AuthResolver extends AbstractActor
                         isValid = false;
                     }
 
-                    sender().tell(isValid, self());
+                    sender().tell(new AuthOperations.CheckResult(isValid, isValid ? subject : Optional.empty()), self());
                 })
                 .build();
     }
 
+    /**
+     * Reads the admin username from the config
+     * @return Optional. Empty if no admin user is configured
+     */
+    private static Optional<String> loadAdminUserName()
+    {
+        try
+        {
+            return Optional.of(ConfigFactory.load().getConfig("admin").getString("username"));
+        }
+        catch (ConfigException e)
+        {
+            return Optional.empty();
+        }
+    }
+
     /**
      * Check an incoming user's password to the database
      * @param user incoming user
@@ -106,7 +214,7 @@ public class AuthResolver extends AbstractActor
      */
     private Boolean checkPassword(User user, Optional<User> dbUser)
     {
-        PasswordEncoder encoder = new BCryptPasswordEncoder();
+        PasswordEncoder encoder = new TimedPasswordEncoder(new BCryptPasswordEncoder());
         Boolean result = false;
 
         if(dbUser.isPresent())
@@ -3,18 +3,47 @@ package com.pelaghisoftware.server.actors;
 import akka.actor.AbstractActor;
 import akka.actor.Props;
 import akka.http.javadsl.model.*;
+import akka.http.javadsl.model.headers.ContentDisposition;
+import akka.http.javadsl.model.headers.ContentDispositionTypes;
+import akka.http.javadsl.model.headers.RawHeader;
+import akka.http.javadsl.model.headers.RetryAfter;
+import akka.stream.IOResult;
+import akka.stream.javadsl.FileIO;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.pelaghisoftware.data.actors.operations.DBOperations;
+import com.pelaghisoftware.data.deadline.DeadlineMessage;
+import com.pelaghisoftware.data.entity.User;
+import com.pelaghisoftware.jfr.FlightRecordings;
+import com.pelaghisoftware.jfr.SerializationEvent;
+import com.pelaghisoftware.server.admin.operations.AdminOperations;
 import com.pelaghisoftware.server.auth.operations.AuthOperations;
+import com.pelaghisoftware.server.ratelimit.operations.RateLimitOperations;
 import com.pelaghisoftware.server.response.messages.ErrorMessage;
+import com.pelaghisoftware.server.response.messages.UsersMessage;
+import com.pelaghisoftware.server.trace.RequestTrace;
+import org.slf4j.MDC;
+import scala.PartialFunction;
+import scala.runtime.BoxedUnit;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
 
 /**
  * Actor to create an HttpResponse
  */
 public class ResponseResolver extends AbstractActor
 {
-    private final ObjectMapper mapper = new ObjectMapper();
+    //Thread safe once configured, so shared by every instance
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    //True while handling a message for a traced request, whose response gets a serialize timing
+    private boolean traced;
 
     /**
      * Create the props needed to initialize a Response resolver in the actor system
@@ -30,6 +59,36 @@ public class ResponseResolver extends AbstractActor
      */
     public ResponseResolver(){}
 
+    /**
+     * Unwraps messages sent for a traced request. The trace ID is put in
+     * the logging MDC while the message is handled, and the response gets
+     * the time spent serializing as a Server-Timing header.
+     * @param receive The behavior handling the message
+     * @param message The received message
+     */
+    @Override
+    public void aroundReceive(PartialFunction<Object, BoxedUnit> receive, Object message)
+    {
+        if(!(message instanceof RequestTrace.Traced))
+        {
+            super.aroundReceive(receive, message);
+            return;
+        }
+
+        RequestTrace.Traced value = (RequestTrace.Traced) message;
+        MDC.put(DeadlineMessage.TRACE_ID_MDC_KEY, value.traceId);
+        traced = true;
+        try
+        {
+            super.aroundReceive(receive, value.message);
+        }
+        finally
+        {
+            traced = false;
+            MDC.remove(DeadlineMessage.TRACE_ID_MDC_KEY);
+        }
+    }
+
     /**
      * Runs when a message is received
      * @return
@@ -41,7 +100,24 @@ public class ResponseResolver extends AbstractActor
                 //Response that returns a list of all entities
                 .match(DBOperations.GetAllEntities.class, value ->
                 {
-                    HttpResponse response = createResponse(StatusCodes.OK, ContentTypes.APPLICATION_JSON, value.entities);
+                    HttpResponse response = respond(StatusCodes.OK, ContentTypes.APPLICATION_JSON, value.entities);
+
+                    //Send the response back to the sender
+                    sender().tell(response, self());
+                })
+                //Response that returns several entities and the ids that were not found
+                .match(DBOperations.GetEntities.class, value ->
+                {
+                    HttpResponse response = null;
+                    //Runs if more entities were requested than allowed
+                    if(value.tooMany)
+                    {
+                        response = respond(StatusCodes.BAD_REQUEST, ContentTypes.APPLICATION_JSON, ErrorMessage.tooManyNamesMessage());
+                    }
+                    else
+                    {
+                        response = respond(StatusCodes.OK, ContentTypes.APPLICATION_JSON, new UsersMessage(value.ids, (List<User>)value.entities));
+                    }
 
                     //Send the response back to the sender
                     sender().tell(response, self());
@@ -53,12 +129,12 @@ public class ResponseResolver extends AbstractActor
                     //Checks if the entity is present
                     if(value.entity.isPresent())
                     {
-                        response = createResponse(StatusCodes.OK, ContentTypes.APPLICATION_JSON, value.entity.get());
+                        response = respond(StatusCodes.OK, ContentTypes.APPLICATION_JSON, value.entity.get());
                     }
                     //Runs if the requested entity is not found
                     else
                     {
-                        response = createResponse(StatusCodes.NOT_FOUND, ContentTypes.APPLICATION_JSON, ErrorMessage.resourceNotFoundMessage());
+                        response = respond(StatusCodes.NOT_FOUND, ContentTypes.APPLICATION_JSON, ErrorMessage.resourceNotFoundMessage());
                     }
 
                     //Send the response back to the sender
@@ -71,17 +147,17 @@ public class ResponseResolver extends AbstractActor
                     //runs if the requested entity already exists.
                     if(value.entity.isPresent())
                     {
-                        response = createResponse(StatusCodes.BAD_REQUEST, ContentTypes.APPLICATION_JSON, ErrorMessage.userAlreadyExistsMessage());
+                        response = respond(StatusCodes.BAD_REQUEST, ContentTypes.APPLICATION_JSON, ErrorMessage.userAlreadyExistsMessage());
                     }
                     //runs if there was a failure on insert.
                     else if(!value.completed)
                     {
-                        response = createResponse(StatusCodes.BAD_REQUEST, ContentTypes.APPLICATION_JSON, ErrorMessage.badRequestMessage());
+                        response = respond(StatusCodes.BAD_REQUEST, ContentTypes.APPLICATION_JSON, ErrorMessage.badRequestMessage());
                     }
                     //runs when the entity was inserted and is good to go
                     else
                     {
-                        response = createResponse(StatusCodes.NO_CONTENT, null, null);
+                        response = respond(StatusCodes.NO_CONTENT, null, null);
                     }
 
                     //Send the response back to the sender
@@ -94,17 +170,17 @@ public class ResponseResolver extends AbstractActor
                     //Runs when the incoming user was not found
                     if(value.notFound)
                     {
-                        response = createResponse(StatusCodes.NOT_FOUND, ContentTypes.APPLICATION_JSON, ErrorMessage.userDoesNotExistMessage());
+                        response = respond(StatusCodes.NOT_FOUND, ContentTypes.APPLICATION_JSON, ErrorMessage.userDoesNotExistMessage());
                     }
                     //Runs if there is an error in updating
                     else if(!value.completed)
                     {
-                        response = createResponse(StatusCodes.BAD_REQUEST, ContentTypes.APPLICATION_JSON, ErrorMessage.badRequestMessage());
+                        response = respond(StatusCodes.BAD_REQUEST, ContentTypes.APPLICATION_JSON, ErrorMessage.badRequestMessage());
                     }
                     //Runs if the user was updated and is good to go
                     else
                     {
-                        response = createResponse(StatusCodes.NO_CONTENT, null, null);
+                        response = respond(StatusCodes.NO_CONTENT, null, null);
                     }
 
                     //Send the response back to the sender
@@ -118,17 +194,17 @@ public class ResponseResolver extends AbstractActor
                     //Runs when the incoming user was not found
                     if(value.notFound)
                     {
-                        response = createResponse(StatusCodes.NOT_FOUND, ContentTypes.APPLICATION_JSON, ErrorMessage.userDoesNotExistMessage());
+                        response = respond(StatusCodes.NOT_FOUND, ContentTypes.APPLICATION_JSON, ErrorMessage.userDoesNotExistMessage());
                     }
                     //Runs if there is an error in deleting
                     else if(!value.completed)
                     {
-                        response = createResponse(StatusCodes.BAD_REQUEST, ContentTypes.APPLICATION_JSON, ErrorMessage.badRequestMessage());
+                        response = respond(StatusCodes.BAD_REQUEST, ContentTypes.APPLICATION_JSON, ErrorMessage.badRequestMessage());
                     }
                     //Runs if the user was deleted and is good to go
                     else
                     {
-                        response = createResponse(StatusCodes.NO_CONTENT, null, null);
+                        response = respond(StatusCodes.NO_CONTENT, null, null);
                     }
 
                     //Send the response back to the sender
@@ -142,21 +218,77 @@ public class ResponseResolver extends AbstractActor
                     //runs if login failed.
                     if(value.jwt == null)
                     {
-                        response = createResponse(StatusCodes.UNAUTHORIZED, ContentTypes.APPLICATION_JSON, ErrorMessage.usernamePasswordIncorrect());
+                        response = respond(StatusCodes.UNAUTHORIZED, ContentTypes.APPLICATION_JSON, ErrorMessage.usernamePasswordIncorrect());
                     }
                     //runs if login succeeded
                     else
                     {
-                        response = createResponse(StatusCodes.OK, ContentTypes.APPLICATION_JSON, value.jwt);
+                        response = respond(StatusCodes.OK, ContentTypes.APPLICATION_JSON, value.jwt);
+                    }
+
+                    //Send the response back to the sender
+                    sender().tell(response, self());
+                })
+                //Response with a report for an admin
+                .match(AdminOperations.Report.class, value ->
+                {
+                    HttpResponse response = respond(StatusCodes.OK, ContentTypes.APPLICATION_JSON, value.report);
+
+                    //Send the response back to the sender
+                    sender().tell(response, self());
+                })
+                //Response that streams a flight recording file to an admin
+                .match(AdminOperations.RecordingFile.class, value ->
+                {
+                    long size;
+                    try
+                    {
+                        size = Files.size(value.file);
+                    }
+                    catch (IOException e)
+                    {
+                        FlightRecordings.delete(value.file);
+                        throw e;
                     }
 
+                    //The file is deleted once it has been streamed, or the stream failed
+                    Source<ByteString, CompletionStage<IOResult>> bytes = FileIO.fromPath(value.file)
+                        .watchTermination((ioResult, done) ->
+                        {
+                            done.whenComplete((finished, error) -> FlightRecordings.delete(value.file));
+                            return ioResult;
+                        });
+
+                    HttpResponse response = HttpResponse.create()
+                        .withStatus(StatusCodes.OK)
+                        .withEntity(HttpEntities.create(ContentTypes.APPLICATION_OCTET_STREAM, size, bytes))
+                        .addHeader(ContentDisposition.create(ContentDispositionTypes.ATTACHMENT,
+                                                             Collections.singletonMap("filename", value.file.getFileName().toString())));
+
+                    //Send the response back to the sender
+                    sender().tell(response, self());
+                })
+                //Response for an admin request that conflicts with the server's state
+                .match(AdminOperations.Conflict.class, value ->
+                {
+                    HttpResponse response = respond(StatusCodes.CONFLICT, ContentTypes.APPLICATION_JSON, value.message);
+
+                    //Send the response back to the sender
+                    sender().tell(response, self());
+                })
+                //Response for when a request was turned away by the rate limiter
+                .match(RateLimitOperations.RateLimited.class, value ->
+                {
+                    HttpResponse response = respond(StatusCodes.TOO_MANY_REQUESTS, ContentTypes.APPLICATION_JSON, ErrorMessage.tooManyRequestsMessage())
+                        .addHeader(RetryAfter.create(value.retryAfterSeconds));
+
                     //Send the response back to the sender
                     sender().tell(response, self());
                 })
                 //Response for when an unauthorized operation occurs.
                 .match(AuthOperations.Unauthorized.class, value ->
                 {
-                    HttpResponse response = createResponse(value.code, ContentTypes.APPLICATION_JSON, value.message);
+                    HttpResponse response = respond(value.code, ContentTypes.APPLICATION_JSON, value.message);
 
                     //Send the response back to the sender
                     sender().tell(response, self());
@@ -164,14 +296,41 @@ public class ResponseResolver extends AbstractActor
                 .build();
     }
 
+    /**
+     * Create an HttpResponse for the message being handled. Responses to
+     * traced requests get the time spent serializing.
+     * @param statusCode The Status Code for the response
+     * @param type The Content-Type for the response
+     * @param object The object to serialize into the message
+     * @return HttpResponse. Response to the user
+     */
+    private HttpResponse respond(StatusCode statusCode, ContentType type, Object object)
+    {
+        return createResponse(statusCode, type, object, traced);
+    }
+
+    /**
+     * Create an HttpResponse. Static so it can be benchmarked outside an
+     * actor system.
+     * @param statusCode The Status Code for the response
+     * @param type The Content-Type for the response
+     * @param object The object to serialize into the message
+     * @return HttpResponse. Response to the user
+     */
+    public static HttpResponse createResponse(StatusCode statusCode, ContentType type, Object object)
+    {
+        return createResponse(statusCode, type, object, false);
+    }
+
     /**
      * Create an HttpResponse
      * @param statusCode The Status Code for the response
      * @param type The Content-Type for the response
      * @param object The object to serialize into the message
+     * @param serverTiming Add the time spent serializing as a Server-Timing header
      * @return HttpResponse. Response to the user
      */
-    private HttpResponse createResponse(StatusCode statusCode, ContentType type, Object object)
+    public static HttpResponse createResponse(StatusCode statusCode, ContentType type, Object object, boolean serverTiming)
     {
         try
         {
@@ -179,7 +338,25 @@ public class ResponseResolver extends AbstractActor
 
             if(type != null && object != null)
             {
-                response = response.withEntity(type, mapper.writeValueAsString(object).getBytes());
+                SerializationEvent event = new SerializationEvent();
+                event.begin();
+
+                long start = System.nanoTime();
+                byte[] body = mapper.writeValueAsBytes(object);
+
+                event.end();
+                if(event.shouldCommit())
+                {
+                    event.type = object.getClass().getSimpleName();
+                    event.bytes = body.length;
+                    event.commit();
+                }
+
+                response = response.withEntity(type, body);
+                if(serverTiming)
+                {
+                    response = response.addHeader(RawHeader.create(RequestTrace.SERVER_TIMING, RequestTrace.metric("serialize", System.nanoTime() - start)));
+                }
             }
 
             return response;
@@ -0,0 +1,57 @@
+package com.pelaghisoftware.server.admin.operations;
+
+import com.pelaghisoftware.server.response.messages.ErrorMessage;
+
+import java.nio.file.Path;
+
+/**
+ * Messages for the admin endpoints
+ */
+public class AdminOperations
+{
+    /**
+     * Message containing a report to send back to an admin as JSON
+     */
+    public static class Report
+    {
+        public Object report;
+
+        public Report(){}
+
+        public Report(Object report)
+        {
+            this.report = report;
+        }
+    }
+
+    /**
+     * Message containing a flight recording to send back to an admin
+     */
+    public static class RecordingFile
+    {
+        public Path file;
+
+        public RecordingFile(){}
+
+        public RecordingFile(Path file)
+        {
+            this.file = file;
+        }
+    }
+
+    /**
+     * Message for an admin request that conflicts with the server's
+     * current state, e.g. starting a second flight recording
+     */
+    public static class Conflict
+    {
+        public ErrorMessage message;
+
+        public Conflict(){}
+
+        public Conflict(ErrorMessage message)
+        {
+            this.message = message;
+        }
+    }
+}
@@ -5,8 +5,12 @@ import akka.http.javadsl.model.HttpHeader;
 import akka.http.javadsl.model.HttpResponse;
 import akka.http.javadsl.model.StatusCode;
 import akka.http.javadsl.model.StatusCodes;
+import com.pelaghisoftware.data.deadline.DeadlineMessage;
+import com.pelaghisoftware.data.entity.User;
+import com.pelaghisoftware.jfr.JwtVerificationEvent;
 import com.pelaghisoftware.server.auth.JWTObject;
 import com.pelaghisoftware.server.response.messages.ErrorMessage;
+import com.pelaghisoftware.server.trace.RequestTrace;
 import com.typesafe.config.ConfigFactory;
 import io.jsonwebtoken.*;
 import io.jsonwebtoken.security.Keys;
@@ -86,15 +90,42 @@ public class AuthOperations
                                                       ExpiredJwtException,
                                                       IllegalArgumentException
     {
-        //Create the builder
-        JwtParserBuilder parserBuilder = Jwts.parserBuilder();
+        JwtVerificationEvent event = new JwtVerificationEvent();
+        event.begin();
+        try
+        {
+            //Create the builder
+            JwtParserBuilder parserBuilder = Jwts.parserBuilder();
 
-        //Parse the JWT. Creates an exception if unsuccessful.
-        Claims claims = parserBuilder.setSigningKey(getSecretKey())
-            .build()
-            .parseClaimsJws(jwt).getBody();
+            //Parse the JWT. Creates an exception if unsuccessful.
+            Claims claims = parserBuilder.setSigningKey(getSecretKey())
+                .build()
+                .parseClaimsJws(jwt).getBody();
 
-        return claims;
+            event.valid = true;
+            return claims;
+        }
+        finally
+        {
+            event.commit();
+        }
+    }
+
+    /**
+     * Gets the subject of a JWT
+     * @param jwt JWT to read
+     * @return Optional. The subject, or empty if the JWT is missing or invalid
+     */
+    public static Optional<String> getSubject(Optional<JWTObject> jwt)
+    {
+        try
+        {
+            return jwt.map(token -> decodeJWT(token.jwt).getSubject());
+        }
+        catch (JwtException | IllegalArgumentException e)
+        {
+            return Optional.empty();
+        }
     }
 
     /**
@@ -134,27 +165,97 @@ public class AuthOperations
                                                                 Duration duration,
                                                                 Supplier<CompletionStage<HttpResponse>> response)
     {
-        Boolean authCheck = false;
+        return check(authResolver, responseResolver, jwt, new TokenCheck(jwt), duration, Optional.empty(), subject -> response.get());
+    }
+
+    /**
+     * Checks whether a request is authenticated and then returns a HttpResponse.
+     * The check is recorded as the "auth" stage of the request's trace.
+     * @param authResolver Actor to perform auth operations
+     * @param responseResolver Actor to create HttpResponses
+     * @param jwt JWT to check
+     * @param duration Time duration of async operations before they fail
+     * @param trace Trace of the request
+     * @param response A Function that provides the follow on operations after
+     *                 an auth check is successful. Gets the subject of the
+     *                 JWT, so callers don't have to verify it again.
+     * @return CompletionStage a completable future that resolves to an HttpResponse
+     */
+    public static final CompletionStage<HttpResponse> authCheck(ActorRef authResolver,
+                                                                ActorRef responseResolver,
+                                                                Optional<JWTObject> jwt,
+                                                                Duration duration,
+                                                                RequestTrace trace,
+                                                                Function<Optional<String>, CompletionStage<HttpResponse>> response)
+    {
+        return check(authResolver, responseResolver, jwt, trace.tag(new TokenCheck(jwt)), duration, Optional.of(trace), response);
+    }
+
+    /**
+     * Checks whether a request is authenticated as the admin user and then
+     * returns a HttpResponse
+     * @param authResolver Actor to perform auth operations
+     * @param responseResolver Actor to create HttpResponses
+     * @param jwt JWT to check
+     * @param duration Time duration of async operations before they fail
+     * @param response A Supplier that provides the follow on operations after
+     *                 an admin check is successful
+     * @return CompletionStage a completable future that resolves to an HttpResponse
+     */
+    public static final CompletionStage<HttpResponse> adminCheck(ActorRef authResolver,
+                                                                 ActorRef responseResolver,
+                                                                 Optional<JWTObject> jwt,
+                                                                 Duration duration,
+                                                                 Supplier<CompletionStage<HttpResponse>> response)
+    {
+        return check(authResolver, responseResolver, jwt, new AdminCheck(jwt), duration, Optional.empty(), subject -> response.get());
+    }
+
+    /**
+     * Asks the auth resolver to validate a message and then returns a HttpResponse
+     * @param authResolver Actor to perform auth operations
+     * @param responseResolver Actor to create HttpResponses
+     * @param jwt JWT being checked
+     * @param authMessage Message the auth resolver answers with a CheckResult
+     * @param duration Time duration of async operations before they fail
+     * @param trace Trace to record the check in. Empty if the request isn't traced.
+     * @param response A Function that provides the follow on operations after
+     *                 the check is successful, given the subject of the JWT
+     * @return CompletionStage a completable future that resolves to an HttpResponse
+     */
+    private static CompletionStage<HttpResponse> check(ActorRef authResolver,
+                                                       ActorRef responseResolver,
+                                                       Optional<JWTObject> jwt,
+                                                       DeadlineMessage authMessage,
+                                                       Duration duration,
+                                                       Optional<RequestTrace> trace,
+                                                       Function<Optional<String>, CompletionStage<HttpResponse>> response)
+    {
+        CheckResult authCheck;
         //Check for if authentication should happen
         if(authResolver != null)
         {
-            authCheck = ask(authResolver, jwt, duration)
-                    .thenApply(Boolean.class::cast)
+            authMessage.expiresIn(duration);
+
+            Supplier<CompletionStage<Object>> checkAsk = () -> ask(authResolver, authMessage, duration);
+
+            authCheck = trace.map(value -> value.stage("auth", checkAsk)).orElseGet(checkAsk)
+                    .thenApply(CheckResult.class::cast)
                     .toCompletableFuture()
                     .join();
         }
-        //Runs if no auth should be done
+        //Runs if no auth should be done. The subject is still read if there is a valid JWT.
         else
         {
-            authCheck = true;
+            authCheck = new CheckResult(true, getSubject(jwt));
         }
 
         CompletionStage<HttpResponse> result;
 
         //Run the follow on operations if auth is good to go
-        if(authCheck)
+        if(authCheck.valid)
         {
-            result = response.get();
+            result = response.apply(authCheck.subject);
         }
         //Send Unauthorized message to the user if auth failed
         else
@@ -181,6 +282,63 @@ public class AuthOperations
         }
     }
 
+    /**
+     * Message to check a login and create a JWT
+     */
+    public static class Login extends DeadlineMessage
+    {
+        public User user;
+
+        public Login(User user)
+        {
+            this.user = user;
+        }
+    }
+
+    /**
+     * Message to check that a JWT is valid. Answered with a CheckResult.
+     */
+    public static class TokenCheck extends DeadlineMessage
+    {
+        public Optional<JWTObject> jwt;
+
+        public TokenCheck(Optional<JWTObject> jwt)
+        {
+            this.jwt = jwt;
+        }
+    }
+
+    /**
+     * Message to check that a JWT is valid and belongs to the admin user.
+     * Answered with a CheckResult.
+     */
+    public static class AdminCheck extends DeadlineMessage
+    {
+        public Optional<JWTObject> jwt;
+
+        public AdminCheck(Optional<JWTObject> jwt)
+        {
+            this.jwt = jwt;
+        }
+    }
+
+    /**
+     * Reply to a TokenCheck or AdminCheck
+     */
+    public static class CheckResult
+    {
+        //True if the JWT passed the check
+        public boolean valid;
+        //Subject of the JWT. Empty if it is invalid or has none.
+        public Optional<String> subject;
+
+        public CheckResult(boolean valid, Optional<String> subject)
+        {
+            this.valid = valid;
+            this.subject = subject;
+        }
+    }
+
     /**
      * Message for an unauthorized access
      */
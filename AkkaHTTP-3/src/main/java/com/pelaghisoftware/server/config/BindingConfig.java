@@ -0,0 +1,108 @@
+package com.pelaghisoftware.server.config;
+
+import akka.http.javadsl.ConnectHttp;
+import akka.http.javadsl.ConnectionContext;
+import akka.http.javadsl.HttpsConnectionContext;
+import akka.http.javadsl.UseHttp2;
+import com.typesafe.config.Config;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.KeyStore;
+import java.security.SecureRandom;
+
+/**
+ * Settings for how the server binds to the network. Read from the
+ * "server" section of the configuration.
+ */
+public class BindingConfig
+{
+    public final String host;
+    public final int port;
+
+    public final boolean tlsEnabled;
+    public final String keystorePath;
+    public final String keystorePassword;
+    public final String keystoreType;
+
+    public final boolean http2Enabled;
+    public final boolean h2cPriorKnowledge;
+
+    /**
+     * Constructor
+     * @param config The "server" section of the configuration
+     */
+    public BindingConfig(Config config)
+    {
+        this.host = config.getString("host");
+        this.port = config.getInt("port");
+
+        Config tls = config.getConfig("tls");
+        this.tlsEnabled = tls.getBoolean("enabled");
+        this.keystorePath = tls.getString("keystore-path");
+        this.keystorePassword = tls.getString("keystore-password");
+        this.keystoreType = tls.getString("keystore-type");
+
+        Config http2 = config.getConfig("http2");
+        this.http2Enabled = http2.getBoolean("enabled");
+        this.h2cPriorKnowledge = http2.getBoolean("h2c-prior-knowledge");
+    }
+
+    /**
+     * Gets the scheme the server is reachable on
+     * @return String. Either http or https
+     */
+    public String scheme()
+    {
+        return tlsEnabled ? "https" : "http";
+    }
+
+    /**
+     * Creates the ConnectHttp used to bind the server. When TLS is enabled
+     * HTTP/2 is negotiated through ALPN, otherwise HTTP/2 is only spoken to
+     * clients with prior knowledge (h2c).
+     * @return ConnectHttp for the binding
+     * @throws Exception If the keystore could not be loaded
+     */
+    public ConnectHttp connectHttp() throws Exception
+    {
+        if(tlsEnabled)
+        {
+            UseHttp2 useHttp2 = http2Enabled ? UseHttp2.negotiated() : UseHttp2.never();
+
+            return ConnectHttp.toHostHttps(host, port, useHttp2)
+                    .withCustomHttpsContext(createHttpsContext());
+        }
+
+        UseHttp2 useHttp2 = http2Enabled && h2cPriorKnowledge ? UseHttp2.always() : UseHttp2.never();
+
+        return ConnectHttp.toHost(host, port, useHttp2);
+    }
+
+    /**
+     * Creates the HTTPS context from the configured keystore
+     * @return HttpsConnectionContext used for TLS connections
+     * @throws Exception If the keystore could not be loaded
+     */
+    private HttpsConnectionContext createHttpsContext() throws Exception
+    {
+        char[] password = keystorePassword.toCharArray();
+
+        KeyStore keyStore = KeyStore.getInstance(keystoreType);
+        try(InputStream keystoreStream = Files.newInputStream(Paths.get(keystorePath)))
+        {
+            keyStore.load(keystoreStream, password);
+        }
+
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance("SunX509");
+        keyManagerFactory.init(keyStore, password);
+
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagerFactory.getKeyManagers(), null, new SecureRandom());
+
+        return ConnectionContext.https(sslContext);
+    }
+}
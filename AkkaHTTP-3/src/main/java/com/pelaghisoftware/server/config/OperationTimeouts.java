@@ -0,0 +1,33 @@
+package com.pelaghisoftware.server.config;
+
+import com.typesafe.config.Config;
+
+import java.time.Duration;
+
+/**
+ * How long each type of operation may take before it fails. Read from
+ * the "timeouts" section of the configuration.
+ */
+public class OperationTimeouts
+{
+    //Database reads, e.g. fetching users
+    public final Duration read;
+    //Database writes, e.g. inserting, updating or deleting users
+    public final Duration write;
+    //Logging in. Covers the user lookup and the password hash check.
+    public final Duration login;
+    //Work that never leaves the process, e.g. checking a JWT or building a response
+    public final Duration internal;
+
+    /**
+     * Constructor
+     * @param config The "timeouts" section of the configuration
+     */
+    public OperationTimeouts(Config config)
+    {
+        this.read = config.getDuration("read");
+        this.write = config.getDuration("write");
+        this.login = config.getDuration("login");
+        this.internal = config.getDuration("internal");
+    }
+}
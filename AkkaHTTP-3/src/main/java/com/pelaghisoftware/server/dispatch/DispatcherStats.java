@@ -0,0 +1,47 @@
+package com.pelaghisoftware.server.dispatch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Every InstrumentedExecutor running. Akka creates dispatcher executors
+ * itself, and again after an idle dispatcher shuts its executor down, so
+ * they register here rather than being handed to the server.
+ */
+public final class DispatcherStats
+{
+    //By actor system and dispatcher id. Sorted so they are always listed in the same order.
+    private static final Map<String, InstrumentedExecutor> executors = new ConcurrentSkipListMap<>();
+
+    /**
+     * Not instantiable
+     */
+    private DispatcherStats()
+    {
+    }
+
+    /**
+     * Adds an executor, replacing the one its dispatcher had before
+     * @param system Name of the actor system
+     * @param dispatcher Id of the dispatcher
+     * @param executor The executor
+     */
+    static void register(String system, String dispatcher, InstrumentedExecutor executor)
+    {
+        executors.put(system + "/" + dispatcher, executor);
+    }
+
+    /**
+     * Takes a snapshot of every executor
+     * @return List of snapshots
+     */
+    public static List<InstrumentedExecutor.Snapshot> snapshot()
+    {
+        List<InstrumentedExecutor.Snapshot> snapshots = new ArrayList<>();
+        executors.values().forEach(executor -> snapshots.add(executor.snapshot()));
+
+        return snapshots;
+    }
+}
@@ -0,0 +1,138 @@
+package com.pelaghisoftware.server.dispatch;
+
+import com.typesafe.config.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Resizes a dispatcher's thread pool from the share of time its threads
+ * spend blocked. Run every auto-size.interval. Each run looks at the
+ * tasks that finished since the last one and sizes the pool so the cores
+ * stay busy while the rest of the threads wait:
+ *
+ *     threads = cores * target-utilization / (1 - blocking ratio)
+ *
+ * The size stays within min-threads and max-threads, at most doubles or
+ * halves per run, and is left alone if it is within 10% already or too
+ * few tasks finished to tell.
+ */
+public class ExecutorAutoSizer implements Runnable
+{
+    private final static Logger logger =
+            LoggerFactory.getLogger(ExecutorAutoSizer.class);
+
+    private final InstrumentedExecutor executor;
+    private final int minThreads;
+    private final int maxThreads;
+    private final double targetUtilization;
+    private final long minTasks;
+    private final int cores;
+
+    //Totals at the last run
+    private long lastRunNanos;
+    private long lastCpuNanos;
+    private long lastTasks;
+
+    /**
+     * Constructor
+     * @param executor The executor to size. Must wrap a thread pool.
+     * @param config The dispatcher's instrumented-executor.auto-size section
+     */
+    public ExecutorAutoSizer(InstrumentedExecutor executor, Config config)
+    {
+        this(executor, config, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructor
+     * @param executor The executor to size. Must wrap a thread pool.
+     * @param config The dispatcher's instrumented-executor.auto-size section
+     * @param cores Number of cores the threads share
+     */
+    ExecutorAutoSizer(InstrumentedExecutor executor, Config config, int cores)
+    {
+        this.executor = executor;
+        this.cores = cores;
+        this.minThreads = config.getInt("min-threads");
+        this.maxThreads = config.getInt("max-threads");
+        this.targetUtilization = config.getDouble("target-utilization");
+        this.minTasks = config.getLong("min-tasks");
+    }
+
+    /**
+     * Measures the blocking ratio since the last run and resizes the pool
+     */
+    @Override
+    public void run()
+    {
+        long runNanos = executor.runNanos();
+        long cpuNanos = executor.cpuNanos();
+        long tasks = executor.finishedTasks();
+
+        long run = runNanos - lastRunNanos;
+        long cpu = cpuNanos - lastCpuNanos;
+        long finished = tasks - lastTasks;
+
+        lastRunNanos = runNanos;
+        lastCpuNanos = cpuNanos;
+        lastTasks = tasks;
+
+        if(finished < minTasks || run <= 0)
+        {
+            return;
+        }
+
+        ThreadPoolExecutor pool = executor.threadPool();
+        int current = pool.getCorePoolSize();
+        int size = size(current, Math.max(0, 1 - (double) cpu / run));
+
+        if(size != current)
+        {
+            logger.info("Resizing {} from {} to {} threads, {}% of task time blocked",
+                        executor.dispatcher(),
+                        current,
+                        size,
+                        Math.round(100 - 100.0 * cpu / run));
+            resize(pool, size);
+        }
+    }
+
+    /**
+     * Works out the pool size for a blocking ratio
+     * @param current Current number of threads
+     * @param blockingRatio Share of task time spent blocked, from 0 to 1
+     * @return int. The new number of threads, which may be current
+     */
+    int size(int current, double blockingRatio)
+    {
+        //Nearly always blocked would call for endless threads
+        double target = cores * targetUtilization / Math.max(1 - blockingRatio, 0.001);
+
+        int size = (int) Math.ceil(Math.min(Math.max(target, current / 2.0), current * 2.0));
+        size = Math.min(Math.max(size, minThreads), maxThreads);
+
+        return Math.abs(size - current) * 10 < current ? current : size;
+    }
+
+    /**
+     * Resizes a pool. The core size can't go above the maximum, so the
+     * maximum moves first when growing and last when shrinking.
+     * @param pool The pool
+     * @param size The new number of threads
+     */
+    private static void resize(ThreadPoolExecutor pool, int size)
+    {
+        if(size > pool.getMaximumPoolSize())
+        {
+            pool.setMaximumPoolSize(size);
+            pool.setCorePoolSize(size);
+        }
+        else
+        {
+            pool.setCorePoolSize(size);
+            pool.setMaximumPoolSize(size);
+        }
+    }
+}
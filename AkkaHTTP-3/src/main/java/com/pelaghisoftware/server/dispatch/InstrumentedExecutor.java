@@ -0,0 +1,322 @@
+package com.pelaghisoftware.server.dispatch;
+
+import akka.actor.Cancellable;
+import akka.dispatch.LoadMetrics;
+import com.pelaghisoftware.server.metrics.LatencyHistogram;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Wraps a dispatcher's executor to count the tasks queued and running,
+ * and to time how long each waited for a thread. With measureBlocking on,
+ * it also compares each task's CPU time to its wall time to find the
+ * share of time threads spend blocked, which ExecutorAutoSizer sizes the
+ * pool from.
+ *
+ * Recording takes no locks. For a dispatcher a task is an actor's mailbox
+ * processing up to throughput messages.
+ */
+public class InstrumentedExecutor extends AbstractExecutorService implements LoadMetrics
+{
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    private final String system;
+    private final String dispatcher;
+    private final ExecutorService executor;
+    private final boolean measureBlocking;
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder started = new LongAdder();
+    private final LongAdder finished = new LongAdder();
+    private final LongAdder runNanos = new LongAdder();
+    private final LongAdder cpuNanos = new LongAdder();
+    private final LatencyHistogram wait = new LatencyHistogram();
+
+    //Set when the pool is auto-sized, cancelled when the executor shuts down
+    private volatile Cancellable autoSizing;
+
+    /**
+     * Constructor
+     * @param system Name of the actor system
+     * @param dispatcher Id of the dispatcher
+     * @param executor The executor Akka created for the dispatcher
+     * @param measureBlocking Whether to measure the CPU time of each task
+     */
+    public InstrumentedExecutor(String system, String dispatcher, ExecutorService executor, boolean measureBlocking)
+    {
+        this.system = system;
+        this.dispatcher = dispatcher;
+        this.executor = executor;
+        this.measureBlocking = measureBlocking && threads.isCurrentThreadCpuTimeSupported();
+    }
+
+    /**
+     * Queues a task, recording when it was queued
+     * @param task The task
+     */
+    @Override
+    public void execute(Runnable task)
+    {
+        submitted.increment();
+        executor.execute(new TimedTask(task, System.nanoTime()));
+    }
+
+    /**
+     * Whether every thread is busy. Used by BalancingDispatcher.
+     * @return boolean. What the wrapped executor says, or false if it can't tell
+     */
+    @Override
+    public boolean atFullThrottle()
+    {
+        return executor instanceof LoadMetrics && ((LoadMetrics) executor).atFullThrottle();
+    }
+
+    /**
+     * Gets the id of the dispatcher
+     * @return String. e.g. route-blocking-dispatcher
+     */
+    public String dispatcher()
+    {
+        return dispatcher;
+    }
+
+    /**
+     * Gets the number of threads in the pool
+     * @return int. Threads, or -1 if the executor doesn't say
+     */
+    public int poolSize()
+    {
+        if(executor instanceof ThreadPoolExecutor)
+        {
+            return ((ThreadPoolExecutor) executor).getPoolSize();
+        }
+        if(executor instanceof akka.dispatch.forkjoin.ForkJoinPool)
+        {
+            return ((akka.dispatch.forkjoin.ForkJoinPool) executor).getPoolSize();
+        }
+
+        return -1;
+    }
+
+    /**
+     * Gets the thread pool, if the dispatcher uses one. Only those can be
+     * resized.
+     * @return ThreadPoolExecutor or null
+     */
+    ThreadPoolExecutor threadPool()
+    {
+        return executor instanceof ThreadPoolExecutor ? (ThreadPoolExecutor) executor : null;
+    }
+
+    /**
+     * Sets what auto-sizes the pool, so it stops with the executor
+     * @param autoSizing The scheduled ExecutorAutoSizer
+     */
+    void autoSizing(Cancellable autoSizing)
+    {
+        this.autoSizing = autoSizing;
+    }
+
+    /**
+     * Whether CPU time is measured
+     * @return boolean. True if blocking is measured
+     */
+    boolean measuresBlocking()
+    {
+        return measureBlocking;
+    }
+
+    /**
+     * Gets the wall time tasks have run for
+     * @return long. Nanoseconds since the executor was created
+     */
+    long runNanos()
+    {
+        return runNanos.sum();
+    }
+
+    /**
+     * Gets the CPU time tasks have used, if measured
+     * @return long. Nanoseconds since the executor was created
+     */
+    long cpuNanos()
+    {
+        return cpuNanos.sum();
+    }
+
+    /**
+     * Gets the number of tasks that have finished
+     * @return long. Finished tasks
+     */
+    long finishedTasks()
+    {
+        return finished.sum();
+    }
+
+    /**
+     * Takes a point in time copy of the executor's stats
+     * @return Snapshot of the executor
+     */
+    public Snapshot snapshot()
+    {
+        //Read in this order so queued and active are never negative
+        long done = finished.sum();
+        long running = started.sum();
+        long queued = submitted.sum();
+
+        Snapshot snapshot = new Snapshot();
+        snapshot.system = system;
+        snapshot.dispatcher = dispatcher;
+        snapshot.poolSize = poolSize();
+        snapshot.activeTasks = running - done;
+        snapshot.queuedTasks = queued - running;
+        snapshot.completedTasks = done;
+        snapshot.wait = wait.snapshot();
+        snapshot.meanWaitMillis = snapshot.wait.count == 0 ? 0 : snapshot.wait.sumNanos / 1e6 / snapshot.wait.count;
+        snapshot.p99WaitMillis = snapshot.wait.quantileNanos(0.99) / 1e6;
+
+        long run = runNanos.sum();
+        snapshot.blockingRatio = measureBlocking && run > 0 ? Math.max(0, 1 - (double) cpuNanos.sum() / run) : -1;
+
+        return snapshot;
+    }
+
+    /**
+     * Shuts the executor down and stops auto-sizing
+     */
+    @Override
+    public void shutdown()
+    {
+        stopAutoSizing();
+        executor.shutdown();
+    }
+
+    /**
+     * Shuts the executor down now and stops auto-sizing
+     * @return List of tasks that never ran
+     */
+    @Override
+    public List<Runnable> shutdownNow()
+    {
+        stopAutoSizing();
+        return executor.shutdownNow();
+    }
+
+    /**
+     * Whether the executor has been shut down
+     * @return boolean. True if shut down
+     */
+    @Override
+    public boolean isShutdown()
+    {
+        return executor.isShutdown();
+    }
+
+    /**
+     * Whether every task has finished after shutdown
+     * @return boolean. True if terminated
+     */
+    @Override
+    public boolean isTerminated()
+    {
+        return executor.isTerminated();
+    }
+
+    /**
+     * Waits for the tasks to finish after shutdown
+     * @param timeout How long to wait
+     * @param unit Unit of the timeout
+     * @return boolean. True if terminated
+     * @throws InterruptedException If interrupted while waiting
+     */
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * Cancels the auto-sizing, if any
+     */
+    private void stopAutoSizing()
+    {
+        Cancellable cancellable = autoSizing;
+        if(cancellable != null)
+        {
+            cancellable.cancel();
+        }
+    }
+
+    /**
+     * A task with the time it was queued
+     */
+    private class TimedTask implements Runnable
+    {
+        private final Runnable task;
+        private final long queuedAt;
+
+        /**
+         * Constructor
+         * @param task The task
+         * @param queuedAt When it was queued, from System.nanoTime
+         */
+        TimedTask(Runnable task, long queuedAt)
+        {
+            this.task = task;
+            this.queuedAt = queuedAt;
+        }
+
+        /**
+         * Runs the task and records its wait and run time
+         */
+        @Override
+        public void run()
+        {
+            long start = System.nanoTime();
+            wait.record(start - queuedAt);
+            started.increment();
+
+            long cpuStart = measureBlocking ? threads.getCurrentThreadCpuTime() : 0;
+            try
+            {
+                task.run();
+            }
+            finally
+            {
+                if(measureBlocking)
+                {
+                    cpuNanos.add(threads.getCurrentThreadCpuTime() - cpuStart);
+                }
+                runNanos.add(System.nanoTime() - start);
+                finished.increment();
+            }
+        }
+    }
+
+    /**
+     * An executor's stats at a point in time. Set up to use Jackson to
+     * marshall data to JSON.
+     */
+    public static class Snapshot
+    {
+        public String system;
+        public String dispatcher;
+        public int poolSize;
+        public long activeTasks;
+        public long queuedTasks;
+        public long completedTasks;
+        //Share of run time spent blocked, or -1 if not measured
+        public double blockingRatio;
+        public double meanWaitMillis;
+        public double p99WaitMillis;
+        //Time tasks waited for a thread
+        public LatencyHistogram.Snapshot wait;
+    }
+}
@@ -0,0 +1,94 @@
+package com.pelaghisoftware.server.dispatch;
+
+import akka.dispatch.*;
+import com.typesafe.config.Config;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Executor for dispatchers that records queue length, active tasks and
+ * task wait time, and can auto-size thread pools. Use it with
+ *
+ *     executor = "com.pelaghisoftware.server.dispatch.InstrumentedExecutorConfigurator"
+ *
+ * in a dispatcher's config. instrumented-executor.executor picks the
+ * executor it wraps, thread-pool-executor or fork-join-executor, which is
+ * configured by its usual section. Settings the dispatcher leaves out
+ * come from the top level instrumented-executor section of reference.conf.
+ */
+public class InstrumentedExecutorConfigurator extends ExecutorServiceConfigurator
+{
+    private final Config settings;
+    private final ExecutorServiceConfigurator delegate;
+    private final DispatcherPrerequisites prerequisites;
+
+    /**
+     * Constructor. Called by Akka.
+     * @param config The dispatcher's config
+     * @param prerequisites What Akka gives dispatchers
+     */
+    public InstrumentedExecutorConfigurator(Config config, DispatcherPrerequisites prerequisites)
+    {
+        super(config, prerequisites);
+        Config defaults = prerequisites.settings().config().getConfig("instrumented-executor");
+        this.settings = config.hasPath("instrumented-executor")
+                        ? config.getConfig("instrumented-executor").withFallback(defaults)
+                        : defaults;
+        this.prerequisites = prerequisites;
+
+        String executor = settings.getString("executor");
+        switch(executor)
+        {
+            case "thread-pool-executor":
+                this.delegate = new ThreadPoolExecutorConfigurator(config.getConfig(executor), prerequisites);
+                break;
+            case "fork-join-executor":
+                this.delegate = new ForkJoinExecutorConfigurator(config.getConfig(executor), prerequisites);
+                break;
+            default:
+                throw new IllegalArgumentException("instrumented-executor.executor must be thread-pool-executor or fork-join-executor, not " + executor);
+        }
+
+        if(settings.getBoolean("auto-size.enabled") && !executor.equals("thread-pool-executor"))
+        {
+            throw new IllegalArgumentException("Only a thread-pool-executor can be auto-sized");
+        }
+    }
+
+    /**
+     * Creates the factory Akka makes the dispatcher's executor with
+     * @param id Id of the dispatcher
+     * @param threadFactory Creates the dispatcher's threads
+     * @return ExecutorServiceFactory. Creates instrumented executors
+     */
+    @Override
+    public ExecutorServiceFactory createExecutorServiceFactory(String id, ThreadFactory threadFactory)
+    {
+        ExecutorServiceFactory factory = delegate.createExecutorServiceFactory(id, threadFactory);
+        String system = prerequisites.settings().name();
+
+        return () ->
+        {
+            ExecutorService executorService = factory.createExecutorService();
+            Config autoSize = settings.getConfig("auto-size");
+            boolean autoSized = autoSize.getBoolean("enabled");
+
+            InstrumentedExecutor executor = new InstrumentedExecutor(system,
+                                                                     id,
+                                                                     executorService,
+                                                                     autoSized || settings.getBoolean("measure-blocking"));
+            if(autoSized)
+            {
+                //Resizing is quick, so it runs on the scheduler's thread
+                executor.autoSizing(prerequisites.scheduler().schedule(autoSize.getDuration("interval"),
+                                                                       autoSize.getDuration("interval"),
+                                                                       new ExecutorAutoSizer(executor, autoSize),
+                                                                       ExecutionContexts.fromExecutor(Runnable::run)));
+            }
+
+            DispatcherStats.register(system, id, executor);
+            return executor;
+        };
+    }
+}
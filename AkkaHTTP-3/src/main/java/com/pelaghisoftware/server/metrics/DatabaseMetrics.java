@@ -0,0 +1,184 @@
+package com.pelaghisoftware.server.metrics;
+
+import com.pelaghisoftware.data.pool.DatabaseStats;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Connection pool gauges, checkout waits, statement latencies and
+ * Hibernate statistics, rendered in the Prometheus text exposition format
+ */
+public class DatabaseMetrics
+{
+    private final DatabaseStats databaseStats;
+
+    //Wait of every connection checkout
+    private final LatencyHistogram checkoutWait = new LatencyHistogram();
+
+    //Latency of each normalized statement. Sorted so they are always
+    //rendered in the same order.
+    private final Map<String, LatencyHistogram> statements = new ConcurrentSkipListMap<>();
+
+    /**
+     * Constructor. Starts recording checkout waits, and statement latencies
+     * if they are timed, when the pool is instrumented.
+     * @param databaseStats Stats of the SessionFactory
+     */
+    public DatabaseMetrics(DatabaseStats databaseStats)
+    {
+        this.databaseStats = databaseStats;
+        databaseStats.instrumentedProvider().ifPresent(provider ->
+        {
+            provider.onCheckout(checkoutWait::record);
+            provider.statementTiming().ifPresent(timing -> timing.onStatement(this::recordStatement));
+        });
+    }
+
+    /**
+     * Records the latency of a statement
+     * @param statement Normalized SQL
+     * @param nanos How long it ran
+     */
+    private void recordStatement(String statement, long nanos)
+    {
+        LatencyHistogram histogram = statements.get(statement);
+        if(histogram == null)
+        {
+            histogram = statements.computeIfAbsent(statement, sql -> new LatencyHistogram());
+        }
+
+        histogram.record(nanos);
+    }
+
+    /**
+     * Gets the count and latency quantiles of each statement, for
+     * GET /admin/statements
+     * @return List of statement snapshots, in SQL order
+     */
+    public List<StatementSnapshot> statementSnapshots()
+    {
+        List<StatementSnapshot> snapshots = new ArrayList<>();
+        statements.forEach((statement, histogram) ->
+        {
+            LatencyHistogram.Snapshot latency = histogram.snapshot();
+
+            StatementSnapshot snapshot = new StatementSnapshot();
+            snapshot.statement = statement;
+            snapshot.count = latency.count;
+            snapshot.meanMillis = latency.count == 0 ? 0 : latency.sumNanos / 1e6 / latency.count;
+            snapshot.p50Millis = latency.quantileNanos(0.5) / 1e6;
+            snapshot.p99Millis = latency.quantileNanos(0.99) / 1e6;
+            snapshots.add(snapshot);
+        });
+
+        return snapshots;
+    }
+
+    /**
+     * Renders the database metrics in the Prometheus text exposition format
+     * @return String. The metrics
+     */
+    public String render()
+    {
+        DatabaseStats.Snapshot snapshot = databaseStats.snapshot();
+        DatabaseStats.PoolSnapshot pool = snapshot.pool;
+        DatabaseStats.HibernateSnapshot hibernate = snapshot.hibernate;
+
+        StringBuilder text = new StringBuilder();
+
+        text.append("# HELP db_pool_connections Connections in the pool, by state\n");
+        text.append("# TYPE db_pool_connections gauge\n");
+        text.append("db_pool_connections{state=\"busy\"} ").append(pool.busy).append('\n');
+        text.append("db_pool_connections{state=\"idle\"} ").append(pool.idle).append('\n');
+
+        gauge(text, "db_pool_max_connections", "Most connections the pool opens", pool.maxSize);
+        gauge(text, "db_pool_threads_awaiting_checkout", "Threads waiting for a connection", pool.awaitingCheckout);
+
+        text.append("# HELP db_pool_checkout_duration_seconds Time waited for a connection\n");
+        text.append("# TYPE db_pool_checkout_duration_seconds histogram\n");
+        RouteMetrics.appendHistogram(text, "db_pool_checkout_duration_seconds", "", checkoutWait.snapshot());
+
+        counter(text, "db_pool_checkout_slow_total", "Checkouts slower than database-stats.checkout-warn-threshold", pool.slowCheckouts);
+        counter(text, "db_pool_checkout_failed_total", "Checkouts that failed", pool.failedCheckouts);
+        counter(text, "db_pool_connections_leaked_total", "Connections held past database-stats.leak-detection.threshold", pool.leakedConnections);
+        counter(text, "db_pool_connections_force_closed_total", "Leaked connections closed to return them to the pool", pool.forceClosedConnections);
+
+        text.append("# HELP db_statement_duration_seconds Time to run a JDBC statement, by normalized SQL\n");
+        text.append("# TYPE db_statement_duration_seconds histogram\n");
+        statements.forEach((statement, histogram) ->
+            RouteMetrics.appendHistogram(text, "db_statement_duration_seconds",
+                                         "statement=\"" + escapeLabel(statement) + "\",", histogram.snapshot()));
+
+        counter(text, "hibernate_sessions_opened_total", "Sessions opened", hibernate.sessionsOpened);
+        counter(text, "hibernate_sessions_closed_total", "Sessions closed", hibernate.sessionsClosed);
+        counter(text, "hibernate_transactions_total", "Transactions finished", hibernate.transactions);
+        counter(text, "hibernate_connections_obtained_total", "Connections obtained by sessions", hibernate.connectionsObtained);
+        counter(text, "hibernate_statements_prepared_total", "JDBC statements prepared", hibernate.statementsPrepared);
+        counter(text, "hibernate_queries_executed_total", "HQL and criteria queries run", hibernate.queriesExecuted);
+        gauge(text, "hibernate_query_max_duration_seconds", "Slowest query since startup", hibernate.slowestQueryMillis / 1000.0);
+
+        text.append("# HELP hibernate_entities_total Entity operations, by operation\n");
+        text.append("# TYPE hibernate_entities_total counter\n");
+        text.append("hibernate_entities_total{operation=\"load\"} ").append(hibernate.entitiesLoaded).append('\n');
+        text.append("hibernate_entities_total{operation=\"fetch\"} ").append(hibernate.entitiesFetched).append('\n');
+        text.append("hibernate_entities_total{operation=\"insert\"} ").append(hibernate.entitiesInserted).append('\n');
+        text.append("hibernate_entities_total{operation=\"update\"} ").append(hibernate.entitiesUpdated).append('\n');
+        text.append("hibernate_entities_total{operation=\"delete\"} ").append(hibernate.entitiesDeleted).append('\n');
+
+        return text.toString();
+    }
+
+    /**
+     * Escapes a label value as the text exposition format requires
+     * @param value The label value
+     * @return String. The value with backslashes, quotes and new lines escaped
+     */
+    private static String escapeLabel(String value)
+    {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * Appends a gauge without labels
+     * @param text Where the metrics are being rendered
+     * @param name Name of the gauge
+     * @param help Description of the gauge
+     * @param value Current value
+     */
+    private static void gauge(StringBuilder text, String name, String help, Number value)
+    {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(" gauge\n");
+        text.append(name).append(' ').append(value).append('\n');
+    }
+
+    /**
+     * Appends a counter without labels
+     * @param text Where the metrics are being rendered
+     * @param name Name of the counter
+     * @param help Description of the counter
+     * @param value Current count
+     */
+    private static void counter(StringBuilder text, String name, String help, long value)
+    {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(" counter\n");
+        text.append(name).append(' ').append(value).append('\n');
+    }
+
+    /**
+     * Count and latency of one statement. Set up to use Jackson to
+     * marshall data to JSON.
+     */
+    public static class StatementSnapshot
+    {
+        public String statement;
+        public long count;
+        public double meanMillis;
+        public double p50Millis;
+        public double p99Millis;
+    }
+}
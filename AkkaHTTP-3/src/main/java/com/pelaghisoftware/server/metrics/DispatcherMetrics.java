@@ -0,0 +1,74 @@
+package com.pelaghisoftware.server.metrics;
+
+import com.pelaghisoftware.server.dispatch.DispatcherStats;
+import com.pelaghisoftware.server.dispatch.InstrumentedExecutor;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Thread, queue and task wait metrics of every dispatcher using
+ * InstrumentedExecutorConfigurator, rendered in the Prometheus text
+ * exposition format
+ */
+public class DispatcherMetrics
+{
+    /**
+     * Renders the dispatcher metrics in the Prometheus text exposition format
+     * @return String. The metrics
+     */
+    public String render()
+    {
+        List<InstrumentedExecutor.Snapshot> snapshots = DispatcherStats.snapshot();
+        StringBuilder text = new StringBuilder();
+
+        gauges(text, "dispatcher_threads", "Threads in the pool", snapshots, snapshot -> snapshot.poolSize);
+        gauges(text, "dispatcher_active_tasks", "Tasks running, each an actor processing its mailbox", snapshots, snapshot -> snapshot.activeTasks);
+        gauges(text, "dispatcher_queue_length", "Tasks waiting for a thread", snapshots, snapshot -> snapshot.queuedTasks);
+        gauges(text, "dispatcher_blocking_ratio", "Share of task time spent blocked, -1 if not measured", snapshots, snapshot -> snapshot.blockingRatio);
+
+        text.append("# HELP dispatcher_tasks_total Tasks finished\n");
+        text.append("# TYPE dispatcher_tasks_total counter\n");
+        snapshots.forEach(snapshot ->
+            text.append("dispatcher_tasks_total{").append(labels(snapshot)).append("} ")
+                .append(snapshot.completedTasks).append('\n'));
+
+        text.append("# HELP dispatcher_task_wait_seconds Time tasks waited for a thread\n");
+        text.append("# TYPE dispatcher_task_wait_seconds histogram\n");
+        snapshots.forEach(snapshot ->
+            RouteMetrics.appendHistogram(text, "dispatcher_task_wait_seconds", labels(snapshot) + ",", snapshot.wait));
+
+        return text.toString();
+    }
+
+    /**
+     * Appends a gauge with a line per dispatcher
+     * @param text Where the metrics are being rendered
+     * @param name Name of the gauge
+     * @param help Description of the gauge
+     * @param snapshots Every dispatcher
+     * @param value Gets the gauge's value from a dispatcher
+     */
+    private static void gauges(StringBuilder text,
+                               String name,
+                               String help,
+                               List<InstrumentedExecutor.Snapshot> snapshots,
+                               Function<InstrumentedExecutor.Snapshot, Number> value)
+    {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(" gauge\n");
+        snapshots.forEach(snapshot ->
+            text.append(name).append('{').append(labels(snapshot)).append("} ")
+                .append(value.apply(snapshot)).append('\n'));
+    }
+
+    /**
+     * Gets the labels of a dispatcher
+     * @param snapshot The dispatcher
+     * @return String. e.g. system="routes",dispatcher="route-blocking-dispatcher"
+     */
+    private static String labels(InstrumentedExecutor.Snapshot snapshot)
+    {
+        return "system=\"" + snapshot.system + "\",dispatcher=\"" + snapshot.dispatcher + "\"";
+    }
+}
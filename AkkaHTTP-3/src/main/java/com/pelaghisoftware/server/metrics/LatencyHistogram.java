@@ -0,0 +1,170 @@
+package com.pelaghisoftware.server.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies with log-linear buckets. Each power of two of
+ * microseconds is split into four buckets, so any recorded value is
+ * reported within 19% of its real value. Recording only increments
+ * atomic counters, so it takes no locks and allocates nothing.
+ */
+public class LatencyHistogram
+{
+    //Buckets per power of two
+    private static final int SUB_BUCKETS = 4;
+
+    //Smallest and largest tracked powers of two of microseconds, about 1 microsecond to 67 seconds
+    private static final int MIN_EXPONENT = 0;
+    private static final int MAX_EXPONENT = 26;
+
+    //Upper bound of each bucket in nanoseconds. Values above the last go in an overflow bucket.
+    private static final long[] UPPER_BOUNDS = createUpperBounds();
+
+    //The total count is the sum of these, so it always matches the buckets
+    private final AtomicLongArray counts = new AtomicLongArray(UPPER_BOUNDS.length + 1);
+    private final AtomicLong sumNanos = new AtomicLong();
+
+    /**
+     * Creates the bucket upper bounds
+     * @return long[]. Upper bound of each bucket in nanoseconds
+     */
+    private static long[] createUpperBounds()
+    {
+        int buckets = (MAX_EXPONENT - MIN_EXPONENT) * SUB_BUCKETS + 1;
+        long[] bounds = new long[buckets];
+
+        for(int i = 0; i < buckets; i++)
+        {
+            double micros = Math.pow(2, MIN_EXPONENT + (double) i / SUB_BUCKETS);
+            bounds[i] = (long) Math.ceil(micros * 1000);
+        }
+
+        return bounds;
+    }
+
+    /**
+     * Records a latency
+     * @param nanos The latency in nanoseconds
+     */
+    public void record(long nanos)
+    {
+        counts.incrementAndGet(bucketOf(nanos));
+        sumNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Finds the bucket a latency goes in
+     * @param nanos The latency in nanoseconds
+     * @return int. Index of the bucket
+     */
+    private static int bucketOf(long nanos)
+    {
+        int low = 0;
+        int high = UPPER_BOUNDS.length;
+
+        //First bucket whose upper bound is at least the value
+        while(low < high)
+        {
+            int middle = (low + high) >>> 1;
+            if(UPPER_BOUNDS[middle] < nanos)
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Takes a point in time copy of the histogram. Buckets are copied one at
+     * a time, so values recorded meanwhile may be partly included. The
+     * count is added up from the copied buckets, so it is never below a
+     * cumulative bucket count.
+     * @return Snapshot of the histogram
+     */
+    public Snapshot snapshot()
+    {
+        long[] bucketCounts = new long[counts.length()];
+        long count = 0;
+        for(int i = 0; i < bucketCounts.length; i++)
+        {
+            bucketCounts[i] = counts.get(i);
+            count += bucketCounts[i];
+        }
+
+        return new Snapshot(bucketCounts, count, sumNanos.get());
+    }
+
+    /**
+     * Point in time copy of a LatencyHistogram
+     */
+    public static class Snapshot
+    {
+        private final long[] bucketCounts;
+        public final long count;
+        public final long sumNanos;
+
+        /**
+         * Constructor
+         * @param bucketCounts Count of each bucket, with the overflow bucket last
+         * @param count Number of recorded values, the sum of the bucket counts
+         * @param sumNanos Sum of the recorded values in nanoseconds
+         */
+        Snapshot(long[] bucketCounts, long count, long sumNanos)
+        {
+            this.bucketCounts = bucketCounts;
+            this.count = count;
+            this.sumNanos = sumNanos;
+        }
+
+        /**
+         * Gets the number of values at or below a latency. Exact when the
+         * latency is a power of two of microseconds.
+         * @param nanos The latency in nanoseconds
+         * @return long. Cumulative count up to the bucket containing the latency
+         */
+        public long countAtOrBelow(long nanos)
+        {
+            long cumulative = 0;
+            for(int i = 0; i < UPPER_BOUNDS.length && UPPER_BOUNDS[i] <= nanos; i++)
+            {
+                cumulative += bucketCounts[i];
+            }
+
+            return cumulative;
+        }
+
+        /**
+         * Gets the latency at a quantile
+         * @param quantile The quantile, between 0 and 1
+         * @return long. Upper bound in nanoseconds of the bucket holding the
+         *         quantile, or 0 if nothing was recorded
+         */
+        public long quantileNanos(double quantile)
+        {
+            if(count == 0)
+            {
+                return 0;
+            }
+
+            long rank = (long) Math.ceil(quantile * count);
+            long cumulative = 0;
+            for(int i = 0; i < UPPER_BOUNDS.length; i++)
+            {
+                cumulative += bucketCounts[i];
+                if(cumulative >= rank)
+                {
+                    return UPPER_BOUNDS[i];
+                }
+            }
+
+            //The quantile is in the overflow bucket
+            return UPPER_BOUNDS[UPPER_BOUNDS.length - 1];
+        }
+    }
+}
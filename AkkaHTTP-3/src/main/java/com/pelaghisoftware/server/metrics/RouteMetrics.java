@@ -0,0 +1,180 @@
+package com.pelaghisoftware.server.metrics;
+
+import akka.http.javadsl.model.HttpResponse;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+/**
+ * Request counts, status classes, in-flight gauges and latency histograms
+ * for each route. Rendered in the Prometheus text exposition format.
+ */
+public class RouteMetrics
+{
+    //Status classes 1xx to 5xx. Requests that failed without a response count as 5xx.
+    private static final String[] STATUS_CLASSES = {"1xx", "2xx", "3xx", "4xx", "5xx"};
+
+    //Histogram buckets exported to Prometheus, powers of two from 64 microseconds to about 67 seconds
+    private static final int MIN_EXPORTED_EXPONENT = 6;
+    private static final int MAX_EXPORTED_EXPONENT = 26;
+
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+    //Sorted so the routes are always rendered in the same order
+    private final Map<String, RouteStats> routes = new ConcurrentSkipListMap<>();
+
+    /**
+     * Gets the stats of a route, creating them the first time
+     * @param route Name of the route, used as the route label
+     * @return RouteStats for the route
+     */
+    public RouteStats route(String route)
+    {
+        RouteStats stats = routes.get(route);
+
+        return stats != null ? stats : routes.computeIfAbsent(route, name -> new RouteStats());
+    }
+
+    /**
+     * Renders every route's metrics in the Prometheus text exposition format
+     * @return String. The metrics
+     */
+    public String render()
+    {
+        StringBuilder text = new StringBuilder();
+
+        text.append("# HELP http_requests_total Requests answered, by route and status class\n");
+        text.append("# TYPE http_requests_total counter\n");
+        routes.forEach((route, stats) ->
+        {
+            for(int i = 0; i < STATUS_CLASSES.length; i++)
+            {
+                text.append("http_requests_total{route=\"").append(route)
+                    .append("\",status=\"").append(STATUS_CLASSES[i]).append("\"} ")
+                    .append(stats.statusCounts.get(i)).append('\n');
+            }
+        });
+
+        text.append("# HELP http_requests_in_flight Requests being handled, by route\n");
+        text.append("# TYPE http_requests_in_flight gauge\n");
+        routes.forEach((route, stats) ->
+            text.append("http_requests_in_flight{route=\"").append(route).append("\"} ")
+                .append(stats.inFlight.get()).append('\n'));
+
+        text.append("# HELP http_request_duration_seconds Time to answer a request, by route\n");
+        text.append("# TYPE http_request_duration_seconds histogram\n");
+        routes.forEach((route, stats) ->
+            appendHistogram(text, "http_request_duration_seconds", "route=\"" + route + "\",", stats.latency.snapshot()));
+
+        text.append("# HELP http_request_duration_quantile_seconds Latency quantiles since startup, by route. Within 19% of the real value.\n");
+        text.append("# TYPE http_request_duration_quantile_seconds gauge\n");
+        routes.forEach((route, stats) ->
+        {
+            LatencyHistogram.Snapshot snapshot = stats.latency.snapshot();
+
+            for(double quantile : QUANTILES)
+            {
+                text.append("http_request_duration_quantile_seconds{route=\"").append(route)
+                    .append("\",quantile=\"").append(quantile).append("\"} ")
+                    .append(seconds(snapshot.quantileNanos(quantile))).append('\n');
+            }
+        });
+
+        return text.toString();
+    }
+
+    /**
+     * Appends the buckets, sum and count of a histogram in the Prometheus
+     * text exposition format
+     * @param text Where the metrics are being rendered
+     * @param name Name of the histogram, e.g. http_request_duration_seconds
+     * @param labels Labels each line starts with, each followed by a comma,
+     *               e.g. route="user_get", or empty for none
+     * @param snapshot The histogram
+     */
+    static void appendHistogram(StringBuilder text, String name, String labels, LatencyHistogram.Snapshot snapshot)
+    {
+        for(int exponent = MIN_EXPORTED_EXPONENT; exponent <= MAX_EXPORTED_EXPONENT; exponent++)
+        {
+            long boundNanos = (1L << exponent) * 1000;
+            text.append(name).append("_bucket{").append(labels)
+                .append("le=\"").append(seconds(boundNanos)).append("\"} ")
+                .append(snapshot.countAtOrBelow(boundNanos)).append('\n');
+        }
+        text.append(name).append("_bucket{").append(labels)
+            .append("le=\"+Inf\"} ").append(snapshot.count).append('\n');
+
+        //The sum and count lines take the labels without the trailing comma
+        String sumLabels = labels.isEmpty() ? "" : "{" + labels.substring(0, labels.length() - 1) + "}";
+        text.append(name).append("_sum").append(sumLabels).append(' ')
+            .append(seconds(snapshot.sumNanos)).append('\n');
+        text.append(name).append("_count").append(sumLabels).append(' ')
+            .append(snapshot.count).append('\n');
+    }
+
+    /**
+     * Formats nanoseconds as seconds
+     * @param nanos Time in nanoseconds
+     * @return String. Time in seconds
+     */
+    static String seconds(long nanos)
+    {
+        return String.format(Locale.ROOT, "%.6f", nanos / 1e9);
+    }
+
+    /**
+     * Metrics of a single route. Recording takes no locks and allocates
+     * nothing.
+     */
+    public static class RouteStats
+    {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final AtomicLongArray statusCounts = new AtomicLongArray(STATUS_CLASSES.length);
+        private final AtomicLong inFlight = new AtomicLong();
+
+        /**
+         * Runs a request and records its latency and status
+         * @param response Supplier that handles the request
+         * @return CompletionStage that resolves to the response
+         */
+        public CompletionStage<HttpResponse> time(Supplier<CompletionStage<HttpResponse>> response)
+        {
+            long start = System.nanoTime();
+            inFlight.incrementAndGet();
+
+            CompletionStage<HttpResponse> result;
+            try
+            {
+                result = response.get();
+            }
+            catch (RuntimeException e)
+            {
+                record(start, 500);
+                throw e;
+            }
+
+            return result.whenComplete((httpResponse, error) ->
+                record(start, error == null ? httpResponse.status().intValue() : 500));
+        }
+
+        /**
+         * Records a finished request
+         * @param start When the request started, from System.nanoTime
+         * @param status Status code of the response
+         */
+        private void record(long start, int status)
+        {
+            latency.record(System.nanoTime() - start);
+
+            int statusClass = Math.min(Math.max(status / 100, 1), 5) - 1;
+            statusCounts.incrementAndGet(statusClass);
+
+            inFlight.decrementAndGet();
+        }
+    }
+}
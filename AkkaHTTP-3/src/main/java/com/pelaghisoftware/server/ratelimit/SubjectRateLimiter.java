@@ -0,0 +1,334 @@
+package com.pelaghisoftware.server.ratelimit;
+
+import com.typesafe.config.Config;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Rate limits requests per subject, e.g. the sub claim of a JWT. Each
+ * subject gets a token bucket that refills at a fixed rate and holds up
+ * to a burst of tokens. Requests take as many tokens as they cost.
+ *
+ * Buckets are kept as a single theoretical arrival time (GCRA) updated
+ * with compare and set, so no locks are taken. A bucket that has refilled
+ * completely is the same as no bucket, so those are dropped first once
+ * more than the maximum number of subjects are tracked. One thread at a
+ * time evicts. An evicted bucket is marked as removed before it leaves
+ * the map, so a request holding on to it takes a new bucket instead of
+ * spending tokens nobody will see.
+ */
+public class SubjectRateLimiter
+{
+    //Full at time of a bucket that has been evicted
+    private static final long REMOVED = Long.MIN_VALUE;
+
+    //Tokens each kind of request costs
+    public final int readCost;
+    public final int bulkReadCost;
+    public final int writeCost;
+
+    private final int burst;
+    private final int maxSubjects;
+
+    //Time it takes to refill one token
+    private final long nanosPerToken;
+
+    //Time the bucket of each subject is full again
+    private final Map<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+
+    //Set while a thread is evicting buckets
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    private final LongAdder allowed = new LongAdder();
+    private final LongAdder limited = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+
+    /**
+     * Constructor
+     * @param config The "user-rate-limit" section of the configuration
+     */
+    public SubjectRateLimiter(Config config)
+    {
+        this(config.getDouble("tokens-per-second"),
+             config.getInt("burst"),
+             config.getInt("max-subjects"),
+             config.getInt("cost.read"),
+             config.getInt("cost.bulk-read"),
+             config.getInt("cost.write"));
+    }
+
+    /**
+     * Constructor
+     * @param tokensPerSecond How fast a bucket refills
+     * @param burst Most tokens a bucket holds
+     * @param maxSubjects Most subjects tracked at once
+     * @param readCost Tokens a single read costs
+     * @param bulkReadCost Tokens a read of many users costs, and the most
+     *                     a lookup by name costs
+     * @param writeCost Tokens a write costs
+     * @throws IllegalArgumentException If a cost is more than the burst,
+     *                                  so those requests could never go ahead
+     */
+    public SubjectRateLimiter(double tokensPerSecond,
+                              int burst,
+                              int maxSubjects,
+                              int readCost,
+                              int bulkReadCost,
+                              int writeCost)
+    {
+        checkCost("read", readCost, burst);
+        checkCost("bulk-read", bulkReadCost, burst);
+        checkCost("write", writeCost, burst);
+
+        this.nanosPerToken = (long) (TimeUnit.SECONDS.toNanos(1) / tokensPerSecond);
+        this.burst = burst;
+        this.maxSubjects = maxSubjects;
+        this.readCost = readCost;
+        this.bulkReadCost = bulkReadCost;
+        this.writeCost = writeCost;
+    }
+
+    /**
+     * Gets the cost of looking up users by name. Each name costs a read,
+     * up to the cost of a bulk read.
+     * @param names Number of names looked up
+     * @return int. Tokens the lookup costs
+     */
+    public int lookupCost(int names)
+    {
+        return (int) Math.min(bulkReadCost, Math.max(1L, (long) names * readCost));
+    }
+
+    /**
+     * Takes tokens from a subject's bucket if it has enough
+     * @param subject Who made the request
+     * @param cost Tokens the request costs
+     * @return Decision. Whether the request may go ahead and the state of
+     *         the bucket afterwards
+     */
+    public Decision tryAcquire(String subject, int cost)
+    {
+        return tryAcquire(subject, cost, System.nanoTime());
+    }
+
+    /**
+     * Takes tokens from a subject's bucket if it has enough
+     * @param subject Who made the request
+     * @param cost Tokens the request costs
+     * @param now Current time from System.nanoTime
+     * @return Decision. Whether the request may go ahead and the state of
+     *         the bucket afterwards
+     */
+    Decision tryAcquire(String subject, int cost, long now)
+    {
+        long capacity = burst * nanosPerToken;
+
+        while(true)
+        {
+            AtomicLong bucket = bucket(subject, now);
+            long fullAt = bucket.get();
+
+            //Evicted since it was looked up. Take it out in case the evicting thread hasn't yet.
+            if(fullAt == REMOVED)
+            {
+                buckets.remove(subject, bucket);
+                continue;
+            }
+
+            long newFullAt = Math.max(fullAt, now) + cost * nanosPerToken;
+
+            //Not enough tokens left
+            if(newFullAt - now > capacity)
+            {
+                limited.increment();
+
+                long waitNanos = newFullAt - now - capacity;
+                return new Decision(false, burst, tokensLeft(fullAt, now), nanosToSeconds(Math.max(fullAt - now, 0)), nanosToSeconds(waitNanos));
+            }
+
+            if(bucket.compareAndSet(fullAt, newFullAt))
+            {
+                allowed.increment();
+                return new Decision(true, burst, tokensLeft(newFullAt, now), nanosToSeconds(newFullAt - now), 0);
+            }
+        }
+    }
+
+    /**
+     * Gets a subject's bucket, creating a full one if there is none
+     * @param subject Who made the request
+     * @param now Current time from System.nanoTime
+     * @return AtomicLong. Time the bucket is full again
+     */
+    private AtomicLong bucket(String subject, long now)
+    {
+        AtomicLong bucket = buckets.get(subject);
+        if(bucket != null)
+        {
+            return bucket;
+        }
+
+        //Only one thread evicts, the others go ahead while it does
+        if(buckets.size() >= maxSubjects && evicting.compareAndSet(false, true))
+        {
+            try
+            {
+                evict(now);
+            }
+            finally
+            {
+                evicting.set(false);
+            }
+        }
+
+        return buckets.computeIfAbsent(subject, key -> new AtomicLong(now));
+    }
+
+    /**
+     * Drops buckets that have refilled completely. If every bucket is
+     * still in use, drops buckets until there is room again, which gives
+     * those subjects a full bucket.
+     * @param now Current time from System.nanoTime
+     */
+    private void evict(long now)
+    {
+        for(Map.Entry<String, AtomicLong> entry : buckets.entrySet())
+        {
+            long fullAt = entry.getValue().get();
+            if(fullAt != REMOVED && fullAt <= now)
+            {
+                remove(entry.getKey(), entry.getValue(), fullAt);
+            }
+        }
+
+        //Leave some room so the next new subjects don't each scan the map
+        int target = maxSubjects - Math.max(1, maxSubjects / 10);
+        for(Map.Entry<String, AtomicLong> entry : buckets.entrySet())
+        {
+            if(buckets.size() <= target)
+            {
+                break;
+            }
+
+            long fullAt = entry.getValue().get();
+            if(fullAt != REMOVED && remove(entry.getKey(), entry.getValue(), fullAt))
+            {
+                evicted.increment();
+            }
+        }
+    }
+
+    /**
+     * Marks a bucket as removed and takes it out of the map, unless a
+     * request changed it since it was read
+     * @param subject Subject of the bucket
+     * @param bucket The bucket
+     * @param fullAt Time the bucket is full again, as read
+     * @return boolean. True if the bucket was removed
+     */
+    private boolean remove(String subject, AtomicLong bucket, long fullAt)
+    {
+        if(!bucket.compareAndSet(fullAt, REMOVED))
+        {
+            return false;
+        }
+
+        buckets.remove(subject, bucket);
+        return true;
+    }
+
+    /**
+     * Checks that a request cost fits in a bucket
+     * @param name Kind of request
+     * @param cost Tokens the request costs
+     * @param burst Most tokens a bucket holds
+     * @throws IllegalArgumentException If the cost is more than the burst
+     */
+    private static void checkCost(String name, int cost, int burst)
+    {
+        if(cost > burst)
+        {
+            throw new IllegalArgumentException("The " + name + " cost of " + cost + " tokens is more than the burst of "
+                                               + burst + ", so those requests would always be limited");
+        }
+    }
+
+    /**
+     * Gets how many tokens are left in a bucket
+     * @param fullAt Time the bucket is full again
+     * @param now Current time from System.nanoTime
+     * @return long. Tokens left
+     */
+    private long tokensLeft(long fullAt, long now)
+    {
+        return Math.max(0, burst - (Math.max(fullAt - now, 0) + nanosPerToken - 1) / nanosPerToken);
+    }
+
+    /**
+     * Rounds a time up to whole seconds
+     * @param nanos Time in nanoseconds
+     * @return long. Time in seconds
+     */
+    private static long nanosToSeconds(long nanos)
+    {
+        return (nanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1);
+    }
+
+    /**
+     * Takes a point in time copy of the limiter counters
+     * @return Snapshot of the limiter
+     */
+    public Snapshot snapshot()
+    {
+        Snapshot snapshot = new Snapshot();
+        snapshot.subjects = buckets.size();
+        snapshot.allowed = allowed.sum();
+        snapshot.limited = limited.sum();
+        snapshot.evicted = evicted.sum();
+
+        return snapshot;
+    }
+
+    /**
+     * Outcome of a request for tokens
+     */
+    public static class Decision
+    {
+        //True if the request may go ahead
+        public final boolean allowed;
+        //Most tokens the bucket holds
+        public final long limit;
+        //Tokens left in the bucket
+        public final long remaining;
+        //Seconds until the bucket is full again
+        public final long resetSeconds;
+        //Seconds until the request would be allowed. 0 if it was allowed.
+        public final long retryAfterSeconds;
+
+        Decision(boolean allowed, long limit, long remaining, long resetSeconds, long retryAfterSeconds)
+        {
+            this.allowed = allowed;
+            this.limit = limit;
+            this.remaining = remaining;
+            this.resetSeconds = resetSeconds;
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+    }
+
+    /**
+     * Point in time copy of the limiter. Set up to use Jackson to marshall
+     * data to JSON.
+     */
+    public static class Snapshot
+    {
+        public int subjects;
+        public long allowed;
+        public long limited;
+        public long evicted;
+    }
+}
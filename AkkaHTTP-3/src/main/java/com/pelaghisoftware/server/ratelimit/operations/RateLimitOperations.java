@@ -0,0 +1,22 @@
+package com.pelaghisoftware.server.ratelimit.operations;
+
+/**
+ * Messages for rate limiting
+ */
+public class RateLimitOperations
+{
+    /**
+     * Message for a request that was turned away by the rate limiter
+     */
+    public static class RateLimited
+    {
+        public long retryAfterSeconds;
+
+        public RateLimited(){}
+
+        public RateLimited(long retryAfterSeconds)
+        {
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+    }
+}
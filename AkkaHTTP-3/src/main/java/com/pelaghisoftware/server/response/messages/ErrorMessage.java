@@ -77,6 +77,36 @@ public class ErrorMessage
                 "Double check your request");
     }
 
+    /**
+     * Get an ErrorMessage object for when too many users are requested at once
+     * @return ErrorMessage
+     */
+    public static ErrorMessage tooManyNamesMessage()
+    {
+        return new ErrorMessage("Too many users requested at once. " +
+                "Split your request");
+    }
+
+    /**
+     * Get an ErrorMessage object for when the server is too busy to answer
+     * @return ErrorMessage
+     */
+    public static ErrorMessage serviceUnavailableMessage()
+    {
+        return new ErrorMessage("Service temporarily unavailable. " +
+                "Try again later");
+    }
+
+    /**
+     * Get an ErrorMessage object for when a caller sent too many requests
+     * @return ErrorMessage
+     */
+    public static ErrorMessage tooManyRequestsMessage()
+    {
+        return new ErrorMessage("Too many requests. " +
+                "Slow down and try again later");
+    }
+
     /**
      * Get an ErrorMessage object for a failed authentication attempt
      * @return ErrorMessage
@@ -94,4 +124,36 @@ public class ErrorMessage
     {
         return new ErrorMessage("Username/Password is incorrect.");
     }
-}
\ No newline at end of file
+
+    /**
+     * Get an ErrorMessage object for starting a flight recording while
+     * one is already running
+     * @return ErrorMessage
+     */
+    public static ErrorMessage recordingRunningMessage()
+    {
+        return new ErrorMessage("A recording is already running. " +
+                "Stop it before starting another");
+    }
+
+    /**
+     * Get an ErrorMessage object for stopping a flight recording when
+     * none was started
+     * @return ErrorMessage
+     */
+    public static ErrorMessage noRecordingMessage()
+    {
+        return new ErrorMessage("No recording has been started");
+    }
+
+    /**
+     * Get an ErrorMessage object for subscribing to the change feed on a
+     * server that can't see every change
+     * @return ErrorMessage
+     */
+    public static ErrorMessage changeFeedUnavailableMessage()
+    {
+        return new ErrorMessage("The change feed is not available " +
+                "while clustering is enabled");
+    }
+}
@@ -0,0 +1,56 @@
+package com.pelaghisoftware.server.response.messages;
+
+import com.fasterxml.jackson.annotation.JsonGetter;
+import com.pelaghisoftware.data.entity.User;
+
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Class to return several users at once along with the requested
+ * names that were not found. Set up to use Jackson to marshall data
+ * to JSON.
+ */
+public class UsersMessage
+{
+    private final List<User> users;
+    private final List<String> missing;
+
+    /**
+     * Create a UsersMessage
+     * @param requested The userNames that were requested
+     * @param users The users that were found
+     */
+    public UsersMessage(List<String> requested, List<User> users)
+    {
+        Set<String> found = users.stream()
+                .map(User::getUserName)
+                .collect(Collectors.toSet());
+
+        this.users = users;
+        this.missing = requested.stream()
+                .filter(userName -> !found.contains(userName))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Gets the users that were found
+     * @return List of Users
+     */
+    @JsonGetter("users")
+    public List<User> getUsers()
+    {
+        return users;
+    }
+
+    /**
+     * Gets the requested userNames that were not found
+     * @return List of userNames
+     */
+    @JsonGetter("missing")
+    public List<String> getMissing()
+    {
+        return missing;
+    }
+}
@@ -0,0 +1,195 @@
+package com.pelaghisoftware.server.routes;
+
+import akka.actor.ActorRef;
+import akka.http.javadsl.model.HttpResponse;
+import akka.http.javadsl.server.AllDirectives;
+import akka.http.javadsl.server.Route;
+import akka.http.javadsl.unmarshalling.StringUnmarshallers;
+import com.pelaghisoftware.jfr.FlightRecordings;
+import com.pelaghisoftware.server.admin.operations.AdminOperations;
+import com.pelaghisoftware.server.auth.operations.AuthOperations;
+import com.pelaghisoftware.server.response.messages.ErrorMessage;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
+
+import static akka.http.javadsl.server.PathMatchers.*;
+import static akka.pattern.Patterns.ask;
+
+/**
+ * Class with all Admin Endpoints. Only the admin user may access them.
+ */
+public class AdminRoutes extends AllDirectives
+{
+    private final ActorRef authAccessor;
+    private final ActorRef responseResolver;
+    private final Duration duration;
+    private final FlightRecordings flightRecordings;
+
+    //Reports served at /admin/{name}
+    private final Map<String, Supplier<?>> reports = new LinkedHashMap<>();
+
+    /**
+     * Constructor
+     * @param authAccessor Actor to perform authentication operations
+     * @param responseResolver Actor to create an HttpResponse
+     * @param duration Time duration before an operation fails
+     * @param flightRecordings Starts and stops JFR recordings
+     */
+    public AdminRoutes(ActorRef authAccessor,
+                       ActorRef responseResolver,
+                       Duration duration,
+                       FlightRecordings flightRecordings)
+    {
+        this.authAccessor = authAccessor;
+        this.responseResolver = responseResolver;
+        this.duration = duration;
+        this.flightRecordings = flightRecordings;
+    }
+
+    /**
+     * Adds a report that is served as JSON at /admin/{name}
+     * @param name Name of the report in the path
+     * @param report Supplier that creates the report when requested
+     * @return This AdminRoutes for chaining
+     */
+    public AdminRoutes addReport(String name, Supplier<?> report)
+    {
+        reports.put(name, report);
+        return this;
+    }
+
+    /**
+     * Get all routes concatenated together for cleanliness in server code
+     * @return Route. Admin endpoints
+     */
+    public Route getAdminRoutes()
+    {
+        return concat(
+            startRecording(),
+            stopRecording(),
+            getReport()
+        );
+    }
+
+    /**
+     * Endpoint to get one of the registered reports
+     * @return Route. An endpoint
+     */
+    private Route getReport()
+    {
+        return get(() ->
+            path(segment("admin")
+                .slash()
+                .concat(segment()), (String name) ->
+            {
+                Supplier<?> report = reports.get(name);
+
+                //Let other routes handle names that aren't reports
+                if(report == null)
+                {
+                    return reject();
+                }
+
+                return optionalHeaderValue(AuthOperations.getAuthorizationHeader, jwt ->
+                {
+                    //Function to create the report after the admin check
+                    Supplier<CompletionStage<HttpResponse>> reportResponse = () ->
+                        ask(responseResolver,
+                            new AdminOperations.Report(report.get()),
+                            duration)
+                            .thenApply(HttpResponse.class::cast);
+
+                    //Performs the admin check and then returns an HttpResponse
+                    CompletionStage<HttpResponse> response = AuthOperations.adminCheck(authAccessor,
+                                                                                       responseResolver,
+                                                                                       jwt,
+                                                                                       duration,
+                                                                                       reportResponse);
+
+                    return completeWithFuture(response);
+                });
+            })
+        );
+    }
+
+    /**
+     * Endpoint to start a JFR recording, e.g. /admin/jfr/start?seconds=60.
+     * Without seconds it records for the configured max-duration.
+     * @return Route. An endpoint
+     */
+    private Route startRecording()
+    {
+        return post(() ->
+            path(segment("admin").slash("jfr").slash("start"), () ->
+                parameterOptional(StringUnmarshallers.INTEGER, "seconds", seconds ->
+                    optionalHeaderValue(AuthOperations.getAuthorizationHeader, jwt ->
+                    {
+                        //Function to start the recording after the admin check
+                        Supplier<CompletionStage<HttpResponse>> startResponse = () ->
+                        {
+                            Optional<FlightRecordings.Status> status =
+                                flightRecordings.start(seconds.map(value -> Duration.ofSeconds(value)));
+
+                            Object message = status.isPresent()
+                                ? new AdminOperations.Report(status.get())
+                                : new AdminOperations.Conflict(ErrorMessage.recordingRunningMessage());
+
+                            return ask(responseResolver, message, duration)
+                                .thenApply(HttpResponse.class::cast);
+                        };
+
+                        //Performs the admin check and then returns an HttpResponse
+                        return completeWithFuture(AuthOperations.adminCheck(authAccessor,
+                                                                            responseResolver,
+                                                                            jwt,
+                                                                            duration,
+                                                                            startResponse));
+                    })))
+        );
+    }
+
+    /**
+     * Endpoint to stop the JFR recording and download it as a .jfr file
+     * @return Route. An endpoint
+     */
+    private Route stopRecording()
+    {
+        return post(() ->
+            path(segment("admin").slash("jfr").slash("stop"), () ->
+                optionalHeaderValue(AuthOperations.getAuthorizationHeader, jwt ->
+                {
+                    //Function to stop the recording after the admin check
+                    Supplier<CompletionStage<HttpResponse>> stopResponse = () ->
+                        flightRecordings.stop().thenCompose(file ->
+                        {
+                            Object message = file.isPresent()
+                                ? new AdminOperations.RecordingFile(file.get())
+                                : new AdminOperations.Conflict(ErrorMessage.noRecordingMessage());
+
+                            //Without a response nobody will stream, and so delete, the file
+                            return ask(responseResolver, message, duration)
+                                .thenApply(HttpResponse.class::cast)
+                                .whenComplete((response, error) ->
+                                {
+                                    if(error != null)
+                                    {
+                                        file.ifPresent(FlightRecordings::delete);
+                                    }
+                                });
+                        });
+
+                    //Performs the admin check and then returns an HttpResponse
+                    return completeWithFuture(AuthOperations.adminCheck(authAccessor,
+                                                                        responseResolver,
+                                                                        jwt,
+                                                                        duration,
+                                                                        stopResponse));
+                }))
+        );
+    }
+}
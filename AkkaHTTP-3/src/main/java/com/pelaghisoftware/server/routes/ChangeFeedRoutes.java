@@ -0,0 +1,163 @@
+package com.pelaghisoftware.server.routes;
+
+import akka.NotUsed;
+import akka.actor.ActorRef;
+import akka.http.javadsl.marshallers.jackson.Jackson;
+import akka.http.javadsl.model.HttpEntities;
+import akka.http.javadsl.model.HttpResponse;
+import akka.http.javadsl.model.MediaTypes;
+import akka.http.javadsl.model.StatusCodes;
+import akka.http.javadsl.server.AllDirectives;
+import akka.http.javadsl.server.Route;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pelaghisoftware.data.feed.ChangeEvent;
+import com.pelaghisoftware.data.feed.ChangeFeed;
+import com.pelaghisoftware.server.auth.operations.AuthOperations;
+import com.pelaghisoftware.server.response.messages.ErrorMessage;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
+
+import static akka.http.javadsl.server.PathMatchers.*;
+
+/**
+ * Class with the endpoints that stream entity changes as
+ * server-sent events
+ */
+public class ChangeFeedRoutes extends AllDirectives
+{
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final ActorRef authAccessor;
+    private final ActorRef responseResolver;
+    private final Duration duration;
+    private final Optional<ChangeFeed> userChanges;
+    private final int subscriberBufferSize;
+    private final boolean disconnectSlow;
+    private final Duration heartbeat;
+
+    /**
+     * Constructor
+     * @param authAccessor Actor to perform authentication operations
+     * @param responseResolver Actor to create an HttpResponse
+     * @param duration Time duration before an operation fails
+     * @param userChanges Feed of changes to User entities. Empty if this
+     *                    server doesn't see every change, e.g. in a
+     *                    cluster, so subscribing is refused.
+     * @param subscriberBufferSize Events buffered for each subscriber
+     * @param disconnectSlow True to disconnect subscribers that fall a full
+     *                       buffer behind, false to drop their oldest events
+     * @param heartbeat How often a comment is sent on an idle stream
+     */
+    public ChangeFeedRoutes(ActorRef authAccessor,
+                            ActorRef responseResolver,
+                            Duration duration,
+                            Optional<ChangeFeed> userChanges,
+                            int subscriberBufferSize,
+                            boolean disconnectSlow,
+                            Duration heartbeat)
+    {
+        this.authAccessor = authAccessor;
+        this.responseResolver = responseResolver;
+        this.duration = duration;
+        this.userChanges = userChanges;
+        this.subscriberBufferSize = subscriberBufferSize;
+        this.disconnectSlow = disconnectSlow;
+        this.heartbeat = heartbeat;
+    }
+
+    /**
+     * Get all routes concatenated together for cleanliness in server code
+     * @return Route. Change feed endpoints
+     */
+    public Route getChangeFeedRoutes()
+    {
+        return concat(
+            userChangesRoute()
+        );
+    }
+
+    /**
+     * Endpoint streaming changes to User entities. A client that reconnects
+     * with the Last-Event-ID header resumes after that event. Answers 501
+     * Not Implemented without a feed rather than stream part of the changes.
+     * @return Route. An endpoint
+     */
+    private Route userChangesRoute()
+    {
+        if(!userChanges.isPresent())
+        {
+            return get(() ->
+                path(segment("changes").slash().concat("user"), () ->
+                    complete(StatusCodes.NOT_IMPLEMENTED, ErrorMessage.changeFeedUnavailableMessage(), Jackson.marshaller()))
+            );
+        }
+        ChangeFeed feed = userChanges.get();
+
+        return get(() ->
+            path(segment("changes").slash().concat("user"), () ->
+                optionalHeaderValue(AuthOperations.getAuthorizationHeader, jwt ->
+                    optionalHeaderValueByName("Last-Event-ID", lastEventId ->
+                    {
+                        //Function to open the stream after authentication
+                        Supplier<CompletionStage<HttpResponse>> streamResponse = () ->
+                        {
+                            long lastSeen = lastEventId.map(ChangeFeedRoutes::parseEventId).orElse(-1L);
+
+                            Source<ByteString, NotUsed> events =
+                                feed.subscribe(lastSeen, subscriberBufferSize, disconnectSlow)
+                                    .map(this::encode)
+                                    .keepAlive(heartbeat, () -> ByteString.fromString(":\n\n"));
+
+                            return CompletableFuture.completedFuture(
+                                HttpResponse.create()
+                                    .withEntity(HttpEntities.create(MediaTypes.TEXT_EVENT_STREAM.toContentType(), events)));
+                        };
+
+                        //Performs authentication and then returns an HttpResponse
+                        CompletionStage<HttpResponse> response = AuthOperations.authCheck(authAccessor,
+                                                                                          responseResolver,
+                                                                                          jwt,
+                                                                                          duration,
+                                                                                          streamResponse);
+
+                        return completeWithFuture(response);
+                    })))
+        );
+    }
+
+    /**
+     * Encodes a change as a server-sent event
+     * @param event The change
+     * @return ByteString. The event in text/event-stream format
+     * @throws Exception If the change could not be serialized
+     */
+    private ByteString encode(ChangeEvent event) throws Exception
+    {
+        return ByteString.fromString("id: " + event.getSequence() + "\n" +
+                                     "event: " + event.getType() + "\n" +
+                                     "data: " + mapper.writeValueAsString(event) + "\n\n");
+    }
+
+    /**
+     * Parses the Last-Event-ID header
+     * @param eventId The header value
+     * @return long. The sequence number, or -1 if it isn't a number
+     */
+    private static long parseEventId(String eventId)
+    {
+        try
+        {
+            return Long.parseLong(eventId.trim());
+        }
+        catch (NumberFormatException e)
+        {
+            return -1L;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.pelaghisoftware.server.routes;
+
+import akka.http.javadsl.model.ContentTypes;
+import akka.http.javadsl.model.HttpEntities;
+import akka.http.javadsl.server.AllDirectives;
+import akka.http.javadsl.server.Route;
+import com.pelaghisoftware.server.metrics.DatabaseMetrics;
+import com.pelaghisoftware.server.metrics.DispatcherMetrics;
+import com.pelaghisoftware.server.metrics.RouteMetrics;
+
+import static akka.http.javadsl.server.PathMatchers.*;
+
+/**
+ * Class with the endpoint Prometheus scrapes for metrics
+ */
+public class MetricsRoutes extends AllDirectives
+{
+    private final RouteMetrics routeMetrics;
+    private final DatabaseMetrics databaseMetrics;
+    private final DispatcherMetrics dispatcherMetrics;
+
+    /**
+     * Constructor
+     * @param routeMetrics Request counts and latencies per route
+     * @param databaseMetrics Connection pool and Hibernate metrics
+     * @param dispatcherMetrics Dispatcher thread and queue metrics
+     */
+    public MetricsRoutes(RouteMetrics routeMetrics, DatabaseMetrics databaseMetrics, DispatcherMetrics dispatcherMetrics)
+    {
+        this.routeMetrics = routeMetrics;
+        this.databaseMetrics = databaseMetrics;
+        this.dispatcherMetrics = dispatcherMetrics;
+    }
+
+    /**
+     * Get all routes concatenated together for cleanliness in server code
+     * @return Route. Metrics endpoints
+     */
+    public Route getMetricsRoutes()
+    {
+        return concat(
+            metricsRoute()
+        );
+    }
+
+    /**
+     * Endpoint with the metrics in the Prometheus text exposition format.
+     * Not authenticated so Prometheus can scrape it; keep it off the public
+     * network.
+     * @return Route. An endpoint
+     */
+    private Route metricsRoute()
+    {
+        return get(() ->
+            path(segment("metrics"), () ->
+                complete(HttpEntities.create(ContentTypes.TEXT_PLAIN_UTF8, routeMetrics.render() + databaseMetrics.render() + dispatcherMetrics.render()))
+            )
+        );
+    }
+}
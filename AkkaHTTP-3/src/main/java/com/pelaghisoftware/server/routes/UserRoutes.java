@@ -2,18 +2,32 @@ package com.pelaghisoftware.server.routes;
 
 import akka.actor.ActorRef;
 import akka.http.javadsl.marshallers.jackson.Jackson;
+import akka.http.javadsl.model.HttpHeader;
 import akka.http.javadsl.model.HttpResponse;
+import akka.http.javadsl.model.headers.RawHeader;
 import akka.http.javadsl.server.AllDirectives;
 import akka.http.javadsl.server.Route;
 import com.pelaghisoftware.data.actors.operations.DBOperations;
+import com.pelaghisoftware.data.breaker.DatabaseBreaker;
+import com.pelaghisoftware.data.coalescing.UserLookups;
 import com.pelaghisoftware.data.entity.User;
+import com.pelaghisoftware.server.auth.JWTObject;
 import com.pelaghisoftware.server.auth.operations.AuthOperations;
+import com.pelaghisoftware.server.config.OperationTimeouts;
+import com.pelaghisoftware.server.metrics.RouteMetrics;
+import com.pelaghisoftware.server.ratelimit.SubjectRateLimiter;
+import com.pelaghisoftware.server.ratelimit.operations.RateLimitOperations;
+import com.pelaghisoftware.server.trace.RequestTrace;
+import com.pelaghisoftware.server.trace.RequestTracer;
 
-import java.time.Duration;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 import static akka.http.javadsl.server.PathMatchers.*;
 import static akka.pattern.Patterns.ask;
@@ -26,21 +40,49 @@ public class UserRoutes extends AllDirectives
     private final ActorRef authAccessor;
     private final ActorRef userAccessor;
     private final ActorRef responseResolver;
-    private final Duration duration;
+    private final OperationTimeouts timeouts;
+    private final DatabaseBreaker databaseBreaker;
+    private final UserLookups userLookups;
+    private final int maxNamesPerLookup;
+    private final Optional<SubjectRateLimiter> rateLimiter;
+    private final RouteMetrics routeMetrics;
+    private final RequestTracer requestTracer;
 
     /**
      * Constructor
      * @param authAccessor Actor to perform authentication operations
      * @param userAccessor Actor to access User Entities from the database
      * @param responseResolver Actor to create an HttpResponse
-     * @param duration Time duration before an operation fails
+     * @param timeouts Time duration before each type of operation fails
+     * @param databaseBreaker Circuit breaker around asks to the userAccessor
+     * @param userLookups Looks up single users by name
+     * @param maxNamesPerLookup Most users that can be fetched in one request
+     * @param rateLimiter Rate limits requests per JWT subject. Empty to turn
+     *                    rate limiting off.
+     * @param routeMetrics Records request counts and latencies per route
+     * @param requestTracer Times the stages of each request
      */
-    public UserRoutes(ActorRef authAccessor, ActorRef userAccessor, ActorRef responseResolver, Duration duration)
+    public UserRoutes(ActorRef authAccessor,
+                      ActorRef userAccessor,
+                      ActorRef responseResolver,
+                      OperationTimeouts timeouts,
+                      DatabaseBreaker databaseBreaker,
+                      UserLookups userLookups,
+                      int maxNamesPerLookup,
+                      Optional<SubjectRateLimiter> rateLimiter,
+                      RouteMetrics routeMetrics,
+                      RequestTracer requestTracer)
     {
         this.authAccessor = authAccessor;
         this.userAccessor = userAccessor;
         this.responseResolver = responseResolver;
-        this.duration = duration;
+        this.timeouts = timeouts;
+        this.databaseBreaker = databaseBreaker;
+        this.userLookups = userLookups;
+        this.maxNamesPerLookup = maxNamesPerLookup;
+        this.rateLimiter = rateLimiter;
+        this.routeMetrics = routeMetrics;
+        this.requestTracer = requestTracer;
     }
 
     /**
@@ -50,6 +92,8 @@ public class UserRoutes extends AllDirectives
     public Route getUserRoutes()
     {
         return concat(
+            getMultipleUsersRoute(),
+            lookupUsersRoute(),
             getAllUsersRoute(),
             getUser(),
             addUser(),
@@ -58,6 +102,81 @@ public class UserRoutes extends AllDirectives
         );
     }
 
+    /**
+     * Endpoint to get several Users by name, e.g. /user?names=a,b,c
+     * @return Route. An endpoint
+     */
+    private Route getMultipleUsersRoute()
+    {
+        return get(() ->
+            path(segment("user"), () ->
+                parameter("names", names ->
+                    optionalHeaderValue(AuthOperations.getAuthorizationHeader, jwt ->
+                        completeWithFuture(traced("user_get_multiple", trace ->
+                            multipleUsersResponse(Arrays.asList(names.split(",")), jwt, trace)))
+                    )))
+        );
+    }
+
+    /**
+     * Endpoint to get several Users by name with the names as a JSON array
+     * in the body. Used when the names don't fit in a URL.
+     * @return Route. An endpoint
+     */
+    private Route lookupUsersRoute()
+    {
+        return post(() ->
+            path(segment("user").slash().concat("lookup"), () ->
+                optionalHeaderValue(AuthOperations.getAuthorizationHeader, jwt ->
+                    entity(Jackson.unmarshaller(String[].class), names ->
+                        completeWithFuture(traced("user_lookup", trace ->
+                            multipleUsersResponse(Arrays.asList(names), jwt, trace)))
+                    )))
+        );
+    }
+
+    /**
+     * Fetches several users in one query after authentication
+     * @param names The requested userNames
+     * @param jwt JWT to check
+     * @param trace Trace of the request
+     * @return CompletionStage that resolves to an HttpResponse
+     */
+    private CompletionStage<HttpResponse> multipleUsersResponse(List<String> names, Optional<JWTObject> jwt, RequestTrace trace)
+    {
+        //Drop nulls, blanks and duplicates but keep the requested order
+        List<String> userNames = names.stream()
+            .filter(Objects::nonNull)
+            .map(String::trim)
+            .filter(name -> !name.isEmpty())
+            .distinct()
+            .collect(Collectors.toList());
+
+        //Function to get the user entities after authentication is complete
+        Supplier<CompletionStage<HttpResponse>> usersResponse = () ->
+        {
+            //Too many names are answered without touching the database
+            if(userNames.size() > maxNamesPerLookup)
+            {
+                return trace.stage("respond", () -> ask(responseResolver, trace.wrap(new DBOperations.GetEntities(true)), timeouts.internal))
+                    .thenApply(HttpResponse.class::cast);
+            }
+
+            return trace.stage("db", () -> databaseBreaker.ask(userAccessor, trace.tag(new DBOperations.GetEntities(0, userNames)), timeouts.read))
+                .thenApply(DBOperations.GetEntities.class::cast)
+                .thenCompose(message -> trace.stage("respond", () -> ask(responseResolver, trace.wrap(message), timeouts.internal)))
+                .thenApply(HttpResponse.class::cast);
+        };
+
+        //Perform Authentication and returns an HttpResponse
+        return AuthOperations.authCheck(authAccessor,
+                                        responseResolver,
+                                        jwt,
+                                        timeouts.internal,
+                                        trace,
+                                        rateLimited(limiter -> limiter.lookupCost(userNames.size()), usersResponse));
+    }
+
     /**
      * Endpoint to get all Users
      * @return Route. An endpoint
@@ -68,22 +187,26 @@ public class UserRoutes extends AllDirectives
             path(segment("user"), () ->
                 optionalHeaderValue(AuthOperations.getAuthorizationHeader, jwt ->
                 {
-                    //Function to get all user entities after authentication is complete
-                    Supplier<CompletionStage<HttpResponse>> allUsersResponse = () ->
-                        ask(userAccessor, new DBOperations.GetAllEntities(), duration)
-                            .thenApply(List.class::cast)
-                            .thenCompose(userList ->
-                                ask(responseResolver,
-                                    new DBOperations.GetAllEntities((List<User>)userList),
-                                                                    duration))
-                            .thenApply(HttpResponse.class::cast);
-
-                    //Perform Authentication and returns an HttpResponse
-                    CompletionStage<HttpResponse> response = AuthOperations.authCheck(authAccessor,
-                                                                                      responseResolver,
-                                                                                      jwt,
-                                                                                      duration,
-                                                                                      allUsersResponse);
+                    CompletionStage<HttpResponse> response = traced("user_get_all", trace ->
+                    {
+                        //Function to get all user entities after authentication is complete
+                        Supplier<CompletionStage<HttpResponse>> allUsersResponse = () ->
+                            trace.stage("db", () -> databaseBreaker.ask(userAccessor, trace.tag(new DBOperations.GetAllEntities()), timeouts.read))
+                                .thenApply(List.class::cast)
+                                .thenCompose(userList -> trace.stage("respond", () ->
+                                    ask(responseResolver,
+                                        trace.wrap(new DBOperations.GetAllEntities((List<User>)userList)),
+                                        timeouts.internal)))
+                                .thenApply(HttpResponse.class::cast);
+
+                        //Perform Authentication and returns an HttpResponse
+                        return AuthOperations.authCheck(authAccessor,
+                                                        responseResolver,
+                                                        jwt,
+                                                        timeouts.internal,
+                                                        trace,
+                                                        rateLimited(limiter -> limiter.bulkReadCost, allUsersResponse));
+                    });
 
                     return completeWithFuture(response);
                 }))
@@ -102,21 +225,26 @@ public class UserRoutes extends AllDirectives
                     .concat(segment()), (String userName) ->
                         optionalHeaderValue(AuthOperations.getAuthorizationHeader, jwt ->
                         {
-                            //Function to get a user entity after authentication
-                            Supplier<CompletionStage<HttpResponse>> userResponse = () ->
-                                ask(userAccessor, new DBOperations.GetEntity(userName), duration)
-                                    .thenApply(Optional.class::cast)
-                                    .thenCompose(entity -> ask(responseResolver,
-                                                               new DBOperations.GetEntity(entity),
-                                                               duration))
-                                    .thenApply(HttpResponse.class::cast);
+                            CompletionStage<HttpResponse> response = traced("user_get", trace ->
+                            {
+                                //Function to get a user entity after authentication. Lookups are
+                                //batched across requests, so the trace ID stops at the batcher.
+                                Supplier<CompletionStage<HttpResponse>> userResponse = () ->
+                                    trace.stage("db", () -> userLookups.lookup(userName, timeouts.read))
+                                        .thenCompose(entity -> trace.stage("respond", () ->
+                                            ask(responseResolver,
+                                                trace.wrap(new DBOperations.GetEntity(entity)),
+                                                timeouts.internal)))
+                                        .thenApply(HttpResponse.class::cast);
 
-                            //Performs authentication and then returns an HttpResponse
-                            CompletionStage<HttpResponse> response = AuthOperations.authCheck(authAccessor,
-                                                                                              responseResolver,
-                                                                                              jwt,
-                                                                                              duration,
-                                                                                              userResponse);
+                                //Performs authentication and then returns an HttpResponse
+                                return AuthOperations.authCheck(authAccessor,
+                                                                responseResolver,
+                                                                jwt,
+                                                                timeouts.internal,
+                                                                trace,
+                                                                rateLimited(limiter -> limiter.readCost, userResponse));
+                            });
 
                             return completeWithFuture(response);
                         }))
@@ -135,19 +263,24 @@ public class UserRoutes extends AllDirectives
                     entity(Jackson.unmarshaller(User.class),
                         user ->
                     {
-                        //Function to insert a user
-                        Supplier<CompletionStage<HttpResponse>> insertResponse = () ->
-                            ask(userAccessor, new DBOperations.InsertEntity(Optional.of(user)), duration)
-                                .thenApply(DBOperations.InsertEntity.class::cast)
-                                .thenCompose(message -> ask(responseResolver, message, duration))
-                                .thenApply(HttpResponse.class::cast);
+                        CompletionStage<HttpResponse> response = traced("user_add", trace ->
+                        {
+                            //Function to insert a user
+                            Supplier<CompletionStage<HttpResponse>> insertResponse = () ->
+                                trace.stage("db", () -> databaseBreaker.ask(userAccessor, trace.tag(new DBOperations.InsertEntity(Optional.of(user))), timeouts.write))
+                                    .thenApply(DBOperations.InsertEntity.class::cast)
+                                    .thenCompose(message -> trace.stage("respond", () -> ask(responseResolver, trace.wrap(message), timeouts.internal)))
+                                    .thenApply(HttpResponse.class::cast);
+
+                            //Function to perform authentication and return an HttpResponse
+                            return AuthOperations.authCheck(authAccessor,
+                                                            responseResolver,
+                                                            jwt,
+                                                            timeouts.internal,
+                                                            trace,
+                                                            rateLimited(limiter -> limiter.writeCost, insertResponse));
+                        });
 
-                        //Function to perform authentication and return an HttpResponse
-                        CompletionStage<HttpResponse> response = AuthOperations.authCheck(authAccessor,
-                                                                                          responseResolver,
-                                                                                          jwt,
-                                                                                          duration,
-                                                                                          insertResponse);
                         return completeWithFuture(response);
                     }))
             )
@@ -166,19 +299,24 @@ public class UserRoutes extends AllDirectives
                     entity(Jackson.unmarshaller(User.class),
                         user ->
                     {
-                        //Function to update a user after authentication
-                        Supplier<CompletionStage<HttpResponse>> updateResponse = () ->
-                            ask(userAccessor, new DBOperations.UpdateEntity(Optional.of(user)), duration)
-                                .thenApply(DBOperations.UpdateEntity.class::cast)
-                                .thenCompose(message -> ask(responseResolver, message, duration))
-                                .thenApply(HttpResponse.class::cast);
+                        CompletionStage<HttpResponse> response = traced("user_update", trace ->
+                        {
+                            //Function to update a user after authentication
+                            Supplier<CompletionStage<HttpResponse>> updateResponse = () ->
+                                trace.stage("db", () -> databaseBreaker.ask(userAccessor, trace.tag(new DBOperations.UpdateEntity(Optional.of(user))), timeouts.write))
+                                    .thenApply(DBOperations.UpdateEntity.class::cast)
+                                    .thenCompose(message -> trace.stage("respond", () -> ask(responseResolver, trace.wrap(message), timeouts.internal)))
+                                    .thenApply(HttpResponse.class::cast);
+
+                            //Authenticate a user and return an HttpResponse
+                            return AuthOperations.authCheck(authAccessor,
+                                                            responseResolver,
+                                                            jwt,
+                                                            timeouts.internal,
+                                                            trace,
+                                                            rateLimited(limiter -> limiter.writeCost, updateResponse));
+                        });
 
-                        //Authenticate a user and return an HttpResponse
-                        CompletionStage<HttpResponse> response = AuthOperations.authCheck(authAccessor,
-                                                                                          responseResolver,
-                                                                                          jwt,
-                                                                                          duration,
-                                                                                          updateResponse);
                         return completeWithFuture(response);
                     })))
         );
@@ -196,19 +334,23 @@ public class UserRoutes extends AllDirectives
                     entity(Jackson.unmarshaller(User.class),
                         user ->
                     {
-                        //Function to delete a user after authentication
-                        Supplier<CompletionStage<HttpResponse>> deleteResponse = () ->
-                            ask(userAccessor, new DBOperations.DeleteEntity(Optional.of(user)), duration)
-                                .thenApply(DBOperations.DeleteEntity.class::cast)
-                                .thenCompose(message -> ask(responseResolver, message, duration))
-                                .thenApply(HttpResponse.class::cast);
+                        CompletionStage<HttpResponse> response = traced("user_delete", trace ->
+                        {
+                            //Function to delete a user after authentication
+                            Supplier<CompletionStage<HttpResponse>> deleteResponse = () ->
+                                trace.stage("db", () -> databaseBreaker.ask(userAccessor, trace.tag(new DBOperations.DeleteEntity(Optional.of(user))), timeouts.write))
+                                    .thenApply(DBOperations.DeleteEntity.class::cast)
+                                    .thenCompose(message -> trace.stage("respond", () -> ask(responseResolver, trace.wrap(message), timeouts.internal)))
+                                    .thenApply(HttpResponse.class::cast);
 
-                        //Authenticate a user and return an HttpResponse
-                        CompletionStage<HttpResponse> response = AuthOperations.authCheck(authAccessor,
-                                                                                          responseResolver,
-                                                                                          jwt,
-                                                                                          duration,
-                                                                                          deleteResponse);
+                            //Authenticate a user and return an HttpResponse
+                            return AuthOperations.authCheck(authAccessor,
+                                                            responseResolver,
+                                                            jwt,
+                                                            timeouts.internal,
+                                                            trace,
+                                                            rateLimited(limiter -> limiter.writeCost, deleteResponse));
+                        });
 
                         return completeWithFuture(response);
                     }))
@@ -216,5 +358,61 @@ public class UserRoutes extends AllDirectives
         );
     }
 
+    /**
+     * Handles a request with a new trace and records its metrics. The
+     * response gets Server-Timing and X-Trace-Id headers.
+     * @param route Name of the route, used in metrics and logs
+     * @param response Function that handles the request with the trace
+     * @return CompletionStage that resolves to an HttpResponse
+     */
+    private CompletionStage<HttpResponse> traced(String route, Function<RequestTrace, CompletionStage<HttpResponse>> response)
+    {
+        return routeMetrics.route(route).time(() -> requestTracer.trace(route, response));
+    }
 
+    /**
+     * Wraps follow on operations so they only run while the JWT subject
+     * is within its rate limit. The response gets RateLimit headers
+     * describing the subject's bucket.
+     * @param cost Gets the tokens the request costs from the limiter
+     * @param response The follow on operations
+     * @return Function that provides the rate limited follow on operations,
+     *         given the subject the auth check read from the JWT
+     */
+    private Function<Optional<String>, CompletionStage<HttpResponse>> rateLimited(Function<SubjectRateLimiter, Integer> cost,
+                                                                                  Supplier<CompletionStage<HttpResponse>> response)
+    {
+        return subject ->
+        {
+            //Nothing to limit without a limiter or a subject
+            if(!rateLimiter.isPresent() || !subject.isPresent())
+            {
+                return response.get();
+            }
+
+            SubjectRateLimiter limiter = rateLimiter.get();
+            SubjectRateLimiter.Decision decision = limiter.tryAcquire(subject.get(), cost.apply(limiter));
+
+            List<HttpHeader> headers = Arrays.asList(
+                RawHeader.create("RateLimit-Limit", Long.toString(decision.limit)),
+                RawHeader.create("RateLimit-Remaining", Long.toString(decision.remaining)),
+                RawHeader.create("RateLimit-Reset", Long.toString(decision.resetSeconds)));
+
+            CompletionStage<HttpResponse> result;
+
+            //Run the follow on operations if the subject has tokens left
+            if(decision.allowed)
+            {
+                result = response.get();
+            }
+            //Send Too Many Requests to the user otherwise
+            else
+            {
+                result = ask(responseResolver, new RateLimitOperations.RateLimited(decision.retryAfterSeconds), timeouts.internal)
+                    .thenApply(HttpResponse.class::cast);
+            }
+
+            return result.thenApply(httpResponse -> httpResponse.addHeaders(headers));
+        };
+    }
 }
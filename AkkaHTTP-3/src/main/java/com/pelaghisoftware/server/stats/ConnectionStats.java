@@ -0,0 +1,125 @@
+package com.pelaghisoftware.server.stats;
+
+import akka.Done;
+import akka.NotUsed;
+import akka.http.javadsl.model.HttpRequest;
+import akka.http.javadsl.model.HttpResponse;
+import akka.stream.javadsl.Flow;
+
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps connection level counters for the HTTP/1.1 binding.
+ * Each accepted connection's handler flow is wrapped by
+ * {@link #instrument(Flow)} so the counters follow the life of the
+ * connection.
+ */
+public class ConnectionStats
+{
+    private final AtomicLong openConnections = new AtomicLong();
+    private final AtomicLong totalConnections = new AtomicLong();
+    private final AtomicLong totalRequests = new AtomicLong();
+    private final AtomicLong inFlightRequests = new AtomicLong();
+    private final AtomicLong maxRequestsPerConnection = new AtomicLong();
+    private final AtomicLong maxPipeliningDepth = new AtomicLong();
+
+    /**
+     * Wraps the handler flow for a single connection. Must be called
+     * once per accepted connection.
+     * @param handler The flow that turns requests into responses
+     * @return Flow that completes its materialized value when the
+     *         connection closes
+     */
+    public Flow<HttpRequest, HttpResponse, CompletionStage<Done>> instrument(
+            Flow<HttpRequest, HttpResponse, NotUsed> handler)
+    {
+        //Requests currently being processed on this connection
+        AtomicInteger depth = new AtomicInteger();
+        //Requests received on this connection so far
+        AtomicLong requests = new AtomicLong();
+
+        openConnections.incrementAndGet();
+        totalConnections.incrementAndGet();
+
+        return Flow.of(HttpRequest.class)
+                .map(request ->
+                {
+                    totalRequests.incrementAndGet();
+                    inFlightRequests.incrementAndGet();
+                    updateMax(maxRequestsPerConnection, requests.incrementAndGet());
+                    updateMax(maxPipeliningDepth, depth.incrementAndGet());
+
+                    return request;
+                })
+                .via(handler)
+                .map(response ->
+                {
+                    inFlightRequests.decrementAndGet();
+                    depth.decrementAndGet();
+
+                    return response;
+                })
+                .watchTermination((notUsed, done) ->
+                {
+                    done.whenComplete((result, error) ->
+                    {
+                        openConnections.decrementAndGet();
+                        //Requests still open when the connection dropped will never respond
+                        inFlightRequests.addAndGet(-depth.getAndSet(0));
+                    });
+
+                    return done;
+                });
+    }
+
+    /**
+     * Takes a point in time copy of the counters
+     * @return Snapshot of the connection counters
+     */
+    public Snapshot snapshot()
+    {
+        Snapshot snapshot = new Snapshot();
+
+        snapshot.openConnections = openConnections.get();
+        snapshot.totalConnections = totalConnections.get();
+        snapshot.totalRequests = totalRequests.get();
+        snapshot.inFlightRequests = inFlightRequests.get();
+        snapshot.maxRequestsPerConnection = maxRequestsPerConnection.get();
+        snapshot.maxPipeliningDepth = maxPipeliningDepth.get();
+        snapshot.averageRequestsPerConnection = snapshot.totalConnections == 0 ? 0 :
+                (double) snapshot.totalRequests / snapshot.totalConnections;
+
+        return snapshot;
+    }
+
+    /**
+     * Raises the counter to the value if the value is larger
+     * @param max Counter holding the maximum
+     * @param value Newly observed value
+     */
+    private static void updateMax(AtomicLong max, long value)
+    {
+        long current = max.get();
+        while(value > current && !max.compareAndSet(current, value))
+        {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Point in time copy of the connection counters. Serialized to JSON
+     * by the stats endpoint.
+     */
+    public static class Snapshot
+    {
+        public long openConnections;
+        public long totalConnections;
+        public long totalRequests;
+        public long inFlightRequests;
+        public double averageRequestsPerConnection;
+        public long maxRequestsPerConnection;
+        public long maxPipeliningDepth;
+    }
+}
@@ -0,0 +1,220 @@
+package com.pelaghisoftware.server.trace;
+
+import akka.http.javadsl.model.HttpHeader;
+import akka.http.javadsl.model.HttpResponse;
+import akka.http.javadsl.model.headers.RawHeader;
+import com.pelaghisoftware.data.deadline.DeadlineMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/**
+ * Timing of the stages of a single request. The trace ID is copied onto
+ * the messages sent to actors on behalf of the request so their log lines
+ * can be matched up with it.
+ */
+public class RequestTrace
+{
+    public static final String SERVER_TIMING = "Server-Timing";
+    public static final String TRACE_ID_HEADER = "X-Trace-Id";
+
+    public final String id;
+    public final String route;
+
+    private final long startNanos = System.nanoTime();
+
+    //Stages in the order they finished. Stages can finish on different threads.
+    private final List<Stage> stages = new ArrayList<>();
+
+    /**
+     * Constructor
+     * @param route Name of the route handling the request
+     */
+    public RequestTrace(String route)
+    {
+        this(route, newId());
+    }
+
+    /**
+     * Constructor
+     * @param route Name of the route handling the request
+     * @param id Trace ID of the request
+     */
+    public RequestTrace(String route, String id)
+    {
+        this.route = route;
+        this.id = id;
+    }
+
+    /**
+     * Creates a random trace ID
+     * @return String. 16 hex digits
+     */
+    public static String newId()
+    {
+        return String.format("%016x", ThreadLocalRandom.current().nextLong());
+    }
+
+    /**
+     * Runs a stage of the request and records how long it took to complete
+     * @param name Name of the stage
+     * @param work Supplier that starts the stage
+     * @param <T> Result of the stage
+     * @return CompletionStage that resolves to the result of the stage
+     */
+    public <T> CompletionStage<T> stage(String name, Supplier<CompletionStage<T>> work)
+    {
+        long start = System.nanoTime();
+
+        return work.get().whenComplete((result, error) -> record(name, System.nanoTime() - start));
+    }
+
+    /**
+     * Records a stage that has finished
+     * @param name Name of the stage
+     * @param nanos How long the stage took
+     */
+    public void record(String name, long nanos)
+    {
+        synchronized(stages)
+        {
+            stages.add(new Stage(name, nanos));
+        }
+    }
+
+    /**
+     * Copies the trace ID onto a message created for the request. Replies
+     * from other actors may be shared with other requests, so wrap those
+     * instead.
+     * @param message The message
+     * @param <T> Type of the message
+     * @return The same message
+     */
+    public <T extends DeadlineMessage> T tag(T message)
+    {
+        message.traceId = id;
+        return message;
+    }
+
+    /**
+     * Wraps a message for the response resolver with the trace ID, leaving
+     * the message itself untouched
+     * @param message The message
+     * @return Traced. The message and the trace ID
+     */
+    public Traced wrap(Object message)
+    {
+        return new Traced(message, id);
+    }
+
+    /**
+     * Gets the time since the request started
+     * @return long. Elapsed time in nanoseconds
+     */
+    public long elapsedNanos()
+    {
+        return System.nanoTime() - startNanos;
+    }
+
+    /**
+     * Adds the trace ID and the stage timings to a response. Timings the
+     * response already carries, e.g. serialization, are merged into the
+     * same Server-Timing header.
+     * @param response The response to the request
+     * @param totalNanos Time the whole request took
+     * @return HttpResponse. The response with the headers added
+     */
+    public HttpResponse finish(HttpResponse response, long totalNanos)
+    {
+        Optional<HttpHeader> existing = response.getHeader(SERVER_TIMING);
+
+        String timing = serverTiming(totalNanos) + existing.map(header -> ", " + header.value()).orElse("");
+
+        return response.removeHeader(SERVER_TIMING)
+            .addHeader(RawHeader.create(SERVER_TIMING, timing))
+            .addHeader(RawHeader.create(TRACE_ID_HEADER, id));
+    }
+
+    /**
+     * Creates the value of a Server-Timing header with every recorded stage
+     * @param totalNanos Time the whole request took
+     * @return String. e.g. "auth;dur=0.412, db;dur=3.108, total;dur=3.901"
+     */
+    public String serverTiming(long totalNanos)
+    {
+        StringBuilder timing = new StringBuilder();
+
+        synchronized(stages)
+        {
+            for(Stage stage : stages)
+            {
+                timing.append(metric(stage.name, stage.nanos)).append(", ");
+            }
+        }
+        timing.append(metric("total", totalNanos));
+
+        return timing.toString();
+    }
+
+    /**
+     * Creates a single Server-Timing metric
+     * @param name Name of the metric
+     * @param nanos Duration in nanoseconds
+     * @return String. e.g. "serialize;dur=0.052"
+     */
+    public static String metric(String name, long nanos)
+    {
+        return name + ";dur=" + millis(nanos);
+    }
+
+    /**
+     * Formats nanoseconds as milliseconds, the unit Server-Timing uses
+     * @param nanos Time in nanoseconds
+     * @return String. Time in milliseconds
+     */
+    static String millis(long nanos)
+    {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    /**
+     * A message sent on behalf of a traced request, with the request's
+     * trace ID
+     */
+    public static class Traced
+    {
+        public final Object message;
+        public final String traceId;
+
+        /**
+         * Constructor
+         * @param message The message
+         * @param traceId Trace ID of the request
+         */
+        public Traced(Object message, String traceId)
+        {
+            this.message = message;
+            this.traceId = traceId;
+        }
+    }
+
+    /**
+     * A finished stage of a request
+     */
+    private static class Stage
+    {
+        final String name;
+        final long nanos;
+
+        Stage(String name, long nanos)
+        {
+            this.name = name;
+            this.nanos = nanos;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.pelaghisoftware.server.trace;
+
+import akka.http.javadsl.model.HttpResponse;
+import com.pelaghisoftware.data.deadline.DeadlineMessage;
+import com.typesafe.config.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+
+/**
+ * Starts a RequestTrace for each request, adds the Server-Timing and trace
+ * ID headers to the response and logs requests slower than the threshold
+ * with their stage breakdown.
+ */
+public class RequestTracer
+{
+    private final static Logger logger =
+            LoggerFactory.getLogger(RequestTracer.class);
+
+    private final long slowThresholdNanos;
+
+    /**
+     * Constructor
+     * @param config The "tracing" section of the configuration
+     */
+    public RequestTracer(Config config)
+    {
+        this(config.getDuration("slow-request-threshold"));
+    }
+
+    /**
+     * Constructor
+     * @param slowThreshold Requests slower than this are logged
+     */
+    public RequestTracer(Duration slowThreshold)
+    {
+        this.slowThresholdNanos = slowThreshold.toNanos();
+    }
+
+    /**
+     * Handles a request with a new trace
+     * @param route Name of the route handling the request
+     * @param response Function that handles the request with the trace
+     * @return CompletionStage that resolves to the response with the trace
+     *         headers. Fails if the function fails or throws.
+     */
+    public CompletionStage<HttpResponse> trace(String route, Function<RequestTrace, CompletionStage<HttpResponse>> response)
+    {
+        RequestTrace trace = new RequestTrace(route);
+
+        CompletionStage<HttpResponse> handled;
+        try
+        {
+            handled = response.apply(trace);
+        }
+        //Handlers that block, e.g. on the auth check, throw when they time
+        //out. Those are the slowest requests, so they still get logged.
+        catch (RuntimeException e)
+        {
+            CompletableFuture<HttpResponse> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            handled = failed;
+        }
+
+        return handled
+            .thenApply(httpResponse -> trace.finish(httpResponse, trace.elapsedNanos()))
+            .whenComplete((httpResponse, error) ->
+            {
+                long totalNanos = trace.elapsedNanos();
+                if(totalNanos >= slowThresholdNanos)
+                {
+                    //Failed requests have no response to take the timings from
+                    String timing = httpResponse != null ?
+                        httpResponse.getHeader(RequestTrace.SERVER_TIMING).get().value() :
+                        trace.serverTiming(totalNanos);
+
+                    logSlow(trace, totalNanos, timing, error);
+                }
+            });
+    }
+
+    /**
+     * Logs a slow request with its stage breakdown
+     * @param trace Trace of the request
+     * @param totalNanos Time the whole request took
+     * @param timing Stage breakdown in the Server-Timing format
+     * @param error Why the request failed. Null if it succeeded.
+     */
+    private void logSlow(RequestTrace trace, long totalNanos, String timing, Throwable error)
+    {
+        MDC.put(DeadlineMessage.TRACE_ID_MDC_KEY, trace.id);
+        try
+        {
+            logger.warn("Slow request on {} took {}ms{}: {}",
+                        trace.route,
+                        RequestTrace.millis(totalNanos),
+                        error == null ? "" : " and failed",
+                        timing);
+        }
+        finally
+        {
+            MDC.remove(DeadlineMessage.TRACE_ID_MDC_KEY);
+        }
+    }
+}
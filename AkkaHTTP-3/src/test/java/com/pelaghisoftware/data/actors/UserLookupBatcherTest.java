@@ -0,0 +1,229 @@
+package com.pelaghisoftware.data.actors;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.actor.Status;
+import com.pelaghisoftware.data.actors.operations.DBOperations;
+import com.pelaghisoftware.data.deadline.DiscardedWork;
+import com.pelaghisoftware.data.entity.User;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+
+import static akka.pattern.Patterns.ask;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the UserLookupBatcher class
+ */
+public class UserLookupBatcherTest
+{
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    //Long enough that batches are only sent when the one in flight finishes
+    private static final Duration WINDOW = Duration.ofSeconds(2);
+
+    private ActorSystem system;
+
+    //userNames of each batch the accessor got, in order
+    private final List<List<String>> batches = new CopyOnWriteArrayList<>();
+
+    /**
+     * Starts an actor system for each test
+     */
+    @BeforeEach
+    public void setup()
+    {
+        system = ActorSystem.create("UserLookupBatcherTest");
+    }
+
+    /**
+     * Stops the actor system
+     */
+    @AfterEach
+    public void teardown()
+    {
+        system.terminate();
+    }
+
+    /**
+     * Tests that lookups arriving while a batch is in flight go out
+     * together, once per userName, and each caller gets its own user
+     */
+    @Test
+    public void testBatching() throws Exception
+    {
+        ActorRef batcher = batcher(accessor(false), 64);
+
+        List<CompletableFuture<Object>> results = new ArrayList<>();
+        for(String userName : Arrays.asList("user1", "user2", "user3", "missing", "user2"))
+        {
+            results.add(lookup(batcher, userName));
+        }
+
+        assertEquals(Optional.of("user1"), userName(results.get(0)));
+        assertEquals(Optional.of("user2"), userName(results.get(1)));
+        assertEquals(Optional.of("user3"), userName(results.get(2)));
+        assertEquals(Optional.empty(), userName(results.get(3)));
+        assertEquals(Optional.of("user2"), userName(results.get(4)));
+
+        assertEquals(Arrays.asList(Arrays.asList("user1"),
+                                   Arrays.asList("user2", "user3", "missing")),
+                     batches);
+    }
+
+    /**
+     * Tests that a batch is sent as soon as it reaches max-batch-size
+     */
+    @Test
+    public void testMaxBatchSize() throws Exception
+    {
+        ActorRef batcher = batcher(accessor(false), 2);
+
+        List<CompletableFuture<Object>> results = new ArrayList<>();
+        for(String userName : Arrays.asList("user1", "user2", "user3", "user4"))
+        {
+            results.add(lookup(batcher, userName));
+        }
+
+        for(int i = 0; i < results.size(); i++)
+        {
+            assertEquals(Optional.of("user" + (i + 1)), userName(results.get(i)));
+        }
+
+        assertEquals(Arrays.asList(Arrays.asList("user1"),
+                                   Arrays.asList("user2", "user3"),
+                                   Arrays.asList("user4")),
+                     batches);
+    }
+
+    /**
+     * Tests that every caller of a failed batch gets the failure right
+     * away instead of waiting for its ask to time out
+     */
+    @Test
+    public void testFailedBatch() throws Exception
+    {
+        ActorRef batcher = batcher(accessor(true), 64);
+
+        long start = System.nanoTime();
+        List<CompletableFuture<Object>> results = new ArrayList<>();
+        for(String userName : Arrays.asList("user1", "user2", "user3"))
+        {
+            results.add(lookup(batcher, userName));
+        }
+
+        for(CompletableFuture<Object> result : results)
+        {
+            ExecutionException error = assertThrows(ExecutionException.class, result::get);
+            assertEquals("Database down", error.getCause().getMessage());
+        }
+
+        assertTrue(Duration.ofNanos(System.nanoTime() - start).compareTo(TIMEOUT) < 0);
+        assertEquals(2, batches.size());
+    }
+
+    /**
+     * Creates a batcher
+     * @param accessor Stands in for the SiteUserAccessor
+     * @param maxBatchSize Most userNames in one batch
+     * @return ActorRef. The batcher
+     */
+    private ActorRef batcher(ActorRef accessor, int maxBatchSize)
+    {
+        return system.actorOf(UserLookupBatcher.props(accessor, WINDOW, maxBatchSize, TIMEOUT, new DiscardedWork()));
+    }
+
+    /**
+     * Looks a user up through the batcher
+     * @param batcher The batcher
+     * @param userName The user
+     * @return CompletableFuture of the reply
+     */
+    private static CompletableFuture<Object> lookup(ActorRef batcher, String userName)
+    {
+        return ask(batcher, new DBOperations.GetEntity(userName), TIMEOUT).toCompletableFuture();
+    }
+
+    /**
+     * Gets the userName of a lookup's reply
+     * @param result The reply
+     * @return Optional. The userName, or empty if no user was found
+     * @throws Exception If the lookup failed
+     */
+    private static Optional<String> userName(CompletableFuture<Object> result) throws Exception
+    {
+        return ((Optional<?>) result.get()).map(user -> ((User) user).getUserName());
+    }
+
+    /**
+     * Creates an accessor that records each batch and answers it after a
+     * short delay, so the next lookups pile up behind it
+     * @param fail Whether to fail every batch
+     * @return ActorRef. The accessor
+     */
+    private ActorRef accessor(boolean fail)
+    {
+        return system.actorOf(Props.create(StubAccessor.class, () -> new StubAccessor(batches, fail)));
+    }
+
+    /**
+     * Stands in for the SiteUserAccessor. Knows every user whose name
+     * starts with "user".
+     */
+    public static class StubAccessor extends AbstractActor
+    {
+        private final List<List<String>> batches;
+        private final boolean fail;
+
+        /**
+         * Constructor
+         * @param batches Where each batch's userNames are recorded
+         * @param fail Whether to fail every batch
+         */
+        public StubAccessor(List<List<String>> batches, boolean fail)
+        {
+            this.batches = batches;
+            this.fail = fail;
+        }
+
+        /**
+         * Runs when receiving a message
+         * @return
+         */
+        @Override
+        public Receive createReceive()
+        {
+            return receiveBuilder()
+                    .match(DBOperations.GetEntities.class, value ->
+                    {
+                        batches.add(new ArrayList<>(value.ids));
+                        Thread.sleep(200);
+
+                        if(fail)
+                        {
+                            getSender().tell(new Status.Failure(new IllegalStateException("Database down")), self());
+                            return;
+                        }
+
+                        List<User> found = new ArrayList<>();
+                        value.ids.stream()
+                            .filter(id -> id.startsWith("user"))
+                            .forEach(id -> found.add(new User(id, "password")));
+                        getSender().tell(new DBOperations.GetEntities(value.batchId, value.ids, found), self());
+                    })
+                    .build();
+        }
+    }
+}
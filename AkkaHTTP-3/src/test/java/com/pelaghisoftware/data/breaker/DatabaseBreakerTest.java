@@ -0,0 +1,259 @@
+package com.pelaghisoftware.data.breaker;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.pattern.AskTimeoutException;
+import akka.pattern.CircuitBreakerOpenException;
+import com.pelaghisoftware.data.limit.AdaptiveLimiter;
+import com.pelaghisoftware.data.limit.LimitExceededException;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the DatabaseBreaker class
+ */
+public class DatabaseBreakerTest
+{
+    private static final Duration ASK_TIMEOUT = Duration.ofSeconds(2);
+
+    private ActorSystem system;
+    private ActorRef echo;
+    private ActorRef silent;
+
+    /**
+     * Starts an actor system with one actor that answers and one that
+     * never does
+     */
+    @BeforeEach
+    public void setup()
+    {
+        system = ActorSystem.create("DatabaseBreakerTest");
+        echo = system.actorOf(Props.create(Echo.class, Echo::new));
+        silent = system.actorOf(Props.create(Silent.class, Silent::new));
+    }
+
+    /**
+     * Stops the actor system
+     */
+    @AfterEach
+    public void teardown()
+    {
+        system.terminate();
+    }
+
+    /**
+     * Tests that each ask gets the timeout of its operation type: a write
+     * slower than the read timeout still succeeds, while a read that runs
+     * past its timeout fails and, with the slow write, opens the breaker
+     */
+    @Test
+    public void testAsksKeepTheirOwnTimeouts() throws Exception
+    {
+        Config timeouts = ConfigFactory.load().getConfig("timeouts");
+        AdaptiveLimiter limiter = limiter(4);
+        DatabaseBreaker breaker = new DatabaseBreaker(system, breakerConfig(), limiter);
+        ActorRef slowWriter = system.actorOf(Props.create(Delayed.class, () -> new Delayed(Duration.ofMillis(1500))));
+
+        assertEquals("write", breaker.ask(slowWriter, "write", timeouts.getDuration("write"))
+                                     .toCompletableFuture().get(5, TimeUnit.SECONDS));
+        assertEquals(1, awaitSnapshot(breaker, counted -> counted.slow == 1).slow);
+        assertEquals("closed", breaker.snapshot().state);
+
+        ExecutionException error = assertThrows(ExecutionException.class,
+                                                () -> breaker.ask(slowWriter, "read", timeouts.getDuration("read"))
+                                                             .toCompletableFuture().get(5, TimeUnit.SECONDS));
+        assertTrue(error.getCause() instanceof AskTimeoutException);
+
+        DatabaseBreaker.Snapshot snapshot = awaitSnapshot(breaker, counted -> counted.timedOut == 1 && counted.opened == 1);
+        assertEquals("open", snapshot.state);
+        assertEquals(1, snapshot.timedOut);
+        assertEquals(0, limiter.snapshot().inFlight);
+    }
+
+    /**
+     * Tests that replies pass through and are counted
+     */
+    @Test
+    public void testSuccess() throws Exception
+    {
+        AdaptiveLimiter limiter = limiter(4);
+        DatabaseBreaker breaker = new DatabaseBreaker(system, breakerConfig(), limiter);
+
+        assertEquals("hello", breaker.ask(echo, "hello", ASK_TIMEOUT).toCompletableFuture().get(5, TimeUnit.SECONDS));
+
+        DatabaseBreaker.Snapshot snapshot = awaitSnapshot(breaker, counted -> counted.succeeded == 1);
+        assertEquals("closed", snapshot.state);
+        assertEquals(1, snapshot.succeeded);
+        assertEquals(0, limiter.snapshot().inFlight);
+    }
+
+    /**
+     * Tests that asks that time out open the breaker, which then turns
+     * asks away without holding on to the limiter
+     */
+    @Test
+    public void testSlowAsksOpenBreaker() throws Exception
+    {
+        AdaptiveLimiter limiter = limiter(4);
+        DatabaseBreaker breaker = new DatabaseBreaker(system, breakerConfig(), limiter);
+
+        for(int i = 0; i < 2; i++)
+        {
+            assertThrows(ExecutionException.class,
+                         () -> breaker.ask(silent, "hello", Duration.ofMillis(100)).toCompletableFuture().get(5, TimeUnit.SECONDS));
+        }
+
+        //The breaker's listeners run on the dispatcher, after the asks fail
+        DatabaseBreaker.Snapshot snapshot = awaitSnapshot(breaker, counted -> counted.timedOut == 2 && counted.opened == 1);
+        assertEquals("open", snapshot.state);
+        assertEquals(2, snapshot.timedOut);
+        assertEquals(1, snapshot.opened);
+
+        ExecutionException error = assertThrows(ExecutionException.class,
+                                                () -> breaker.ask(echo, "hello", ASK_TIMEOUT).toCompletableFuture().get(5, TimeUnit.SECONDS));
+        assertTrue(error.getCause() instanceof CircuitBreakerOpenException);
+        assertEquals(1, awaitSnapshot(breaker, counted -> counted.rejected == 1).rejected);
+        assertEquals(0, limiter.snapshot().inFlight);
+    }
+
+    /**
+     * Tests that asks over the limiter's limit fail without reaching the
+     * breaker
+     */
+    @Test
+    public void testLimiterRejects() throws Exception
+    {
+        AdaptiveLimiter limiter = limiter(1);
+        DatabaseBreaker breaker = new DatabaseBreaker(system, breakerConfig(), limiter);
+
+        assertTrue(limiter.tryAcquire());
+
+        ExecutionException error = assertThrows(ExecutionException.class,
+                                                () -> breaker.ask(echo, "hello", ASK_TIMEOUT).toCompletableFuture().get(5, TimeUnit.SECONDS));
+        assertTrue(error.getCause() instanceof LimitExceededException);
+        assertEquals(0, breaker.snapshot().succeeded);
+        assertEquals(0, breaker.snapshot().failed);
+    }
+
+    /**
+     * Waits for the breaker's counters to reach a state
+     * @param breaker The breaker
+     * @param done Whether a snapshot is in the state waited for
+     * @return Snapshot. The first one in the state, or the last taken
+     * @throws InterruptedException If interrupted while waiting
+     */
+    private static DatabaseBreaker.Snapshot awaitSnapshot(DatabaseBreaker breaker,
+                                                          Predicate<DatabaseBreaker.Snapshot> done) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        DatabaseBreaker.Snapshot snapshot = breaker.snapshot();
+        while(!done.test(snapshot) && System.nanoTime() < deadline)
+        {
+            Thread.sleep(10);
+            snapshot = breaker.snapshot();
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * Creates a breaker configuration that opens after two failed or slow
+     * asks, with the default slow call threshold
+     * @return Config. The "database-breaker" section
+     */
+    private static Config breakerConfig()
+    {
+        return ConfigFactory.parseString("max-failures = 2\n" +
+                                         "slow-call-threshold = 800 ms\n" +
+                                         "reset-timeout = 10 s\n" +
+                                         "max-reset-timeout = 60 s");
+    }
+
+    /**
+     * Creates a limiter with a fixed limit
+     * @param limit The limit
+     * @return AdaptiveLimiter. The limiter
+     */
+    private static AdaptiveLimiter limiter(int limit)
+    {
+        return new AdaptiveLimiter(limit, limit, limit, TimeUnit.SECONDS.toNanos(1), 0.5);
+    }
+
+    /**
+     * Replies with the message it got
+     */
+    public static class Echo extends AbstractActor
+    {
+        /**
+         * Runs when receiving a message
+         * @return
+         */
+        @Override
+        public Receive createReceive()
+        {
+            return receiveBuilder()
+                    .matchAny(message -> getSender().tell(message, self()))
+                    .build();
+        }
+    }
+
+    /**
+     * Replies with the message it got after a delay, like a slow database
+     */
+    public static class Delayed extends AbstractActor
+    {
+        private final Duration delay;
+
+        /**
+         * Constructor
+         * @param delay Time before replying
+         */
+        public Delayed(Duration delay)
+        {
+            this.delay = delay;
+        }
+
+        /**
+         * Runs when receiving a message
+         * @return
+         */
+        @Override
+        public Receive createReceive()
+        {
+            return receiveBuilder()
+                    .matchAny(message -> context().system().scheduler()
+                        .scheduleOnce(delay, getSender(), message, context().dispatcher(), self()))
+                    .build();
+        }
+    }
+
+    /**
+     * Never replies, like a database that hangs
+     */
+    public static class Silent extends AbstractActor
+    {
+        /**
+         * Runs when receiving a message
+         * @return
+         */
+        @Override
+        public Receive createReceive()
+        {
+            return receiveBuilder()
+                    .matchAny(message -> { })
+                    .build();
+        }
+    }
+}
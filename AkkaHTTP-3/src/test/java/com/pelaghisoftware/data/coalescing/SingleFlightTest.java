@@ -0,0 +1,71 @@
+package com.pelaghisoftware.data.coalescing;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests the SingleFlight class
+ */
+public class SingleFlightTest
+{
+    /**
+     * Tests that calls for the same key share one in flight call
+     */
+    @Test
+    public void testExecuteCoalesces()
+    {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        CompletableFuture<String> result = new CompletableFuture<>();
+        AtomicInteger started = new AtomicInteger();
+
+        CompletionStage<String> first = singleFlight.execute("Name0", () ->
+        {
+            started.incrementAndGet();
+            return result;
+        });
+        CompletionStage<String> second = singleFlight.execute("Name0", () ->
+        {
+            started.incrementAndGet();
+            return result;
+        });
+
+        assertEquals(1, started.get());
+        assertEquals(1, singleFlight.snapshot().deduplicated);
+        assertEquals(1, singleFlight.snapshot().inFlight);
+
+        result.complete("Password0");
+
+        assertEquals("Password0", first.toCompletableFuture().join());
+        assertEquals("Password0", second.toCompletableFuture().join());
+    }
+
+    /**
+     * Tests that the entry is removed once the call completes
+     */
+    @Test
+    public void testExecuteRemovesCompletedCalls()
+    {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        AtomicInteger started = new AtomicInteger();
+
+        singleFlight.execute("Name0", () ->
+        {
+            started.incrementAndGet();
+            return CompletableFuture.completedFuture("Password0");
+        });
+        singleFlight.execute("Name0", () ->
+        {
+            started.incrementAndGet();
+            return CompletableFuture.completedFuture("Password0");
+        });
+
+        assertEquals(2, started.get());
+        assertEquals(0, singleFlight.snapshot().deduplicated);
+        assertEquals(0, singleFlight.snapshot().inFlight);
+    }
+}
@@ -0,0 +1,99 @@
+package com.pelaghisoftware.data.dao.impl;
+
+import org.hibernate.c3p0.internal.C3P0ConnectionProvider;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Connection provider for the tests that records every JDBC query
+ * timeout set on a statement. Set it as
+ * hibernate.connection.provider_class.
+ */
+public class QueryTimeoutRecorder extends C3P0ConnectionProvider
+{
+    //Seconds passed to Statement.setQueryTimeout, in order
+    public static final Queue<Integer> timeouts = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Gets a pooled connection whose statements record their timeout
+     * @return Connection. The wrapped connection
+     * @throws SQLException If the pool has no connection
+     */
+    @Override
+    public Connection getConnection() throws SQLException
+    {
+        Connection connection = super.getConnection();
+
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                                                   new Class<?>[]{Connection.class},
+                                                   (proxy, method, args) ->
+        {
+            Object result = invoke(connection, method, args);
+            if(result instanceof Statement)
+            {
+                return record((Statement) result, method.getReturnType());
+            }
+
+            return result;
+        });
+    }
+
+    /**
+     * Closes the connection the proxy wraps
+     * @param connection The wrapped connection
+     * @throws SQLException If closing failed
+     */
+    @Override
+    public void closeConnection(Connection connection) throws SQLException
+    {
+        connection.close();
+    }
+
+    /**
+     * Wraps a statement so its query timeout is recorded
+     * @param statement The driver's statement
+     * @param type Statement, PreparedStatement or CallableStatement
+     * @return Statement. The wrapped statement, of the given type
+     */
+    private static Statement record(Statement statement, Class<?> type)
+    {
+        return (Statement) Proxy.newProxyInstance(Statement.class.getClassLoader(),
+                                                  new Class<?>[]{type},
+                                                  (proxy, method, args) ->
+        {
+            if(method.getName().equals("setQueryTimeout"))
+            {
+                timeouts.add((Integer) args[0]);
+            }
+
+            return invoke(statement, method, args);
+        });
+    }
+
+    /**
+     * Calls a method on the wrapped object, passing on what it throws
+     * @param target The wrapped object
+     * @param method Method called
+     * @param args Arguments of the call
+     * @return Object. What the method returned
+     * @throws Throwable What the method threw
+     */
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable
+    {
+        try
+        {
+            return method.invoke(target, args);
+        }
+        catch(InvocationTargetException e)
+        {
+            throw e.getCause();
+        }
+    }
+}
@@ -9,6 +9,8 @@ import org.junit.jupiter.api.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Duration;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.ExecutionException;
@@ -17,6 +19,7 @@ import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class UserDaoTest
@@ -100,6 +103,20 @@ public class UserDaoTest
         assertEquals(40, currentUser.size());
     }
 
+    /**
+     * Tests the getMultiple method
+     */
+    @Test
+    public void testGetMultiple()
+    {
+        UserDao userDao = new UserDao(sessionFactory);
+
+        List<User> found = userDao.getMultiple(List.of("Name0", "Name1", "Missing"));
+        assertEquals(2, found.size());
+        assertTrue(found.stream().anyMatch(user -> user.getUserName().equals("Name0")));
+        assertTrue(found.stream().anyMatch(user -> user.getUserName().equals("Name1")));
+    }
+
     /**
      * Tests the insert method
      */
@@ -150,6 +167,54 @@ public class UserDaoTest
         assertTrue(newUser.isEmpty());
     }
 
+    /**
+     * Tests that the time left, capped at the ceiling, reaches each JDBC
+     * statement as its query timeout
+     */
+    @Test
+    public void testQueryTimeout()
+    {
+        SessionFactory timedFactory = DatabaseCommonOps.createSessionFactory("hibernate.cfg.xml",
+            Collections.singletonMap("hibernate.connection.provider_class", QueryTimeoutRecorder.class.getName())).get();
+        try
+        {
+            UserDao userDao = new UserDao(timedFactory, Duration.ofSeconds(5));
+
+            //Hibernate rounds the time left down to whole seconds when each statement runs
+            assertTimeouts(1, 2, () -> userDao.get("Name0", Duration.ofMillis(1500)));
+            assertTimeouts(2, 3, () -> userDao.insert(new User("Timed", "Timed"), Duration.ofSeconds(3)));
+            assertTimeouts(4, 5, () -> userDao.get("Name0"));
+            assertTimeouts(4, 5, () -> userDao.getAll(Duration.ofMinutes(1)));
+        }
+        finally
+        {
+            timedFactory.close();
+        }
+    }
+
+    /**
+     * Runs DAO calls and checks the query timeouts their statements got
+     * @param min Fewest seconds allowed
+     * @param max Most seconds allowed
+     * @param calls The DAO calls
+     */
+    private static void assertTimeouts(int min, int max, Runnable calls)
+    {
+        QueryTimeoutRecorder.timeouts.clear();
+        calls.run();
+
+        //Hibernate sets the timeout back to 0 when it releases a statement
+        List<Integer> timeouts = QueryTimeoutRecorder.timeouts.stream()
+            .filter(timeout -> timeout != 0)
+            .collect(Collectors.toList());
+
+        assertFalse(timeouts.isEmpty());
+        for(int timeout : timeouts)
+        {
+            assertTrue(timeout >= min && timeout <= max, "Query timeout " + timeout);
+        }
+    }
+
     /**
      * Initializes the SITE_USERS Table in the h2 database
      */
@@ -0,0 +1,49 @@
+package com.pelaghisoftware.data.deadline;
+
+import com.pelaghisoftware.data.actors.operations.DBOperations;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the DeadlineMessage class
+ */
+public class DeadlineMessageTest
+{
+    /**
+     * Tests that a message only expires once its deadline passed
+     */
+    @Test
+    public void testIsExpired()
+    {
+        DeadlineMessage noDeadline = new DBOperations.GetEntity("Name0");
+        DeadlineMessage future = new DBOperations.GetEntity("Name0");
+        DeadlineMessage past = new DBOperations.GetEntity("Name0");
+
+        future.expiresIn(Duration.ofMinutes(1));
+        past.expiresIn(Duration.ofMillis(-1));
+
+        assertFalse(noDeadline.isExpired());
+        assertFalse(future.isExpired());
+        assertTrue(past.isExpired());
+    }
+
+    /**
+     * Tests that a sooner deadline is not pushed back
+     */
+    @Test
+    public void testExpiresInKeepsSoonerDeadline()
+    {
+        DeadlineMessage message = new DBOperations.GetEntity("Name0");
+
+        message.expiresIn(Duration.ofSeconds(1));
+        long deadline = message.deadline;
+        message.expiresIn(Duration.ofMinutes(1));
+
+        assertEquals(deadline, message.deadline);
+    }
+}
@@ -0,0 +1,202 @@
+package com.pelaghisoftware.data.feed;
+
+import akka.NotUsed;
+import akka.actor.ActorSystem;
+import akka.stream.ActorMaterializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.SinkQueueWithCancel;
+import akka.stream.javadsl.Source;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the ChangeFeed class
+ */
+public class ChangeFeedTest
+{
+    private ActorSystem system;
+    private ActorMaterializer materializer;
+
+    /**
+     * Starts an actor system for each test
+     */
+    @BeforeEach
+    public void setup()
+    {
+        system = ActorSystem.create("ChangeFeedTest");
+        materializer = ActorMaterializer.create(system);
+    }
+
+    /**
+     * Stops the actor system
+     */
+    @AfterEach
+    public void teardown()
+    {
+        system.terminate();
+    }
+
+    /**
+     * Tests that a subscriber resuming from an event gets the ones after it
+     * and then live events
+     */
+    @Test
+    public void testResume() throws Exception
+    {
+        ChangeFeed feed = new ChangeFeed(16);
+        feed.publish(ChangeEvent.INSERT, "Name0");
+        feed.publish(ChangeEvent.UPDATE, "Name0");
+        feed.publish(ChangeEvent.INSERT, "Name1");
+
+        CompletionStage<List<ChangeEvent>> events = feed.subscribe(1, 16, false)
+            .take(3)
+            .runWith(Sink.seq(), materializer);
+        feed.publish(ChangeEvent.DELETE, "Name0");
+
+        assertEquals(Arrays.asList("2:update", "3:insert", "4:delete"), describe(events));
+    }
+
+    /**
+     * Tests that a subscriber without a last seen event only gets events
+     * published after it subscribed
+     */
+    @Test
+    public void testNewEventsOnly() throws Exception
+    {
+        ChangeFeed feed = new ChangeFeed(16);
+        feed.publish(ChangeEvent.INSERT, "Name0");
+
+        CompletionStage<List<ChangeEvent>> events = feed.subscribe(-1, 16, false)
+            .take(3)
+            .runWith(Sink.seq(), materializer);
+
+        feed.publish(ChangeEvent.UPDATE, "Name0");
+        feed.publish(ChangeEvent.INSERT, "Name1");
+        feed.publish(ChangeEvent.DELETE, "Name0");
+
+        assertEquals(Arrays.asList("2:update", "3:insert", "4:delete"), describe(events));
+    }
+
+    /**
+     * Tests that events published between creating the source and running
+     * it are caught up from history
+     */
+    @Test
+    public void testPublishedBeforeMaterialization() throws Exception
+    {
+        ChangeFeed feed = new ChangeFeed(16);
+        feed.publish(ChangeEvent.INSERT, "Name0");
+
+        Source<ChangeEvent, NotUsed> source = feed.subscribe(0, 16, false);
+        feed.publish(ChangeEvent.UPDATE, "Name0");
+
+        CompletionStage<List<ChangeEvent>> events = source.take(3).runWith(Sink.seq(), materializer);
+        feed.publish(ChangeEvent.DELETE, "Name0");
+
+        assertEquals(Arrays.asList("1:insert", "2:update", "3:delete"), describe(events));
+    }
+
+    /**
+     * Tests that a subscriber further behind than the history gets a
+     * reset event instead of a partial replay
+     */
+    @Test
+    public void testTooFarBehind() throws Exception
+    {
+        ChangeFeed feed = new ChangeFeed(2);
+        for(int i = 0; i < 5; i++)
+        {
+            feed.publish(ChangeEvent.INSERT, "Name" + i);
+        }
+
+        CompletionStage<List<ChangeEvent>> events = feed.subscribe(1, 16, false)
+            .take(2)
+            .runWith(Sink.seq(), materializer);
+        feed.publish(ChangeEvent.DELETE, "Name0");
+
+        assertEquals(Arrays.asList("5:reset", "6:delete"), describe(events));
+    }
+
+    /**
+     * Tests that a subscriber whose buffer overflows gets a reset event in
+     * place of the events it lost, then the newest events
+     */
+    @Test
+    public void testOverflowResets() throws Exception
+    {
+        ChangeFeed feed = new ChangeFeed(16);
+        SinkQueueWithCancel<ChangeEvent> queue = feed.subscribe(-1, 4, false)
+            .runWith(Sink.queue(), materializer);
+
+        //Nothing is pulled, so the buffers fill up and the oldest events are dropped
+        for(int i = 0; i < 100; i++)
+        {
+            feed.publish(ChangeEvent.INSERT, "Name" + i);
+        }
+        Thread.sleep(200);
+
+        List<String> types = new ArrayList<>();
+        long last = 0;
+        while(last < 100)
+        {
+            ChangeEvent event = queue.pull().toCompletableFuture().get(5, TimeUnit.SECONDS).get();
+            assertTrue(event.getSequence() > last || ChangeEvent.RESET.equals(event.getType()));
+            types.add(event.getType());
+            last = event.getSequence();
+        }
+        queue.cancel();
+
+        assertEquals(1, types.stream().filter(ChangeEvent.RESET::equals).count());
+        assertTrue(types.size() < 100);
+    }
+
+    /**
+     * Tests that a subscriber whose stream ends is no longer counted
+     */
+    @Test
+    public void testSubscriberCount() throws Exception
+    {
+        ChangeFeed feed = new ChangeFeed(16);
+
+        CompletionStage<List<ChangeEvent>> events = feed.subscribe(-1, 16, false)
+            .take(1)
+            .runWith(Sink.seq(), materializer);
+        assertEquals(1, feed.subscriberCount());
+
+        feed.publish(ChangeEvent.INSERT, "Name0");
+        describe(events);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while(feed.subscriberCount() > 0 && System.nanoTime() < deadline)
+        {
+            Thread.sleep(10);
+        }
+        assertEquals(0, feed.subscriberCount());
+    }
+
+    /**
+     * Waits for a subscriber's events
+     * @param events The events
+     * @return List of "sequence:type" of each event
+     * @throws Exception If the stream failed or took too long
+     */
+    private static List<String> describe(CompletionStage<List<ChangeEvent>> events) throws Exception
+    {
+        List<String> described = new ArrayList<>();
+        for(ChangeEvent event : events.toCompletableFuture().get(5, TimeUnit.SECONDS))
+        {
+            described.add(event.getSequence() + ":" + event.getType());
+        }
+
+        return described;
+    }
+}
@@ -0,0 +1,96 @@
+package com.pelaghisoftware.data.feed;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests the SequenceGaps class
+ */
+public class SequenceGapsTest
+{
+    /**
+     * Tests that events following each other are passed on as they are
+     */
+    @Test
+    public void testNoGap()
+    {
+        SequenceGaps gaps = new SequenceGaps(3);
+
+        assertEquals(Arrays.asList("4:insert", "5:update"), check(gaps, event(4, ChangeEvent.INSERT), event(5, ChangeEvent.UPDATE)));
+    }
+
+    /**
+     * Tests that events already seen, e.g. replayed and then sent live,
+     * are skipped
+     */
+    @Test
+    public void testSkipsSeen()
+    {
+        SequenceGaps gaps = new SequenceGaps(0);
+
+        assertEquals(Arrays.asList("1:insert", "2:delete"),
+                     check(gaps, event(1, ChangeEvent.INSERT), event(1, ChangeEvent.INSERT), event(2, ChangeEvent.DELETE)));
+    }
+
+    /**
+     * Tests that a reset is put in front of an event that follows dropped
+     * ones
+     */
+    @Test
+    public void testGapBecomesReset()
+    {
+        SequenceGaps gaps = new SequenceGaps(1);
+
+        assertEquals(Arrays.asList("2:insert", "6:reset", "7:update", "8:delete"),
+                     check(gaps, event(2, ChangeEvent.INSERT), event(7, ChangeEvent.UPDATE), event(8, ChangeEvent.DELETE)));
+    }
+
+    /**
+     * Tests that a reset moves the last seen event, even backwards after
+     * the sequence started over
+     */
+    @Test
+    public void testResetPassesThrough()
+    {
+        SequenceGaps gaps = new SequenceGaps(50);
+
+        assertEquals(Arrays.asList("2:reset", "3:insert"),
+                     check(gaps, event(2, ChangeEvent.RESET), event(3, ChangeEvent.INSERT)));
+    }
+
+    /**
+     * Creates an event
+     * @param sequence Sequence number
+     * @param type Type of change
+     * @return ChangeEvent. The event
+     */
+    private static ChangeEvent event(long sequence, String type)
+    {
+        return new ChangeEvent(sequence, type, ChangeEvent.RESET.equals(type) ? null : "Name0", 0);
+    }
+
+    /**
+     * Runs events through the check
+     * @param gaps The check
+     * @param events Events in the order they arrive
+     * @return List of "sequence:type" of the events passed on
+     */
+    private static List<String> check(SequenceGaps gaps, ChangeEvent... events)
+    {
+        List<String> passed = new ArrayList<>();
+        for(ChangeEvent event : events)
+        {
+            for(ChangeEvent out : gaps.apply(event))
+            {
+                passed.add(out.getSequence() + ":" + out.getType());
+            }
+        }
+
+        return passed;
+    }
+}
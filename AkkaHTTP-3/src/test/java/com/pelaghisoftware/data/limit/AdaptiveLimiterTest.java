@@ -0,0 +1,49 @@
+package com.pelaghisoftware.data.limit;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the AdaptiveLimiter class
+ */
+public class AdaptiveLimiterTest
+{
+    private static final long THRESHOLD = 100_000_000L;
+
+    /**
+     * Tests that operations over the limit are rejected
+     */
+    @Test
+    public void testTryAcquireRejectsOverLimit()
+    {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(2, 1, 10, THRESHOLD, 0.5);
+
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+
+        assertEquals(2, limiter.snapshot().admitted);
+        assertEquals(1, limiter.snapshot().rejected);
+    }
+
+    /**
+     * Tests that fast operations raise the limit and slow ones lower it
+     */
+    @Test
+    public void testReleaseAdjustsLimit()
+    {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(4, 1, 10, THRESHOLD, 0.5);
+
+        limiter.tryAcquire();
+        limiter.tryAcquire();
+        limiter.release(THRESHOLD / 2, true);
+        assertEquals(5, limiter.snapshot().limit);
+
+        limiter.release(THRESHOLD * 2, true);
+        assertEquals(2, limiter.snapshot().limit);
+        assertEquals(0, limiter.snapshot().inFlight);
+    }
+}
@@ -0,0 +1,53 @@
+package com.pelaghisoftware.data.pool;
+
+import com.pelaghisoftware.data.dao.impl.UserDao;
+import com.pelaghisoftware.data.entity.User;
+import org.hibernate.SessionFactory;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the DatabaseStats class
+ */
+public class DatabaseStatsTest
+{
+    /**
+     * Tests that the pool gauges, checkout counts and Hibernate
+     * statistics reflect DAO calls
+     */
+    @Test
+    public void testSnapshot() throws InterruptedException
+    {
+        SessionFactory sessionFactory = InstrumentedSessionFactory.create();
+        try
+        {
+            sessionFactory.getStatistics().setStatisticsEnabled(true);
+            DatabaseStats databaseStats = new DatabaseStats(sessionFactory);
+            assertTrue(databaseStats.instrumentedProvider().isPresent());
+
+            //Startup may already have used the pool and opened sessions, so compare against a baseline
+            DatabaseStats.Snapshot before = databaseStats.snapshot();
+
+            UserDao userDao = new UserDao(sessionFactory);
+            userDao.insert(new User("statsUser", "password"));
+            userDao.get("statsUser");
+
+            DatabaseStats.Snapshot after = databaseStats.snapshot();
+
+            assertEquals(20, after.pool.maxSize);
+            assertTrue(after.pool.checkouts - before.pool.checkouts >= 2);
+            assertEquals(2, after.hibernate.sessionsOpened - before.hibernate.sessionsOpened);
+            assertEquals(1, after.hibernate.entitiesInserted - before.hibernate.entitiesInserted);
+
+            DatabaseStats.PoolSnapshot pool = InstrumentedSessionFactory.awaitCheckins(databaseStats);
+            assertEquals(0, pool.busy);
+            assertTrue(pool.idle > 0);
+        }
+        finally
+        {
+            sessionFactory.close();
+        }
+    }
+}
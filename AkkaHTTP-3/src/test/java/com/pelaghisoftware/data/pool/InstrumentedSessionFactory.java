@@ -0,0 +1,47 @@
+package com.pelaghisoftware.data.pool;
+
+import com.pelaghisoftware.data.DatabaseCommonOps;
+import org.hibernate.SessionFactory;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test setup shared by the pool tests. Creates SessionFactories whose
+ * connections come from the InstrumentedConnectionProvider.
+ */
+class InstrumentedSessionFactory
+{
+    /**
+     * Creates a SessionFactory with the instrumented provider. Config read
+     * by the provider, e.g. leak detection, has to be set before this.
+     * @return SessionFactory. Close it when done.
+     */
+    static SessionFactory create()
+    {
+        return DatabaseCommonOps.createSessionFactory("hibernate.cfg.xml",
+            Collections.singletonMap("hibernate.connection.provider_class", InstrumentedConnectionProvider.class.getName())).get();
+    }
+
+    /**
+     * Waits for the pool to take back every connection. c3p0 checks
+     * connections back in on its helper threads, so the busy count can
+     * lag behind the sessions being closed.
+     * @param databaseStats Stats of the SessionFactory
+     * @return PoolSnapshot. The first one without busy connections, or the
+     *         last taken
+     * @throws InterruptedException If interrupted while waiting
+     */
+    static DatabaseStats.PoolSnapshot awaitCheckins(DatabaseStats databaseStats) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        DatabaseStats.PoolSnapshot pool = databaseStats.snapshot().pool;
+        while(pool.busy > 0 && System.nanoTime() < deadline)
+        {
+            Thread.sleep(10);
+            pool = databaseStats.snapshot().pool;
+        }
+
+        return pool;
+    }
+}
@@ -0,0 +1,92 @@
+package com.pelaghisoftware.data.pool;
+
+import com.pelaghisoftware.data.dao.impl.UserDao;
+import com.pelaghisoftware.data.entity.User;
+import com.typesafe.config.ConfigFactory;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the leak detection of the InstrumentedConnectionProvider class
+ */
+public class LeakDetectionTest
+{
+    private SessionFactory sessionFactory;
+    private DatabaseStats databaseStats;
+
+    /**
+     * Turns leak detection on with short timings and creates a Session
+     * Factory with the instrumented provider
+     */
+    @BeforeEach
+    public void setup()
+    {
+        System.setProperty("database-stats.leak-detection.enabled", "on");
+        System.setProperty("database-stats.leak-detection.threshold", "100 ms");
+        System.setProperty("database-stats.leak-detection.force-close-after", "300 ms");
+        System.setProperty("database-stats.leak-detection.interval", "50 ms");
+        ConfigFactory.invalidateCaches();
+
+        sessionFactory = InstrumentedSessionFactory.create();
+        databaseStats = new DatabaseStats(sessionFactory);
+    }
+
+    /**
+     * Closes the Session Factory and puts the config back
+     */
+    @AfterEach
+    public void teardown()
+    {
+        sessionFactory.close();
+
+        System.clearProperty("database-stats.leak-detection.enabled");
+        System.clearProperty("database-stats.leak-detection.threshold");
+        System.clearProperty("database-stats.leak-detection.force-close-after");
+        System.clearProperty("database-stats.leak-detection.interval");
+        ConfigFactory.invalidateCaches();
+    }
+
+    /**
+     * Tests that a failed update still returns its connection
+     */
+    @Test
+    public void testFailedOperationReleasesConnection() throws InterruptedException
+    {
+        //Updating a user that doesn't exist fails on commit
+        assertFalse(new UserDao(sessionFactory).update(new User("noSuchLeakUser", "password")));
+
+        assertEquals(0, databaseStats.snapshot().pool.heldConnections);
+        assertEquals(0, InstrumentedSessionFactory.awaitCheckins(databaseStats).busy);
+    }
+
+    /**
+     * Tests that a session that is never closed is reported and its
+     * connection force closed
+     * @throws InterruptedException If interrupted while waiting for the detector
+     */
+    @Test
+    public void testLeakedSessionIsForceClosed() throws InterruptedException
+    {
+        Session session = sessionFactory.openSession();
+        session.beginTransaction();
+        assertEquals(1, databaseStats.snapshot().pool.heldConnections);
+
+        for(int i = 0; i < 100 && databaseStats.snapshot().pool.forceClosedConnections == 0; i++)
+        {
+            Thread.sleep(20);
+        }
+
+        //Hibernate's own checkouts at startup may be slow enough to count as well
+        DatabaseStats.PoolSnapshot pool = databaseStats.snapshot().pool;
+        assertTrue(pool.leakedConnections >= 1);
+        assertEquals(1, pool.forceClosedConnections);
+        assertEquals(0, pool.heldConnections);
+    }
+}
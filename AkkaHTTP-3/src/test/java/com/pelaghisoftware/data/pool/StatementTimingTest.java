@@ -0,0 +1,84 @@
+package com.pelaghisoftware.data.pool;
+
+import com.pelaghisoftware.data.dao.impl.UserDao;
+import com.pelaghisoftware.data.entity.User;
+import org.hibernate.SessionFactory;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the StatementTiming class
+ */
+public class StatementTimingTest
+{
+    /**
+     * Tests that literals and parameter lists are normalized
+     */
+    @Test
+    public void testNormalize()
+    {
+        assertEquals("select * from users user0_ where user0_.name in (?, ...) and user0_.id > ?",
+                     StatementTiming.normalizeSql("select *\n  from users user0_ where user0_.name in (?, ?,?) and user0_.id > 42"));
+        assertEquals("select * from users where name = ?",
+                     StatementTiming.normalizeSql("select * from users where name = 'it''s'"));
+    }
+
+    /**
+     * Tests that the limit on tracked statements counts normalized
+     * statements, not raw SQL, and doesn't depend on the cache size
+     */
+    @Test
+    public void testTrackedStatementLimit()
+    {
+        StatementTiming timing = new StatementTiming(Long.MAX_VALUE, 1, 2);
+
+        //Raw SQL that normalizes to the same statement only takes one slot
+        for(int i = 0; i < 10; i++)
+        {
+            assertEquals("select ?", timing.normalize("select " + i));
+        }
+        assertEquals(StatementTiming.OTHER, timing.normalize("select 2 from dual"));
+
+        //Past the cache size, raw SQL is still timed as its statement
+        assertEquals("select ?", timing.normalize("select 42"));
+        assertEquals("select ?", timing.normalize("select 42"));
+    }
+
+    /**
+     * Tests that the statements UserDao runs are timed through the
+     * instrumented provider
+     */
+    @Test
+    public void testUserDaoStatements()
+    {
+        SessionFactory sessionFactory = InstrumentedSessionFactory.create();
+        try
+        {
+            Map<String, Integer> executions = new ConcurrentHashMap<>();
+            new DatabaseStats(sessionFactory).instrumentedProvider().get()
+                .statementTiming().get()
+                .onStatement((statement, nanos) -> executions.merge(statement, 1, Integer::sum));
+
+            UserDao userDao = new UserDao(sessionFactory);
+            userDao.insert(new User("timedUser1", "password"));
+            userDao.insert(new User("timedUser2", "password"));
+            userDao.getMultiple(Arrays.asList("timedUser1", "timedUser2"));
+            userDao.getMultiple(Arrays.asList("timedUser1", "timedUser2", "missing"));
+
+            assertTrue(executions.entrySet().stream()
+                .anyMatch(entry -> entry.getKey().startsWith("insert") && entry.getValue() == 2));
+            assertTrue(executions.entrySet().stream()
+                .anyMatch(entry -> entry.getKey().contains("in (?, ...)") && entry.getValue() == 2));
+        }
+        finally
+        {
+            sessionFactory.close();
+        }
+    }
+}
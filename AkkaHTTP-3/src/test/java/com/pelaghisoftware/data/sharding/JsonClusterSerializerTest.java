@@ -0,0 +1,83 @@
+package com.pelaghisoftware.data.sharding;
+
+import com.pelaghisoftware.data.actors.operations.DBOperations;
+import com.pelaghisoftware.data.entity.User;
+import com.pelaghisoftware.data.sharding.operations.UserShardOperations;
+import org.junit.jupiter.api.Test;
+
+import java.io.NotSerializableException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the JsonClusterSerializer class
+ */
+public class JsonClusterSerializerTest
+{
+    private final JsonClusterSerializer serializer = new JsonClusterSerializer();
+
+    /**
+     * Tests that a command keeps its deadline and trace ID and leaves out
+     * the getters
+     */
+    @Test
+    public void testCommand() throws Exception
+    {
+        DBOperations.GetEntity request = new DBOperations.GetEntity("user1");
+        request.expiresIn(Duration.ofSeconds(5));
+        request.traceId = "trace1";
+
+        UserShardOperations.UserCommand command =
+            new UserShardOperations.UserCommand(UserShardOperations.UserCommand.UPDATE, "user1", "passwordHash", request);
+
+        byte[] bytes = serializer.toBinary(command);
+        assertFalse(new String(bytes, StandardCharsets.UTF_8).contains("expired"));
+
+        UserShardOperations.UserCommand read =
+            (UserShardOperations.UserCommand) serializer.fromBinary(bytes, serializer.manifest(command));
+
+        assertEquals(UserShardOperations.UserCommand.UPDATE, read.operation);
+        assertEquals("user1", read.userName);
+        assertEquals("passwordHash", read.passwordHash);
+        assertEquals(request.deadline, read.deadline);
+        assertEquals("trace1", read.traceId);
+    }
+
+    /**
+     * Tests that a reply carries the user, or none
+     */
+    @Test
+    public void testReply() throws Exception
+    {
+        UserShardOperations.UserReply found =
+            new UserShardOperations.UserReply(Optional.of(new User("user1", "hash")), true, false);
+        UserShardOperations.UserReply read =
+            (UserShardOperations.UserReply) serializer.fromBinary(serializer.toBinary(found), serializer.manifest(found));
+
+        assertTrue(read.completed);
+        assertFalse(read.notFound);
+        assertEquals("user1", read.toUser().get().getUserName());
+        assertEquals("hash", read.toUser().get().getEncryptedPassword());
+
+        UserShardOperations.UserReply missing = new UserShardOperations.UserReply(Optional.empty(), false, true);
+        read = (UserShardOperations.UserReply) serializer.fromBinary(serializer.toBinary(missing), serializer.manifest(missing));
+
+        assertTrue(read.notFound);
+        assertFalse(read.toUser().isPresent());
+    }
+
+    /**
+     * Tests that only cluster messages are read
+     */
+    @Test
+    public void testOnlyClusterMessages()
+    {
+        assertThrows(NotSerializableException.class,
+                     () -> serializer.fromBinary("{}".getBytes(StandardCharsets.UTF_8), User.class.getName()));
+        assertThrows(NotSerializableException.class,
+                     () -> serializer.fromBinary("{}".getBytes(StandardCharsets.UTF_8), "com.pelaghisoftware.Missing"));
+    }
+}
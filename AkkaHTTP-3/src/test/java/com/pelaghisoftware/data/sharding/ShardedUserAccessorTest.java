@@ -0,0 +1,248 @@
+package com.pelaghisoftware.data.sharding;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.cluster.Cluster;
+import akka.cluster.sharding.ClusterSharding;
+import akka.cluster.sharding.ClusterShardingSettings;
+import com.pelaghisoftware.data.actors.SiteUserAccessor;
+import com.pelaghisoftware.data.actors.operations.DBOperations;
+import com.pelaghisoftware.data.dao.Dao;
+import com.pelaghisoftware.data.deadline.DiscardedWork;
+import com.pelaghisoftware.data.entity.User;
+import com.pelaghisoftware.data.feed.ChangeFeed;
+import com.typesafe.config.ConfigFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static akka.pattern.Patterns.ask;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the ShardedUserAccessor class, together with the UserEntity and
+ * CachedUserDao, on a cluster of one node
+ */
+public class ShardedUserAccessorTest
+{
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+    private static final Duration PASSIVATE_AFTER = Duration.ofMillis(500);
+
+    private final BCryptPasswordEncoder encoder = new BCryptPasswordEncoder();
+
+    private ActorSystem system;
+    private MemoryUserDao userDao;
+    private ActorRef accessor;
+
+    /**
+     * Starts a cluster of one node with the User shard region on it
+     */
+    @BeforeEach
+    public void setup() throws Exception
+    {
+        system = ActorSystem.create("ShardedUserAccessorTest",
+                                    ConfigFactory.parseString("akka.actor.provider = cluster\n" +
+                                                              "akka.remote.netty.tcp.hostname = \"127.0.0.1\"\n" +
+                                                              "akka.remote.netty.tcp.port = 0")
+                                                 .withFallback(ConfigFactory.load()));
+
+        Cluster cluster = Cluster.get(system);
+        CountDownLatch up = new CountDownLatch(1);
+        cluster.registerOnMemberUp(up::countDown);
+        cluster.join(cluster.selfAddress());
+        assertTrue(up.await(10, TimeUnit.SECONDS));
+
+        userDao = new MemoryUserDao();
+        ChangeFeed changeFeed = new ChangeFeed(16);
+        DiscardedWork discardedWork = new DiscardedWork();
+
+        ActorRef region = ClusterSharding.get(system).start("User",
+                                                            UserEntity.props(userDao, changeFeed, discardedWork, PASSIVATE_AFTER),
+                                                            ClusterShardingSettings.create(system),
+                                                            new UserMessageExtractor(10));
+        accessor = system.actorOf(ShardedUserAccessor.props(region,
+                                                            SiteUserAccessor.props(userDao, changeFeed, discardedWork),
+                                                            TIMEOUT,
+                                                            discardedWork));
+    }
+
+    /**
+     * Stops the actor system
+     */
+    @AfterEach
+    public void teardown()
+    {
+        system.terminate();
+    }
+
+    /**
+     * Tests getting, inserting, updating and deleting a user through its
+     * entity, and that passwords are encoded exactly once
+     */
+    @Test
+    public void testOperations() throws Exception
+    {
+        DBOperations.InsertEntity inserted = request(new DBOperations.InsertEntity(Optional.of(new User("Name0", "password"))));
+        assertTrue(inserted.completed);
+        assertTrue(encoder.matches("password", get("Name0").get().getEncryptedPassword()));
+        assertTrue(encoder.matches("password", userDao.users.get("Name0").getEncryptedPassword()));
+
+        DBOperations.InsertEntity duplicate = request(new DBOperations.InsertEntity(Optional.of(new User("Name0", "other"))));
+        assertFalse(duplicate.completed);
+        assertTrue(duplicate.entity.isPresent());
+
+        DBOperations.UpdateEntity updated = request(new DBOperations.UpdateEntity(Optional.of(new User("Name0", "password2"))));
+        assertTrue(updated.completed);
+        String hash = get("Name0").get().getEncryptedPassword();
+        assertTrue(encoder.matches("password2", hash));
+
+        //No password keeps the old one
+        assertTrue(((DBOperations.UpdateEntity) request(new DBOperations.UpdateEntity(Optional.of(new User("Name0", null))))).completed);
+        assertEquals(hash, get("Name0").get().getEncryptedPassword());
+
+        DBOperations.GetEntities found = request(new DBOperations.GetEntities(1, Arrays.asList("Name0", "Name1")));
+        assertEquals(1, found.entities.size());
+
+        DBOperations.DeleteEntity deleted = request(new DBOperations.DeleteEntity(Optional.of(new User("Name0", null))));
+        assertTrue(deleted.completed);
+        assertFalse(get("Name0").isPresent());
+
+        DBOperations.DeleteEntity missing = request(new DBOperations.DeleteEntity(Optional.of(new User("Name0", null))));
+        assertTrue(missing.notFound);
+        DBOperations.UpdateEntity notUpdated = request(new DBOperations.UpdateEntity(Optional.of(new User("Name1", "password"))));
+        assertTrue(notUpdated.notFound);
+    }
+
+    /**
+     * Tests that an idle entity is stopped and reads its user from the
+     * database again when it is next used
+     */
+    @Test
+    public void testPassivation() throws Exception
+    {
+        request(new DBOperations.InsertEntity(Optional.of(new User("Name0", "password"))));
+        int reads = userDao.reads.get();
+
+        assertTrue(get("Name0").isPresent());
+        assertEquals(reads, userDao.reads.get());
+
+        Thread.sleep(PASSIVATE_AFTER.multipliedBy(4).toMillis());
+
+        assertTrue(get("Name0").isPresent());
+        assertEquals(reads + 1, userDao.reads.get());
+    }
+
+    /**
+     * Tests that an entity reads its user again after a write that
+     * failed, since the database may have changed anyway
+     */
+    @Test
+    public void testFailedWriteInvalidatesCache() throws Exception
+    {
+        request(new DBOperations.InsertEntity(Optional.of(new User("Name0", "password"))));
+
+        //The update reaches the database but is reported as failed, like a commit that timed out
+        userDao.reportFailure = true;
+        DBOperations.UpdateEntity updated = request(new DBOperations.UpdateEntity(Optional.of(new User("Name0", "password2"))));
+        assertFalse(updated.completed);
+        userDao.reportFailure = false;
+
+        int reads = userDao.reads.get();
+        assertTrue(encoder.matches("password2", get("Name0").get().getEncryptedPassword()));
+        assertEquals(reads + 1, userDao.reads.get());
+    }
+
+    /**
+     * Gets a user through the accessor
+     * @param userName The user
+     * @return Optional. The user, or empty if there is none
+     * @throws Exception If the ask failed
+     */
+    private Optional<User> get(String userName) throws Exception
+    {
+        Optional<?> user = request(new DBOperations.GetEntity(userName));
+        return user.map(User.class::cast);
+    }
+
+    /**
+     * Sends a message to the accessor and waits for the reply
+     * @param message The message
+     * @param <T> Type of the reply
+     * @return T. The reply
+     * @throws Exception If the ask failed
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T request(Object message) throws Exception
+    {
+        return (T) ask(accessor, message, TIMEOUT).toCompletableFuture().get();
+    }
+
+    /**
+     * In-memory DAO standing in for the database. Counts the single user
+     * reads and can report writes as failed after doing them.
+     */
+    private static class MemoryUserDao implements Dao<User>
+    {
+        private final Map<String, User> users = new ConcurrentHashMap<>();
+        private final AtomicInteger reads = new AtomicInteger();
+        private volatile boolean reportFailure;
+
+        @Override
+        public Optional<User> get(String id, Duration timeout)
+        {
+            reads.incrementAndGet();
+            return Optional.ofNullable(users.get(id));
+        }
+
+        @Override
+        public List<User> getAll(Duration timeout)
+        {
+            return new ArrayList<>(users.values());
+        }
+
+        @Override
+        public List<User> getMultiple(Collection<String> ids, Duration timeout)
+        {
+            List<User> found = new ArrayList<>();
+            ids.forEach(id -> Optional.ofNullable(users.get(id)).ifPresent(found::add));
+            return found;
+        }
+
+        @Override
+        public boolean insert(User user, Duration timeout)
+        {
+            return users.putIfAbsent(user.getUserName(), user) == null && !reportFailure;
+        }
+
+        @Override
+        public boolean update(User user, Duration timeout)
+        {
+            return users.replace(user.getUserName(), user) != null && !reportFailure;
+        }
+
+        @Override
+        public boolean delete(User user, Duration timeout)
+        {
+            return users.remove(user.getUserName()) != null && !reportFailure;
+        }
+
+        @Override
+        public Duration timeoutCeiling()
+        {
+            return TIMEOUT;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.pelaghisoftware.jfr;
+
+import com.typesafe.config.ConfigFactory;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the FlightRecordings class
+ */
+public class FlightRecordingsTest
+{
+    /**
+     * Tests that only one recording runs at a time and that stopping it
+     * writes a file with the custom events
+     */
+    @Test
+    public void testStartAndStop() throws Exception
+    {
+        FlightRecordings recordings = recordings();
+
+        assertFalse(stop(recordings).isPresent());
+
+        Optional<FlightRecordings.Status> status = recordings.start(Optional.empty());
+        assertTrue(status.isPresent());
+        assertEquals("RUNNING", status.get().state);
+        assertFalse(recordings.start(Optional.empty()).isPresent());
+
+        DaoOperationEvent event = new DaoOperationEvent("User", "get");
+        event.begin();
+        event.finish(1, true);
+
+        Path file = stop(recordings).get();
+        assertTrue(Files.size(file) > 0);
+
+        boolean found = false;
+        for(RecordedEvent recorded : RecordingFile.readAllEvents(file))
+        {
+            if(recorded.getEventType().getName().equals("com.pelaghisoftware.DaoOperation"))
+            {
+                found = true;
+                assertEquals("get", recorded.getString("operation"));
+                assertEquals(1, recorded.getInt("rows"));
+            }
+        }
+        assertTrue(found);
+        assertEquals("NONE", recordings.status().state);
+
+        FlightRecordings.delete(file);
+    }
+
+    /**
+     * Tests that each recording is dumped to a file of its own, which the
+     * next dump leaves alone until it is deleted
+     */
+    @Test
+    public void testFilePerDump() throws Exception
+    {
+        FlightRecordings recordings = recordings();
+
+        recordings.start(Optional.empty());
+        Path first = stop(recordings).get();
+        recordings.start(Optional.empty());
+        Path second = stop(recordings).get();
+
+        assertNotEquals(first, second);
+        assertTrue(Files.exists(first));
+        assertTrue(Files.exists(second));
+
+        FlightRecordings.delete(first);
+        assertFalse(Files.exists(first));
+        assertTrue(Files.exists(second));
+        FlightRecordings.delete(second);
+    }
+
+    /**
+     * Creates recordings that are dumped on a thread of their own
+     * @return FlightRecordings. The recordings
+     */
+    private static FlightRecordings recordings()
+    {
+        return new FlightRecordings(ConfigFactory.parseString("settings = default\nmax-duration = 1 m\nmax-size = 16 MiB"),
+                                    command -> new Thread(command).start());
+    }
+
+    /**
+     * Stops the recording and waits for the dump
+     * @param recordings The recordings
+     * @return Optional. The file, or empty if nothing was recorded
+     * @throws Exception If the dump failed or took too long
+     */
+    private static Optional<Path> stop(FlightRecordings recordings) throws Exception
+    {
+        return recordings.stop().toCompletableFuture().get(30, TimeUnit.SECONDS);
+    }
+}
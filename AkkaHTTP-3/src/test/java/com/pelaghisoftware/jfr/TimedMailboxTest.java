@@ -0,0 +1,99 @@
+package com.pelaghisoftware.jfr;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.dispatch.Envelope;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests the TimedMailbox class
+ */
+public class TimedMailboxTest
+{
+    private ActorSystem system;
+
+    /**
+     * Starts an actor system to create envelopes with
+     */
+    @BeforeEach
+    public void setup()
+    {
+        system = ActorSystem.create("TimedMailboxTest");
+    }
+
+    /**
+     * Stops the actor system
+     */
+    @AfterEach
+    public void teardown()
+    {
+        system.terminate();
+    }
+
+    /**
+     * Tests that only messages enqueued while a recording runs are timed,
+     * and that messages enqueued before it started still come out in order
+     */
+    @Test
+    public void testTimesOnlyWhileRecording() throws Exception
+    {
+        TimedMailbox.TimedMessageQueue queue = new TimedMailbox.TimedMessageQueue("test", 0, ActorRef.noSender(), null);
+
+        queue.enqueue(ActorRef.noSender(), envelope("before"));
+
+        List<String> timed = new ArrayList<>();
+        Path file = Files.createTempFile("mailbox-", ".jfr");
+        try(Recording recording = new Recording())
+        {
+            recording.enable(MailboxWaitEvent.class);
+            recording.start();
+
+            queue.enqueue(ActorRef.noSender(), envelope("during"));
+            assertEquals("before", queue.dequeue().message());
+            assertEquals("during", queue.dequeue().message());
+            assertEquals(null, queue.dequeue());
+
+            recording.stop();
+            recording.dump(file);
+        }
+
+        for(RecordedEvent event : RecordingFile.readAllEvents(file))
+        {
+            if(event.getEventType().getName().equals("com.pelaghisoftware.MailboxWait"))
+            {
+                timed.add(event.getString("actor") + ":" + event.getInt("queued"));
+            }
+        }
+        Files.delete(file);
+
+        assertEquals(1, timed.size());
+        assertEquals("test:0", timed.get(0));
+
+        //Recording has stopped, so messages pass through untimed again
+        queue.enqueue(ActorRef.noSender(), envelope("after"));
+        assertEquals(1, queue.numberOfMessages());
+        assertEquals("after", queue.dequeue().message());
+    }
+
+    /**
+     * Creates an envelope without a sender
+     * @param message The message
+     * @return Envelope. The envelope
+     */
+    private Envelope envelope(String message)
+    {
+        return Envelope.apply(message, ActorRef.noSender(), system);
+    }
+}
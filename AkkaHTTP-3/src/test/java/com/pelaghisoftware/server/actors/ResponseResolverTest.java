@@ -0,0 +1,79 @@
+package com.pelaghisoftware.server.actors;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.http.javadsl.model.HttpResponse;
+import akka.http.javadsl.model.StatusCodes;
+import com.pelaghisoftware.data.actors.operations.DBOperations;
+import com.pelaghisoftware.data.entity.User;
+import com.pelaghisoftware.server.trace.RequestTrace;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static akka.pattern.Patterns.ask;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the ResponseResolver class
+ */
+public class ResponseResolverTest
+{
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    private ActorSystem system;
+    private ActorRef responseResolver;
+
+    /**
+     * Starts a response resolver
+     */
+    @BeforeEach
+    public void setup()
+    {
+        system = ActorSystem.create("ResponseResolverTest");
+        responseResolver = system.actorOf(ResponseResolver.props());
+    }
+
+    /**
+     * Stops the actor system
+     */
+    @AfterEach
+    public void teardown()
+    {
+        system.terminate();
+    }
+
+    /**
+     * Tests that only responses to traced requests get the serialize
+     * timing, and that the traced message itself is left untouched
+     */
+    @Test
+    public void testServerTimingOnlyWhenTraced() throws Exception
+    {
+        DBOperations.GetEntity message = new DBOperations.GetEntity(Optional.of(new User("Name0", "password")));
+
+        HttpResponse plain = respond(message);
+        assertEquals(StatusCodes.OK, plain.status());
+        assertFalse(plain.getHeader(RequestTrace.SERVER_TIMING).isPresent());
+
+        HttpResponse traced = respond(new RequestTrace("test").wrap(message));
+        assertEquals(StatusCodes.OK, traced.status());
+        assertTrue(traced.getHeader(RequestTrace.SERVER_TIMING).get().value().startsWith("serialize;dur="));
+        assertEquals(null, message.traceId);
+    }
+
+    /**
+     * Asks the response resolver for a response
+     * @param message The message
+     * @return HttpResponse. The response
+     * @throws Exception If there was no response in time
+     */
+    private HttpResponse respond(Object message) throws Exception
+    {
+        return (HttpResponse) ask(responseResolver, message, TIMEOUT).toCompletableFuture().get(5, TimeUnit.SECONDS);
+    }
+}
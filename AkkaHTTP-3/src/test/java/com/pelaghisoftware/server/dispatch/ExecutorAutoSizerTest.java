@@ -0,0 +1,46 @@
+package com.pelaghisoftware.server.dispatch;
+
+import com.typesafe.config.ConfigFactory;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests the ExecutorAutoSizer class
+ */
+public class ExecutorAutoSizerTest
+{
+    /**
+     * Tests that the size follows the blocking ratio within the bounds and
+     * the most it may change per run
+     */
+    @Test
+    public void testSize()
+    {
+        int cores = 4;
+        InstrumentedExecutor executor = new InstrumentedExecutor("test", "test-dispatcher", Executors.newFixedThreadPool(1), true);
+        ExecutorAutoSizer autoSizer = new ExecutorAutoSizer(executor, ConfigFactory.parseString(
+            "min-threads = 1, max-threads = 10000, min-tasks = 1, target-utilization = 1.0"), cores);
+        try
+        {
+            //Half the time blocked needs twice the cores
+            assertEquals(cores * 2, autoSizer.size(cores * 2, 0.5));
+            assertEquals(cores * 2, autoSizer.size(cores * 3, 0.5));
+            //Never blocked needs a thread per core, but halves at most per run
+            assertEquals(cores * 2, autoSizer.size(cores * 4, 0.0));
+            //Nearly always blocked doubles at most per run
+            assertEquals(200, autoSizer.size(100, 0.9999));
+
+            ExecutorAutoSizer bounded = new ExecutorAutoSizer(executor, ConfigFactory.parseString(
+                "min-threads = 4, max-threads = 150, min-tasks = 1, target-utilization = 1.0"), cores);
+            assertEquals(150, bounded.size(100, 0.9999));
+            assertEquals(4, bounded.size(5, 0.0));
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+}
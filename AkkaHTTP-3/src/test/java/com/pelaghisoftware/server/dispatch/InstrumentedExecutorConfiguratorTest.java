@@ -0,0 +1,154 @@
+package com.pelaghisoftware.server.dispatch;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import com.typesafe.config.ConfigFactory;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import static akka.pattern.Patterns.ask;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the InstrumentedExecutorConfigurator class in an actor system
+ */
+public class InstrumentedExecutorConfiguratorTest
+{
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    private static ActorSystem system;
+
+    /**
+     * Starts an actor system with an instrumented thread pool dispatcher
+     * and one that only names the configurator
+     */
+    @BeforeAll
+    public static void setup()
+    {
+        system = ActorSystem.create("InstrumentedExecutorConfiguratorTest", ConfigFactory.parseString(
+            "pool-dispatcher {\n" +
+            "    executor = \"com.pelaghisoftware.server.dispatch.InstrumentedExecutorConfigurator\"\n" +
+            "    instrumented-executor {\n" +
+            "        executor = \"thread-pool-executor\"\n" +
+            "        measure-blocking = on\n" +
+            "    }\n" +
+            "    thread-pool-executor.fixed-pool-size = 3\n" +
+            "}\n" +
+            "defaults-dispatcher {\n" +
+            "    executor = \"com.pelaghisoftware.server.dispatch.InstrumentedExecutorConfigurator\"\n" +
+            "}\n" +
+            "auto-sized-fork-join-dispatcher {\n" +
+            "    executor = \"com.pelaghisoftware.server.dispatch.InstrumentedExecutorConfigurator\"\n" +
+            "    instrumented-executor.auto-size.enabled = on\n" +
+            "}").withFallback(ConfigFactory.load()));
+    }
+
+    /**
+     * Stops the actor system
+     */
+    @AfterAll
+    public static void teardown()
+    {
+        system.terminate();
+    }
+
+    /**
+     * Tests that a dispatcher's executor is instrumented with its own
+     * settings and registered with DispatcherStats
+     */
+    @Test
+    public void testDispatcherSettings() throws Exception
+    {
+        InstrumentedExecutor.Snapshot snapshot = run("pool-dispatcher");
+
+        //Threads are started as they are needed, up to the fixed size
+        assertTrue(snapshot.poolSize >= 1 && snapshot.poolSize <= 3);
+        assertTrue(snapshot.completedTasks >= 1);
+        assertTrue(snapshot.wait.count >= 1);
+        assertTrue(snapshot.blockingRatio >= 0);
+    }
+
+    /**
+     * Tests that settings a dispatcher leaves out come from the top level
+     * instrumented-executor section
+     */
+    @Test
+    public void testDefaults() throws Exception
+    {
+        InstrumentedExecutor.Snapshot snapshot = run("defaults-dispatcher");
+
+        assertTrue(snapshot.completedTasks >= 1);
+        //measure-blocking is off by default
+        assertEquals(-1, snapshot.blockingRatio);
+    }
+
+    /**
+     * Tests that only a thread pool can be auto-sized
+     */
+    @Test
+    public void testAutoSizeNeedsThreadPool()
+    {
+        assertThrows(Exception.class, () -> system.dispatchers().lookup("auto-sized-fork-join-dispatcher"));
+    }
+
+    /**
+     * Runs an actor on a dispatcher until it has answered a message
+     * @param dispatcher Id of the dispatcher
+     * @return Snapshot of the dispatcher's executor
+     * @throws Exception If the actor didn't answer
+     */
+    private static InstrumentedExecutor.Snapshot run(String dispatcher) throws Exception
+    {
+        ActorRef echo = system.actorOf(Props.create(Echo.class).withDispatcher(dispatcher));
+        assertEquals("ping", ask(echo, "ping", TIMEOUT).toCompletableFuture().get());
+        system.stop(echo);
+
+        //The reply can arrive before the task that sent it has finished
+        long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        Optional<InstrumentedExecutor.Snapshot> snapshot = snapshot(dispatcher);
+        while(snapshot.isPresent() && snapshot.get().completedTasks == 0 && System.nanoTime() < deadline)
+        {
+            Thread.sleep(10);
+            snapshot = snapshot(dispatcher);
+        }
+        assertTrue(snapshot.isPresent());
+
+        return snapshot.get();
+    }
+
+    /**
+     * Gets the snapshot of a dispatcher's executor in this actor system
+     * @param dispatcher Id of the dispatcher
+     * @return Optional. The snapshot, or empty if the executor isn't registered
+     */
+    private static Optional<InstrumentedExecutor.Snapshot> snapshot(String dispatcher)
+    {
+        return DispatcherStats.snapshot().stream()
+            .filter(executor -> executor.system.equals(system.name()) && executor.dispatcher.equals(dispatcher))
+            .findFirst();
+    }
+
+    /**
+     * Answers every message with itself
+     */
+    public static class Echo extends AbstractActor
+    {
+        /**
+         * Runs when receiving a message
+         * @return
+         */
+        @Override
+        public Receive createReceive()
+        {
+            return receiveBuilder()
+                    .matchAny(value -> getSender().tell(value, self()))
+                    .build();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.pelaghisoftware.server.dispatch;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the InstrumentedExecutor class
+ */
+public class InstrumentedExecutorTest
+{
+    /**
+     * Tests that tasks are counted as queued, active and completed, and
+     * their wait for a thread is recorded
+     */
+    @Test
+    public void testCounters() throws Exception
+    {
+        InstrumentedExecutor executor = new InstrumentedExecutor("test", "test-dispatcher", Executors.newFixedThreadPool(1), false);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try
+        {
+            //The first task holds the only thread, so the second has to wait
+            executor.execute(() ->
+            {
+                started.countDown();
+                await(release);
+            });
+            executor.execute(() -> {});
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            InstrumentedExecutor.Snapshot busy = executor.snapshot();
+            assertEquals("test-dispatcher", busy.dispatcher);
+            assertEquals(1, busy.poolSize);
+            assertEquals(1, busy.activeTasks);
+            assertEquals(1, busy.queuedTasks);
+            assertEquals(0, busy.completedTasks);
+            assertEquals(-1, busy.blockingRatio);
+
+            release.countDown();
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+            InstrumentedExecutor.Snapshot done = executor.snapshot();
+            assertEquals(0, done.activeTasks);
+            assertEquals(0, done.queuedTasks);
+            assertEquals(2, done.completedTasks);
+            assertEquals(2, done.wait.count);
+        }
+        finally
+        {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Tests that a task that sleeps counts as blocked
+     */
+    @Test
+    public void testMeasureBlocking() throws Exception
+    {
+        InstrumentedExecutor executor = new InstrumentedExecutor("test", "test-dispatcher", Executors.newFixedThreadPool(1), true);
+        executor.execute(() -> await(new CountDownLatch(1), 200));
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertEquals(1, executor.finishedTasks());
+        assertTrue(executor.snapshot().blockingRatio > 0.5);
+    }
+
+    /**
+     * Waits for a latch for up to five seconds
+     * @param latch The latch
+     */
+    private static void await(CountDownLatch latch)
+    {
+        await(latch, 5000);
+    }
+
+    /**
+     * Waits for a latch
+     * @param latch The latch
+     * @param millis Longest time to wait
+     */
+    private static void await(CountDownLatch latch, long millis)
+    {
+        try
+        {
+            latch.await(millis, TimeUnit.MILLISECONDS);
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.pelaghisoftware.server.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the LatencyHistogram class
+ */
+public class LatencyHistogramTest
+{
+    /**
+     * Tests that quantiles are reported within a bucket of the real value
+     */
+    @Test
+    public void testQuantileWithinBucket()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for(int i = 1; i <= 1000; i++)
+        {
+            histogram.record(i * 1_000_000L);
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        long median = snapshot.quantileNanos(0.5);
+        long p999 = snapshot.quantileNanos(0.999);
+
+        assertTrue(median >= 500_000_000L && median <= 500_000_000L * 1.19);
+        assertTrue(p999 >= 999_000_000L && p999 <= 999_000_000L * 1.19);
+        assertEquals(1000, snapshot.count);
+    }
+
+    /**
+     * Tests that cumulative counts are exact at powers of two of microseconds
+     */
+    @Test
+    public void testCountAtOrBelowPowerOfTwo()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1_024_000L);
+        histogram.record(1_025_000L);
+        histogram.record(100_000_000_000L);
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+        assertEquals(1, snapshot.countAtOrBelow(1_024_000L));
+        assertEquals(2, snapshot.countAtOrBelow(2_048_000L));
+        assertEquals(2, snapshot.countAtOrBelow(Long.MAX_VALUE));
+    }
+}
@@ -0,0 +1,101 @@
+package com.pelaghisoftware.server.metrics;
+
+import akka.http.javadsl.model.HttpResponse;
+import akka.http.javadsl.model.StatusCodes;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the RouteMetrics class
+ */
+public class RouteMetricsTest
+{
+    /**
+     * Tests that requests are rendered with their status class, in-flight
+     * gauge and latency histogram
+     */
+    @Test
+    public void testRender() throws Exception
+    {
+        RouteMetrics metrics = new RouteMetrics();
+        RouteMetrics.RouteStats userGet = metrics.route("user_get");
+
+        respond(userGet, HttpResponse.create().withStatus(StatusCodes.OK));
+        respond(userGet, HttpResponse.create().withStatus(StatusCodes.NOT_FOUND));
+
+        //A request that fails without a response counts as 5xx
+        CompletableFuture<HttpResponse> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IllegalStateException("failed"));
+        assertThrows(ExecutionException.class, () -> userGet.time(() -> failed).toCompletableFuture().get());
+
+        //Still running while rendering
+        CompletableFuture<HttpResponse> running = new CompletableFuture<>();
+        metrics.route("user_add").time(() -> running);
+
+        List<String> lines = Arrays.asList(metrics.render().split("\n"));
+
+        assertTrue(lines.contains("http_requests_total{route=\"user_get\",status=\"2xx\"} 1"));
+        assertTrue(lines.contains("http_requests_total{route=\"user_get\",status=\"4xx\"} 1"));
+        assertTrue(lines.contains("http_requests_total{route=\"user_get\",status=\"5xx\"} 1"));
+        assertTrue(lines.contains("http_requests_in_flight{route=\"user_add\"} 1"));
+        assertTrue(lines.contains("http_requests_in_flight{route=\"user_get\"} 0"));
+        assertTrue(lines.contains("http_request_duration_seconds_bucket{route=\"user_get\",le=\"+Inf\"} 3"));
+        assertTrue(lines.contains("http_request_duration_seconds_count{route=\"user_get\"} 3"));
+        assertTrue(lines.contains("http_request_duration_seconds_count{route=\"user_add\"} 0"));
+
+        //Routes are rendered in name order
+        assertTrue(lines.indexOf("http_requests_in_flight{route=\"user_add\"} 1")
+                   < lines.indexOf("http_requests_in_flight{route=\"user_get\"} 0"));
+    }
+
+    /**
+     * Tests that histogram buckets are cumulative and never above the count
+     */
+    @Test
+    public void testHistogramBuckets()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(100_000L);
+        histogram.record(2_000_000L);
+        histogram.record(100_000_000_000L);
+
+        StringBuilder text = new StringBuilder();
+        RouteMetrics.appendHistogram(text, "test_seconds", "", histogram.snapshot());
+        List<String> lines = Arrays.asList(text.toString().split("\n"));
+
+        long previous = 0;
+        for(String line : lines)
+        {
+            if(line.startsWith("test_seconds_bucket"))
+            {
+                long count = Long.parseLong(line.substring(line.lastIndexOf(' ') + 1));
+                assertTrue(count >= previous && count <= 3, line);
+                previous = count;
+            }
+        }
+
+        assertTrue(lines.contains("test_seconds_bucket{le=\"0.000128\"} 1"));
+        assertTrue(lines.contains("test_seconds_bucket{le=\"0.002048\"} 2"));
+        assertTrue(lines.contains("test_seconds_bucket{le=\"67.108864\"} 2"));
+        assertTrue(lines.contains("test_seconds_bucket{le=\"+Inf\"} 3"));
+        assertTrue(lines.contains("test_seconds_count 3"));
+        assertTrue(lines.contains("test_seconds_sum 100.002100"));
+    }
+
+    /**
+     * Runs a request that answers straight away
+     * @param stats Stats of the route
+     * @param response The response
+     * @throws Exception If the request failed
+     */
+    private static void respond(RouteMetrics.RouteStats stats, HttpResponse response) throws Exception
+    {
+        stats.time(() -> CompletableFuture.completedFuture(response)).toCompletableFuture().get();
+    }
+}
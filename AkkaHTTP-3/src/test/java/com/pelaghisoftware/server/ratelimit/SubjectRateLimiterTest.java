@@ -0,0 +1,99 @@
+package com.pelaghisoftware.server.ratelimit;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the SubjectRateLimiter class
+ */
+public class SubjectRateLimiterTest
+{
+    private static final long SECOND = 1_000_000_000L;
+
+    /**
+     * Tests that a subject can spend its burst and then has to wait for a refill
+     */
+    @Test
+    public void testTryAcquireLimitsBurst()
+    {
+        SubjectRateLimiter limiter = new SubjectRateLimiter(1, 3, 10, 1, 2, 2);
+
+        assertTrue(limiter.tryAcquire("Name0", 2, 0).allowed);
+        assertEquals(0, limiter.tryAcquire("Name0", 1, 0).remaining);
+
+        SubjectRateLimiter.Decision limited = limiter.tryAcquire("Name0", 2, 0);
+        assertFalse(limited.allowed);
+        assertEquals(2, limited.retryAfterSeconds);
+
+        //Other subjects have their own bucket
+        assertTrue(limiter.tryAcquire("Name1", 2, 0).allowed);
+
+        assertTrue(limiter.tryAcquire("Name0", 2, 2 * SECOND).allowed);
+    }
+
+    /**
+     * Tests that the number of tracked subjects stays bounded
+     */
+    @Test
+    public void testSubjectsAreBounded()
+    {
+        SubjectRateLimiter limiter = new SubjectRateLimiter(1, 3, 10, 1, 2, 2);
+
+        for(int i = 0; i < 100; i++)
+        {
+            limiter.tryAcquire("Name" + i, 1, 0);
+        }
+
+        assertTrue(limiter.snapshot().subjects <= 10);
+    }
+
+    /**
+     * Tests that eviction drops refilled buckets before ones still in use
+     */
+    @Test
+    public void testEvictionKeepsBucketsInUse()
+    {
+        SubjectRateLimiter limiter = new SubjectRateLimiter(1, 3, 10, 1, 2, 2);
+
+        assertTrue(limiter.tryAcquire("Name0", 3, 0).allowed);
+        for(int i = 1; i < 10; i++)
+        {
+            limiter.tryAcquire("Name" + i, 1, 0);
+        }
+
+        //Every bucket but Name0's has refilled, so a new subject evicts those
+        assertTrue(limiter.tryAcquire("Name10", 1, 3 * SECOND / 2).allowed);
+        assertEquals(2, limiter.snapshot().subjects);
+        assertEquals(0, limiter.snapshot().evicted);
+
+        assertFalse(limiter.tryAcquire("Name0", 2, 3 * SECOND / 2).allowed);
+    }
+
+    /**
+     * Tests that a cost the burst can never cover is refused
+     */
+    @Test
+    public void testCostAboveBurst()
+    {
+        assertThrows(IllegalArgumentException.class, () -> new SubjectRateLimiter(1, 3, 10, 1, 4, 2));
+        assertThrows(IllegalArgumentException.class, () -> new SubjectRateLimiter(1, 3, 10, 1, 2, 4));
+    }
+
+    /**
+     * Tests that lookups by name cost a read per name, capped at a bulk read
+     */
+    @Test
+    public void testLookupCost()
+    {
+        SubjectRateLimiter limiter = new SubjectRateLimiter(20, 40, 10, 1, 5, 5);
+
+        assertEquals(1, limiter.lookupCost(0));
+        assertEquals(1, limiter.lookupCost(1));
+        assertEquals(3, limiter.lookupCost(3));
+        assertEquals(5, limiter.lookupCost(100));
+    }
+}
@@ -0,0 +1,223 @@
+package com.pelaghisoftware.server.routes;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.http.javadsl.model.ContentTypes;
+import akka.http.javadsl.model.HttpRequest;
+import akka.http.javadsl.model.HttpResponse;
+import akka.http.javadsl.model.StatusCodes;
+import akka.http.javadsl.server.Route;
+import akka.stream.ActorMaterializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import com.pelaghisoftware.data.actors.operations.DBOperations;
+import com.pelaghisoftware.data.breaker.DatabaseBreaker;
+import com.pelaghisoftware.data.coalescing.UserLookups;
+import com.pelaghisoftware.data.entity.User;
+import com.pelaghisoftware.data.limit.AdaptiveLimiter;
+import com.pelaghisoftware.server.actors.ResponseResolver;
+import com.pelaghisoftware.server.config.OperationTimeouts;
+import com.pelaghisoftware.server.metrics.RouteMetrics;
+import com.pelaghisoftware.server.trace.RequestTracer;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the GET /user?names= and POST /user/lookup routes of the
+ * UserRoutes class. Authentication is left out by not giving the routes
+ * an auth actor.
+ */
+public class UserRoutesTest
+{
+    private static final int MAX_NAMES = 3;
+
+    private ActorSystem system;
+    private ActorMaterializer materializer;
+    private Route route;
+
+    //userNames of each GetEntities the accessor got, in order
+    private final List<List<String>> lookups = new CopyOnWriteArrayList<>();
+
+    /**
+     * Builds the routes in front of a stub user accessor
+     */
+    @BeforeEach
+    public void setup()
+    {
+        Config config = ConfigFactory.load();
+        system = ActorSystem.create("UserRoutesTest");
+        materializer = ActorMaterializer.create(system);
+
+        ActorRef userAccessor = system.actorOf(Props.create(StubAccessor.class, () -> new StubAccessor(lookups)));
+        ActorRef responseResolver = system.actorOf(ResponseResolver.props());
+        DatabaseBreaker databaseBreaker = new DatabaseBreaker(system,
+                                                              config.getConfig("database-breaker"),
+                                                              new AdaptiveLimiter(config.getConfig("database-limiter")));
+
+        route = new UserRoutes(null,
+                               userAccessor,
+                               responseResolver,
+                               new OperationTimeouts(config.getConfig("timeouts")),
+                               databaseBreaker,
+                               new UserLookups(userAccessor, databaseBreaker),
+                               MAX_NAMES,
+                               Optional.empty(),
+                               new RouteMetrics(),
+                               new RequestTracer(config.getConfig("tracing"))).getUserRoutes();
+    }
+
+    /**
+     * Stops the actor system
+     */
+    @AfterEach
+    public void teardown()
+    {
+        system.terminate();
+    }
+
+    /**
+     * Tests that blank and repeated names are dropped from the query
+     * string before the lookup, keeping the requested order
+     */
+    @Test
+    public void testGetBlanksAndDuplicates() throws Exception
+    {
+        HttpResponse response = run(HttpRequest.GET("/user?names=user2,,user1,%20user2%20,user3,user1,"));
+
+        assertEquals(StatusCodes.OK, response.status());
+        assertEquals(Collections.singletonList(Arrays.asList("user2", "user1", "user3")), lookups);
+        assertTrue(body(response).contains("user3"));
+    }
+
+    /**
+     * Tests that a query string with more names than allowed is refused
+     * without a lookup, while repeats don't count towards the limit
+     */
+    @Test
+    public void testGetTooManyNames() throws Exception
+    {
+        assertEquals(StatusCodes.BAD_REQUEST, run(HttpRequest.GET("/user?names=user1,user2,user3,user4")).status());
+        assertTrue(lookups.isEmpty());
+
+        assertEquals(StatusCodes.OK, run(HttpRequest.GET("/user?names=user1,user2,user3,user1,user2")).status());
+        assertEquals(Collections.singletonList(Arrays.asList("user1", "user2", "user3")), lookups);
+    }
+
+    /**
+     * Tests that nulls, blanks and repeats in a lookup body are dropped
+     */
+    @Test
+    public void testLookupNullsBlanksAndDuplicates() throws Exception
+    {
+        HttpResponse response = run(lookup("[\"user1\", null, \" \", \"\", \" user1\", \"missing\", null]"));
+
+        assertEquals(StatusCodes.OK, response.status());
+        assertEquals(Collections.singletonList(Arrays.asList("user1", "missing")), lookups);
+    }
+
+    /**
+     * Tests that a lookup body with more names than allowed is refused
+     * without a lookup
+     */
+    @Test
+    public void testLookupTooManyNames() throws Exception
+    {
+        assertEquals(StatusCodes.BAD_REQUEST, run(lookup("[\"user1\", \"user2\", \"user3\", \"user4\"]")).status());
+        assertTrue(lookups.isEmpty());
+    }
+
+    /**
+     * Creates a POST /user/lookup request
+     * @param names JSON array of names
+     * @return HttpRequest. The request
+     */
+    private static HttpRequest lookup(String names)
+    {
+        return HttpRequest.POST("/user/lookup").withEntity(ContentTypes.APPLICATION_JSON, names);
+    }
+
+    /**
+     * Runs a request through the routes
+     * @param request The request
+     * @return HttpResponse. The response
+     * @throws Exception If there was no response in time
+     */
+    private HttpResponse run(HttpRequest request) throws Exception
+    {
+        return Source.single(request)
+            .via(route.flow(system, materializer))
+            .runWith(Sink.head(), materializer)
+            .toCompletableFuture()
+            .get(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Reads the body of a response
+     * @param response The response
+     * @return String. The body
+     * @throws Exception If the body couldn't be read in time
+     */
+    private String body(HttpResponse response) throws Exception
+    {
+        return response.entity()
+            .toStrict(5000, materializer)
+            .toCompletableFuture()
+            .get(5, TimeUnit.SECONDS)
+            .getData()
+            .utf8String();
+    }
+
+    /**
+     * Stands in for the SiteUserAccessor. Knows every user whose name
+     * starts with "user".
+     */
+    public static class StubAccessor extends AbstractActor
+    {
+        private final List<List<String>> lookups;
+
+        /**
+         * Constructor
+         * @param lookups Where the userNames of each lookup are recorded
+         */
+        public StubAccessor(List<List<String>> lookups)
+        {
+            this.lookups = lookups;
+        }
+
+        /**
+         * Runs when receiving a message
+         * @return
+         */
+        @Override
+        public Receive createReceive()
+        {
+            return receiveBuilder()
+                    .match(DBOperations.GetEntities.class, value ->
+                    {
+                        lookups.add(new ArrayList<>(value.ids));
+
+                        List<User> found = new ArrayList<>();
+                        value.ids.stream()
+                            .filter(id -> id.startsWith("user"))
+                            .forEach(id -> found.add(new User(id, "password")));
+                        getSender().tell(new DBOperations.GetEntities(value.batchId, value.ids, found), self());
+                    })
+                    .build();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.pelaghisoftware.server.trace;
+
+import akka.http.javadsl.model.HttpResponse;
+import akka.http.javadsl.model.headers.RawHeader;
+import com.pelaghisoftware.data.actors.operations.DBOperations;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the RequestTrace class
+ */
+public class RequestTraceTest
+{
+    /**
+     * Tests that finished stages and timings already on the response end
+     * up in a single Server-Timing header
+     */
+    @Test
+    public void testFinishMergesServerTiming()
+    {
+        RequestTrace trace = new RequestTrace("user_get", "abc");
+        trace.stage("db", () -> CompletableFuture.completedFuture("done"));
+        trace.record("respond", 2_000_000L);
+
+        HttpResponse response = HttpResponse.create()
+            .addHeader(RawHeader.create(RequestTrace.SERVER_TIMING, "serialize;dur=0.050"));
+
+        HttpResponse finished = trace.finish(response, 5_000_000L);
+        String timing = finished.getHeader(RequestTrace.SERVER_TIMING).get().value();
+
+        assertTrue(timing.startsWith("db;dur="));
+        assertTrue(timing.endsWith("respond;dur=2.000, total;dur=5.000, serialize;dur=0.050"));
+        assertEquals("abc", finished.getHeader(RequestTrace.TRACE_ID_HEADER).get().value());
+    }
+
+    /**
+     * Tests that tagged messages carry the trace ID
+     */
+    @Test
+    public void testTagSetsTraceId()
+    {
+        RequestTrace trace = new RequestTrace("user_get_all");
+
+        DBOperations.GetAllEntities message = trace.tag(new DBOperations.GetAllEntities());
+
+        assertEquals(trace.id, message.traceId);
+        assertEquals(16, trace.id.length());
+    }
+}
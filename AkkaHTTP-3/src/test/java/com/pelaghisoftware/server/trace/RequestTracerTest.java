@@ -0,0 +1,38 @@
+package com.pelaghisoftware.server.trace;
+
+import akka.http.javadsl.model.HttpResponse;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the RequestTracer class
+ */
+public class RequestTracerTest
+{
+    /**
+     * Tests that a handler throwing, like a blocking auth check that timed
+     * out, fails the returned stage instead of escaping the trace
+     */
+    @Test
+    public void testThrowingHandlerFailsStage() throws Exception
+    {
+        RequestTracer tracer = new RequestTracer(Duration.ZERO);
+        CompletionException timeout = new CompletionException(new IllegalStateException("auth timed out"));
+
+        CompletionStage<HttpResponse> response = tracer.trace("user_get", trace ->
+        {
+            throw timeout;
+        });
+
+        ExecutionException error = assertThrows(ExecutionException.class,
+                                                () -> response.toCompletableFuture().get(5, TimeUnit.SECONDS));
+        assertTrue(error.getCause() instanceof IllegalStateException);
+    }
+}